@@ -0,0 +1,398 @@
+package ch.elste.math;
+
+import java.io.IOException;
+
+/**
+ * An affine transformation in 3 dimensions, made of a 3 by 3 linear part and a
+ * translation. It is equal to a {@link Matrix4x4} whose last row is
+ * {@code 0 0 0 1} but stores only the 12 meaningful values, and composing two
+ * transformations takes 36 instead of 64 multiplications.
+ * <p>
+ * The values are stored row by row as a 3 by 4 matrix, so the translation is
+ * found at indices 3, 7 and 11.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class Affine3 {
+	/**
+	 * The identity transformation.
+	 */
+	public static final Affine3 I = new Affine3();
+
+	/**
+	 * The entries of the 3 by 4 matrix.
+	 */
+	public double[] values;
+
+	/**
+	 * Creates a new transformation with given values.
+	 *
+	 * @param values the 12 values of the 3 by 4 matrix, row by row
+	 *
+	 * @throws IllegalArgumentException if {@code values.length} is not equal to 12
+	 */
+	public Affine3(double... values) {
+		if (values.length != 12)
+			throw new IllegalArgumentException("There have to be 12 values!");
+
+		this.values = values;
+	}
+
+	/**
+	 * Creates a new transformation with the linear part {@code m} followed by the
+	 * translation {@code t}.
+	 *
+	 * @param m the linear part
+	 * @param t the translation
+	 */
+	public Affine3(Matrix3x3 m, Vector3 t) {
+		double[] a = m.values;
+		values = new double[] { a[0], a[1], a[2], t.x, a[3], a[4], a[5], t.y, a[6], a[7], a[8], t.z };
+	}
+
+	/**
+	 * Creates a new transformation initialized with the identity.
+	 */
+	public Affine3() {
+		values = new double[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0 };
+	}
+
+	/**
+	 * Creates a new transformation from {@code m}.
+	 *
+	 * @param m an affine matrix
+	 *
+	 * @return a new independent transformation
+	 *
+	 * @throws IllegalArgumentException if the last row of {@code m} is not
+	 *                                  {@code 0 0 0 1}
+	 */
+	public static Affine3 fromMatrix(Matrix4x4 m) {
+		double[] a = m.values;
+		if (a[12] != 0 || a[13] != 0 || a[14] != 0 || a[15] != 1)
+			throw new IllegalArgumentException("The last row of an affine matrix has to be 0 0 0 1");
+
+		double[] temp = new double[12];
+		System.arraycopy(a, 0, temp, 0, 12);
+
+		return new Affine3(temp);
+	}
+
+	/**
+	 * Returns this transformation as a new 4 by 4 matrix.
+	 *
+	 * @return a new independent matrix
+	 */
+	public Matrix4x4 toMatrix() {
+		return toMatrix(new Matrix4x4());
+	}
+
+	/**
+	 * Writes this transformation into {@code m}.
+	 *
+	 * @param m the matrix to write to
+	 *
+	 * @return {@code m}
+	 */
+	public Matrix4x4 toMatrix(Matrix4x4 m) {
+		System.arraycopy(values, 0, m.values, 0, 12);
+		m.values[12] = 0;
+		m.values[13] = 0;
+		m.values[14] = 0;
+		m.values[15] = 1;
+
+		return m;
+	}
+
+	/**
+	 * Composes {@code this} with {@code a}, so that the result applies {@code a}
+	 * first. Neither is changed.
+	 *
+	 * @param a the transformation applied first
+	 *
+	 * @return a new independent transformation
+	 */
+	public Affine3 mult(Affine3 a) {
+		return mult(this, a, new Affine3());
+	}
+
+	/**
+	 * Composes {@code a1} with {@code a2} into {@code dst}, so that the result
+	 * applies {@code a2} first. {@code dst} may be the same object as {@code a1}
+	 * or {@code a2}.
+	 *
+	 * @param a1  the transformation applied last
+	 * @param a2  the transformation applied first
+	 * @param dst the transformation to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public static Affine3 mult(Affine3 a1, Affine3 a2, Affine3 dst) {
+		final double[] a = a1.values, b = a2.values;
+		final double b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3];
+		final double b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7];
+		final double b8 = b[8], b9 = b[9], b10 = b[10], b11 = b[11];
+		final double[] d = dst.values;
+
+		for (int r = 0; r < 12; r += 4) {
+			final double x = a[r], y = a[r + 1], z = a[r + 2], t = a[r + 3];
+			d[r] = x * b0 + y * b4 + z * b8;
+			d[r + 1] = x * b1 + y * b5 + z * b9;
+			d[r + 2] = x * b2 + y * b6 + z * b10;
+			d[r + 3] = x * b3 + y * b7 + z * b11 + t;
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Returns the inverse of this transformation without changing it.
+	 *
+	 * @return a new independent transformation
+	 *
+	 * @throws IllegalArgumentException if the linear part is singular
+	 */
+	public Affine3 inverse() {
+		return invert(this, new Affine3());
+	}
+
+	/**
+	 * Writes the inverse of {@code a} into {@code dst}. {@code dst} may be the
+	 * same object as {@code a}.
+	 *
+	 * @param a   the transformation to invert
+	 * @param dst the transformation to write to
+	 *
+	 * @return {@code dst}
+	 *
+	 * @throws IllegalArgumentException if the linear part is singular
+	 */
+	public static Affine3 invert(Affine3 a, Affine3 dst) {
+		final double[] v = a.values;
+		final double m00 = v[0], m01 = v[1], m02 = v[2], tx = v[3];
+		final double m10 = v[4], m11 = v[5], m12 = v[6], ty = v[7];
+		final double m20 = v[8], m21 = v[9], m22 = v[10], tz = v[11];
+
+		final double c00 = m11 * m22 - m12 * m21;
+		final double c01 = m12 * m20 - m10 * m22;
+		final double c02 = m10 * m21 - m11 * m20;
+		final double det = m00 * c00 + m01 * c01 + m02 * c02;
+		if (det == 0 || Double.isNaN(det))
+			throw new IllegalArgumentException("The transformation is not invertible");
+
+		final double inv = 1 / det;
+		final double i00 = c00 * inv;
+		final double i01 = (m02 * m21 - m01 * m22) * inv;
+		final double i02 = (m01 * m12 - m02 * m11) * inv;
+		final double i10 = c01 * inv;
+		final double i11 = (m00 * m22 - m02 * m20) * inv;
+		final double i12 = (m02 * m10 - m00 * m12) * inv;
+		final double i20 = c02 * inv;
+		final double i21 = (m01 * m20 - m00 * m21) * inv;
+		final double i22 = (m00 * m11 - m01 * m10) * inv;
+		final double[] d = dst.values;
+
+		d[0] = i00;
+		d[1] = i01;
+		d[2] = i02;
+		d[3] = -(i00 * tx + i01 * ty + i02 * tz);
+		d[4] = i10;
+		d[5] = i11;
+		d[6] = i12;
+		d[7] = -(i10 * tx + i11 * ty + i12 * tz);
+		d[8] = i20;
+		d[9] = i21;
+		d[10] = i22;
+		d[11] = -(i20 * tx + i21 * ty + i22 * tz);
+
+		return dst;
+	}
+
+	/**
+	 * Transforms the point {@code v}, including the translation.
+	 *
+	 * @param v the point to transform
+	 *
+	 * @return a new vector with the resulting values
+	 */
+	public Vector3 transformPoint(Vector3 v) {
+		return transformPoint(v, new Vector3());
+	}
+
+	/**
+	 * Transforms the point {@code v}, including the translation, into {@code dst}.
+	 * {@code dst} may be the same object as {@code v}.
+	 *
+	 * @param v   the point to transform
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 transformPoint(Vector3 v, Vector3 dst) {
+		final double[] a = values;
+		final double x = v.x, y = v.y, z = v.z;
+		dst.x = a[0] * x + a[1] * y + a[2] * z + a[3];
+		dst.y = a[4] * x + a[5] * y + a[6] * z + a[7];
+		dst.z = a[8] * x + a[9] * y + a[10] * z + a[11];
+
+		return dst;
+	}
+
+	/**
+	 * Transforms the direction {@code v}, ignoring the translation.
+	 *
+	 * @param v the direction to transform
+	 *
+	 * @return a new vector with the resulting values
+	 */
+	public Vector3 transformDirection(Vector3 v) {
+		return transformDirection(v, new Vector3());
+	}
+
+	/**
+	 * Transforms the direction {@code v}, ignoring the translation, into
+	 * {@code dst}. {@code dst} may be the same object as {@code v}.
+	 *
+	 * @param v   the direction to transform
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 transformDirection(Vector3 v, Vector3 dst) {
+		final double[] a = values;
+		final double x = v.x, y = v.y, z = v.z;
+		dst.x = a[0] * x + a[1] * y + a[2] * z;
+		dst.y = a[4] * x + a[5] * y + a[6] * z;
+		dst.z = a[8] * x + a[9] * y + a[10] * z;
+
+		return dst;
+	}
+
+	/**
+	 * Transforms {@code count} packed points of {@code src} into {@code dst}.
+	 * {@code src} and {@code dst} may be the same array at the same offset.
+	 *
+	 * @param src       the packed points, 3 values each
+	 * @param srcOffset the index of the first value in {@code src}
+	 * @param dst       the packed destination
+	 * @param dstOffset the index of the first value in {@code dst}
+	 * @param count     the number of points
+	 */
+	public void transformPoints(double[] src, int srcOffset, double[] dst, int dstOffset, int count) {
+		final double[] a = values;
+		final double a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3];
+		final double a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7];
+		final double a8 = a[8], a9 = a[9], a10 = a[10], a11 = a[11];
+
+		for (int i = 0; i < count; i++) {
+			int s = srcOffset + i * 3, d = dstOffset + i * 3;
+			double x = src[s], y = src[s + 1], z = src[s + 2];
+			dst[d] = a0 * x + a1 * y + a2 * z + a3;
+			dst[d + 1] = a4 * x + a5 * y + a6 * z + a7;
+			dst[d + 2] = a8 * x + a9 * y + a10 * z + a11;
+		}
+	}
+
+	/**
+	 * Transforms {@code count} packed directions of {@code src} into {@code dst},
+	 * ignoring the translation. {@code src} and {@code dst} may be the same array
+	 * at the same offset.
+	 *
+	 * @param src       the packed directions, 3 values each
+	 * @param srcOffset the index of the first value in {@code src}
+	 * @param dst       the packed destination
+	 * @param dstOffset the index of the first value in {@code dst}
+	 * @param count     the number of directions
+	 */
+	public void transformDirections(double[] src, int srcOffset, double[] dst, int dstOffset, int count) {
+		final double[] a = values;
+		final double a0 = a[0], a1 = a[1], a2 = a[2];
+		final double a4 = a[4], a5 = a[5], a6 = a[6];
+		final double a8 = a[8], a9 = a[9], a10 = a[10];
+
+		for (int i = 0; i < count; i++) {
+			int s = srcOffset + i * 3, d = dstOffset + i * 3;
+			double x = src[s], y = src[s + 1], z = src[s + 2];
+			dst[d] = a0 * x + a1 * y + a2 * z;
+			dst[d + 1] = a4 * x + a5 * y + a6 * z;
+			dst[d + 2] = a8 * x + a9 * y + a10 * z;
+		}
+	}
+
+	/**
+	 * Sets the value at {@code row, column} of the 3 by 4 matrix to
+	 * {@code value}.
+	 *
+	 * @param row    the row
+	 * @param column the column, 3 being the translation
+	 * @param value  the new value
+	 *
+	 * @throws IllegalArgumentException if {@code row} is not between 0 and 2 or
+	 *                                  {@code column} is not between 0 and 3
+	 */
+	public void set(int row, int column, double value) {
+		if (row > 2 || row < 0 || column > 3 || column < 0)
+			throw new IllegalArgumentException("row must be between 0 and 2 and column between 0 and 3");
+
+		values[row * 4 + column] = value;
+	}
+
+	/**
+	 * Returns the value at {@code row, column} of the 3 by 4 matrix.
+	 *
+	 * @param row    the row
+	 * @param column the column, 3 being the translation
+	 *
+	 * @return the specified value
+	 *
+	 * @throws IllegalArgumentException if {@code row} is not between 0 and 2 or
+	 *                                  {@code column} is not between 0 and 3
+	 */
+	public double get(int row, int column) {
+		if (row > 2 || row < 0 || column > 3 || column < 0)
+			throw new IllegalArgumentException("row must be between 0 and 2 and column between 0 and 3");
+
+		return values[row * 4 + column];
+	}
+
+	/**
+	 * Appends the 12 values of this transformation row by row, separated by
+	 * commas, to {@code sb} without creating garbage.
+	 *
+	 * @param sb        the builder to append to
+	 * @param precision the number of fraction digits
+	 *
+	 * @return {@code sb}
+	 */
+	public StringBuilder appendTo(StringBuilder sb, int precision) {
+		return TextFormat.appendAll(sb, values, 0, 12, precision, ',');
+	}
+
+	/**
+	 * Appends the 12 values of this transformation row by row, separated by
+	 * commas, to {@code out}.
+	 *
+	 * @param out       the appendable to append to
+	 * @param precision the number of fraction digits
+	 *
+	 * @return {@code out}
+	 *
+	 * @throws IOException if {@code out} throws it
+	 */
+	public Appendable appendTo(Appendable out, int precision) throws IOException {
+		return TextFormat.appendAll(out, values, 0, 12, precision, ',');
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(160).append("Affine:@").append(Integer.toHexString(hashCode()));
+		for (int i = 0; i < 12; i++) {
+			if (i % 4 == 0)
+				sb.append(System.lineSeparator());
+			TextFormat.appendFixed(sb, values[i], 3, 5).append(i % 4 < 3 ? "\t" : "");
+		}
+
+		return sb.append(System.lineSeparator()).toString();
+	}
+}
@@ -0,0 +1,194 @@
+package ch.elste.math;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Guards the allocation-free forms of {@link Matrix}, {@link Matrix4x4},
+ * {@link Vector} and {@link Vector3} against regressions. Every operation is
+ * warmed up until the JIT has compiled it, then run many times while the bytes
+ * allocated by the current thread are counted. Allocation-free operations must
+ * not allocate at all; the allocating forms are only reported in bytes per
+ * operation, as escape analysis may remove some of their allocations.
+ * <p>
+ * Usage: {@code java ch.elste.math.AllocationCheck [runs]}. The exit code is 1
+ * if an allocation-free operation allocated and 2 if the JVM cannot count
+ * allocations.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class AllocationCheck {
+	/**
+	 * The number of bytes an allocation-free operation may allocate over all runs
+	 * of one measurement, to ignore one-time allocations of the JVM itself.
+	 */
+	private static final long TOLERANCE = 1024;
+
+	private static final int WARMUP = 200_000;
+
+	/**
+	 * The number of measurements before an allocation-free operation fails.
+	 */
+	private static final int ATTEMPTS = 3;
+
+	/**
+	 * Collects the results so the JIT cannot remove the operations.
+	 */
+	private static double sink;
+
+	private final ThreadMXBean threads;
+	private final int runs;
+	private int failures;
+
+	private final Matrix4x4 a4 = new Matrix4x4().setEuler(0.3, 0.2, 0.1);
+	private final Matrix4x4 b4 = new Matrix4x4().setTranslation(1, 2, 3), c4 = new Matrix4x4();
+	private final Matrix3x3 a3 = new Matrix3x3(1, 2, 3, 4, 5, 6, 7, 8, 10);
+	private final Matrix3x3 b3 = new Matrix3x3(2, 0, 1, 0, 3, 0, 1, 0, 4), c3 = new Matrix3x3();
+	private final Matrix2x2 a2 = new Matrix2x2(1, 2, 3, 4), b2 = new Matrix2x2(0, 1, -1, 2), c2 = new Matrix2x2();
+	private final Vector4 u4 = new Vector4(1, 2, 3, 1), v4 = new Vector4(4, 5, 6, 0), w4 = new Vector4();
+	private final Vector3 u3 = new Vector3(1, 2, 3), v3 = new Vector3(-2, 0.5, 4), w3 = new Vector3();
+	private final MatrixArray array4 = new MatrixArray(4, 1, Matrix.Layout.COLUMN_MAJOR);
+	private final double[] points4 = { 1, 2, 3, 1, 4, 5, 6, 1 }, transformed4 = new double[8];
+	private final double[] copy4 = new double[16];
+	private final StringBuilder text = new StringBuilder(256);
+
+	/**
+	 * An operation to measure.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+		/**
+		 * Runs the operation once.
+		 *
+		 * @return a value depending on the result, to keep the operation alive
+		 */
+		double run();
+	}
+
+	private AllocationCheck(ThreadMXBean threads, int runs) {
+		this.threads = threads;
+		this.runs = runs;
+		array4.set(0, Matrix.mult(a4, b4));
+	}
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the number of runs per operation, optional
+	 */
+	public static void main(String[] args) {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof ThreadMXBean) || !((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM cannot count the bytes allocated by a thread");
+			System.exit(2);
+		}
+		final ThreadMXBean threads = (ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		AllocationCheck check = new AllocationCheck(threads, args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+		check.run();
+
+		if (check.failures > 0) {
+			System.err.println(check.failures + " allocation-free operations allocated");
+			System.exit(1);
+		}
+		System.out.println("All allocation-free operations are free of allocations");
+	}
+
+	private void run() {
+		System.out.println("allocation-free:");
+		free("Matrix.mult(Matrix4x4, Matrix4x4, dst)", () -> Matrix.mult(a4, b4, c4).values[3]);
+		free("Matrix.mult(Matrix3x3, Matrix3x3, dst)", () -> Matrix.mult(a3, b3, c3).values[4]);
+		free("Matrix.mult(Matrix4x4, Vector4, dst)", () -> Matrix.mult(a4, u4, w4).x);
+		free("Matrix.mult(Matrix3x3, Vector3, dst)", () -> Matrix.mult(a3, u3, w3).y);
+		free("Matrix.mult(Matrix2x2, Matrix2x2, dst)", () -> Matrix.mult(a2, b2, c2).values[1]);
+		free("Matrix.appendTo(StringBuilder, int)", () -> {
+			text.setLength(0);
+			return a4.appendTo(text, 3).length();
+		});
+		free("Matrix4x4.get", () -> a4.get(2, 1));
+		free("Matrix4x4.set(row, column, value)", () -> {
+			c4.set(1, 2, 0.5);
+			return c4.values[6];
+		});
+		free("Matrix4x4.setIdentity", () -> c4.setIdentity().values[0]);
+		free("Matrix4x4.setTranslation", () -> c4.setTranslation(1, 2, 3).values[3]);
+		free("Matrix4x4.setScale", () -> c4.setScale(1, 2, 3).values[5]);
+		free("Matrix4x4.setRotation", () -> c4.setRotation(1, 2, 3, 0.5).values[1]);
+		free("Matrix4x4.setEuler", () -> c4.setEuler(0.3, 0.2, 0.1).values[2]);
+		free("Matrix4x4.setTRS", () -> c4.setTRS(u3, u4, v3).values[0]);
+		free("Matrix4x4.setLookAt", () -> c4.setLookAt(u3, v3, Vector3.Z).values[5]);
+		free("Matrix4x4.setPerspective", () -> c4.setPerspective(1, 1.5, 0.1, 100).values[10]);
+		free("Matrix4x4.setOrthographic", () -> c4.setOrthographic(-1, 1, -2, 2, 0.1, 100).values[11]);
+		free("Vector.add(Vector3, Vector3, dst)", () -> Vector.add(u3, v3, w3).x);
+		free("Vector.add(Vector4, Vector4, dst)", () -> Vector.add(u4, v4, w4).y);
+		free("Vector.subtract(Vector4, Vector4, dst)", () -> Vector.subtract(u4, v4, w4).w);
+		free("Vector.scale(Vector3, double, dst)", () -> Vector.scale(u3, 0.5, w3).z);
+		free("Vector.scale(Vector4, double, dst)", () -> Vector.scale(u4, 0.5, w4).z);
+		free("Vector.cross(Vector3, Vector3, dst)", () -> Vector.cross(u3, v3, w3).y);
+		free("Vector.normalize(Vector3, dst)", () -> Vector.normalize(v3, w3).x);
+		free("Vector.normalize(Vector4, dst)", () -> Vector.normalize(v4, w4).x);
+		free("Vector.dot(Vector4, Vector4)", () -> Vector.dot(u4, v4));
+		free("Vector3.dot", () -> u3.dot(v3));
+		free("Vector3.length", () -> v3.length());
+		free("Vector3.appendTo(StringBuilder, int)", () -> {
+			text.setLength(0);
+			return v3.appendTo(text, 3).length();
+		});
+		free("MatrixArray.transform (4x4)", () -> {
+			array4.transform(0, points4, 0, transformed4, 0, 2);
+			return transformed4[5];
+		});
+		free("Matrix4x4.copyTo(COLUMN_MAJOR)", () -> b4.copyTo(Matrix.Layout.COLUMN_MAJOR, copy4, 0)[3]);
+
+		System.out.println("allocating:");
+		allocating("Matrix.mult(Matrix4x4, Matrix4x4)", () -> Matrix.mult(a4, b4).values[3]);
+		allocating("Matrix4x4.mult(Matrix4x4)", () -> a4.mult(b4).values[3]);
+		allocating("Matrix4x4.mult(Vector4)", () -> a4.mult(u4).y);
+		allocating("Matrix4x4.add", () -> a4.add(b4).values[5]);
+		allocating("Matrix4x4.scale", () -> a4.scale(2).values[5]);
+		allocating("Matrix4x4.pow(5)", () -> a4.pow(5).values[0]);
+		allocating("Vector3.plus", () -> u3.plus(v3).x);
+		allocating("Vector3.cross", () -> u3.cross(v3).z);
+		allocating("Vector3.normalize", () -> v3.normalize().y);
+	}
+
+	private void free(String name, Operation op) {
+		// the JIT may allocate once while it replaces the loop, a regression
+		// allocates on every attempt
+		double bytes = measure(op);
+		for (int attempt = 1; attempt < ATTEMPTS && bytes * runs > TOLERANCE; attempt++) {
+			bytes = measure(op);
+		}
+		final boolean failed = bytes * runs > TOLERANCE;
+		if (failed)
+			failures++;
+
+		System.out.printf("  %-42s %8.1f bytes/op%s%n", name, bytes, failed ? "  FAILED" : "");
+	}
+
+	private void allocating(String name, Operation op) {
+		System.out.printf("  %-42s %8.1f bytes/op%n", name, measure(op));
+	}
+
+	/**
+	 * Returns the bytes allocated per run of {@code op}.
+	 */
+	private double measure(Operation op) {
+		double sum = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			sum += op.run();
+		}
+
+		final long start = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < runs; i++) {
+			sum += op.run();
+		}
+		final long bytes = threads.getCurrentThreadAllocatedBytes() - start;
+		sink += sum;
+
+		return bytes / (double) runs;
+	}
+}
@@ -0,0 +1,83 @@
+package ch.elste.math;
+
+import java.util.SplittableRandom;
+
+import ch.elste.math.PairwiseDistances.Metric;
+
+/**
+ * Compares the recall and the queries per second of an {@link LshIndex} with
+ * brute force search on clustered random data.
+ * <p>
+ * Usage: {@code java ch.elste.math.AnnBenchmark [n] [d] [tables] [bits]}
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class AnnBenchmark {
+	private AnnBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the number of vectors, the dimension, the number of tables and
+	 *             the number of bits, all optional
+	 */
+	public static void main(String[] args) {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		final int d = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+		final int tables = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+		final int bits = args.length > 3 ? Integer.parseInt(args[3])
+				: Math.max(1, 31 - Integer.numberOfLeadingZeros(n) - 4);
+		final int queries = 200, k = 10;
+
+		SplittableRandom random = new SplittableRandom(42);
+		double[] data = clustered(random, n, d);
+		double[] query = clustered(random, queries, d);
+
+		long start = System.nanoTime();
+		LshIndex index = new LshIndex(data, n, d, Metric.EUCLIDEAN, tables, bits, 7);
+		System.out.printf("build: %.1f ms (n=%d, d=%d, tables=%d, bits=%d)%n", (System.nanoTime() - start) / 1e6, n,
+				d, tables, bits);
+
+		int[] ids = new int[k];
+		start = System.nanoTime();
+		for (int q = 0; q < queries; q++) {
+			index.exactSearch(query, q * d, k, ids, null);
+		}
+		System.out.printf("brute force: %.0f queries/s%n", queries / ((System.nanoTime() - start) / 1e9));
+
+		for (int probes : new int[] { 0, 1, 2, 4, 8 }) {
+			LshIndex.Searcher searcher = index.newSearcher(probes);
+			start = System.nanoTime();
+			for (int q = 0; q < queries; q++) {
+				searcher.search(query, q * d, k, ids, null);
+			}
+			double qps = queries / ((System.nanoTime() - start) / 1e9);
+			System.out.printf("probes=%d: recall@%d %.3f, %.0f queries/s%n", probes, k,
+					index.recall(query, queries, k, probes), qps);
+		}
+	}
+
+	/**
+	 * Returns {@code n} points scattered around 1024 random centers, which is
+	 * closer to real embeddings than uniform noise.
+	 */
+	private static double[] clustered(SplittableRandom random, int n, int d) {
+		SplittableRandom centers = new SplittableRandom(1);
+		double[] c = new double[1024 * d];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = centers.nextDouble(-1, 1);
+		}
+
+		double[] temp = new double[n * d];
+		for (int i = 0; i < n; i++) {
+			int cluster = random.nextInt(1024);
+			for (int k = 0; k < d; k++) {
+				temp[i * d + k] = c[cluster * d + k] + 0.5 * (random.nextDouble() - 0.5);
+			}
+		}
+
+		return temp;
+	}
+}
@@ -0,0 +1,269 @@
+package ch.elste.math;
+
+/**
+ * A square band matrix, which only stores the {@code lower} diagonals below
+ * and the {@code upper} diagonals above the main diagonal. Row {@code i} is
+ * stored in {@link #values} at index {@code i * width()}, starting with column
+ * {@code i - lower}; values outside the matrix are kept at 0. A band matrix
+ * with {@code n} rows takes {@code n * (lower + upper + 1)} values instead of
+ * {@code n * n}, and multiplying and solving take time linear in {@code n}.
+ * <p>
+ * {@link #decompose()} replaces the values with an LU decomposition without
+ * pivoting, which keeps the band structure. It is stable for diagonally
+ * dominant and symmetric positive definite matrices. For tridiagonal matrices
+ * {@link Tridiagonal} is faster.
+ * </p>
+ * <p>
+ * If {@code decompose()} fails on a zero pivot, the rows before it already
+ * hold factors. The matrix is then invalid, see {@link #isFailed()}, and all
+ * later calls which read or change the values throw an
+ * {@link IllegalStateException}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class BandMatrix implements LinearOperator {
+	private final int n, lower, upper, width;
+	private boolean decomposed, failed;
+	/**
+	 * The rows of the band.
+	 */
+	public final double[] values;
+
+	/**
+	 * Creates a new band matrix with all values set to 0.
+	 *
+	 * @param n     the number of rows and columns
+	 * @param lower the number of diagonals below the main diagonal
+	 * @param upper the number of diagonals above the main diagonal
+	 *
+	 * @throws IllegalArgumentException if a bandwidth is negative
+	 */
+	public BandMatrix(int n, int lower, int upper) {
+		if (lower < 0 || upper < 0)
+			throw new IllegalArgumentException("The bandwidths must not be negative");
+
+		this.n = n;
+		this.lower = lower;
+		this.upper = upper;
+		this.width = lower + upper + 1;
+		this.values = new double[n * width];
+	}
+
+	/**
+	 * Creates a new independent copy of {@code m}.
+	 *
+	 * @param m the matrix to copy
+	 */
+	public BandMatrix(BandMatrix m) {
+		this(m.n, m.lower, m.upper);
+		System.arraycopy(m.values, 0, values, 0, values.length);
+		decomposed = m.decomposed;
+		failed = m.failed;
+	}
+
+	/**
+	 * Returns the number of rows and columns.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of diagonals below the main diagonal.
+	 *
+	 * @return the lower bandwidth
+	 */
+	public int lowerBandwidth() {
+		return lower;
+	}
+
+	/**
+	 * Returns the number of diagonals above the main diagonal.
+	 *
+	 * @return the upper bandwidth
+	 */
+	public int upperBandwidth() {
+		return upper;
+	}
+
+	/**
+	 * Returns the number of values stored per row.
+	 *
+	 * @return {@code lower + upper + 1}
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * Returns whether {@link #decompose()} has been called.
+	 *
+	 * @return {@code true} if the values hold the LU decomposition
+	 */
+	public boolean isDecomposed() {
+		return decomposed;
+	}
+
+	/**
+	 * Returns whether {@link #decompose()} failed and left the matrix partly
+	 * overwritten.
+	 *
+	 * @return {@code true} if the values are invalid
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Returns the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 *
+	 * @return the value, 0 outside the band
+	 *
+	 * @throws IllegalStateException if a decomposition failed
+	 */
+	public double get(int row, int column) {
+		checkValid();
+		if (column < row - lower || column > row + upper)
+			return 0;
+
+		return values[row * width + column - row + lower];
+	}
+
+	/**
+	 * Sets the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 * @param value  the new value
+	 *
+	 * @return this matrix
+	 *
+	 * @throws IllegalArgumentException if the position is outside the band
+	 * @throws IllegalStateException    if a decomposition failed
+	 */
+	public BandMatrix set(int row, int column, double value) {
+		checkValid();
+		if (column < row - lower || column > row + upper || column < 0 || column >= n)
+			throw new IllegalArgumentException("(" + row + ", " + column + ") is outside the band");
+
+		values[row * width + column - row + lower] = value;
+		return this;
+	}
+
+	@Override
+	public void apply(double[] x, double[] y) {
+		multiply(x, 0, y, 0);
+	}
+
+	/**
+	 * Computes {@code y = A x}.
+	 *
+	 * @param x    the vector to multiply
+	 * @param xOff the index of the vector in {@code x}
+	 * @param y    receives the result, must not overlap {@code x}
+	 * @param yOff the index of the result in {@code y}
+	 *
+	 * @throws IllegalStateException if the matrix is decomposed or a
+	 *                               decomposition failed
+	 */
+	public void multiply(double[] x, int xOff, double[] y, int yOff) {
+		checkValid();
+		if (decomposed)
+			throw new IllegalStateException("The matrix is decomposed");
+
+		for (int i = 0; i < n; i++) {
+			final int first = Math.max(0, i - lower), last = Math.min(n - 1, i + upper);
+			final int row = i * width - i + lower;
+			double sum = 0;
+			for (int j = first; j <= last; j++) {
+				sum += values[row + j] * x[xOff + j];
+			}
+			y[yOff + i] = sum;
+		}
+	}
+
+	/**
+	 * Replaces the values with the LU decomposition of this matrix: the unit
+	 * lower triangle of {@code L} below the diagonal and {@code U} in and above
+	 * it.
+	 *
+	 * @return this matrix
+	 *
+	 * @throws IllegalArgumentException if a pivot is zero, which leaves the
+	 *                                  matrix invalid
+	 * @throws IllegalStateException    if the matrix is already decomposed or a
+	 *                                  decomposition failed
+	 */
+	public BandMatrix decompose() {
+		checkValid();
+		if (decomposed)
+			throw new IllegalStateException("The matrix is already decomposed");
+
+		for (int k = 0; k < n; k++) {
+			final int rowK = k * width - k + lower;
+			final double pivot = values[rowK + k];
+			if (pivot == 0) {
+				failed = true;
+				throw new IllegalArgumentException("Zero pivot in row " + k);
+			}
+
+			final int lastRow = Math.min(n - 1, k + lower), lastColumn = Math.min(n - 1, k + upper);
+			for (int i = k + 1; i <= lastRow; i++) {
+				final int rowI = i * width - i + lower;
+				final double l = values[rowI + k] / pivot;
+				values[rowI + k] = l;
+				for (int j = k + 1; j <= lastColumn; j++) {
+					values[rowI + j] -= l * values[rowK + j];
+				}
+			}
+		}
+
+		decomposed = true;
+		return this;
+	}
+
+	/**
+	 * Solves {@code A x = b} using the decomposition.
+	 *
+	 * @param b    the right hand side
+	 * @param bOff the index of the right hand side in {@code b}
+	 * @param x    receives the solution, may be {@code b} at the same offset
+	 * @param xOff the index of the solution in {@code x}
+	 *
+	 * @throws IllegalStateException if the matrix is not decomposed or a
+	 *                               decomposition failed
+	 */
+	public void solve(double[] b, int bOff, double[] x, int xOff) {
+		checkValid();
+		if (!decomposed)
+			throw new IllegalStateException("The matrix must be decomposed first");
+
+		for (int i = 0; i < n; i++) {
+			final int row = i * width - i + lower;
+			double s = b[bOff + i];
+			for (int j = Math.max(0, i - lower); j < i; j++) {
+				s -= values[row + j] * x[xOff + j];
+			}
+			x[xOff + i] = s;
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			final int row = i * width - i + lower;
+			double s = x[xOff + i];
+			for (int j = i + 1, last = Math.min(n - 1, i + upper); j <= last; j++) {
+				s -= values[row + j] * x[xOff + j];
+			}
+			x[xOff + i] = s / values[row + i];
+		}
+	}
+
+	private void checkValid() {
+		if (failed)
+			throw new IllegalStateException("A failed decomposition left the matrix invalid");
+	}
+}
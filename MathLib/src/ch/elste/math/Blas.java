@@ -0,0 +1,351 @@
+package ch.elste.math;
+
+/**
+ * A utility class with BLAS level 1 kernels on strided {@code double} arrays.
+ * Every vector argument is given as an array, the index of its first element
+ * and the distance between two elements (the increment), which must be
+ * positive.
+ * <p>
+ * Unit increments take unrolled loops with independent accumulators which the
+ * JIT compiler turns into SIMD code; other increments take plain loops.
+ * Because of the separate accumulators, reductions may differ from a strictly
+ * sequential sum in the last bits.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see VectorN
+ */
+public final class Blas {
+	/**
+	 * Below this sum of squares {@link #nrm2} rescales to avoid losing precision
+	 * to underflow.
+	 */
+	private static final double TINY = 0x1p-900;
+
+	private Blas() {
+	}
+
+	/**
+	 * Returns the dot product of {@code x} and {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the first vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the second vector
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 *
+	 * @return the dot product
+	 */
+	public static double dot(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY) {
+		if (incX == 1 && incY == 1) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int i = 0;
+			for (; i + 3 < n; i += 4) {
+				s0 += x[xOff + i] * y[yOff + i];
+				s1 += x[xOff + i + 1] * y[yOff + i + 1];
+				s2 += x[xOff + i + 2] * y[yOff + i + 2];
+				s3 += x[xOff + i + 3] * y[yOff + i + 3];
+			}
+			for (; i < n; i++) {
+				s0 += x[xOff + i] * y[yOff + i];
+			}
+
+			return (s0 + s1) + (s2 + s3);
+		}
+
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += x[xOff + i * incX] * y[yOff + i * incY];
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Computes {@code y = a * x + y}.
+	 *
+	 * @param n    the number of elements
+	 * @param a    the factor of {@code x}
+	 * @param x    the vector to add
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the vector to add to
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 */
+	public static void axpy(int n, double a, double[] x, int xOff, int incX, double[] y, int yOff, int incY) {
+		if (a == 0)
+			return;
+
+		if (incX == 1 && incY == 1) {
+			int i = 0;
+			for (; i + 3 < n; i += 4) {
+				y[yOff + i] += a * x[xOff + i];
+				y[yOff + i + 1] += a * x[xOff + i + 1];
+				y[yOff + i + 2] += a * x[xOff + i + 2];
+				y[yOff + i + 3] += a * x[xOff + i + 3];
+			}
+			for (; i < n; i++) {
+				y[yOff + i] += a * x[xOff + i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				y[yOff + i * incY] += a * x[xOff + i * incX];
+			}
+		}
+	}
+
+	/**
+	 * Computes {@code x = a * x}.
+	 *
+	 * @param n    the number of elements
+	 * @param a    the factor
+	 * @param x    the vector to scale
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 */
+	public static void scal(int n, double a, double[] x, int xOff, int incX) {
+		if (incX == 1) {
+			for (int i = xOff; i < xOff + n; i++) {
+				x[i] *= a;
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				x[xOff + i * incX] *= a;
+			}
+		}
+	}
+
+	/**
+	 * Copies {@code x} into {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the vector to copy
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the vector to copy into
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 */
+	public static void copy(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY) {
+		if (incX == 1 && incY == 1) {
+			System.arraycopy(x, xOff, y, yOff, n);
+		} else {
+			for (int i = 0; i < n; i++) {
+				y[yOff + i * incY] = x[xOff + i * incX];
+			}
+		}
+	}
+
+	/**
+	 * Returns the euclidean norm of {@code x}. Very large and very small values
+	 * are rescaled, so the result neither overflows nor underflows needlessly.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 *
+	 * @return the euclidean norm
+	 */
+	public static double nrm2(int n, double[] x, int xOff, int incX) {
+		if (n <= 0)
+			return 0;
+
+		final double sum = dot(n, x, xOff, incX, x, xOff, incX);
+		if (sum >= TINY && sum < Double.POSITIVE_INFINITY)
+			return Math.sqrt(sum);
+		if (Double.isNaN(sum))
+			return sum;
+
+		final double scale = Math.abs(x[xOff + iamax(n, x, xOff, incX) * incX]);
+		if (scale == 0 || scale == Double.POSITIVE_INFINITY)
+			return scale;
+
+		double scaled = 0;
+		for (int i = 0; i < n; i++) {
+			double d = x[xOff + i * incX] / scale;
+			scaled += d * d;
+		}
+
+		return scale * Math.sqrt(scaled);
+	}
+
+	/**
+	 * Returns the sum of the absolute values of {@code x}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 *
+	 * @return the sum of absolute values
+	 */
+	public static double asum(int n, double[] x, int xOff, int incX) {
+		if (incX == 1) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int i = 0;
+			for (; i + 3 < n; i += 4) {
+				s0 += Math.abs(x[xOff + i]);
+				s1 += Math.abs(x[xOff + i + 1]);
+				s2 += Math.abs(x[xOff + i + 2]);
+				s3 += Math.abs(x[xOff + i + 3]);
+			}
+			for (; i < n; i++) {
+				s0 += Math.abs(x[xOff + i]);
+			}
+
+			return (s0 + s1) + (s2 + s3);
+		}
+
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += Math.abs(x[xOff + i * incX]);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Returns the position of the first element of {@code x} with the largest
+	 * absolute value, counted in elements from {@code xOff}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 *
+	 * @return the position of the largest element or -1 if {@code n} is 0
+	 */
+	public static int iamax(int n, double[] x, int xOff, int incX) {
+		if (n <= 0)
+			return -1;
+
+		int index = 0;
+		double max = Math.abs(x[xOff]);
+		for (int i = 1; i < n; i++) {
+			double d = Math.abs(x[xOff + i * incX]);
+			if (d > max) {
+				max = d;
+				index = i;
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Computes the element-wise sum {@code z = x + y}. {@code z} may be the same
+	 * as {@code x} or {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the first vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the second vector
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 * @param z    the result
+	 * @param zOff the index of the first element of {@code z}
+	 * @param incZ the increment of {@code z}
+	 */
+	public static void add(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY, double[] z,
+			int zOff, int incZ) {
+		if (incX == 1 && incY == 1 && incZ == 1) {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i] = x[xOff + i] + y[yOff + i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i * incZ] = x[xOff + i * incX] + y[yOff + i * incY];
+			}
+		}
+	}
+
+	/**
+	 * Computes the element-wise difference {@code z = x - y}. {@code z} may be the
+	 * same as {@code x} or {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the first vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the second vector
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 * @param z    the result
+	 * @param zOff the index of the first element of {@code z}
+	 * @param incZ the increment of {@code z}
+	 */
+	public static void subtract(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY,
+			double[] z, int zOff, int incZ) {
+		if (incX == 1 && incY == 1 && incZ == 1) {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i] = x[xOff + i] - y[yOff + i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i * incZ] = x[xOff + i * incX] - y[yOff + i * incY];
+			}
+		}
+	}
+
+	/**
+	 * Computes the element-wise product {@code z = x * y}. {@code z} may be the
+	 * same as {@code x} or {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the first vector
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the second vector
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 * @param z    the result
+	 * @param zOff the index of the first element of {@code z}
+	 * @param incZ the increment of {@code z}
+	 */
+	public static void multiply(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY,
+			double[] z, int zOff, int incZ) {
+		if (incX == 1 && incY == 1 && incZ == 1) {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i] = x[xOff + i] * y[yOff + i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i * incZ] = x[xOff + i * incX] * y[yOff + i * incY];
+			}
+		}
+	}
+
+	/**
+	 * Computes the element-wise quotient {@code z = x / y}. {@code z} may be the
+	 * same as {@code x} or {@code y}.
+	 *
+	 * @param n    the number of elements
+	 * @param x    the dividends
+	 * @param xOff the index of the first element of {@code x}
+	 * @param incX the increment of {@code x}
+	 * @param y    the divisors
+	 * @param yOff the index of the first element of {@code y}
+	 * @param incY the increment of {@code y}
+	 * @param z    the result
+	 * @param zOff the index of the first element of {@code z}
+	 * @param incZ the increment of {@code z}
+	 */
+	public static void divide(int n, double[] x, int xOff, int incX, double[] y, int yOff, int incY, double[] z,
+			int zOff, int incZ) {
+		if (incX == 1 && incY == 1 && incZ == 1) {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i] = x[xOff + i] / y[yOff + i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				z[zOff + i * incZ] = x[xOff + i * incX] / y[yOff + i * incY];
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package ch.elste.math;
+
+/**
+ * A utility class for solving symmetric positive definite systems with the
+ * Cholesky factorization {@code A = L L^T} or its square root free variant
+ * {@code A = L D L^T}. Both need about half the work of an LU decomposition and
+ * no pivoting.
+ * <p>
+ * Matrices are stored row by row like {@link Matrix#values}. Only the lower
+ * triangle of {@code A} is read. The factorizations may be written over
+ * {@code A} itself. The LDL^T factorization stores the unit lower triangle of
+ * {@code L} below the diagonal and {@code D} on the diagonal. None of the
+ * methods allocate.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class Cholesky {
+	private Cholesky() {
+	}
+
+	/**
+	 * Computes {@code L} with {@code a = L L^T}. {@code l} may be {@code a}.
+	 *
+	 * @param a the symmetric matrix to factorize
+	 * @param l receives the lower triangular factor
+	 *
+	 * @return {@code false} if {@code a} is not positive definite
+	 */
+	public static boolean decompose(Matrix3x3 a, Matrix3x3 l) {
+		return decompose(3, a.values, 0, l.values, 0);
+	}
+
+	/**
+	 * Computes {@code L} with {@code a = L L^T}. {@code l} may be {@code a}.
+	 *
+	 * @param a the symmetric matrix to factorize
+	 * @param l receives the lower triangular factor
+	 *
+	 * @return {@code false} if {@code a} is not positive definite
+	 */
+	public static boolean decompose(Matrix4x4 a, Matrix4x4 l) {
+		return decompose(4, a.values, 0, l.values, 0);
+	}
+
+	/**
+	 * Computes the factors with {@code a = L D L^T}. {@code ld} may be {@code a}.
+	 *
+	 * @param a  the symmetric matrix to factorize
+	 * @param ld receives {@code L} below and {@code D} on the diagonal
+	 *
+	 * @return {@code false} if a pivot is zero
+	 */
+	public static boolean decomposeLdl(Matrix3x3 a, Matrix3x3 ld) {
+		return decomposeLdl(3, a.values, 0, ld.values, 0);
+	}
+
+	/**
+	 * Computes the factors with {@code a = L D L^T}. {@code ld} may be {@code a}.
+	 *
+	 * @param a  the symmetric matrix to factorize
+	 * @param ld receives {@code L} below and {@code D} on the diagonal
+	 *
+	 * @return {@code false} if a pivot is zero
+	 */
+	public static boolean decomposeLdl(Matrix4x4 a, Matrix4x4 ld) {
+		return decomposeLdl(4, a.values, 0, ld.values, 0);
+	}
+
+	/**
+	 * Solves {@code L L^T x = b}. {@code x} may be {@code b}.
+	 *
+	 * @param l the factor computed by {@link #decompose(Matrix3x3, Matrix3x3)}
+	 * @param b the right hand side
+	 * @param x receives the solution
+	 *
+	 * @return {@code x}
+	 */
+	public static Vector3 solve(Matrix3x3 l, Vector3 b, Vector3 x) {
+		final double[] m = l.values;
+		final double y0 = b.x / m[0];
+		final double y1 = (b.y - m[3] * y0) / m[4];
+		final double y2 = (b.z - m[6] * y0 - m[7] * y1) / m[8];
+
+		x.z = y2 / m[8];
+		x.y = (y1 - m[7] * x.z) / m[4];
+		x.x = (y0 - m[3] * x.y - m[6] * x.z) / m[0];
+
+		return x;
+	}
+
+	/**
+	 * Solves {@code L L^T x = b}. {@code x} may be {@code b}.
+	 *
+	 * @param l the factor computed by {@link #decompose(Matrix4x4, Matrix4x4)}
+	 * @param b the right hand side
+	 * @param x receives the solution
+	 *
+	 * @return {@code x}
+	 */
+	public static Vector4 solve(Matrix4x4 l, Vector4 b, Vector4 x) {
+		final double[] m = l.values;
+		final double y0 = b.x / m[0];
+		final double y1 = (b.y - m[4] * y0) / m[5];
+		final double y2 = (b.z - m[8] * y0 - m[9] * y1) / m[10];
+		final double y3 = (b.w - m[12] * y0 - m[13] * y1 - m[14] * y2) / m[15];
+
+		x.w = y3 / m[15];
+		x.z = (y2 - m[14] * x.w) / m[10];
+		x.y = (y1 - m[9] * x.z - m[13] * x.w) / m[5];
+		x.x = (y0 - m[4] * x.y - m[8] * x.z - m[12] * x.w) / m[0];
+
+		return x;
+	}
+
+	/**
+	 * Solves {@code L D L^T x = b}. {@code x} may be {@code b}.
+	 *
+	 * @param ld the factors computed by
+	 *           {@link #decomposeLdl(Matrix3x3, Matrix3x3)}
+	 * @param b  the right hand side
+	 * @param x  receives the solution
+	 *
+	 * @return {@code x}
+	 */
+	public static Vector3 solveLdl(Matrix3x3 ld, Vector3 b, Vector3 x) {
+		final double[] m = ld.values;
+		final double z0 = b.x;
+		final double z1 = b.y - m[3] * z0;
+		final double z2 = b.z - m[6] * z0 - m[7] * z1;
+
+		x.z = z2 / m[8];
+		x.y = z1 / m[4] - m[7] * x.z;
+		x.x = z0 / m[0] - m[3] * x.y - m[6] * x.z;
+
+		return x;
+	}
+
+	/**
+	 * Solves {@code L D L^T x = b}. {@code x} may be {@code b}.
+	 *
+	 * @param ld the factors computed by
+	 *           {@link #decomposeLdl(Matrix4x4, Matrix4x4)}
+	 * @param b  the right hand side
+	 * @param x  receives the solution
+	 *
+	 * @return {@code x}
+	 */
+	public static Vector4 solveLdl(Matrix4x4 ld, Vector4 b, Vector4 x) {
+		final double[] m = ld.values;
+		final double z0 = b.x;
+		final double z1 = b.y - m[4] * z0;
+		final double z2 = b.z - m[8] * z0 - m[9] * z1;
+		final double z3 = b.w - m[12] * z0 - m[13] * z1 - m[14] * z2;
+
+		x.w = z3 / m[15];
+		x.z = z2 / m[10] - m[14] * x.w;
+		x.y = z1 / m[5] - m[9] * x.z - m[13] * x.w;
+		x.x = z0 / m[0] - m[4] * x.y - m[8] * x.z - m[12] * x.w;
+
+		return x;
+	}
+
+	/**
+	 * Computes {@code L} with {@code A = L L^T} for the {@code n} by {@code n}
+	 * matrix at {@code a[aOff]}. The upper triangle of {@code L} is set to zero.
+	 * {@code l} may be {@code a} at the same offset.
+	 *
+	 * @param n    the number of rows and columns
+	 * @param a    the packed symmetric matrix
+	 * @param aOff the index of the matrix in {@code a}
+	 * @param l    the packed destination
+	 * @param lOff the index of the factor in {@code l}
+	 *
+	 * @return {@code false} if the matrix is not positive definite
+	 */
+	public static boolean decompose(int n, double[] a, int aOff, double[] l, int lOff) {
+		for (int j = 0; j < n; j++) {
+			final int rowJ = j * n;
+			double s = a[aOff + rowJ + j];
+			for (int k = 0; k < j; k++) {
+				s -= l[lOff + rowJ + k] * l[lOff + rowJ + k];
+			}
+			if (!(s > 0))
+				return false;
+
+			final double diagonal = Math.sqrt(s);
+			l[lOff + rowJ + j] = diagonal;
+			for (int i = j + 1; i < n; i++) {
+				final int rowI = i * n;
+				double t = a[aOff + rowI + j];
+				for (int k = 0; k < j; k++) {
+					t -= l[lOff + rowI + k] * l[lOff + rowJ + k];
+				}
+				l[lOff + rowI + j] = t / diagonal;
+				l[lOff + rowJ + i] = 0;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes the factors with {@code A = L D L^T} for the {@code n} by {@code n}
+	 * matrix at {@code a[aOff]}. The upper triangle is set to zero. {@code ld} may
+	 * be {@code a} at the same offset.
+	 *
+	 * @param n     the number of rows and columns
+	 * @param a     the packed symmetric matrix
+	 * @param aOff  the index of the matrix in {@code a}
+	 * @param ld    the packed destination
+	 * @param ldOff the index of the factors in {@code ld}
+	 *
+	 * @return {@code false} if a pivot is zero
+	 */
+	public static boolean decomposeLdl(int n, double[] a, int aOff, double[] ld, int ldOff) {
+		for (int j = 0; j < n; j++) {
+			final int rowJ = j * n;
+			double dj = a[aOff + rowJ + j];
+			for (int k = 0; k < j; k++) {
+				final double ljk = ld[ldOff + rowJ + k];
+				dj -= ljk * ljk * ld[ldOff + k * n + k];
+			}
+			if (dj == 0 || Double.isNaN(dj))
+				return false;
+
+			ld[ldOff + rowJ + j] = dj;
+			for (int i = j + 1; i < n; i++) {
+				final int rowI = i * n;
+				double t = a[aOff + rowI + j];
+				for (int k = 0; k < j; k++) {
+					t -= ld[ldOff + rowI + k] * ld[ldOff + rowJ + k] * ld[ldOff + k * n + k];
+				}
+				ld[ldOff + rowI + j] = t / dj;
+				ld[ldOff + rowJ + i] = 0;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Solves {@code L L^T x = b} for {@code n} unknowns. {@code x} may be {@code b}
+	 * at the same offset.
+	 *
+	 * @param n    the number of unknowns
+	 * @param l    the packed factor computed by
+	 *             {@link #decompose(int, double[], int, double[], int)}
+	 * @param lOff the index of the factor in {@code l}
+	 * @param b    the packed right hand side
+	 * @param bOff the index of the right hand side in {@code b}
+	 * @param x    the packed destination
+	 * @param xOff the index of the solution in {@code x}
+	 */
+	public static void solve(int n, double[] l, int lOff, double[] b, int bOff, double[] x, int xOff) {
+		for (int i = 0; i < n; i++) {
+			double s = b[bOff + i];
+			for (int k = 0; k < i; k++) {
+				s -= l[lOff + i * n + k] * x[xOff + k];
+			}
+			x[xOff + i] = s / l[lOff + i * n + i];
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			double s = x[xOff + i];
+			for (int k = i + 1; k < n; k++) {
+				s -= l[lOff + k * n + i] * x[xOff + k];
+			}
+			x[xOff + i] = s / l[lOff + i * n + i];
+		}
+	}
+
+	/**
+	 * Solves {@code L D L^T x = b} for {@code n} unknowns. {@code x} may be
+	 * {@code b} at the same offset.
+	 *
+	 * @param n     the number of unknowns
+	 * @param ld    the packed factors computed by
+	 *              {@link #decomposeLdl(int, double[], int, double[], int)}
+	 * @param ldOff the index of the factors in {@code ld}
+	 * @param b     the packed right hand side
+	 * @param bOff  the index of the right hand side in {@code b}
+	 * @param x     the packed destination
+	 * @param xOff  the index of the solution in {@code x}
+	 */
+	public static void solveLdl(int n, double[] ld, int ldOff, double[] b, int bOff, double[] x, int xOff) {
+		for (int i = 0; i < n; i++) {
+			double s = b[bOff + i];
+			for (int k = 0; k < i; k++) {
+				s -= ld[ldOff + i * n + k] * x[xOff + k];
+			}
+			x[xOff + i] = s;
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			double s = x[xOff + i] / ld[ldOff + i * n + i];
+			for (int k = i + 1; k < n; k++) {
+				s -= ld[ldOff + k * n + i] * x[xOff + k];
+			}
+			x[xOff + i] = s;
+		}
+	}
+
+	/**
+	 * Solves {@code count} independent systems {@code A x = b} with {@code n}
+	 * unknowns each using {@code L L^T}. The matrices are packed one after another
+	 * in {@code a}, {@code n * n} values each, and are overwritten with their
+	 * factors. The right hand sides and solutions are packed in {@code b} and
+	 * {@code x}, {@code n} values each. The solution of a system which is not
+	 * positive definite is filled with NaN.
+	 *
+	 * @param n     the number of unknowns per system
+	 * @param count the number of systems
+	 * @param a     the packed matrices, overwritten with the factors
+	 * @param b     the packed right hand sides
+	 * @param x     the packed solutions, may be {@code b}
+	 *
+	 * @return the number of systems which were not positive definite
+	 */
+	public static int solveBatch(int n, int count, double[] a, double[] b, double[] x) {
+		int failures = 0;
+
+		for (int s = 0; s < count; s++) {
+			if (decompose(n, a, s * n * n, a, s * n * n)) {
+				solve(n, a, s * n * n, b, s * n, x, s * n);
+			} else {
+				fail(n, x, s * n);
+				failures++;
+			}
+		}
+
+		return failures;
+	}
+
+	/**
+	 * Solves {@code count} independent systems {@code A x = b} with {@code n}
+	 * unknowns each using {@code L D L^T}, laid out like
+	 * {@link #solveBatch(int, int, double[], double[], double[])}. The solution of
+	 * a system with a zero pivot is filled with NaN.
+	 *
+	 * @param n     the number of unknowns per system
+	 * @param count the number of systems
+	 * @param a     the packed matrices, overwritten with the factors
+	 * @param b     the packed right hand sides
+	 * @param x     the packed solutions, may be {@code b}
+	 *
+	 * @return the number of systems with a zero pivot
+	 */
+	public static int solveBatchLdl(int n, int count, double[] a, double[] b, double[] x) {
+		int failures = 0;
+
+		for (int s = 0; s < count; s++) {
+			if (decomposeLdl(n, a, s * n * n, a, s * n * n)) {
+				solveLdl(n, a, s * n * n, b, s * n, x, s * n);
+			} else {
+				fail(n, x, s * n);
+				failures++;
+			}
+		}
+
+		return failures;
+	}
+
+	private static void fail(int n, double[] x, int xOff) {
+		for (int i = 0; i < n; i++) {
+			x[xOff + i] = Double.NaN;
+		}
+	}
+}
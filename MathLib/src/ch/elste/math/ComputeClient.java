@@ -0,0 +1,184 @@
+package ch.elste.math;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection to a {@link ComputeServer}. Requests are sent one at a time and
+ * every call blocks until its response has arrived, so a client must not be
+ * shared between threads; open one client per thread instead. Requests and
+ * responses pass through one reusable direct buffer.
+ *
+ * @author Dillon Elste
+ */
+public class ComputeClient implements AutoCloseable {
+	private final SocketChannel channel;
+	private ByteBuffer buffer = ComputeServer.ensure(null, 1 << 16);
+	private DoubleBuffer doubles = buffer.asDoubleBuffer();
+	private int id;
+
+	/**
+	 * Connects to the server at {@code address}.
+	 *
+	 * @param address the address of the server, as returned by
+	 *                {@link ComputeServer#address()}
+	 *
+	 * @throws IOException if the connection fails
+	 */
+	public ComputeClient(SocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		if (address instanceof InetSocketAddress)
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	/**
+	 * Transforms {@code count} points packed as {@code x, y, z} triples in
+	 * {@code points} by {@code m} on the server, as homogeneous points with
+	 * {@code w = 1}, and writes the results back to {@code points}.
+	 *
+	 * @param m      the transformation
+	 * @param points the packed points
+	 * @param offset the index of the first point in {@code points}
+	 * @param count  the number of points
+	 *
+	 * @return {@code points}
+	 *
+	 * @throws IOException if the request fails
+	 */
+	public double[] transform(Matrix4x4 m, double[] points, int offset, int count) throws IOException {
+		final int values = 3 * count;
+		prepare(16 + values);
+		doubles.put(ComputeServer.HEADER / Double.BYTES, m.values, 0, 16);
+		doubles.put(ComputeServer.HEADER / Double.BYTES + 16, points, offset, values);
+
+		send(ComputeServer.TRANSFORM, 0, 16 + values);
+		receive(values);
+		doubles.get(ComputeServer.HEADER / Double.BYTES, points, offset, values);
+
+		return points;
+	}
+
+	/**
+	 * Computes the products {@code c[i] = a[i] b[i]} of {@code count} pairs of
+	 * row-major {@code n} by {@code n} matrices on the server. The matrices are
+	 * packed one after another.
+	 *
+	 * @param n     the number of rows and columns
+	 * @param count the number of products
+	 * @param a     the first factors
+	 * @param b     the second factors
+	 * @param c     receives the products
+	 *
+	 * @return {@code c}
+	 *
+	 * @throws IOException if the request fails
+	 */
+	public double[] multiply(int n, int count, double[] a, double[] b, double[] c) throws IOException {
+		prepare(2L * count * n * n);
+		final int size = count * n * n;
+		doubles.put(ComputeServer.HEADER / Double.BYTES, a, 0, size);
+		doubles.put(ComputeServer.HEADER / Double.BYTES + size, b, 0, size);
+
+		send(ComputeServer.MULTIPLY, n, 2 * size);
+		receive(size);
+		doubles.get(ComputeServer.HEADER / Double.BYTES, c, 0, size);
+
+		return c;
+	}
+
+	/**
+	 * Solves the {@code count} systems {@code a[i] x[i] = b[i]} of row-major
+	 * {@code n} by {@code n} matrices on the server. The matrices, right hand
+	 * sides and solutions are packed one after another.
+	 *
+	 * @param n         the number of unknowns per system
+	 * @param count     the number of systems
+	 * @param a         the matrices
+	 * @param b         the right hand sides
+	 * @param x         receives the solutions
+	 * @param residuals receives the residual norm per system, NaN for singular
+	 *                  systems, may be {@code null}
+	 *
+	 * @return {@code x}
+	 *
+	 * @throws IOException if the request fails
+	 */
+	public double[] solve(int n, int count, double[] a, double[] b, double[] x, double[] residuals)
+			throws IOException {
+		prepare((long) count * n * n + (long) count * n);
+		final int size = count * n * n;
+		doubles.put(ComputeServer.HEADER / Double.BYTES, a, 0, size);
+		doubles.put(ComputeServer.HEADER / Double.BYTES + size, b, 0, count * n);
+
+		send(ComputeServer.SOLVE, n, size + count * n);
+		receive(count * n + count);
+		doubles.get(ComputeServer.HEADER / Double.BYTES, x, 0, count * n);
+		if (residuals != null)
+			doubles.get(ComputeServer.HEADER / Double.BYTES + count * n, residuals, 0, count);
+
+		return x;
+	}
+
+	private void prepare(long values) {
+		final long bytes = values * Double.BYTES;
+		if (bytes > ComputeServer.MAX_PAYLOAD)
+			throw new IllegalArgumentException("The request exceeds " + ComputeServer.MAX_PAYLOAD + " bytes");
+
+		if (buffer.capacity() < ComputeServer.HEADER + bytes) {
+			buffer = ComputeServer.ensure(buffer, ComputeServer.HEADER + bytes);
+			doubles = buffer.asDoubleBuffer();
+		}
+	}
+
+	private void send(int op, int n, int values) throws IOException {
+		final int length = values * Double.BYTES;
+		buffer.clear();
+		buffer.putInt(0, length).putInt(4, ++id).putInt(8, op).putInt(12, n);
+		buffer.limit(ComputeServer.HEADER + length);
+		ComputeServer.writeFully(channel, buffer);
+	}
+
+	/**
+	 * Reads the response to the last request into the buffer.
+	 *
+	 * @throws IOException if the server failed or sent an unexpected response
+	 */
+	private void receive(int values) throws IOException {
+		buffer.clear().limit(ComputeServer.HEADER);
+		if (!ComputeServer.readFully(channel, buffer))
+			throw new IOException("The server closed the connection");
+
+		final int length = buffer.getInt(0), responseId = buffer.getInt(4), op = buffer.getInt(8);
+		if (responseId != id)
+			throw new IOException("Expected the response to request " + id + " but got " + responseId);
+
+		if (op == ComputeServer.ERROR) {
+			final byte[] message = new byte[length];
+			buffer.clear().position(ComputeServer.HEADER).limit(ComputeServer.HEADER + length);
+			ComputeServer.readFully(channel, buffer);
+			buffer.get(ComputeServer.HEADER, message);
+			throw new IOException("The server rejected the request: " + new String(message, StandardCharsets.UTF_8));
+		}
+		if (length != values * Double.BYTES)
+			throw new IOException("Expected " + values * Double.BYTES + " bytes but got " + length);
+
+		buffer.clear().position(ComputeServer.HEADER).limit(ComputeServer.HEADER + length);
+		ComputeServer.readFully(channel, buffer);
+	}
+
+	/**
+	 * Closes the connection.
+	 *
+	 * @throws IOException if the connection cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,146 @@
+package ch.elste.math;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Starts a {@link ComputeServer} on localhost and measures the throughput and
+ * latency of point transform requests sent by concurrent
+ * {@link ComputeClient clients}. The results of the first request of every
+ * client are checked against {@link Matrix#mult(Matrix4x4, Vector4, Vector4)}.
+ * <p>
+ * Usage:
+ * {@code java ch.elste.math.ComputeLoadTest [tcp|unix] [clients] [requests] [points]}
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class ComputeLoadTest {
+	private ComputeLoadTest() {
+	}
+
+	/**
+	 * Runs the load test.
+	 *
+	 * @param args the transport, the number of clients, the requests per client
+	 *             and the points per request, all optional
+	 *
+	 * @throws Exception if the server or a client fails
+	 */
+	public static void main(String[] args) throws Exception {
+		final boolean unix = args.length > 0 && args[0].equals("unix");
+		final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		final int points = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+
+		Path socketFile = null;
+		SocketAddress address;
+		if (unix) {
+			socketFile = Files.createTempDirectory("compute").resolve("server.sock");
+			address = UnixDomainSocketAddress.of(socketFile);
+		} else {
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		}
+
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		try (ComputeServer server = ComputeServer.open(address, executor)) {
+			final SocketAddress bound = server.address();
+			final Matrix4x4 m = new Matrix4x4().setEuler(0.3, 0.2, 0.1);
+			m.set(0, 3, 1);
+
+			// warm up both sides
+			run(executor, bound, m, clients, Math.min(requests, 500), points);
+
+			final long start = System.nanoTime();
+			final long[] latencies = run(executor, bound, m, clients, requests, points);
+			final double seconds = (System.nanoTime() - start) / 1e9;
+
+			Arrays.sort(latencies);
+			System.out.printf("%s, %d clients, %d requests of %d points%n", unix ? "unix" : "tcp", clients,
+					latencies.length, points);
+			System.out.printf("%.0f requests/s, %.3g points/s, %.1f MiB/s each way%n", latencies.length / seconds,
+					latencies.length * (double) points / seconds,
+					latencies.length * (double) points * 3 * Double.BYTES / seconds / (1 << 20));
+			System.out.printf("latency p50 %.1f us, p99 %.1f us, max %.1f us%n", percentile(latencies, 0.5),
+					percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e3);
+		} finally {
+			executor.shutdownNow();
+			if (socketFile != null)
+				Files.deleteIfExists(socketFile.getParent());
+		}
+	}
+
+	/**
+	 * Sends {@code requests} transform requests from each of {@code clients}
+	 * concurrent clients and returns the latency of every request in
+	 * nanoseconds.
+	 */
+	private static long[] run(ExecutorService executor, SocketAddress address, Matrix4x4 m, int clients,
+			int requests, int points) throws Exception {
+		final List<Future<long[]>> futures = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			final long seed = c;
+			futures.add(executor.submit(() -> client(address, m, requests, points, seed)));
+		}
+
+		final long[] latencies = new long[clients * requests];
+		for (int c = 0; c < clients; c++) {
+			System.arraycopy(futures.get(c).get(), 0, latencies, c * requests, requests);
+		}
+
+		return latencies;
+	}
+
+	private static long[] client(SocketAddress address, Matrix4x4 m, int requests, int points, long seed)
+			throws IOException {
+		final SplittableRandom random = new SplittableRandom(seed);
+		final double[] original = new double[3 * points], values = new double[3 * points];
+		for (int i = 0; i < original.length; i++) {
+			original[i] = random.nextDouble(-1, 1);
+		}
+
+		final long[] latencies = new long[requests];
+		try (ComputeClient client = new ComputeClient(address)) {
+			for (int r = 0; r < requests; r++) {
+				System.arraycopy(original, 0, values, 0, values.length);
+				final long start = System.nanoTime();
+				client.transform(m, values, 0, points);
+				latencies[r] = System.nanoTime() - start;
+
+				if (r == 0)
+					check(m, original, values);
+			}
+		}
+
+		return latencies;
+	}
+
+	private static void check(Matrix4x4 m, double[] original, double[] transformed) {
+		final Vector4 v = new Vector4(), result = new Vector4();
+		for (int i = 0; i < original.length; i += 3) {
+			v.x = original[i];
+			v.y = original[i + 1];
+			v.z = original[i + 2];
+			v.w = 1;
+			Matrix.mult(m, v, result);
+			if (result.x != transformed[i] || result.y != transformed[i + 1] || result.z != transformed[i + 2])
+				throw new IllegalStateException("The server returned a wrong result for point " + i / 3);
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))] / 1e3;
+	}
+}
@@ -0,0 +1,460 @@
+package ch.elste.math;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import ch.elste.math.Matrix.Layout;
+
+/**
+ * A standalone server computing batches of matrix work for other processes on
+ * the same machine, over a loopback TCP or a Unix domain socket. Every
+ * connection is served by one task of the executor given to
+ * {@link #open(SocketAddress, Executor, ForkJoinPool)}, which blocks on its
+ * channel; large batches are computed on a {@link ForkJoinPool}. The server
+ * does not authenticate its clients and every connection may make it allocate
+ * a buffer as large as a request, so it only listens on loopback addresses and
+ * Unix domain sockets.
+ * <p>
+ * The protocol exchanges frames of a 16 byte header, the {@code int}s
+ * {@code length, id, op, n}, followed by {@code length} bytes of payload, all
+ * little-endian. A response repeats the {@code id} of its request, has
+ * {@code op} {@link #OK} and carries the results, or has {@code op}
+ * {@link #ERROR} and carries a UTF-8 message; any request which fails, for
+ * example with invalid sizes or a failing computation, is answered with an
+ * error and the connection stays open. The requests are
+ * <ul>
+ * <li>{@link #TRANSFORM}: a row-major {@link Matrix4x4} followed by packed
+ * {@code x, y, z} points, answered with the transformed points. {@code n} is
+ * unused.</li>
+ * <li>{@link #MULTIPLY}: {@code count} row-major {@code n} by {@code n}
+ * matrices {@code A} followed by as many matrices {@code B}, answered with the
+ * products {@code A B}.</li>
+ * <li>{@link #SOLVE}: {@code count} row-major {@code n} by {@code n} matrices
+ * {@code A} followed by as many right hand sides {@code b}, answered with the
+ * solutions of {@code A x = b} followed by the residual norm of every system,
+ * NaN for singular ones.</li>
+ * </ul>
+ * The count follows from {@code length}. Every connection reads frames into one
+ * reusable direct buffer; points are transformed inside that buffer and written
+ * back from it, the other requests are copied to reusable arrays with bulk
+ * copies.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see ComputeClient
+ */
+public class ComputeServer implements AutoCloseable {
+	/**
+	 * The size of a frame header in bytes.
+	 */
+	static final int HEADER = 16;
+	/**
+	 * The largest accepted payload in bytes.
+	 */
+	static final int MAX_PAYLOAD = 1 << 30;
+
+	/**
+	 * The operation of a request transforming points.
+	 */
+	public static final int TRANSFORM = 1;
+	/**
+	 * The operation of a request multiplying matrices.
+	 */
+	public static final int MULTIPLY = 2;
+	/**
+	 * The operation of a request solving linear systems.
+	 */
+	public static final int SOLVE = 3;
+	/**
+	 * The operation of a successful response.
+	 */
+	public static final int OK = 0;
+	/**
+	 * The operation of a response to a failed request.
+	 */
+	public static final int ERROR = -1;
+
+	/**
+	 * The shortest and longest pause of the acceptor after a failed accept, for
+	 * example while the process is out of file descriptors.
+	 */
+	private static final long MIN_BACKOFF_MILLIS = 10, MAX_BACKOFF_MILLIS = 1000;
+
+	private final ServerSocketChannel server;
+	private final Executor executor;
+	private final ForkJoinPool pool;
+	private final Path socketFile;
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
+
+	private ComputeServer(ServerSocketChannel server, Executor executor, ForkJoinPool pool, Path socketFile) {
+		this.server = server;
+		this.executor = executor;
+		this.pool = pool;
+		this.socketFile = socketFile;
+	}
+
+	/**
+	 * Starts a server computing on the common pool.
+	 *
+	 * @param address  the address to listen on, a loopback
+	 *                 {@link InetSocketAddress} or a
+	 *                 {@link UnixDomainSocketAddress}
+	 * @param executor the executor running one task per connection and the
+	 *                 acceptor
+	 *
+	 * @return the running server
+	 *
+	 * @throws IOException              if the address cannot be bound
+	 * @throws IllegalArgumentException if the address is neither a loopback
+	 *                                  address nor a Unix domain socket
+	 */
+	public static ComputeServer open(SocketAddress address, Executor executor) throws IOException {
+		return open(address, executor, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Starts a server.
+	 *
+	 * @param address  the address to listen on, a loopback
+	 *                 {@link InetSocketAddress} or a
+	 *                 {@link UnixDomainSocketAddress}
+	 * @param executor the executor running one task per connection and the
+	 *                 acceptor; every task blocks as long as its connection is
+	 *                 open, so a cached or virtual thread per task executor fits
+	 *                 best
+	 * @param pool     the pool to compute large batches on
+	 *
+	 * @return the running server
+	 *
+	 * @throws IOException              if the address cannot be bound
+	 * @throws IllegalArgumentException if the address is neither a loopback
+	 *                                  address nor a Unix domain socket
+	 */
+	public static ComputeServer open(SocketAddress address, Executor executor, ForkJoinPool pool)
+			throws IOException {
+		final boolean unix = address instanceof UnixDomainSocketAddress;
+		if (!unix && !(address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null
+				&& ((InetSocketAddress) address).getAddress().isLoopbackAddress()))
+			throw new IllegalArgumentException("The server only listens on loopback addresses and Unix domain "
+					+ "sockets, not on " + address);
+
+		ServerSocketChannel server = unix ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+				: ServerSocketChannel.open();
+		try {
+			server.bind(address);
+		} catch (IOException | RuntimeException e) {
+			server.close();
+			throw e;
+		}
+
+		ComputeServer temp = new ComputeServer(server, executor, pool,
+				unix ? ((UnixDomainSocketAddress) address).getPath() : null);
+		executor.execute(temp::accept);
+
+		return temp;
+	}
+
+	/**
+	 * Returns the address the server listens on, with the actual port if it was
+	 * opened on port 0.
+	 *
+	 * @return the address
+	 *
+	 * @throws IOException if the server has been closed
+	 */
+	public SocketAddress address() throws IOException {
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * Accepts connections until the server is closed. Other failures, such as
+	 * running out of file descriptors, are retried after a pause which doubles
+	 * with every failure in a row.
+	 */
+	private void accept() {
+		long backoff = MIN_BACKOFF_MILLIS;
+		while (!closed) {
+			SocketChannel channel = null;
+			try {
+				channel = server.accept();
+				if (channel.getLocalAddress() instanceof InetSocketAddress)
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				final SocketChannel accepted = channel;
+				connections.add(accepted);
+				executor.execute(() -> serve(accepted));
+				backoff = MIN_BACKOFF_MILLIS;
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException | RejectedExecutionException e) {
+				if (channel != null) {
+					connections.remove(channel);
+					try {
+						channel.close();
+					} catch (IOException ignored) {
+						// the connection is dropped either way
+					}
+				}
+				if (closed || !server.isOpen())
+					return;
+
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				backoff = Math.min(MAX_BACKOFF_MILLIS, 2 * backoff);
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of one connection until the client closes it.
+	 */
+	private void serve(SocketChannel channel) {
+		final Connection connection = new Connection();
+
+		try (channel) {
+			while (connection.read(channel)) {
+				connection.handle(channel);
+			}
+		} catch (IOException e) {
+			// the client disconnected or broke the protocol
+		} finally {
+			connections.remove(channel);
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes all open ones. Requests being
+	 * computed are not answered.
+	 *
+	 * @throws IOException if the socket cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (SocketChannel channel : connections) {
+			channel.close();
+		}
+		if (socketFile != null)
+			Files.deleteIfExists(socketFile);
+	}
+
+	/**
+	 * Reads {@code buffer} from its position to its limit, returning
+	 * {@code false} if the channel ends before the first byte.
+	 */
+	static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		final boolean empty = buffer.position() == 0;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (empty && buffer.position() == 0)
+					return false;
+
+				throw new ClosedChannelException();
+			}
+		}
+
+		return true;
+	}
+
+	static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Returns a direct little-endian buffer of at least {@code capacity} bytes,
+	 * {@code buffer} itself if it is large enough.
+	 */
+	static ByteBuffer ensure(ByteBuffer buffer, long capacity) {
+		if (buffer != null && buffer.capacity() >= capacity)
+			return buffer;
+
+		final long grown = buffer == null ? capacity : Math.max(capacity, 2L * buffer.capacity());
+		return ByteBuffer.allocateDirect((int) Math.min(grown, HEADER + MAX_PAYLOAD))
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * The buffers of one connection, reused for all its requests.
+	 */
+	private final class Connection {
+		private ByteBuffer buffer = ensure(null, 1 << 16);
+		private DoubleBuffer doubles = buffer.asDoubleBuffer();
+		private double[] a = new double[0], b = new double[0], x = new double[0], residuals = new double[0];
+		private int length, id, op, n;
+
+		/**
+		 * Reads the next request, returning {@code false} if the client closed
+		 * the connection.
+		 */
+		boolean read(SocketChannel channel) throws IOException {
+			buffer.clear().limit(HEADER);
+			if (!readFully(channel, buffer))
+				return false;
+
+			length = buffer.getInt(0);
+			id = buffer.getInt(4);
+			op = buffer.getInt(8);
+			n = buffer.getInt(12);
+			if (length < 0 || length > MAX_PAYLOAD)
+				throw new IOException("Invalid payload length " + length);
+
+			if (buffer.capacity() < HEADER + length) {
+				buffer = ensure(buffer, HEADER + length);
+				doubles = buffer.asDoubleBuffer();
+			}
+			buffer.clear().position(HEADER).limit(HEADER + length);
+
+			return readFully(channel, buffer);
+		}
+
+		void handle(SocketChannel channel) throws IOException {
+			try {
+				if (length % Double.BYTES != 0)
+					throw new IllegalArgumentException("The payload must consist of doubles");
+
+				switch (op) {
+				case TRANSFORM:
+					transform(channel);
+					break;
+				case MULTIPLY:
+					multiply(channel);
+					break;
+				case SOLVE:
+					solve(channel);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown operation " + op);
+				}
+			} catch (RuntimeException e) {
+				// invalid requests report their message, failed computations their type
+				final String text = e instanceof IllegalArgumentException ? String.valueOf(e.getMessage())
+						: e.toString();
+				final byte[] message = text.getBytes(StandardCharsets.UTF_8);
+				buffer.clear();
+				buffer.putInt(message.length).putInt(id).putInt(ERROR).putInt(0).put(message).flip();
+				writeFully(channel, buffer);
+			}
+		}
+
+		/**
+		 * Transforms the points inside the buffer and answers from the same
+		 * buffer, with the response header right in front of the points.
+		 */
+		private void transform(SocketChannel channel) throws IOException {
+			final int values = length / Double.BYTES - 16;
+			if (values < 0 || values % 3 != 0)
+				throw new IllegalArgumentException("Expected a matrix followed by x, y, z triples");
+
+			final DoubleBuffer d = doubles;
+			final int m = HEADER / Double.BYTES, p = m + 16;
+			final double a0 = d.get(m), a1 = d.get(m + 1), a2 = d.get(m + 2), a3 = d.get(m + 3);
+			final double a4 = d.get(m + 4), a5 = d.get(m + 5), a6 = d.get(m + 6), a7 = d.get(m + 7);
+			final double a8 = d.get(m + 8), a9 = d.get(m + 9), a10 = d.get(m + 10), a11 = d.get(m + 11);
+			final double a12 = d.get(m + 12), a13 = d.get(m + 13), a14 = d.get(m + 14), a15 = d.get(m + 15);
+			final boolean affine = a12 == 0 && a13 == 0 && a14 == 0 && a15 == 1;
+
+			for (int i = p; i < p + values; i += 3) {
+				final double x = d.get(i), y = d.get(i + 1), z = d.get(i + 2);
+				final double w = affine ? 1 : a12 * x + a13 * y + a14 * z + a15;
+				d.put(i, (a0 * x + a1 * y + a2 * z + a3) / w);
+				d.put(i + 1, (a4 * x + a5 * y + a6 * z + a7) / w);
+				d.put(i + 2, (a8 * x + a9 * y + a10 * z + a11) / w);
+			}
+
+			respond(channel, p * Double.BYTES - HEADER, values * Double.BYTES);
+		}
+
+		private void multiply(SocketChannel channel) throws IOException {
+			final int count = count(2L * n * n);
+			final int nn = n * n, size = count * nn;
+			a = grow(a, size);
+			b = grow(b, size);
+			x = grow(x, size);
+			doubles.get(HEADER / Double.BYTES, a, 0, size);
+			doubles.get(HEADER / Double.BYTES + size, b, 0, size);
+
+			if (count == 1) {
+				DenseMultiply.multiply(pool, n, a, b, x);
+			} else {
+				for (int i = 0; i < count; i++) {
+					MatrixView.multiply(MatrixView.of(a, i * nn, n, n, Layout.ROW_MAJOR),
+							MatrixView.of(b, i * nn, n, n, Layout.ROW_MAJOR),
+							MatrixView.of(x, i * nn, n, n, Layout.ROW_MAJOR));
+				}
+			}
+
+			doubles.put(HEADER / Double.BYTES, x, 0, size);
+			respond(channel, 0, size * Double.BYTES);
+		}
+
+		private void solve(SocketChannel channel) throws IOException {
+			final int count = count((long) n * n + n);
+			final int size = count * n * n;
+			a = grow(a, size);
+			b = grow(b, count * n);
+			x = grow(x, count * n);
+			residuals = grow(residuals, count);
+			doubles.get(HEADER / Double.BYTES, a, 0, size);
+			doubles.get(HEADER / Double.BYTES + size, b, 0, count * n);
+
+			QR.solveBatch(pool, n, n, count, a, b, x, residuals);
+
+			doubles.put(HEADER / Double.BYTES, x, 0, count * n);
+			doubles.put(HEADER / Double.BYTES + count * n, residuals, 0, count);
+			respond(channel, 0, (count * n + count) * Double.BYTES);
+		}
+
+		/**
+		 * Returns the number of problems of {@code perProblem} values in the
+		 * payload.
+		 */
+		private int count(long perProblem) {
+			final int values = length / Double.BYTES;
+			if (n <= 0 || values == 0 || values % perProblem != 0)
+				throw new IllegalArgumentException("The payload does not match n = " + n);
+
+			return (int) (values / perProblem);
+		}
+
+		/**
+		 * Writes the response header at byte {@code offset} and sends it with the
+		 * {@code length} bytes of results following it.
+		 */
+		private void respond(SocketChannel channel, int offset, int length) throws IOException {
+			buffer.putInt(offset, length).putInt(offset + 4, id).putInt(offset + 8, OK).putInt(offset + 12, 0);
+			buffer.clear().position(offset).limit(offset + HEADER + length);
+			writeFully(channel, buffer);
+		}
+
+		private double[] grow(double[] array, int length) {
+			return array.length >= length ? array : new double[length];
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package ch.elste.math;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A square sparse matrix in compressed sparse row format. The values of row
+ * {@code i} are stored at the indices {@code rowStarts[i]} to
+ * {@code rowStarts[i + 1] - 1} of {@link #values} and their columns at the
+ * same indices of {@link #columns}, sorted ascending within each row.
+ *
+ * @author Dillon Elste
+ */
+public class CsrMatrix implements LinearOperator {
+	/**
+	 * The number of rows above which {@link #apply(ForkJoinPool, double[],
+	 * double[])} splits the work.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private final int n;
+	/**
+	 * The index of the first value of every row, followed by the number of
+	 * values.
+	 */
+	public final int[] rowStarts;
+	/**
+	 * The column of every value.
+	 */
+	public final int[] columns;
+	/**
+	 * The non zero values.
+	 */
+	public final double[] values;
+
+	/**
+	 * Creates a new matrix from the given arrays, which are not copied.
+	 *
+	 * @param n         the number of rows and columns
+	 * @param rowStarts the index of the first value of every row, followed by
+	 *                  the number of values
+	 * @param columns   the column of every value, ascending within each row
+	 * @param values    the values
+	 *
+	 * @throws IllegalArgumentException if the arrays do not fit together
+	 */
+	public CsrMatrix(int n, int[] rowStarts, int[] columns, double[] values) {
+		if (rowStarts.length != n + 1 || columns.length != values.length || rowStarts[n] != values.length)
+			throw new IllegalArgumentException("The arrays do not describe an " + n + " by " + n + " matrix");
+
+		this.n = n;
+		this.rowStarts = rowStarts;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/**
+	 * Creates a new matrix from {@code count} entries given as coordinates and
+	 * values. Entries with the same coordinates are summed.
+	 *
+	 * @param n     the number of rows and columns
+	 * @param rows  the row of every entry
+	 * @param cols  the column of every entry
+	 * @param vals  the value of every entry
+	 * @param count the number of entries
+	 *
+	 * @return a new matrix
+	 */
+	public static CsrMatrix fromTriplets(int n, int[] rows, int[] cols, double[] vals, int count) {
+		final int[] starts = new int[n + 1];
+		for (int k = 0; k < count; k++) {
+			starts[rows[k] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			starts[i + 1] += starts[i];
+		}
+
+		final int[] next = Arrays.copyOf(starts, n);
+		final int[] columns = new int[count];
+		final double[] values = new double[count];
+		for (int k = 0; k < count; k++) {
+			final int index = next[rows[k]]++;
+			columns[index] = cols[k];
+			values[index] = vals[k];
+		}
+
+		// sort every row by column and merge duplicates
+		int write = 0;
+		final int[] order = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			final int from = starts[i], to = starts[i + 1];
+			order[i] = write;
+			for (int k = from + 1; k < to; k++) {
+				final int c = columns[k];
+				final double v = values[k];
+				int j = k - 1;
+				for (; j >= from && columns[j] > c; j--) {
+					columns[j + 1] = columns[j];
+					values[j + 1] = values[j];
+				}
+				columns[j + 1] = c;
+				values[j + 1] = v;
+			}
+			for (int k = from; k < to; k++) {
+				if (write > order[i] && columns[write - 1] == columns[k]) {
+					values[write - 1] += values[k];
+				} else {
+					columns[write] = columns[k];
+					values[write] = values[k];
+					write++;
+				}
+			}
+		}
+		order[n] = write;
+
+		return new CsrMatrix(n, order, Arrays.copyOf(columns, write), Arrays.copyOf(values, write));
+	}
+
+	/**
+	 * Returns the number of rows and columns.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 *
+	 * @return the value, 0 if it is not stored
+	 */
+	public double get(int row, int column) {
+		final int index = Arrays.binarySearch(columns, rowStarts[row], rowStarts[row + 1], column);
+		return index < 0 ? 0 : values[index];
+	}
+
+	/**
+	 * Returns a new array with the diagonal of this matrix, for example for
+	 * {@link Preconditioner#jacobi(double[])}.
+	 *
+	 * @return the diagonal
+	 */
+	public double[] diagonal() {
+		double[] temp = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			temp[i] = get(i, i);
+		}
+
+		return temp;
+	}
+
+	@Override
+	public void apply(double[] x, double[] y) {
+		multiplyRows(0, n, x, y);
+	}
+
+	/**
+	 * Computes {@code y = A x} with the rows distributed over {@code pool}.
+	 *
+	 * @param pool the pool to compute on
+	 * @param x    the vector to map
+	 * @param y    receives the result
+	 */
+	public void apply(ForkJoinPool pool, double[] x, double[] y) {
+		if (n <= PARALLEL_THRESHOLD) {
+			multiplyRows(0, n, x, y);
+		} else {
+			final int chunks = (n + PARALLEL_THRESHOLD - 1) / PARALLEL_THRESHOLD;
+			pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(
+					c -> multiplyRows(c * PARALLEL_THRESHOLD, Math.min(n, (c + 1) * PARALLEL_THRESHOLD), x, y)))
+					.join();
+		}
+	}
+
+	/**
+	 * Returns an operator which applies this matrix on {@code pool}.
+	 *
+	 * @param pool the pool to compute on
+	 *
+	 * @return the operator
+	 */
+	public LinearOperator parallel(ForkJoinPool pool) {
+		return (x, y) -> apply(pool, x, y);
+	}
+
+	private void multiplyRows(int from, int to, double[] x, double[] y) {
+		for (int i = from; i < to; i++) {
+			double sum = 0;
+			for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+				sum += values[k] * x[columns[k]];
+			}
+			y[i] = sum;
+		}
+	}
+}
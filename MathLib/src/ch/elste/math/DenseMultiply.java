@@ -0,0 +1,376 @@
+package ch.elste.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * A utility class multiplying large square dense matrices stored row by row
+ * like {@link Matrix#values}.
+ * <p>
+ * {@link #multiply(ForkJoinPool, int, double[], double[], double[])} is the
+ * classic cache blocked {@code O(n^3)} product. The opt-in
+ * {@link #strassen(ForkJoinPool, int, double[], double[], double[])} uses the
+ * Strassen-Winograd algorithm, which replaces one of eight half size products
+ * by 15 additions at every level of recursion, for about {@code O(n^2.81)}
+ * work. Below a cutoff size the blocked kernel takes over. All temporary
+ * matrices are carved out of one workspace array, which can be allocated once
+ * with {@link #workspaceSize(ForkJoinPool, int, int)} and reused. The seven
+ * products of the top level, and of the second level on pools with more than
+ * seven threads, are computed in parallel.
+ * </p>
+ * <p>
+ * Strassen-Winograd trades accuracy for speed: its error bound grows with the
+ * number of levels and depends on the largest element of the matrices rather
+ * than on each product term. With the default cutoff the maximum error
+ * relative to the largest element is typically one to two decimal digits worse
+ * than the classic product; see {@link StrassenBenchmark}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class DenseMultiply {
+	/**
+	 * The size at and below which Strassen-Winograd uses the blocked kernel.
+	 */
+	public static final int DEFAULT_CUTOFF = 128;
+
+	/**
+	 * The number of rows of {@code b} per block of the classic product.
+	 */
+	private static final int BLOCK = 128;
+
+	private DenseMultiply() {
+	}
+
+	/**
+	 * Computes {@code c = a b} with the classic blocked product, distributing
+	 * blocks of rows over {@code pool}.
+	 *
+	 * @param pool the pool to compute on, {@code null} to compute sequentially
+	 * @param n    the number of rows and columns
+	 * @param a    the first factor
+	 * @param b    the second factor
+	 * @param c    receives the product, must not be {@code a} or {@code b}
+	 */
+	public static void multiply(ForkJoinPool pool, int n, double[] a, double[] b, double[] c) {
+		final int blocks = (n + BLOCK - 1) / BLOCK;
+		if (pool == null || blocks < 2) {
+			kernel(n, n, a, 0, n, b, 0, n, c, 0, n);
+		} else {
+			pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(i -> {
+				final int rows = Math.min(BLOCK, n - i * BLOCK);
+				kernel(rows, n, a, i * BLOCK * n, n, b, 0, n, c, i * BLOCK * n, n);
+			})).join();
+		}
+	}
+
+	/**
+	 * Computes {@code c = a b} with Strassen-Winograd and the default cutoff,
+	 * allocating the workspace.
+	 *
+	 * @param pool the pool to compute on, {@code null} to compute sequentially
+	 * @param n    the number of rows and columns
+	 * @param a    the first factor
+	 * @param b    the second factor
+	 * @param c    receives the product, must not be {@code a} or {@code b}
+	 */
+	public static void strassen(ForkJoinPool pool, int n, double[] a, double[] b, double[] c) {
+		strassen(pool, n, a, b, c, DEFAULT_CUTOFF, new double[workspaceSize(pool, n, DEFAULT_CUTOFF)]);
+	}
+
+	/**
+	 * Returns the number of values of the workspace
+	 * {@link #strassen(ForkJoinPool, int, double[], double[], double[], int, double[])}
+	 * needs, which is between about {@code 0.7 n^2} and {@code 10 n^2} depending
+	 * on the padding and the parallelism of {@code pool}.
+	 *
+	 * @param pool   the pool to compute on, {@code null} to compute sequentially
+	 * @param n      the number of rows and columns
+	 * @param cutoff the size at and below which the blocked kernel is used
+	 *
+	 * @return the size of the workspace
+	 *
+	 * @throws IllegalArgumentException if the workspace would not fit into an
+	 *                                  array
+	 */
+	public static int workspaceSize(ForkJoinPool pool, int n, int cutoff) {
+		final int levels = levels(n, cutoff);
+		final long m = padded(n, levels);
+		long size = workspace(m, depth(pool), levels);
+		if (m != n)
+			size += 3 * m * m;
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("The workspace for n=" + n + " does not fit into an array");
+
+		return (int) size;
+	}
+
+	/**
+	 * Computes {@code c = a b} with Strassen-Winograd. Matrices whose size is not
+	 * a cutoff sized block times a power of two are padded with zeros.
+	 *
+	 * @param pool      the pool to compute on, {@code null} to compute
+	 *                  sequentially
+	 * @param n         the number of rows and columns
+	 * @param a         the first factor
+	 * @param b         the second factor
+	 * @param c         receives the product, must not be {@code a} or
+	 *                  {@code b}
+	 * @param cutoff    the size at and below which the blocked kernel is used
+	 * @param workspace at least {@link #workspaceSize(ForkJoinPool, int, int)}
+	 *                  values, overwritten
+	 *
+	 * @throws IllegalArgumentException if the workspace is too small
+	 */
+	public static void strassen(ForkJoinPool pool, int n, double[] a, double[] b, double[] c, int cutoff,
+			double[] workspace) {
+		if (cutoff < 1)
+			throw new IllegalArgumentException("The cutoff must be positive");
+		if (workspace.length < workspaceSize(pool, n, cutoff))
+			throw new IllegalArgumentException("The workspace is too small");
+
+		final int levels = levels(n, cutoff);
+		final int m = padded(n, levels);
+		final int depth = depth(pool);
+		if (m == n) {
+			product(pool, depth, levels, m, a, 0, m, b, 0, m, c, 0, m, workspace, 0);
+			return;
+		}
+
+		final int pa = workspace.length - 3 * m * m, pb = pa + m * m, pc = pb + m * m;
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < m; j++) {
+				final boolean inside = i < n && j < n;
+				workspace[pa + i * m + j] = inside ? a[i * n + j] : 0;
+				workspace[pb + i * m + j] = inside ? b[i * n + j] : 0;
+			}
+		}
+		product(pool, depth, levels, m, workspace, pa, m, workspace, pb, m, workspace, pc, m, workspace, 0);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(workspace, pc + i * m, c, i * n, n);
+		}
+	}
+
+	/**
+	 * Returns the number of halvings until the size is at most {@code cutoff}.
+	 */
+	private static int levels(int n, int cutoff) {
+		int levels = 0;
+		while ((n + (1 << levels) - 1) >> levels > cutoff) {
+			levels++;
+		}
+
+		return levels;
+	}
+
+	/**
+	 * Returns the smallest size of at least {@code n} divisible by
+	 * {@code 2^levels}.
+	 */
+	private static int padded(int n, int levels) {
+		return ((n + (1 << levels) - 1) >> levels) << levels;
+	}
+
+	/**
+	 * Returns the number of levels whose products are forked.
+	 */
+	private static int depth(ForkJoinPool pool) {
+		if (pool == null || pool.getParallelism() < 2)
+			return 0;
+
+		return pool.getParallelism() > 7 ? 2 : 1;
+	}
+
+	/**
+	 * Returns the workspace of a product of size {@code s}.
+	 */
+	private static long workspace(long s, int depth, int levels) {
+		if (levels == 0)
+			return 0;
+
+		final long h = s / 2;
+		if (depth == 0)
+			return 2 * h * h + workspace(h, 0, levels - 1);
+
+		return 11 * h * h + 7 * workspace(h, depth - 1, levels - 1);
+	}
+
+	private static void product(ForkJoinPool pool, int depth, int levels, int s, double[] a, int ao, int lda,
+			double[] b, int bo, int ldb, double[] c, int co, int ldc, double[] w, int wo) {
+		if (depth > 0 && levels > 0) {
+			pool.invoke(new ProductTask(depth, levels, s, a, ao, lda, b, bo, ldb, c, co, ldc, w, wo));
+		} else {
+			sequential(levels, s, a, ao, lda, b, bo, ldb, c, co, ldc, w, wo);
+		}
+	}
+
+	/**
+	 * Computes {@code c = a b} with the schedule of Douglas et al., which needs
+	 * two temporary quadrants per level.
+	 */
+	private static void sequential(int levels, int s, double[] a, int ao, int lda, double[] b, int bo, int ldb,
+			double[] c, int co, int ldc, double[] w, int wo) {
+		if (levels == 0) {
+			kernel(s, s, a, ao, lda, b, bo, ldb, c, co, ldc);
+			return;
+		}
+
+		final int h = s / 2;
+		final int a11 = ao, a12 = ao + h, a21 = ao + h * lda, a22 = a21 + h;
+		final int b11 = bo, b12 = bo + h, b21 = bo + h * ldb, b22 = b21 + h;
+		final int c11 = co, c12 = co + h, c21 = co + h * ldc, c22 = c21 + h;
+		final int x = wo, y = wo + h * h, next = wo + 2 * h * h;
+		final int l = levels - 1;
+
+		subtract(h, a, a11, lda, a, a21, lda, w, x, h);
+		subtract(h, b, b22, ldb, b, b12, ldb, w, y, h);
+		sequential(l, h, w, x, h, w, y, h, c, c21, ldc, w, next);
+		add(h, a, a21, lda, a, a22, lda, w, x, h);
+		subtract(h, b, b12, ldb, b, b11, ldb, w, y, h);
+		sequential(l, h, w, x, h, w, y, h, c, c22, ldc, w, next);
+		subtract(h, w, x, h, a, a11, lda, w, x, h);
+		subtract(h, b, b22, ldb, w, y, h, w, y, h);
+		sequential(l, h, w, x, h, w, y, h, c, c12, ldc, w, next);
+		subtract(h, a, a12, lda, w, x, h, w, x, h);
+		sequential(l, h, w, x, h, b, b22, ldb, c, c11, ldc, w, next);
+		sequential(l, h, a, a11, lda, b, b11, ldb, w, x, h, w, next);
+		add(h, w, x, h, c, c12, ldc, c, c12, ldc);
+		add(h, c, c12, ldc, c, c21, ldc, c, c21, ldc);
+		add(h, c, c12, ldc, c, c22, ldc, c, c12, ldc);
+		add(h, c, c21, ldc, c, c22, ldc, c, c22, ldc);
+		add(h, c, c12, ldc, c, c11, ldc, c, c12, ldc);
+		subtract(h, w, y, h, b, b21, ldb, w, y, h);
+		sequential(l, h, a, a22, lda, w, y, h, c, c11, ldc, w, next);
+		subtract(h, c, c21, ldc, c, c11, ldc, c, c21, ldc);
+		sequential(l, h, a, a12, lda, b, b21, ldb, c, c11, ldc, w, next);
+		add(h, w, x, h, c, c11, ldc, c, c11, ldc);
+	}
+
+	/**
+	 * Computes {@code c = a b} for an {@code rows} by {@code s} block of
+	 * {@code a}, streaming the rows of {@code b} in blocks that stay in cache.
+	 */
+	private static void kernel(int rows, int s, double[] a, int ao, int lda, double[] b, int bo, int ldb,
+			double[] c, int co, int ldc) {
+		for (int i = 0; i < rows; i++) {
+			final int ci = co + i * ldc;
+			for (int j = 0; j < s; j++) {
+				c[ci + j] = 0;
+			}
+		}
+
+		for (int k0 = 0; k0 < s; k0 += BLOCK) {
+			final int k1 = Math.min(s, k0 + BLOCK);
+			for (int i = 0; i < rows; i++) {
+				final int ai = ao + i * lda, ci = co + i * ldc;
+				for (int k = k0; k < k1; k++) {
+					final double aik = a[ai + k];
+					final int bk = bo + k * ldb;
+					for (int j = 0; j < s; j++) {
+						c[ci + j] += aik * b[bk + j];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes {@code z = x + y} for {@code h} by {@code h} blocks.
+	 */
+	private static void add(int h, double[] x, int xo, int ldx, double[] y, int yo, int ldy, double[] z, int zo,
+			int ldz) {
+		for (int i = 0; i < h; i++) {
+			final int xi = xo + i * ldx, yi = yo + i * ldy, zi = zo + i * ldz;
+			for (int j = 0; j < h; j++) {
+				z[zi + j] = x[xi + j] + y[yi + j];
+			}
+		}
+	}
+
+	/**
+	 * Computes {@code z = x - y} for {@code h} by {@code h} blocks.
+	 */
+	private static void subtract(int h, double[] x, int xo, int ldx, double[] y, int yo, int ldy, double[] z,
+			int zo, int ldz) {
+		for (int i = 0; i < h; i++) {
+			final int xi = xo + i * ldx, yi = yo + i * ldy, zi = zo + i * ldz;
+			for (int j = 0; j < h; j++) {
+				z[zi + j] = x[xi + j] - y[yi + j];
+			}
+		}
+	}
+
+	/**
+	 * One Strassen-Winograd level whose seven products are computed in parallel,
+	 * each with its own part of the workspace.
+	 */
+	private static final class ProductTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int depth, levels, s;
+		private final double[] a, b, c, w;
+		private final int ao, lda, bo, ldb, co, ldc, wo;
+
+		ProductTask(int depth, int levels, int s, double[] a, int ao, int lda, double[] b, int bo, int ldb,
+				double[] c, int co, int ldc, double[] w, int wo) {
+			this.depth = depth;
+			this.levels = levels;
+			this.s = s;
+			this.a = a;
+			this.ao = ao;
+			this.lda = lda;
+			this.b = b;
+			this.bo = bo;
+			this.ldb = ldb;
+			this.c = c;
+			this.co = co;
+			this.ldc = ldc;
+			this.w = w;
+			this.wo = wo;
+		}
+
+		@Override
+		protected void compute() {
+			if (depth == 0 || levels == 0) {
+				sequential(levels, s, a, ao, lda, b, bo, ldb, c, co, ldc, w, wo);
+				return;
+			}
+
+			final int h = s / 2, hh = h * h;
+			final int a11 = ao, a12 = ao + h, a21 = ao + h * lda, a22 = a21 + h;
+			final int b11 = bo, b12 = bo + h, b21 = bo + h * ldb, b22 = b21 + h;
+			final int c11 = co, c12 = co + h, c21 = co + h * ldc, c22 = c21 + h;
+			final int s1 = wo, s2 = s1 + hh, s3 = s2 + hh, s4 = s3 + hh;
+			final int t1 = s4 + hh, t2 = t1 + hh, t3 = t2 + hh, t4 = t3 + hh;
+			final int p1 = t4 + hh, p2 = p1 + hh, p4 = p2 + hh;
+			final int child = (int) workspace(h, depth - 1, levels - 1), next = p4 + hh;
+
+			add(h, a, a21, lda, a, a22, lda, w, s1, h);
+			subtract(h, w, s1, h, a, a11, lda, w, s2, h);
+			subtract(h, a, a11, lda, a, a21, lda, w, s3, h);
+			subtract(h, a, a12, lda, w, s2, h, w, s4, h);
+			subtract(h, b, b12, ldb, b, b11, ldb, w, t1, h);
+			subtract(h, b, b22, ldb, w, t1, h, w, t2, h);
+			subtract(h, b, b22, ldb, b, b12, ldb, w, t3, h);
+			subtract(h, w, t2, h, b, b21, ldb, w, t4, h);
+
+			final int d = depth - 1, l = levels - 1;
+			invokeAll(new ProductTask(d, l, h, a, a11, lda, b, b11, ldb, w, p1, h, w, next),
+					new ProductTask(d, l, h, a, a12, lda, b, b21, ldb, w, p2, h, w, next + child),
+					new ProductTask(d, l, h, w, s4, h, b, b22, ldb, c, c11, ldc, w, next + 2 * child),
+					new ProductTask(d, l, h, a, a22, lda, w, t4, h, w, p4, h, w, next + 3 * child),
+					new ProductTask(d, l, h, w, s1, h, w, t1, h, c, c22, ldc, w, next + 4 * child),
+					new ProductTask(d, l, h, w, s2, h, w, t2, h, c, c12, ldc, w, next + 5 * child),
+					new ProductTask(d, l, h, w, s3, h, w, t3, h, c, c21, ldc, w, next + 6 * child));
+
+			add(h, w, p1, h, c, c12, ldc, c, c12, ldc);
+			add(h, c, c12, ldc, c, c21, ldc, c, c21, ldc);
+			add(h, c, c12, ldc, c, c22, ldc, c, c12, ldc);
+			add(h, c, c21, ldc, c, c22, ldc, c, c22, ldc);
+			add(h, c, c12, ldc, c, c11, ldc, c, c12, ldc);
+			subtract(h, c, c21, ldc, w, p4, h, c, c21, ldc);
+			add(h, w, p1, h, w, p2, h, c, c11, ldc);
+		}
+	}
+}
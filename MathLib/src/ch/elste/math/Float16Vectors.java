@@ -0,0 +1,278 @@
+package ch.elste.math;
+
+/**
+ * Stores packed vectors as IEEE half precision floats, using a quarter of the
+ * memory of doubles. Dot products and distances are computed directly on the
+ * compressed values, which are decoded one at a time through a lookup table.
+ * <p>
+ * Half precision keeps about three decimal digits: the relative error of every
+ * stored value within the normal range (about {@code 6.1e-5} to {@code 65504})
+ * is at most {@code 2^-11}. Larger values are stored as infinity. The largest
+ * absolute error that occurred while encoding is reported by
+ * {@link #maxAbsError()}.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see Int8Vectors
+ */
+public class Float16Vectors {
+	/**
+	 * The value of every half precision bit pattern.
+	 */
+	private static final float[] DECODE = new float[1 << 16];
+
+	static {
+		for (int i = 0; i < DECODE.length; i++) {
+			DECODE[i] = toFloat((short) i);
+		}
+	}
+
+	private final int n, d;
+	private final short[] values;
+	private final double maxAbsError;
+
+	private Float16Vectors(int n, int d, short[] values, double maxAbsError) {
+		this.n = n;
+		this.d = d;
+		this.values = values;
+		this.maxAbsError = maxAbsError;
+	}
+
+	/**
+	 * Encodes {@code n} packed vectors with {@code d} values each.
+	 *
+	 * @param data the packed vectors
+	 * @param n    the number of vectors
+	 * @param d    the number of values per vector
+	 *
+	 * @return the compressed vectors
+	 */
+	public static Float16Vectors encode(double[] data, int n, int d) {
+		short[] temp = new short[n * d];
+		double error = 0;
+
+		for (int i = 0; i < temp.length; i++) {
+			temp[i] = toFloat16((float) data[i]);
+			error = Math.max(error, Math.abs(DECODE[temp[i] & 0xffff] - data[i]));
+		}
+
+		return new Float16Vectors(n, d, temp, error);
+	}
+
+	/**
+	 * Encodes {@code n} packed vectors with {@code d} values each.
+	 *
+	 * @param data the packed vectors
+	 * @param n    the number of vectors
+	 * @param d    the number of values per vector
+	 *
+	 * @return the compressed vectors
+	 */
+	public static Float16Vectors encode(float[] data, int n, int d) {
+		short[] temp = new short[n * d];
+		double error = 0;
+
+		for (int i = 0; i < temp.length; i++) {
+			temp[i] = toFloat16(data[i]);
+			error = Math.max(error, Math.abs(DECODE[temp[i] & 0xffff] - (double) data[i]));
+		}
+
+		return new Float16Vectors(n, d, temp, error);
+	}
+
+	/**
+	 * Returns the number of vectors.
+	 *
+	 * @return the number of vectors
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of values per vector.
+	 *
+	 * @return the dimension
+	 */
+	public int dimension() {
+		return d;
+	}
+
+	/**
+	 * Returns the largest absolute difference between an original value and its
+	 * stored approximation. The error of a dot product with {@code q} is at most
+	 * this times the sum of the absolute values of {@code q}.
+	 *
+	 * @return the largest absolute error
+	 */
+	public double maxAbsError() {
+		return maxAbsError;
+	}
+
+	/**
+	 * Decodes vector {@code i} into {@code dst}.
+	 *
+	 * @param i      the index of the vector
+	 * @param dst    the destination
+	 * @param offset the index of the first value in {@code dst}
+	 */
+	public void get(int i, double[] dst, int offset) {
+		for (int k = 0; k < d; k++) {
+			dst[offset + k] = DECODE[values[i * d + k] & 0xffff];
+		}
+	}
+
+	/**
+	 * Decodes vector {@code i} into {@code dst}. The vectors must have at least 3
+	 * values.
+	 *
+	 * @param i   the index of the vector
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 get(int i, Vector3 dst) {
+		dst.x = DECODE[values[i * d] & 0xffff];
+		dst.y = DECODE[values[i * d + 1] & 0xffff];
+		dst.z = DECODE[values[i * d + 2] & 0xffff];
+
+		return dst;
+	}
+
+	/**
+	 * Returns the dot product of vector {@code i} and {@code q}.
+	 *
+	 * @param i       the index of the vector
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 *
+	 * @return the dot product
+	 */
+	public double dot(int i, double[] q, int qOffset) {
+		final int base = i * d;
+		double s0 = 0, s1 = 0;
+		int k = 0;
+		for (; k + 1 < d; k += 2) {
+			s0 += DECODE[values[base + k] & 0xffff] * q[qOffset + k];
+			s1 += DECODE[values[base + k + 1] & 0xffff] * q[qOffset + k + 1];
+		}
+		if (k < d)
+			s0 += DECODE[values[base + k] & 0xffff] * q[qOffset + k];
+
+		return s0 + s1;
+	}
+
+	/**
+	 * Returns the squared euclidean distance between vector {@code i} and
+	 * {@code q}.
+	 *
+	 * @param i       the index of the vector
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 *
+	 * @return the squared distance
+	 */
+	public double squaredDistance(int i, double[] q, int qOffset) {
+		final int base = i * d;
+		double sum = 0;
+		for (int k = 0; k < d; k++) {
+			double diff = DECODE[values[base + k] & 0xffff] - q[qOffset + k];
+			sum += diff * diff;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Computes the dot products of all vectors with {@code q}.
+	 *
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 * @param out     receives one dot product per vector
+	 */
+	public void dotAll(double[] q, int qOffset, double[] out) {
+		for (int i = 0; i < n; i++) {
+			out[i] = dot(i, q, qOffset);
+		}
+	}
+
+	/**
+	 * Computes the squared euclidean distances of all vectors to {@code q}.
+	 *
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 * @param out     receives one squared distance per vector
+	 */
+	public void squaredDistanceAll(double[] q, int qOffset, double[] out) {
+		for (int i = 0; i < n; i++) {
+			out[i] = squaredDistance(i, q, qOffset);
+		}
+	}
+
+	/**
+	 * Converts {@code f} to the nearest half precision float, rounding ties to
+	 * even.
+	 *
+	 * @param f the value to convert
+	 *
+	 * @return the bits of the half precision float
+	 */
+	public static short toFloat16(float f) {
+		final int bits = Float.floatToRawIntBits(f);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int value = bits & 0x7fffffff;
+
+		if (value >= 0x7f800000) {
+			// infinity stays infinity, NaN keeps its top payload bits and stays NaN
+			return (short) (sign | 0x7c00 | (value > 0x7f800000 ? 0x200 | ((value >>> 13) & 0x3ff) : 0));
+		}
+		if (value >= 0x477ff000)
+			return (short) (sign | 0x7c00);
+		if (value < 0x38800000) {
+			final int exponent = value >>> 23;
+			if (exponent < 102)
+				return (short) sign;
+
+			final int mantissa = (value & 0x7fffff) | 0x800000;
+			final int shift = 126 - exponent;
+			int m = mantissa >>> shift;
+			final int rest = mantissa & ((1 << shift) - 1);
+			final int half = 1 << (shift - 1);
+			if (rest > half || (rest == half && (m & 1) != 0))
+				m++;
+
+			return (short) (sign | m);
+		}
+
+		final int rebiased = value - (112 << 23);
+		int m = rebiased >>> 13;
+		final int rest = rebiased & 0x1fff;
+		if (rest > 0x1000 || (rest == 0x1000 && (m & 1) != 0))
+			m++;
+
+		return (short) (sign | m);
+	}
+
+	/**
+	 * Converts the half precision float {@code h} to a float.
+	 *
+	 * @param h the bits of the half precision float
+	 *
+	 * @return the value as float
+	 */
+	public static float toFloat(short h) {
+		final int sign = (h & 0x8000) << 16;
+		final int exponent = (h >>> 10) & 0x1f;
+		final int mantissa = h & 0x3ff;
+
+		if (exponent == 0x1f)
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		if (exponent == 0) {
+			float f = mantissa * 0x1p-24f;
+			return sign == 0 ? f : -f;
+		}
+
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+}
@@ -0,0 +1,110 @@
+package ch.elste.math;
+
+/**
+ * The zero fill-in incomplete Cholesky preconditioner of a symmetric positive
+ * definite {@link CsrMatrix}. The factor {@code L} has the non zero pattern of
+ * the lower triangle of the matrix, so it takes no more memory than the matrix
+ * and applying it costs about one matrix vector product.
+ *
+ * @author Dillon Elste
+ *
+ * @see Cholesky
+ */
+public class IncompleteCholesky implements Preconditioner {
+	private final int n;
+	private final int[] rowStarts, columns;
+	/**
+	 * The lower triangle of {@code L}, with the diagonal last in every row.
+	 */
+	private final double[] values;
+
+	/**
+	 * Factorizes the lower triangle of {@code a}. Every row must store its
+	 * diagonal.
+	 *
+	 * @param a the symmetric positive definite matrix
+	 *
+	 * @throws IllegalArgumentException if a diagonal is missing or the
+	 *                                  factorization breaks down
+	 */
+	public IncompleteCholesky(CsrMatrix a) {
+		n = a.size();
+		rowStarts = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			int count = 0;
+			for (int k = a.rowStarts[i]; k < a.rowStarts[i + 1] && a.columns[k] <= i; k++) {
+				count++;
+			}
+			rowStarts[i + 1] = rowStarts[i] + count;
+		}
+
+		columns = new int[rowStarts[n]];
+		values = new double[rowStarts[n]];
+		for (int i = 0; i < n; i++) {
+			final int length = rowStarts[i + 1] - rowStarts[i];
+			System.arraycopy(a.columns, a.rowStarts[i], columns, rowStarts[i], length);
+			System.arraycopy(a.values, a.rowStarts[i], values, rowStarts[i], length);
+			if (length == 0 || columns[rowStarts[i + 1] - 1] != i)
+				throw new IllegalArgumentException("Row " + i + " has no diagonal");
+		}
+
+		for (int i = 0; i < n; i++) {
+			final int last = rowStarts[i + 1] - 1;
+			for (int p = rowStarts[i]; p < last; p++) {
+				final int k = columns[p];
+				values[p] = (values[p] - sparseDot(i, k, k)) / values[rowStarts[k + 1] - 1];
+			}
+
+			final double d = values[last] - sparseDot(i, i, i);
+			if (!(d > 0))
+				throw new IllegalArgumentException("The factorization broke down in row " + i);
+			values[last] = Math.sqrt(d);
+		}
+	}
+
+	/**
+	 * Returns the sum of {@code L[i][j] * L[k][j]} over the columns
+	 * {@code j < limit} both rows store.
+	 */
+	private double sparseDot(int i, int k, int limit) {
+		int p = rowStarts[i], q = rowStarts[k];
+		final int pEnd = rowStarts[i + 1], qEnd = rowStarts[k + 1];
+		double sum = 0;
+
+		while (p < pEnd && q < qEnd) {
+			final int cp = columns[p], cq = columns[q];
+			if (cp >= limit || cq >= limit)
+				break;
+			if (cp == cq) {
+				sum += values[p++] * values[q++];
+			} else if (cp < cq) {
+				p++;
+			} else {
+				q++;
+			}
+		}
+
+		return sum;
+	}
+
+	@Override
+	public void apply(double[] r, double[] z) {
+		for (int i = 0; i < n; i++) {
+			final int last = rowStarts[i + 1] - 1;
+			double s = r[i];
+			for (int p = rowStarts[i]; p < last; p++) {
+				s -= values[p] * z[columns[p]];
+			}
+			z[i] = s / values[last];
+		}
+
+		for (int i = n - 1; i >= 0; i--) {
+			final int last = rowStarts[i + 1] - 1;
+			final double zi = z[i] / values[last];
+			z[i] = zi;
+			for (int p = rowStarts[i]; p < last; p++) {
+				z[columns[p]] -= values[p] * zi;
+			}
+		}
+	}
+}
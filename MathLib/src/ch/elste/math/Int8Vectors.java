@@ -0,0 +1,216 @@
+package ch.elste.math;
+
+/**
+ * Stores packed vectors as 8 bit integers with one scale per block of values,
+ * using an eighth of the memory of doubles plus the scales. Every block of
+ * {@code blockSize} consecutive values of a vector is divided by its largest
+ * absolute value over 127 and rounded. Dot products and distances are computed
+ * directly on the bytes, applying the scale once per block.
+ * <p>
+ * The absolute error of a stored value is at most half the scale of its block.
+ * {@link #errorBound(int)} reports this bound per vector and
+ * {@link #maxAbsError()} the largest error that occurred while encoding.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see Float16Vectors
+ */
+public class Int8Vectors {
+	private final int n, d, blockSize, blocks;
+	private final byte[] values;
+	private final float[] scales;
+	private final double maxAbsError;
+
+	private Int8Vectors(int n, int d, int blockSize, byte[] values, float[] scales, double maxAbsError) {
+		this.n = n;
+		this.d = d;
+		this.blockSize = blockSize;
+		this.blocks = (d + blockSize - 1) / blockSize;
+		this.values = values;
+		this.scales = scales;
+		this.maxAbsError = maxAbsError;
+	}
+
+	/**
+	 * Encodes {@code n} packed vectors with {@code d} values each.
+	 *
+	 * @param data      the packed vectors
+	 * @param n         the number of vectors
+	 * @param d         the number of values per vector
+	 * @param blockSize the number of values sharing one scale; smaller blocks are
+	 *                  more accurate but need more memory
+	 *
+	 * @return the compressed vectors
+	 *
+	 * @throws IllegalArgumentException if {@code blockSize} is not positive
+	 */
+	public static Int8Vectors encode(double[] data, int n, int d, int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be positive");
+
+		final int blocks = (d + blockSize - 1) / blockSize;
+		final byte[] temp = new byte[n * d];
+		final float[] scales = new float[n * blocks];
+		double error = 0;
+
+		for (int i = 0; i < n; i++) {
+			for (int b = 0; b < blocks; b++) {
+				final int from = i * d + b * blockSize;
+				final int to = Math.min(i * d + d, from + blockSize);
+				double max = 0;
+				for (int k = from; k < to; k++) {
+					max = Math.max(max, Math.abs(data[k]));
+				}
+
+				final float scale = (float) (max / 127);
+				scales[i * blocks + b] = scale;
+				for (int k = from; k < to; k++) {
+					int q = scale == 0 ? 0 : (int) Math.round(data[k] / scale);
+					temp[k] = (byte) Math.max(-127, Math.min(127, q));
+					error = Math.max(error, Math.abs(temp[k] * scale - data[k]));
+				}
+			}
+		}
+
+		return new Int8Vectors(n, d, blockSize, temp, scales, error);
+	}
+
+	/**
+	 * Returns the number of vectors.
+	 *
+	 * @return the number of vectors
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of values per vector.
+	 *
+	 * @return the dimension
+	 */
+	public int dimension() {
+		return d;
+	}
+
+	/**
+	 * Returns the largest absolute difference between an original value and its
+	 * stored approximation. The error of a dot product with {@code q} is at most
+	 * this times the sum of the absolute values of {@code q}.
+	 *
+	 * @return the largest absolute error
+	 */
+	public double maxAbsError() {
+		return maxAbsError;
+	}
+
+	/**
+	 * Returns an upper bound of the absolute error of every value of vector
+	 * {@code i}, which is half of its largest block scale.
+	 *
+	 * @param i the index of the vector
+	 *
+	 * @return the error bound
+	 */
+	public double errorBound(int i) {
+		float max = 0;
+		for (int b = 0; b < blocks; b++) {
+			max = Math.max(max, scales[i * blocks + b]);
+		}
+
+		return max / 2d;
+	}
+
+	/**
+	 * Decodes vector {@code i} into {@code dst}.
+	 *
+	 * @param i      the index of the vector
+	 * @param dst    the destination
+	 * @param offset the index of the first value in {@code dst}
+	 */
+	public void get(int i, double[] dst, int offset) {
+		for (int k = 0; k < d; k++) {
+			dst[offset + k] = values[i * d + k] * (double) scales[i * blocks + k / blockSize];
+		}
+	}
+
+	/**
+	 * Returns the dot product of vector {@code i} and {@code q}.
+	 *
+	 * @param i       the index of the vector
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 *
+	 * @return the dot product
+	 */
+	public double dot(int i, double[] q, int qOffset) {
+		final int base = i * d;
+		double sum = 0;
+
+		for (int b = 0; b < blocks; b++) {
+			final int from = b * blockSize;
+			final int to = Math.min(d, from + blockSize);
+			double block = 0;
+			for (int k = from; k < to; k++) {
+				block += values[base + k] * q[qOffset + k];
+			}
+			sum += block * scales[i * blocks + b];
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Returns the squared euclidean distance between vector {@code i} and
+	 * {@code q}.
+	 *
+	 * @param i       the index of the vector
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 *
+	 * @return the squared distance
+	 */
+	public double squaredDistance(int i, double[] q, int qOffset) {
+		final int base = i * d;
+		double sum = 0;
+
+		for (int b = 0; b < blocks; b++) {
+			final double scale = scales[i * blocks + b];
+			final int from = b * blockSize;
+			final int to = Math.min(d, from + blockSize);
+			for (int k = from; k < to; k++) {
+				double diff = values[base + k] * scale - q[qOffset + k];
+				sum += diff * diff;
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Computes the dot products of all vectors with {@code q}.
+	 *
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 * @param out     receives one dot product per vector
+	 */
+	public void dotAll(double[] q, int qOffset, double[] out) {
+		for (int i = 0; i < n; i++) {
+			out[i] = dot(i, q, qOffset);
+		}
+	}
+
+	/**
+	 * Computes the squared euclidean distances of all vectors to {@code q}.
+	 *
+	 * @param q       the packed query
+	 * @param qOffset the index of the query in {@code q}
+	 * @param out     receives one squared distance per vector
+	 */
+	public void squaredDistanceAll(double[] q, int qOffset, double[] out) {
+		for (int i = 0; i < n; i++) {
+			out[i] = squaredDistance(i, q, qOffset);
+		}
+	}
+}
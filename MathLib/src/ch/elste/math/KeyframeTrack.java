@@ -0,0 +1,519 @@
+package ch.elste.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A keyframe track holds a sequence of keys stored as packed arrays (structure
+ * of arrays): one array for the key times and one for the key values, where
+ * each key occupies {@link #components} consecutive doubles. A track of
+ * {@link Vector3} positions uses 3 components, a rotation track uses 4
+ * components holding a unit quaternion {@code (x, y, z, w)}.
+ * <p>
+ * Sampling never allocates. Every track remembers the segment of its last
+ * lookup, so sampling with steadily increasing times usually finds the segment
+ * in constant time and only falls back to a binary search on jumps. Because of
+ * this cursor a single track must not be sampled by several threads at once,
+ * but disjoint ranges of a track array may be sampled concurrently with
+ * {@link #sampleAll(KeyframeTrack[], int, int, double, Interpolation, double[], int)}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class KeyframeTrack {
+	/**
+	 * The ways a track can be interpolated between two keys.
+	 */
+	public enum Interpolation {
+		/**
+		 * Holds the value of the previous key.
+		 */
+		STEP,
+		/**
+		 * Linear interpolation of every component.
+		 */
+		LINEAR,
+		/**
+		 * Normalized linear interpolation of quaternions. Requires 4 components.
+		 */
+		NLERP,
+		/**
+		 * Spherical linear interpolation of quaternions. Requires 4 components.
+		 */
+		SLERP,
+		/**
+		 * Cubic Hermite interpolation. Uses the tangents of the track or
+		 * Catmull-Rom tangents if the track has none.
+		 */
+		HERMITE
+	}
+
+	/**
+	 * Below this many tracks {@link #parallelSampleAll} samples on the calling
+	 * thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1024;
+
+	/**
+	 * The number of doubles per key.
+	 */
+	public final int components;
+
+	/**
+	 * The strictly ascending key times.
+	 */
+	public final double[] times;
+
+	/**
+	 * The packed key values, {@code components} doubles per key.
+	 */
+	public final double[] values;
+
+	/**
+	 * The packed tangents used by {@link Interpolation#HERMITE} or {@code null}.
+	 */
+	public final double[] tangents;
+
+	/**
+	 * The index of the segment found by the last lookup.
+	 */
+	private int cursor;
+
+	/**
+	 * Creates a new track without tangents.
+	 *
+	 * @param components the number of doubles per key
+	 * @param times      the strictly ascending key times
+	 * @param values     the packed key values
+	 *
+	 * @throws IllegalArgumentException if the arrays do not match or the times are
+	 *                                  not strictly ascending
+	 */
+	public KeyframeTrack(int components, double[] times, double[] values) {
+		this(components, times, values, null);
+	}
+
+	/**
+	 * Creates a new track. The arrays are used directly and not copied.
+	 *
+	 * @param components the number of doubles per key
+	 * @param times      the strictly ascending key times
+	 * @param values     the packed key values
+	 * @param tangents   the packed tangents or {@code null}
+	 *
+	 * @throws IllegalArgumentException if the arrays do not match or the times are
+	 *                                  not strictly ascending
+	 */
+	public KeyframeTrack(int components, double[] times, double[] values, double[] tangents) {
+		if (components < 1)
+			throw new IllegalArgumentException("A track needs at least one component");
+		if (times.length < 1)
+			throw new IllegalArgumentException("A track needs at least one key");
+		if (values.length != times.length * components)
+			throw new IllegalArgumentException(
+					"There have to be " + times.length * components + " values but there are " + values.length);
+		if (tangents != null && tangents.length != values.length)
+			throw new IllegalArgumentException("There have to be as many tangents as values");
+		for (int i = 1; i < times.length; i++) {
+			if (!(times[i] > times[i - 1]))
+				throw new IllegalArgumentException("The key times have to be strictly ascending");
+		}
+
+		this.components = components;
+		this.times = times;
+		this.values = values;
+		this.tangents = tangents;
+	}
+
+	/**
+	 * Creates a new track of 3 components from the given vectors.
+	 *
+	 * @param times the strictly ascending key times
+	 * @param keys  the key values
+	 *
+	 * @return a new track
+	 */
+	public static KeyframeTrack fromVectors(double[] times, Vector3... keys) {
+		double[] temp = new double[keys.length * 3];
+
+		for (int i = 0; i < keys.length; i++) {
+			temp[i * 3] = keys[i].x;
+			temp[i * 3 + 1] = keys[i].y;
+			temp[i * 3 + 2] = keys[i].z;
+		}
+
+		return new KeyframeTrack(3, times, temp);
+	}
+
+	/**
+	 * Creates a new rotation track of 4 components from the given rotation
+	 * matrices.
+	 *
+	 * @param times the strictly ascending key times
+	 * @param keys  the key rotations
+	 *
+	 * @return a new track
+	 */
+	public static KeyframeTrack fromRotations(double[] times, Matrix3x3... keys) {
+		double[] temp = new double[keys.length * 4];
+
+		for (int i = 0; i < keys.length; i++) {
+			matrixToRotation(keys[i], temp, i * 4);
+			// keep neighbouring keys in the same hemisphere
+			if (i > 0 && dot4(temp, (i - 1) * 4, temp, i * 4) < 0) {
+				for (int k = 0; k < 4; k++) {
+					temp[i * 4 + k] = -temp[i * 4 + k];
+				}
+			}
+		}
+
+		return new KeyframeTrack(4, times, temp);
+	}
+
+	/**
+	 * Returns the number of keys of this track.
+	 *
+	 * @return the number of keys
+	 */
+	public int size() {
+		return times.length;
+	}
+
+	/**
+	 * Samples this track at time {@code t}. Times outside the track are clamped
+	 * to the first or last key.
+	 *
+	 * @param t      the time to sample at
+	 * @param mode   the interpolation to use
+	 * @param out    the array to write the {@link #components} results to
+	 * @param offset the index of the first result in {@code out}
+	 *
+	 * @throws IllegalArgumentException if {@code mode} needs 4 components and this
+	 *                                  track has a different number
+	 */
+	public void sample(double t, Interpolation mode, double[] out, int offset) {
+		final int c = components;
+		if (times.length == 1) {
+			System.arraycopy(values, 0, out, offset, c);
+			return;
+		}
+
+		final int i = segment(t);
+		final double t0 = times[i];
+		final double dt = times[i + 1] - t0;
+		double u = (t - t0) / dt;
+		if (u < 0) {
+			u = 0;
+		} else if (u > 1) {
+			u = 1;
+		}
+
+		final int a = i * c;
+		final int b = a + c;
+		switch (mode) {
+		case STEP:
+			System.arraycopy(values, u < 1 ? a : b, out, offset, c);
+			break;
+		case LINEAR:
+			for (int k = 0; k < c; k++) {
+				out[offset + k] = values[a + k] + (values[b + k] - values[a + k]) * u;
+			}
+			break;
+		case NLERP:
+			checkRotation();
+			nlerp(values, a, values, b, u, out, offset);
+			break;
+		case SLERP:
+			checkRotation();
+			slerp(values, a, values, b, u, out, offset);
+			break;
+		case HERMITE:
+			hermite(i, dt, u, out, offset);
+			break;
+		}
+	}
+
+	/**
+	 * Samples this track at time {@code t} into {@code out}. The track must have 3
+	 * components.
+	 *
+	 * @param t    the time to sample at
+	 * @param mode the interpolation to use
+	 * @param out  the vector to write to
+	 * @param temp an array of at least 3 doubles used as scratch space
+	 *
+	 * @return {@code out}
+	 */
+	public Vector3 sample(double t, Interpolation mode, Vector3 out, double[] temp) {
+		if (components != 3)
+			throw new IllegalArgumentException("Only tracks with 3 components can be sampled into a Vector3");
+
+		sample(t, mode, temp, 0);
+		out.x = temp[0];
+		out.y = temp[1];
+		out.z = temp[2];
+
+		return out;
+	}
+
+	/**
+	 * Samples the tracks {@code from} (inclusive) to {@code to} (exclusive) at
+	 * time {@code t}. The result of track {@code i} is written to
+	 * {@code out[i * stride]} and following, so disjoint ranges can be sampled by
+	 * different threads into the same output array.
+	 *
+	 * @param tracks the tracks to sample
+	 * @param from   the first track to sample
+	 * @param to     the track after the last one to sample
+	 * @param t      the time to sample at
+	 * @param mode   the interpolation to use
+	 * @param out    the packed output
+	 * @param stride the distance between the results of two tracks in {@code out}
+	 */
+	public static void sampleAll(KeyframeTrack[] tracks, int from, int to, double t, Interpolation mode,
+			double[] out, int stride) {
+		for (int i = from; i < to; i++) {
+			tracks[i].sample(t, mode, out, i * stride);
+		}
+	}
+
+	/**
+	 * Samples all {@code tracks} at time {@code t} on the common fork/join pool.
+	 *
+	 * @param tracks the tracks to sample
+	 * @param t      the time to sample at
+	 * @param mode   the interpolation to use
+	 * @param out    the packed output
+	 * @param stride the distance between the results of two tracks in {@code out}
+	 *
+	 * @see #sampleAll(KeyframeTrack[], int, int, double, Interpolation, double[],
+	 *      int)
+	 */
+	public static void parallelSampleAll(KeyframeTrack[] tracks, double t, Interpolation mode, double[] out,
+			int stride) {
+		if (tracks.length <= PARALLEL_THRESHOLD) {
+			sampleAll(tracks, 0, tracks.length, t, mode, out, stride);
+		} else {
+			ForkJoinPool.commonPool().invoke(new SampleTask(tracks, 0, tracks.length, t, mode, out, stride));
+		}
+	}
+
+	/**
+	 * Writes the rotation matrix of the unit quaternion at {@code q[offset]} into
+	 * {@code m}.
+	 *
+	 * @param q      the packed quaternion {@code (x, y, z, w)}
+	 * @param offset the index of the quaternion in {@code q}
+	 * @param m      the matrix to write to
+	 *
+	 * @return {@code m}
+	 */
+	public static Matrix3x3 rotationToMatrix(double[] q, int offset, Matrix3x3 m) {
+		final double x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+		final double xx = x * x, yy = y * y, zz = z * z;
+		final double xy = x * y, xz = x * z, yz = y * z;
+		final double wx = w * x, wy = w * y, wz = w * z;
+		final double[] v = m.values;
+
+		v[0] = 1 - 2 * (yy + zz);
+		v[1] = 2 * (xy - wz);
+		v[2] = 2 * (xz + wy);
+		v[3] = 2 * (xy + wz);
+		v[4] = 1 - 2 * (xx + zz);
+		v[5] = 2 * (yz - wx);
+		v[6] = 2 * (xz - wy);
+		v[7] = 2 * (yz + wx);
+		v[8] = 1 - 2 * (xx + yy);
+
+		return m;
+	}
+
+	/**
+	 * Writes the unit quaternion {@code (x, y, z, w)} of the rotation matrix
+	 * {@code m} to {@code q[offset]} and following.
+	 *
+	 * @param m      the rotation matrix
+	 * @param q      the array to write to
+	 * @param offset the index of the quaternion in {@code q}
+	 */
+	public static void matrixToRotation(Matrix3x3 m, double[] q, int offset) {
+		final double[] v = m.values;
+		final double trace = v[0] + v[4] + v[8];
+		double x, y, z, w;
+
+		if (trace > 0) {
+			double s = 0.5 / Math.sqrt(trace + 1);
+			w = 0.25 / s;
+			x = (v[7] - v[5]) * s;
+			y = (v[2] - v[6]) * s;
+			z = (v[3] - v[1]) * s;
+		} else if (v[0] > v[4] && v[0] > v[8]) {
+			double s = 2 * Math.sqrt(1 + v[0] - v[4] - v[8]);
+			w = (v[7] - v[5]) / s;
+			x = 0.25 * s;
+			y = (v[1] + v[3]) / s;
+			z = (v[2] + v[6]) / s;
+		} else if (v[4] > v[8]) {
+			double s = 2 * Math.sqrt(1 + v[4] - v[0] - v[8]);
+			w = (v[2] - v[6]) / s;
+			x = (v[1] + v[3]) / s;
+			y = 0.25 * s;
+			z = (v[5] + v[7]) / s;
+		} else {
+			double s = 2 * Math.sqrt(1 + v[8] - v[0] - v[4]);
+			w = (v[3] - v[1]) / s;
+			x = (v[2] + v[6]) / s;
+			y = (v[5] + v[7]) / s;
+			z = 0.25 * s;
+		}
+
+		q[offset] = x;
+		q[offset + 1] = y;
+		q[offset + 2] = z;
+		q[offset + 3] = w;
+	}
+
+	/**
+	 * Returns the index of the segment containing {@code t}, first trying the
+	 * segment of the last lookup and its successor.
+	 */
+	private int segment(double t) {
+		final double[] times = this.times;
+		final int last = times.length - 2;
+		final int i = cursor;
+
+		if (t >= times[i] && t < times[i + 1])
+			return i;
+		if (i < last && t >= times[i + 1] && t < times[i + 2])
+			return cursor = i + 1;
+		if (t < times[1])
+			return cursor = 0;
+		if (t >= times[last])
+			return cursor = last;
+
+		int lo = 1, hi = last;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (times[mid] <= t) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		return cursor = lo;
+	}
+
+	private void hermite(int i, double dt, double u, double[] out, int offset) {
+		final int c = components;
+		final int a = i * c;
+		final int b = a + c;
+		final double u2 = u * u, u3 = u2 * u;
+		final double h00 = 2 * u3 - 3 * u2 + 1;
+		final double h10 = u3 - 2 * u2 + u;
+		final double h01 = -2 * u3 + 3 * u2;
+		final double h11 = u3 - u2;
+
+		for (int k = 0; k < c; k++) {
+			double m0 = tangent(i, k), m1 = tangent(i + 1, k);
+			out[offset + k] = h00 * values[a + k] + h10 * dt * m0 + h01 * values[b + k] + h11 * dt * m1;
+		}
+	}
+
+	/**
+	 * Returns the tangent of component {@code k} at key {@code i}, falling back to
+	 * Catmull-Rom finite differences.
+	 */
+	private double tangent(int i, int k) {
+		final int c = components;
+		if (tangents != null)
+			return tangents[i * c + k];
+
+		final int prev = i > 0 ? i - 1 : i;
+		final int next = i < times.length - 1 ? i + 1 : i;
+		return (values[next * c + k] - values[prev * c + k]) / (times[next] - times[prev]);
+	}
+
+	private void checkRotation() {
+		if (components != 4)
+			throw new IllegalArgumentException("Rotation interpolation needs 4 components");
+	}
+
+	private static double dot4(double[] p, int a, double[] q, int b) {
+		return p[a] * q[b] + p[a + 1] * q[b + 1] + p[a + 2] * q[b + 2] + p[a + 3] * q[b + 3];
+	}
+
+	private static void nlerp(double[] p, int a, double[] q, int b, double u, double[] out, int offset) {
+		final double sign = dot4(p, a, q, b) < 0 ? -1 : 1;
+		double x = p[a] + (sign * q[b] - p[a]) * u;
+		double y = p[a + 1] + (sign * q[b + 1] - p[a + 1]) * u;
+		double z = p[a + 2] + (sign * q[b + 2] - p[a + 2]) * u;
+		double w = p[a + 3] + (sign * q[b + 3] - p[a + 3]) * u;
+		double inv = 1 / Math.sqrt(x * x + y * y + z * z + w * w);
+
+		out[offset] = x * inv;
+		out[offset + 1] = y * inv;
+		out[offset + 2] = z * inv;
+		out[offset + 3] = w * inv;
+	}
+
+	private static void slerp(double[] p, int a, double[] q, int b, double u, double[] out, int offset) {
+		double cos = dot4(p, a, q, b);
+		double sign = 1;
+		if (cos < 0) {
+			cos = -cos;
+			sign = -1;
+		}
+		// nearly parallel quaternions would divide by almost zero
+		if (cos > 0.9995) {
+			nlerp(p, a, q, b, u, out, offset);
+			return;
+		}
+
+		final double theta = Math.acos(cos);
+		final double sin = Math.sin(theta);
+		final double s0 = Math.sin((1 - u) * theta) / sin;
+		final double s1 = sign * Math.sin(u * theta) / sin;
+
+		for (int k = 0; k < 4; k++) {
+			out[offset + k] = s0 * p[a + k] + s1 * q[b + k];
+		}
+	}
+
+	/**
+	 * Splits a track range in halves until it is small enough to be sampled
+	 * sequentially.
+	 */
+	private static final class SampleTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final KeyframeTrack[] tracks;
+		private final int from, to;
+		private final double t;
+		private final Interpolation mode;
+		private final double[] out;
+		private final int stride;
+
+		SampleTask(KeyframeTrack[] tracks, int from, int to, double t, Interpolation mode, double[] out,
+				int stride) {
+			this.tracks = tracks;
+			this.from = from;
+			this.to = to;
+			this.t = t;
+			this.mode = mode;
+			this.out = out;
+			this.stride = stride;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_THRESHOLD) {
+				sampleAll(tracks, from, to, t, mode, out, stride);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new SampleTask(tracks, from, mid, t, mode, out, stride),
+						new SampleTask(tracks, mid, to, t, mode, out, stride));
+			}
+		}
+	}
+}
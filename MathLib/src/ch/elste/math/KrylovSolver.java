@@ -0,0 +1,361 @@
+package ch.elste.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Solves large linear systems {@code A x = b} iteratively with the conjugate
+ * gradient method, for symmetric positive definite operators, or BiCGSTAB, for
+ * general operators. The operator is only applied to vectors, see
+ * {@link LinearOperator}, and an optional {@link Preconditioner} speeds up
+ * convergence.
+ * <p>
+ * A solver is created for one system size and keeps its work vectors between
+ * solves, so repeated solves do not allocate them again. Vector operations on
+ * large systems are split into fixed chunks and distributed over a fork/join
+ * pool; the partial dot products are always added in the same order, so
+ * results do not depend on the number of threads. A solver must not be used by
+ * several threads at once.
+ * </p>
+ * <p>
+ * Iteration stops once the residual norm {@code |b - A x|} falls below
+ * {@code tolerance * |b|}. A {@link Listener} receives the relative residual of
+ * every iteration. If a method breaks down, that is it would have to divide by
+ * zero, for example because the operator of {@code cg} is not positive
+ * definite, the solve stops early, returns {@code false} and leaves the result
+ * of the last complete iteration in {@code x}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class KrylovSolver {
+	/**
+	 * Receives the progress of a solve.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * Called after every iteration.
+		 *
+		 * @param iteration the number of finished iterations
+		 * @param residual  the residual norm divided by the norm of {@code b}
+		 */
+		void iteration(int iteration, double residual);
+	}
+
+	/**
+	 * The number of values per chunk of a parallel vector operation.
+	 */
+	private static final int CHUNK = 16384;
+
+	private final int n;
+	private final ForkJoinPool pool;
+	private final double[] r, rHat, p, v, s, t, pHat, sHat;
+	private final double[] partial;
+	private Listener listener;
+
+	private int iterations;
+	private double residual;
+	private boolean converged;
+
+	/**
+	 * Creates a new sequential solver for systems with {@code n} unknowns.
+	 *
+	 * @param n the number of unknowns
+	 */
+	public KrylovSolver(int n) {
+		this(n, null);
+	}
+
+	/**
+	 * Creates a new solver for systems with {@code n} unknowns which computes
+	 * large vector operations on {@code pool}.
+	 *
+	 * @param n    the number of unknowns
+	 * @param pool the pool to compute on, {@code null} to compute sequentially
+	 */
+	public KrylovSolver(int n, ForkJoinPool pool) {
+		this.n = n;
+		this.pool = n > CHUNK ? pool : null;
+		r = new double[n];
+		rHat = new double[n];
+		p = new double[n];
+		v = new double[n];
+		s = new double[n];
+		t = new double[n];
+		pHat = new double[n];
+		sHat = new double[n];
+		partial = new double[(n + CHUNK - 1) / CHUNK];
+	}
+
+	/**
+	 * Sets the listener notified after every iteration.
+	 *
+	 * @param listener the listener, {@code null} to remove it
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the number of iterations of the last solve.
+	 *
+	 * @return the number of iterations
+	 */
+	public int iterations() {
+		return iterations;
+	}
+
+	/**
+	 * Returns the relative residual norm reached by the last solve.
+	 *
+	 * @return the residual norm divided by the norm of {@code b}
+	 */
+	public double residual() {
+		return residual;
+	}
+
+	/**
+	 * Returns whether the last solve reached its tolerance.
+	 *
+	 * @return {@code true} if the last solve converged
+	 */
+	public boolean converged() {
+		return converged;
+	}
+
+	/**
+	 * Solves {@code A x = b} for a symmetric positive definite {@code A} with the
+	 * preconditioned conjugate gradient method. {@code x} holds the initial guess
+	 * and receives the solution.
+	 *
+	 * @param a             the operator
+	 * @param m             the symmetric positive definite preconditioner,
+	 *                      {@code null} for none
+	 * @param b             the right hand side
+	 * @param x             the initial guess and the solution
+	 * @param tolerance     the relative residual to reach
+	 * @param maxIterations the largest number of iterations
+	 *
+	 * @return {@code true} if the tolerance was reached, {@code false} if not or
+	 *         if {@code A} or {@code m} turned out not to be positive definite
+	 */
+	public boolean cg(LinearOperator a, Preconditioner m, double[] b, double[] x, double tolerance,
+			int maxIterations) {
+		final double[] z = s, q = t;
+		final double bNorm = start(a, b, x);
+		if (finished(0, bNorm, tolerance))
+			return true;
+
+		precondition(m, r, z);
+		copy(z, p);
+		double rz = dot(r, z);
+
+		for (int k = 1; k <= maxIterations; k++) {
+			if (!(rz > 0))
+				return breakdown(k, bNorm);
+
+			a.apply(p, q);
+			final double pq = dot(p, q);
+			if (!(pq > 0))
+				return breakdown(k, bNorm);
+
+			final double alpha = rz / pq;
+			axpy(alpha, p, x);
+			axpy(-alpha, q, r);
+			if (finished(k, bNorm, tolerance))
+				return true;
+
+			precondition(m, r, z);
+			final double rzNew = dot(r, z);
+			xpay(z, rzNew / rz, p);
+			rz = rzNew;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Solves {@code A x = b} with the right preconditioned BiCGSTAB method.
+	 * {@code x} holds the initial guess and receives the solution.
+	 *
+	 * @param a             the operator
+	 * @param m             the preconditioner, {@code null} for none
+	 * @param b             the right hand side
+	 * @param x             the initial guess and the solution
+	 * @param tolerance     the relative residual to reach
+	 * @param maxIterations the largest number of iterations
+	 *
+	 * @return {@code true} if the tolerance was reached, {@code false} if not or
+	 *         if the method broke down
+	 */
+	public boolean bicgstab(LinearOperator a, Preconditioner m, double[] b, double[] x, double tolerance,
+			int maxIterations) {
+		final double bNorm = start(a, b, x);
+		if (finished(0, bNorm, tolerance))
+			return true;
+
+		copy(r, rHat);
+		fill(p, 0);
+		fill(v, 0);
+		double rho = 1, alpha = 1, omega = 1;
+
+		for (int k = 1; k <= maxIterations; k++) {
+			final double rhoNew = dot(rHat, r);
+			if (rhoNew == 0 || omega == 0 || !Double.isFinite(rhoNew))
+				return breakdown(k, bNorm);
+
+			// p = r + beta (p - omega v)
+			axpy(-omega, v, p);
+			xpay(r, rhoNew / rho * (alpha / omega), p);
+			rho = rhoNew;
+
+			precondition(m, p, pHat);
+			a.apply(pHat, v);
+			final double sigma = dot(rHat, v);
+			if (sigma == 0 || !Double.isFinite(sigma))
+				return breakdown(k, bNorm);
+
+			alpha = rho / sigma;
+
+			// s = r - alpha v
+			copy(r, s);
+			axpy(-alpha, v, s);
+			axpy(alpha, pHat, x);
+			copy(s, r);
+			final double half = Math.sqrt(dot(r, r)) / bNorm;
+			if (half <= tolerance)
+				return record(k, half, tolerance);
+
+			precondition(m, s, sHat);
+			a.apply(sHat, t);
+			final double tt = dot(t, t);
+			omega = tt == 0 ? 0 : dot(t, s) / tt;
+			axpy(omega, sHat, x);
+			axpy(-omega, t, r);
+			if (finished(k, bNorm, tolerance))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Computes the initial residual and returns the norm of {@code b}.
+	 */
+	private double start(LinearOperator a, double[] b, double[] x) {
+		if (b.length < n || x.length < n)
+			throw new IllegalArgumentException("The vectors need " + n + " values");
+
+		iterations = 0;
+		converged = false;
+		a.apply(x, r);
+		for (int i = 0; i < n; i++) {
+			r[i] = b[i] - r[i];
+		}
+
+		final double bNorm = Math.sqrt(dot(b, b));
+		return bNorm == 0 ? 1 : bNorm;
+	}
+
+	/**
+	 * Records iteration {@code k} and returns whether the residual is small
+	 * enough.
+	 */
+	private boolean finished(int k, double bNorm, double tolerance) {
+		return record(k, Math.sqrt(dot(r, r)) / bNorm, tolerance);
+	}
+
+	/**
+	 * Records iteration {@code k} with the relative residual {@code residual} and
+	 * returns whether it is small enough.
+	 */
+	private boolean record(int k, double residual, double tolerance) {
+		iterations = k;
+		this.residual = residual;
+		converged = residual <= tolerance;
+		if (listener != null && k > 0)
+			listener.iteration(k, residual);
+
+		return converged;
+	}
+
+	/**
+	 * Records a breakdown in iteration {@code k} before {@code x} or the residual
+	 * changed, so both still hold the result of iteration {@code k - 1}, and
+	 * returns {@code false}.
+	 */
+	private boolean breakdown(int k, double bNorm) {
+		iterations = k - 1;
+		residual = Math.sqrt(dot(r, r)) / bNorm;
+		converged = false;
+
+		return false;
+	}
+
+	private void precondition(Preconditioner m, double[] in, double[] out) {
+		if (m == null) {
+			copy(in, out);
+		} else {
+			m.apply(in, out);
+		}
+	}
+
+	private double dot(double[] x, double[] y) {
+		if (pool == null)
+			return Blas.dot(n, x, 0, 1, y, 0, 1);
+
+		pool.submit(() -> IntStream.range(0, partial.length).parallel()
+				.forEach(c -> partial[c] = Blas.dot(length(c), x, c * CHUNK, 1, y, c * CHUNK, 1))).join();
+		double sum = 0;
+		for (double d : partial) {
+			sum += d;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Computes {@code y += alpha x}.
+	 */
+	private void axpy(double alpha, double[] x, double[] y) {
+		if (pool == null) {
+			Blas.axpy(n, alpha, x, 0, 1, y, 0, 1);
+		} else {
+			pool.submit(() -> IntStream.range(0, partial.length).parallel()
+					.forEach(c -> Blas.axpy(length(c), alpha, x, c * CHUNK, 1, y, c * CHUNK, 1))).join();
+		}
+	}
+
+	/**
+	 * Computes {@code y = x + beta y}.
+	 */
+	private void xpay(double[] x, double beta, double[] y) {
+		if (pool == null) {
+			xpay(0, n, x, beta, y);
+		} else {
+			pool.submit(() -> IntStream.range(0, partial.length).parallel()
+					.forEach(c -> xpay(c * CHUNK, c * CHUNK + length(c), x, beta, y))).join();
+		}
+	}
+
+	private static void xpay(int from, int to, double[] x, double beta, double[] y) {
+		for (int i = from; i < to; i++) {
+			y[i] = x[i] + beta * y[i];
+		}
+	}
+
+	private void copy(double[] x, double[] y) {
+		System.arraycopy(x, 0, y, 0, n);
+	}
+
+	private void fill(double[] x, double value) {
+		for (int i = 0; i < n; i++) {
+			x[i] = value;
+		}
+	}
+
+	private int length(int chunk) {
+		return Math.min(CHUNK, n - chunk * CHUNK);
+	}
+}
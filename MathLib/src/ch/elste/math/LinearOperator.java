@@ -0,0 +1,39 @@
+package ch.elste.math;
+
+/**
+ * A square linear map {@code y = A x} on packed vectors. The operator only has
+ * to be able to apply itself, so dense matrices, sparse matrices and matrix
+ * free operators can all be passed to the iterative solvers of
+ * {@link KrylovSolver}.
+ *
+ * @author Dillon Elste
+ *
+ * @see CsrMatrix
+ */
+@FunctionalInterface
+public interface LinearOperator {
+	/**
+	 * Computes {@code y = A x}. {@code x} and {@code y} are never the same array.
+	 *
+	 * @param x the vector to map
+	 * @param y receives the result
+	 */
+	void apply(double[] x, double[] y);
+
+	/**
+	 * Returns an operator for the dense {@code n} by {@code n} matrix stored row
+	 * by row in {@code a}. The array is not copied.
+	 *
+	 * @param a the packed matrix
+	 * @param n the number of rows and columns
+	 *
+	 * @return the operator
+	 */
+	static LinearOperator dense(double[] a, int n) {
+		return (x, y) -> {
+			for (int i = 0; i < n; i++) {
+				y[i] = Blas.dot(n, a, i * n, 1, x, 0, 1);
+			}
+		};
+	}
+}
@@ -0,0 +1,707 @@
+package ch.elste.math;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ch.elste.math.PairwiseDistances.Metric;
+
+/**
+ * An approximate nearest neighbour index over packed {@code double} or
+ * {@code float} vectors, based on random projection locality sensitive hashing.
+ * <p>
+ * Every one of {@code tables} hash tables hashes a vector to {@code bits} bits,
+ * each telling on which side of a random hyperplane through the mean of the
+ * data the vector lies. Nearby vectors tend to share buckets. A query looks at
+ * its own bucket in every table and, for multi-probing, at the buckets reached
+ * by flipping the {@code probes} least certain bits. All candidates found are
+ * ranked by their exact distance.
+ * </p>
+ * <p>
+ * More tables and probes raise the recall and the query time, more bits lower
+ * both. A good start for {@code n} vectors is {@code bits} close to
+ * {@code log2(n) - 4}, 8 to 16 tables and a few probes.
+ * </p>
+ * <p>
+ * The index is immutable once built, so any number of threads may query it at
+ * once, each with its own {@link Searcher}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class LshIndex {
+	private static final int MAGIC = 0x4C534831;
+
+	/**
+	 * The bytes of the magic number, the five header ints and the type flag.
+	 */
+	private static final int HEADER_BYTES = 6 * Integer.BYTES + 1;
+
+	/**
+	 * The size of the buffer values are transferred through when saving and
+	 * loading.
+	 */
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final int n, d, tables, bits;
+	private final Metric metric;
+	private final double[] doubles;
+	private final float[] floats;
+	private final double[] mean;
+	private final double[] planes;
+
+	/**
+	 * Per table the start of every bucket in {@link #ids}, {@code 2^bits + 1}
+	 * entries each.
+	 */
+	private final int[][] starts;
+
+	/**
+	 * Per table the vector ids sorted by bucket.
+	 */
+	private final int[][] ids;
+
+	/**
+	 * Builds an index over {@code n} packed double vectors on the common pool.
+	 * The array is referenced, not copied, and must not change afterwards.
+	 *
+	 * @param data   the packed vectors
+	 * @param n      the number of vectors
+	 * @param d      the number of values per vector
+	 * @param metric the distance to rank candidates by
+	 * @param tables the number of hash tables
+	 * @param bits   the number of bits per hash, 1 to 24
+	 * @param seed   the seed of the random hyperplanes
+	 *
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public LshIndex(double[] data, int n, int d, Metric metric, int tables, int bits, long seed) {
+		this(data, n, d, metric, tables, bits, seed, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds an index over {@code n} packed double vectors on {@code pool}. The
+	 * array is referenced, not copied, and must not change afterwards.
+	 *
+	 * @param data   the packed vectors
+	 * @param n      the number of vectors
+	 * @param d      the number of values per vector
+	 * @param metric the distance to rank candidates by
+	 * @param tables the number of hash tables
+	 * @param bits   the number of bits per hash, 1 to 24
+	 * @param seed   the seed of the random hyperplanes
+	 * @param pool   the pool to build on
+	 *
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public LshIndex(double[] data, int n, int d, Metric metric, int tables, int bits, long seed,
+			ForkJoinPool pool) {
+		this(data, null, n, d, metric, tables, bits, seed, pool);
+	}
+
+	/**
+	 * Builds an index over {@code n} packed float vectors on {@code pool}. The
+	 * array is referenced, not copied, and must not change afterwards.
+	 *
+	 * @param data   the packed vectors
+	 * @param n      the number of vectors
+	 * @param d      the number of values per vector
+	 * @param metric the distance to rank candidates by
+	 * @param tables the number of hash tables
+	 * @param bits   the number of bits per hash, 1 to 24
+	 * @param seed   the seed of the random hyperplanes
+	 * @param pool   the pool to build on
+	 *
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public LshIndex(float[] data, int n, int d, Metric metric, int tables, int bits, long seed,
+			ForkJoinPool pool) {
+		this(null, data, n, d, metric, tables, bits, seed, pool);
+	}
+
+	private LshIndex(double[] doubles, float[] floats, int n, int d, Metric metric, int tables, int bits,
+			long seed, ForkJoinPool pool) {
+		if (n < 0 || d < 1 || tables < 1 || bits < 1 || bits > 24)
+			throw new IllegalArgumentException("Invalid index parameters");
+		if ((long) n * d > (doubles != null ? doubles.length : floats.length))
+			throw new IllegalArgumentException("The data holds less than " + n + " vectors");
+
+		this.n = n;
+		this.d = d;
+		this.metric = metric;
+		this.tables = tables;
+		this.bits = bits;
+		this.doubles = doubles;
+		this.floats = floats;
+		this.mean = new double[d];
+		this.planes = new double[tables * bits * d];
+		this.starts = new int[tables][];
+		this.ids = new int[tables][];
+
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < d; k++) {
+				mean[k] += value(i, k);
+			}
+		}
+		for (int k = 0; k < d && n > 0; k++) {
+			mean[k] /= n;
+		}
+
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < planes.length; i++) {
+			planes[i] = gaussian(random);
+		}
+
+		final int[][] codes = new int[tables][n];
+		final int chunk = 1024;
+		pool.submit(() -> IntStream.range(0, (n + chunk - 1) / chunk).parallel().forEach(c -> {
+			for (int i = c * chunk; i < Math.min(n, (c + 1) * chunk); i++) {
+				for (int t = 0; t < tables; t++) {
+					codes[t][i] = hash(t, i);
+				}
+			}
+		})).join();
+		pool.submit(() -> IntStream.range(0, tables).parallel().forEach(t -> bucket(t, codes[t]))).join();
+	}
+
+	private LshIndex(int n, int d, Metric metric, int tables, int bits, double[] doubles, float[] floats,
+			double[] mean, double[] planes, int[][] starts, int[][] ids) {
+		this.n = n;
+		this.d = d;
+		this.metric = metric;
+		this.tables = tables;
+		this.bits = bits;
+		this.doubles = doubles;
+		this.floats = floats;
+		this.mean = mean;
+		this.planes = planes;
+		this.starts = starts;
+		this.ids = ids;
+	}
+
+	/**
+	 * Returns the number of indexed vectors.
+	 *
+	 * @return the number of vectors
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of values per vector.
+	 *
+	 * @return the dimension
+	 */
+	public int dimension() {
+		return d;
+	}
+
+	/**
+	 * Creates the scratch space one thread needs to query this index.
+	 *
+	 * @param probes the number of extra buckets to probe per table, at most the
+	 *               number of bits
+	 *
+	 * @return a new searcher
+	 */
+	public Searcher newSearcher(int probes) {
+		return new Searcher(Math.max(0, Math.min(bits, probes)));
+	}
+
+	/**
+	 * Finds the {@code k} vectors closest to {@code query} by brute force. Useful
+	 * as reference to measure the recall of the index.
+	 *
+	 * @param query   the packed query
+	 * @param qOffset the index of the query in {@code query}
+	 * @param k       the number of neighbours
+	 * @param ids     receives the ids of the neighbours, closest first
+	 * @param dists   receives the distances of the neighbours, may be {@code null}
+	 *
+	 * @return the number of neighbours found
+	 */
+	public int exactSearch(double[] query, int qOffset, int k, int[] ids, double[] dists) {
+		TopK top = new TopK(k);
+		for (int i = 0; i < n; i++) {
+			top.offer(i, distance(i, query, qOffset));
+		}
+
+		return top.drain(ids, dists);
+	}
+
+	/**
+	 * Returns the average fraction of the true {@code k} nearest neighbours found
+	 * by the index for the given queries.
+	 *
+	 * @param queries the packed queries
+	 * @param count   the number of queries
+	 * @param k       the number of neighbours
+	 * @param probes  the number of extra buckets to probe per table
+	 *
+	 * @return the recall between 0 and 1
+	 */
+	public double recall(double[] queries, int count, int k, int probes) {
+		Searcher searcher = newSearcher(probes);
+		int[] expected = new int[k], found = new int[k];
+		long hits = 0, total = 0;
+
+		for (int q = 0; q < count; q++) {
+			int e = exactSearch(queries, q * d, k, expected, null);
+			int f = searcher.search(queries, q * d, k, found, null);
+			for (int i = 0; i < e; i++) {
+				for (int j = 0; j < f; j++) {
+					if (expected[i] == found[j]) {
+						hits++;
+						break;
+					}
+				}
+			}
+			total += e;
+		}
+
+		return total == 0 ? 1 : (double) hits / total;
+	}
+
+	/**
+	 * Writes this index including the vectors to {@code file}, in big endian
+	 * byte order.
+	 *
+	 * @param file the file to write
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void save(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			buffer.putInt(MAGIC).putInt(n).putInt(d).putInt(tables).putInt(bits).putInt(metric.ordinal())
+					.put((byte) (floats != null ? 1 : 0));
+			buffer.flip();
+			writeFully(channel, buffer);
+
+			if (floats != null) {
+				write(channel, buffer, floats, n * d);
+			} else {
+				write(channel, buffer, doubles, n * d);
+			}
+			write(channel, buffer, mean, d);
+			write(channel, buffer, planes, planes.length);
+			for (int t = 0; t < tables; t++) {
+				write(channel, buffer, starts[t], starts[t].length);
+				write(channel, buffer, ids[t], n);
+			}
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #save(Path)}. The header is checked
+	 * against the limits of the constructors and the size of the file, and the
+	 * buckets against the number of vectors, before the index is returned.
+	 *
+	 * @param file the file to read
+	 *
+	 * @return the index
+	 *
+	 * @throws IOException if reading fails or the file is no index
+	 */
+	public static LshIndex load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			fill(channel, buffer, HEADER_BYTES);
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not an index file: " + file);
+
+			final int n = buffer.getInt(), d = buffer.getInt(), tables = buffer.getInt(), bits = buffer.getInt();
+			final int ordinal = buffer.getInt(), type = buffer.get();
+			final Metric[] metrics = Metric.values();
+			if (n < 0 || d < 1 || tables < 1 || bits < 1 || bits > 24 || ordinal < 0 || ordinal >= metrics.length
+					|| (type & ~1) != 0 || (long) n * d > Integer.MAX_VALUE
+					|| (long) tables * bits * d > Integer.MAX_VALUE)
+				throw new IOException("Invalid index header in " + file);
+
+			// check the size before allocating anything the header asks for
+			final boolean isFloat = type == 1;
+			final long vectors = (long) n * d * (isFloat ? Float.BYTES : Double.BYTES);
+			final long projections = ((long) d + (long) tables * bits * d) * Double.BYTES;
+			final long table = ((1L << bits) + 1 + n) * Integer.BYTES;
+			final long rest = channel.size() - HEADER_BYTES - vectors - projections;
+			if (rest < 0 || rest % table != 0 || rest / table != tables)
+				throw new IOException("The size of " + file + " does not match its header");
+
+			double[] doubles = isFloat ? null : new double[n * d];
+			float[] floats = isFloat ? new float[n * d] : null;
+			if (isFloat) {
+				read(channel, buffer, floats, n * d);
+			} else {
+				read(channel, buffer, doubles, n * d);
+			}
+			double[] mean = new double[d];
+			read(channel, buffer, mean, d);
+			double[] planes = new double[tables * bits * d];
+			read(channel, buffer, planes, planes.length);
+			int[][] starts = new int[tables][];
+			int[][] ids = new int[tables][];
+			for (int t = 0; t < tables; t++) {
+				starts[t] = new int[(1 << bits) + 1];
+				ids[t] = new int[n];
+				read(channel, buffer, starts[t], starts[t].length);
+				read(channel, buffer, ids[t], n);
+				checkTable(file, starts[t], ids[t], n);
+			}
+
+			return new LshIndex(n, d, metrics[ordinal], tables, bits, doubles, floats, mean, planes, starts, ids);
+		}
+	}
+
+	/**
+	 * Checks that the buckets of a loaded table start at 0, never decrease, end
+	 * at {@code n} and only hold ids below {@code n}.
+	 */
+	private static void checkTable(Path file, int[] start, int[] ids, int n) throws IOException {
+		if (start[0] != 0 || start[start.length - 1] != n)
+			throw new IOException("Invalid buckets in " + file);
+		for (int b = 1; b < start.length; b++) {
+			if (start[b] < start[b - 1])
+				throw new IOException("Invalid buckets in " + file);
+		}
+		for (int id : ids) {
+			if (id < 0 || id >= n)
+				throw new IOException("Invalid vector id " + id + " in " + file);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, double[] src, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Double.BYTES);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(src, i, count);
+			buffer.limit(count * Double.BYTES);
+			writeFully(channel, buffer);
+			i += count;
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, float[] src, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Float.BYTES);
+			buffer.clear();
+			buffer.asFloatBuffer().put(src, i, count);
+			buffer.limit(count * Float.BYTES);
+			writeFully(channel, buffer);
+			i += count;
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, int[] src, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Integer.BYTES);
+			buffer.clear();
+			buffer.asIntBuffer().put(src, i, count);
+			buffer.limit(count * Integer.BYTES);
+			writeFully(channel, buffer);
+			i += count;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, double[] dst, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Double.BYTES);
+			fill(channel, buffer, count * Double.BYTES);
+			buffer.asDoubleBuffer().get(dst, i, count);
+			i += count;
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, float[] dst, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Float.BYTES);
+			fill(channel, buffer, count * Float.BYTES);
+			buffer.asFloatBuffer().get(dst, i, count);
+			i += count;
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, int[] dst, int length) throws IOException {
+		for (int i = 0; i < length;) {
+			final int count = Math.min(length - i, buffer.capacity() / Integer.BYTES);
+			fill(channel, buffer, count * Integer.BYTES);
+			buffer.asIntBuffer().get(dst, i, count);
+			i += count;
+		}
+	}
+
+	/**
+	 * Reads the next {@code bytes} bytes of {@code channel} into {@code buffer}
+	 * and flips it.
+	 */
+	private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		buffer.clear();
+		buffer.limit(bytes);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new EOFException("The index file ends early");
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Sorts the vector ids of table {@code t} by bucket with a counting sort.
+	 */
+	private void bucket(int t, int[] codes) {
+		final int[] start = new int[(1 << bits) + 1];
+		final int[] sorted = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			start[codes[i] + 1]++;
+		}
+		for (int b = 0; b < start.length - 1; b++) {
+			start[b + 1] += start[b];
+		}
+
+		final int[] next = start.clone();
+		for (int i = 0; i < n; i++) {
+			sorted[next[codes[i]]++] = i;
+		}
+
+		starts[t] = start;
+		ids[t] = sorted;
+	}
+
+	private int hash(int t, int i) {
+		int code = 0;
+		for (int b = 0; b < bits; b++) {
+			final int p = (t * bits + b) * d;
+			double projection = 0;
+			for (int k = 0; k < d; k++) {
+				projection += planes[p + k] * (value(i, k) - mean[k]);
+			}
+			if (projection >= 0)
+				code |= 1 << b;
+		}
+
+		return code;
+	}
+
+	private double value(int i, int k) {
+		return floats != null ? floats[i * d + k] : doubles[i * d + k];
+	}
+
+	private double distance(int i, double[] q, int qOffset) {
+		final int base = i * d;
+		double sum = 0, dot = 0, norm = 0, qNorm = 0;
+
+		for (int k = 0; k < d; k++) {
+			double v = floats != null ? floats[base + k] : doubles[base + k];
+			double w = q[qOffset + k];
+			if (metric == Metric.COSINE) {
+				dot += v * w;
+				norm += v * v;
+				qNorm += w * w;
+			} else {
+				double diff = v - w;
+				sum += diff * diff;
+			}
+		}
+
+		if (metric == Metric.COSINE) {
+			double denominator = Math.sqrt(norm * qNorm);
+			return denominator == 0 ? 1 : 1 - dot / denominator;
+		}
+
+		return metric == Metric.EUCLIDEAN ? Math.sqrt(sum) : sum;
+	}
+
+	private static double gaussian(SplittableRandom random) {
+		double u, v, s;
+		do {
+			u = 2 * random.nextDouble() - 1;
+			v = 2 * random.nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+
+		return u * Math.sqrt(-2 * Math.log(s) / s);
+	}
+
+	/**
+	 * The scratch space of one querying thread. A searcher must not be shared
+	 * between threads, but any number of searchers may query the same index at
+	 * once.
+	 */
+	public final class Searcher {
+		private final int probes;
+		private final int[] stamps = new int[n];
+		private final double[] margins = new double[bits];
+		private final int[] order = new int[bits];
+		private int stamp;
+		private TopK top = new TopK(16);
+
+		private Searcher(int probes) {
+			this.probes = probes;
+		}
+
+		/**
+		 * Finds approximately the {@code k} vectors closest to {@code query}.
+		 *
+		 * @param query   the packed query
+		 * @param qOffset the index of the query in {@code query}
+		 * @param k       the number of neighbours
+		 * @param ids     receives the ids of the neighbours, closest first
+		 * @param dists   receives the distances of the neighbours, may be
+		 *                {@code null}
+		 *
+		 * @return the number of neighbours found, at most {@code k}
+		 */
+		public int search(double[] query, int qOffset, int k, int[] ids, double[] dists) {
+			if (top.capacity() < k)
+				top = new TopK(k);
+			top.reset(k);
+			if (++stamp == 0) {
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+
+			for (int t = 0; t < tables; t++) {
+				int code = 0;
+				for (int b = 0; b < bits; b++) {
+					final int p = (t * bits + b) * d;
+					double projection = 0;
+					for (int j = 0; j < d; j++) {
+						projection += planes[p + j] * (query[qOffset + j] - mean[j]);
+					}
+					if (projection >= 0)
+						code |= 1 << b;
+					margins[b] = Math.abs(projection);
+					order[b] = b;
+				}
+
+				scan(t, code, query, qOffset);
+				if (probes > 0) {
+					sortByMargin();
+					for (int i = 0; i < probes; i++) {
+						scan(t, code ^ (1 << order[i]), query, qOffset);
+					}
+				}
+			}
+
+			return top.drain(ids, dists);
+		}
+
+		private void scan(int t, int code, double[] query, int qOffset) {
+			final int[] bucket = LshIndex.this.ids[t];
+			final int end = starts[t][code + 1];
+
+			for (int i = starts[t][code]; i < end; i++) {
+				int id = bucket[i];
+				if (stamps[id] != stamp) {
+					stamps[id] = stamp;
+					top.offer(id, distance(id, query, qOffset));
+				}
+			}
+		}
+
+		/**
+		 * Sorts the bit indices by ascending margin; the number of bits is small.
+		 */
+		private void sortByMargin() {
+			for (int i = 1; i < bits; i++) {
+				int o = order[i];
+				double m = margins[o];
+				int j = i - 1;
+				while (j >= 0 && margins[order[j]] > m) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = o;
+			}
+		}
+	}
+
+	/**
+	 * Keeps the {@code k} smallest distances offered in a binary max-heap.
+	 */
+	private static final class TopK {
+		private final int[] ids;
+		private final double[] dists;
+		private int k, size;
+
+		TopK(int capacity) {
+			ids = new int[capacity];
+			dists = new double[capacity];
+			k = capacity;
+		}
+
+		int capacity() {
+			return ids.length;
+		}
+
+		void reset(int k) {
+			this.k = k;
+			size = 0;
+		}
+
+		void offer(int id, double dist) {
+			if (size < k) {
+				int i = size++;
+				while (i > 0 && dists[(i - 1) >> 1] < dist) {
+					ids[i] = ids[(i - 1) >> 1];
+					dists[i] = dists[(i - 1) >> 1];
+					i = (i - 1) >> 1;
+				}
+				ids[i] = id;
+				dists[i] = dist;
+			} else if (k > 0 && dist < dists[0]) {
+				siftDown(id, dist);
+			}
+		}
+
+		private void siftDown(int id, double dist) {
+			int i = 0;
+			for (;;) {
+				int c = 2 * i + 1;
+				if (c >= size)
+					break;
+				if (c + 1 < size && dists[c + 1] > dists[c])
+					c++;
+				if (dists[c] <= dist)
+					break;
+				ids[i] = ids[c];
+				dists[i] = dists[c];
+				i = c;
+			}
+			ids[i] = id;
+			dists[i] = dist;
+		}
+
+		/**
+		 * Writes the kept entries sorted by ascending distance and empties the
+		 * heap.
+		 */
+		int drain(int[] outIds, double[] outDists) {
+			final int count = size;
+			for (int i = count - 1; i >= 0; i--) {
+				outIds[i] = ids[0];
+				if (outDists != null)
+					outDists[i] = dists[0];
+				size--;
+				if (size > 0)
+					siftDown(ids[size], dists[size]);
+			}
+
+			return count;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package ch.elste.math;
 
+import java.io.IOException;
+
 /**
  * A utility class for creation and management of MatriNxN objects.
  * 
@@ -12,11 +14,154 @@ package ch.elste.math;
  * @see Matrix4x4
  */
 public abstract class Matrix {
+	/**
+	 * The order in which the values of a matrix are stored. {@link #values} is
+	 * always stored {@link #ROW_MAJOR}; {@link MatrixArray} and
+	 * {@link MatrixView} can use either.
+	 */
+	public enum Layout {
+		/**
+		 * Row after row, as in {@link Matrix#values}.
+		 */
+		ROW_MAJOR,
+		/**
+		 * Column after column, as expected by OpenGL and most native libraries.
+		 */
+		COLUMN_MAJOR;
+
+		/**
+		 * Returns the index of {@code row, column} in an {@code n} by {@code n}
+		 * matrix stored in this layout.
+		 * 
+		 * @param n      the number of rows and columns
+		 * @param row    the row
+		 * @param column the column
+		 * 
+		 * @return the index
+		 */
+		public int index(int n, int row, int column) {
+			return this == ROW_MAJOR ? row * n + column : column * n + row;
+		}
+	}
+
 	/**
 	 * The entries of the matrix
 	 */
 	public double[] values;
 
+	/**
+	 * Writes the values of this matrix to {@code dst} in the given layout.
+	 * {@link #values} is row-major, so a column-major copy transposes every
+	 * matrix; keep matrices exported often in a {@link MatrixArray} of the
+	 * target layout instead to make the export a bulk copy.
+	 * 
+	 * @param layout the layout to write in
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value in {@code dst}
+	 * 
+	 * @return {@code dst}
+	 */
+	public double[] copyTo(Layout layout, double[] dst, int offset) {
+		final int n = (int) Math.round(Math.sqrt(values.length));
+		if (layout == Layout.ROW_MAJOR) {
+			System.arraycopy(values, 0, dst, offset, values.length);
+		} else {
+			for (int j = 0; j < n; j++) {
+				for (int i = 0; i < n; i++) {
+					dst[offset + j * n + i] = values[i * n + j];
+				}
+			}
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Sets the values of this matrix from {@code src} stored in the given
+	 * layout.
+	 * 
+	 * @param layout the layout of {@code src}
+	 * @param src    the array to read from
+	 * @param offset the index of the first value in {@code src}
+	 */
+	public void copyFrom(Layout layout, double[] src, int offset) {
+		final int n = (int) Math.round(Math.sqrt(values.length));
+		if (layout == Layout.ROW_MAJOR) {
+			System.arraycopy(src, offset, values, 0, values.length);
+		} else {
+			for (int j = 0; j < n; j++) {
+				for (int i = 0; i < n; i++) {
+					values[i * n + j] = src[offset + j * n + i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a view on the values of this matrix. Rows, columns, blocks and the
+	 * transpose can be taken from it without copying.
+	 * 
+	 * @return a view sharing the values with this matrix
+	 */
+	public MatrixView view() {
+		return MatrixView.of(this);
+	}
+
+	/**
+	 * Appends the values of this matrix row by row, separated by commas, to
+	 * {@code sb} without creating garbage.
+	 * 
+	 * @param sb        the builder to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code sb}
+	 * 
+	 * @see TextFormat#appendFixed(StringBuilder, double, int)
+	 */
+	public StringBuilder appendTo(StringBuilder sb, int precision) {
+		return TextFormat.appendAll(sb, values, 0, values.length, precision, ',');
+	}
+
+	/**
+	 * Appends the values of this matrix row by row, separated by commas, to
+	 * {@code out}.
+	 * 
+	 * @param out       the appendable to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code out}
+	 * 
+	 * @throws IOException if {@code out} throws it
+	 */
+	public Appendable appendTo(Appendable out, int precision) throws IOException {
+		return TextFormat.appendAll(out, values, 0, values.length, precision, ',');
+	}
+
+	/**
+	 * Appends the rows of this matrix as they are printed by {@code toString()}:
+	 * every value padded to 5 characters with 3 fraction digits and followed by
+	 * {@code separator}, every row but the last followed by a line separator.
+	 * 
+	 * @param sb        the builder to append to
+	 * @param n         the number of rows and columns
+	 * @param separator appended after every value but the last of a row
+	 * @param rowEnd    appended after the last value of a row
+	 * @param lastRow   whether to append a line separator after the last row
+	 * 
+	 * @return {@code sb}
+	 */
+	StringBuilder appendRows(StringBuilder sb, int n, String separator, String rowEnd, boolean lastRow) {
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				TextFormat.appendFixed(sb, values[i * n + j], 3, 5).append(j < n - 1 ? separator : rowEnd);
+			}
+			if (i < n - 1 || lastRow)
+				sb.append(System.lineSeparator());
+		}
+
+		return sb;
+	}
+
 	/**
 	 * Creates a new matrix with given columns.
 	 * 
@@ -218,17 +363,29 @@ public abstract class Matrix {
 	 * @return a new independent matrix which is the product of m1 and m2
 	 */
 	public static Matrix2x2 mult(Matrix2x2 m1, Matrix2x2 m2) {
-		double[] temp = new double[m1.values.length];
-		Vector2[] m1Vecs = Vector2.getHorizontalVectors(m1);
-		Vector2[] m2Vecs = Vector2.getVerticalVectors(m2);
-
-		for (int i = 0; i < 2; i++) {
-			for (int j = 0; j < 2; j++) {
-				temp[i * 2 + j] = Vector2.dot(m1Vecs[i], m2Vecs[j]);
-			}
-		}
+		return mult(m1, m2, new Matrix2x2());
+	}
 
-		return new Matrix2x2(temp);
+	/**
+	 * Multiplies m1 times m2 into {@code dst} without allocating. {@code dst} may
+	 * be the same object as {@code m1} or {@code m2}.
+	 * 
+	 * @param m1  the first matrix
+	 * @param m2  the second matrix
+	 * @param dst the matrix to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Matrix2x2 mult(Matrix2x2 m1, Matrix2x2 m2, Matrix2x2 dst) {
+		final double[] a = m1.values, b = m2.values, d = dst.values;
+		final double a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3];
+		final double b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3];
+		d[0] = a0 * b0 + a1 * b2;
+		d[1] = a0 * b1 + a1 * b3;
+		d[2] = a2 * b0 + a3 * b2;
+		d[3] = a2 * b1 + a3 * b3;
+
+		return dst;
 	}
 
 	/**
@@ -240,17 +397,33 @@ public abstract class Matrix {
 	 * @return a new independent matrix which is the product of m1 times m2
 	 */
 	public static Matrix3x3 mult(Matrix3x3 m1, Matrix3x3 m2) {
-		double[] temp = new double[9];
-		Vector3[] m1Vecs = Vector3.getHorizontalVectors(m1);
-		Vector3[] m2Vecs = Vector3.getVerticalVectors(m2);
+		return mult(m1, m2, new Matrix3x3());
+	}
 
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
-				temp[i * 3 + j] = Vector3.dot(m1Vecs[i], m2Vecs[j]);
-			}
+	/**
+	 * Multiplies m1 times m2 into {@code dst} without allocating. {@code dst} may
+	 * be the same object as {@code m1} or {@code m2}.
+	 * 
+	 * @param m1  the first matrix
+	 * @param m2  the second matrix
+	 * @param dst the matrix to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Matrix3x3 mult(Matrix3x3 m1, Matrix3x3 m2, Matrix3x3 dst) {
+		final double[] a = m1.values, b = m2.values, d = dst.values;
+		final double b0 = b[0], b1 = b[1], b2 = b[2];
+		final double b3 = b[3], b4 = b[4], b5 = b[5];
+		final double b6 = b[6], b7 = b[7], b8 = b[8];
+
+		for (int r = 0; r < 9; r += 3) {
+			final double x = a[r], y = a[r + 1], z = a[r + 2];
+			d[r] = x * b0 + y * b3 + z * b6;
+			d[r + 1] = x * b1 + y * b4 + z * b7;
+			d[r + 2] = x * b2 + y * b5 + z * b8;
 		}
 
-		return new Matrix3x3(temp);
+		return dst;
 	}
 
 	/**
@@ -262,17 +435,35 @@ public abstract class Matrix {
 	 * @return a new independent matrix which is the product of m1 times m2
 	 */
 	public static Matrix4x4 mult(Matrix4x4 m1, Matrix4x4 m2) {
-		double[] temp = new double[m1.values.length];
-		Vector4[] m1Vecs = Vector4.getHorizontalVectors(m1);
-		Vector4[] m2Vecs = Vector4.getVerticalVectors(m2);
+		return mult(m1, m2, new Matrix4x4());
+	}
 
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				temp[i * 4 + j] = Vector4.dot(m1Vecs[i], m2Vecs[j]);
-			}
+	/**
+	 * Multiplies m1 times m2 into {@code dst} without allocating. {@code dst} may
+	 * be the same object as {@code m1} or {@code m2}.
+	 * 
+	 * @param m1  the first matrix
+	 * @param m2  the second matrix
+	 * @param dst the matrix to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Matrix4x4 mult(Matrix4x4 m1, Matrix4x4 m2, Matrix4x4 dst) {
+		final double[] a = m1.values, b = m2.values, d = dst.values;
+		final double b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3];
+		final double b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7];
+		final double b8 = b[8], b9 = b[9], b10 = b[10], b11 = b[11];
+		final double b12 = b[12], b13 = b[13], b14 = b[14], b15 = b[15];
+
+		for (int r = 0; r < 16; r += 4) {
+			final double x = a[r], y = a[r + 1], z = a[r + 2], w = a[r + 3];
+			d[r] = x * b0 + y * b4 + z * b8 + w * b12;
+			d[r + 1] = x * b1 + y * b5 + z * b9 + w * b13;
+			d[r + 2] = x * b2 + y * b6 + z * b10 + w * b14;
+			d[r + 3] = x * b3 + y * b7 + z * b11 + w * b15;
 		}
 
-		return new Matrix4x4(temp);
+		return dst;
 	}
 
 	/**
@@ -285,12 +476,26 @@ public abstract class Matrix {
 	 * @return the resulting vector
 	 */
 	public static Vector2 mult(Matrix2x2 m, Vector2 v) {
-		Vector2 res = new Vector2();
-		Vector2[] temp = Vector2.getHorizontalVectors(m);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
+		return mult(m, v, new Vector2());
+	}
+
+	/**
+	 * Multiplies m with v into {@code dst} without allocating. {@code dst} may be
+	 * the same object as {@code v}.
+	 * 
+	 * @param m   the matrix to multiply
+	 * @param v   the vector to multiply
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector2 mult(Matrix2x2 m, Vector2 v, Vector2 dst) {
+		final double[] a = m.values;
+		final double x = v.x, y = v.y;
+		dst.x = a[0] * x + a[1] * y;
+		dst.y = a[2] * x + a[3] * y;
 
-		return res;
+		return dst;
 	}
 
 	/**
@@ -303,13 +508,27 @@ public abstract class Matrix {
 	 * @return the resulting vector
 	 */
 	public static Vector3 mult(Matrix3x3 m, Vector3 v) {
-		Vector3 res = new Vector3();
-		Vector3[] temp = Vector3.getHorizontalVectors(m);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
-		res.z = temp[2].dot(v);
+		return mult(m, v, new Vector3());
+	}
 
-		return res;
+	/**
+	 * Multiplies m with v into {@code dst} without allocating. {@code dst} may be
+	 * the same object as {@code v}.
+	 * 
+	 * @param m   the matrix to multiply
+	 * @param v   the vector to multiply
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 mult(Matrix3x3 m, Vector3 v, Vector3 dst) {
+		final double[] a = m.values;
+		final double x = v.x, y = v.y, z = v.z;
+		dst.x = a[0] * x + a[1] * y + a[2] * z;
+		dst.y = a[3] * x + a[4] * y + a[5] * z;
+		dst.z = a[6] * x + a[7] * y + a[8] * z;
+
+		return dst;
 	}
 
 	/**
@@ -322,14 +541,28 @@ public abstract class Matrix {
 	 * @return the resulting vector
 	 */
 	public static Vector4 mult(Matrix4x4 m, Vector4 v) {
-		Vector4 res = new Vector4();
-		Vector4[] temp = Vector4.getHorizontalVectors(m);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
-		res.z = temp[2].dot(v);
-		res.w = temp[3].dot(v);
+		return mult(m, v, new Vector4());
+	}
 
-		return res;
+	/**
+	 * Multiplies m with v into {@code dst} without allocating. {@code dst} may be
+	 * the same object as {@code v}.
+	 * 
+	 * @param m   the matrix to multiply
+	 * @param v   the vector to multiply
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector4 mult(Matrix4x4 m, Vector4 v, Vector4 dst) {
+		final double[] a = m.values;
+		final double x = v.x, y = v.y, z = v.z, w = v.w;
+		dst.x = a[0] * x + a[1] * y + a[2] * z + a[3] * w;
+		dst.y = a[4] * x + a[5] * y + a[6] * z + a[7] * w;
+		dst.z = a[8] * x + a[9] * y + a[10] * z + a[11] * w;
+		dst.w = a[12] * x + a[13] * y + a[14] * z + a[15] * w;
+
+		return dst;
 	}
 
 	/**
@@ -354,6 +587,171 @@ public abstract class Matrix {
 		}
 	}
 
+	/**
+	 * Computes {@code dst = a b} for {@code n} by {@code n} matrices.
+	 * {@code dst} must not be {@code a} or {@code b}.
+	 */
+	static void multiply(int n, double[] a, double[] b, double[] dst) {
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				for (int k = 0; k < n; k++) {
+					sum += a[i * n + k] * b[k * n + j];
+				}
+				dst[i * n + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Returns a new array with {@code a} to the power of {@code exponent} using
+	 * binary exponentiation, which takes at most {@code 2 log2(exponent)}
+	 * products. The result and the repeated squares each alternate between two
+	 * buffers, so no garbage is created per product.
+	 */
+	static double[] power(int n, double[] a, int exponent) {
+		if (exponent < 0)
+			throw new IllegalArgumentException("The exponent must not be negative");
+
+		double[] result = new double[n * n], resultSpare = new double[n * n];
+		double[] square = a.clone(), squareSpare = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			result[i * n + i] = 1;
+		}
+
+		for (int e = exponent; e != 0; e >>>= 1) {
+			double[] swap;
+			if ((e & 1) != 0) {
+				multiply(n, result, square, resultSpare);
+				swap = result;
+				result = resultSpare;
+				resultSpare = swap;
+			}
+			if (e > 1) {
+				multiply(n, square, square, squareSpare);
+				swap = square;
+				square = squareSpare;
+				squareSpare = swap;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The coefficients of the degree 6 diagonal Pade approximant of the
+	 * exponential.
+	 */
+	private static final double[] PADE = { 1, 1 / 2d, 5 / 44d, 1 / 66d, 1 / 792d, 1 / 15840d, 1 / 665280d };
+
+	/**
+	 * Returns a new array with the exponential of {@code a} computed by scaling
+	 * and squaring: {@code a} is divided by a power of two {@code 2^s} until its
+	 * norm is at most 1/2, the exponential of the scaled matrix is approximated
+	 * by the degree 6 Pade approximant, which is accurate to double
+	 * precision there, and the result is squared {@code s} times.
+	 */
+	static double[] exponential(int n, double[] a) {
+		final int nn = n * n;
+		double norm = 0;
+		for (int j = 0; j < n; j++) {
+			double column = 0;
+			for (int i = 0; i < n; i++) {
+				column += Math.abs(a[i * n + j]);
+			}
+			norm = Math.max(norm, column);
+		}
+		if (!(norm < Double.POSITIVE_INFINITY))
+			throw new IllegalArgumentException("The matrix must be finite");
+
+		final int squarings = norm > 0.5 ? Math.getExponent(norm) + 2 : 0;
+		final double scale = Math.scalb(1d, -squarings);
+
+		double[] x = new double[nn], power = new double[nn], spare = new double[nn];
+		final double[] numerator = new double[nn], denominator = new double[nn];
+		for (int i = 0; i < nn; i++) {
+			x[i] = a[i] * scale;
+		}
+		for (int i = 0; i < n; i++) {
+			power[i * n + i] = 1;
+			numerator[i * n + i] = 1;
+			denominator[i * n + i] = 1;
+		}
+
+		for (int k = 1; k < PADE.length; k++) {
+			multiply(n, power, x, spare);
+			double[] swap = power;
+			power = spare;
+			spare = swap;
+
+			final double c = PADE[k], sign = (k & 1) == 0 ? c : -c;
+			for (int i = 0; i < nn; i++) {
+				numerator[i] += c * power[i];
+				denominator[i] += sign * power[i];
+			}
+		}
+
+		solveInPlace(n, denominator, numerator);
+
+		double[] result = numerator;
+		for (int s = 0; s < squarings; s++) {
+			multiply(n, result, result, spare);
+			double[] swap = result;
+			result = spare;
+			spare = swap;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Overwrites {@code b} with the solution {@code x} of {@code a x = b} for
+	 * {@code n} right hand sides, using Gaussian elimination with partial
+	 * pivoting. {@code a} is destroyed.
+	 */
+	private static void solveInPlace(int n, double[] a, double[] b) {
+		for (int k = 0; k < n; k++) {
+			int pivot = k;
+			for (int i = k + 1; i < n; i++) {
+				if (Math.abs(a[i * n + k]) > Math.abs(a[pivot * n + k]))
+					pivot = i;
+			}
+			if (a[pivot * n + k] == 0)
+				throw new IllegalArgumentException("The matrix is singular");
+
+			if (pivot != k) {
+				for (int j = 0; j < n; j++) {
+					double t = a[k * n + j];
+					a[k * n + j] = a[pivot * n + j];
+					a[pivot * n + j] = t;
+					t = b[k * n + j];
+					b[k * n + j] = b[pivot * n + j];
+					b[pivot * n + j] = t;
+				}
+			}
+
+			for (int i = k + 1; i < n; i++) {
+				final double l = a[i * n + k] / a[k * n + k];
+				for (int j = k; j < n; j++) {
+					a[i * n + j] -= l * a[k * n + j];
+				}
+				for (int j = 0; j < n; j++) {
+					b[i * n + j] -= l * b[k * n + j];
+				}
+			}
+		}
+
+		for (int k = n - 1; k >= 0; k--) {
+			for (int j = 0; j < n; j++) {
+				double sum = b[k * n + j];
+				for (int i = k + 1; i < n; i++) {
+					sum -= a[k * n + i] * b[i * n + j];
+				}
+				b[k * n + j] = sum / a[k * n + k];
+			}
+		}
+	}
+
 	private static Matrix diag2(double... d) {
 		double[] temp;
 		if (d.length == 1) {
@@ -12,7 +12,7 @@ public class Matrix2x2 extends Matrix {
 	/**
 	 * The identity matrix given by {@link Matrix#diag(int, double...) diag(2, 1)}.
 	 */
-	public static final Matrix3x3 I = new Matrix3x3(1, 0, 0, 1);
+	public static final Matrix2x2 I = new Matrix2x2(1, 0, 0, 1);
 	
 	/**
 	 * Creates a new matrix with given values.
@@ -92,17 +92,7 @@ public class Matrix2x2 extends Matrix {
 	 * @return a new independent matrix
 	 */
 	public Matrix2x2 mult(Matrix2x2 m) {
-		double[] temp = new double[values.length];
-		Vector2[] thisVecs = Vector2.getHorizontalVectors(this);
-		Vector2[] mVecs = Vector2.getVerticalVectors(m);
-
-		for (int i = 0; i < 2; i++) {
-			for (int j = 0; j < 2; j++) {
-				temp[i * 2 + j] = Vector2.dot(thisVecs[i], mVecs[j]);
-			}
-		}
-
-		return new Matrix2x2(temp);
+		return Matrix.mult(this, m);
 	}
 
 	/**
@@ -114,12 +104,7 @@ public class Matrix2x2 extends Matrix {
 	 * @return the resulting vector
 	 */
 	public Vector2 mult(Vector2 v) {
-		Vector2 res = new Vector2();
-		Vector2[] temp = Vector2.getHorizontalVectors(this);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
-
-		return res;
+		return Matrix.mult(this, v);
 	}
 
 	/**
@@ -150,7 +135,8 @@ public class Matrix2x2 extends Matrix {
 
 	@Override
 	public String toString() {
-		return String.format("Matrix:\t%s%n" + "%5.3f\t%5.3f%n" + "%5.3f\t%5.3f%n", super.toString(), values[0],
-				values[1], values[2], values[3]);
+		StringBuilder sb = new StringBuilder(96).append("Matrix:\t").append(super.toString())
+				.append(System.lineSeparator());
+		return appendRows(sb, 2, "\t", "", true).toString();
 	}
 }
@@ -92,17 +92,7 @@ public class Matrix3x3 extends Matrix {
 	 * @return a new independent matrix
 	 */
 	public Matrix3x3 mult(Matrix3x3 m) {
-		double[] temp = new double[values.length];
-		Vector3[] thisVecs = Vector3.getHorizontalVectors(this);
-		Vector3[] mVecs = Vector3.getVerticalVectors(m);
-
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
-				temp[i * 3 + j] = Vector3.dot(thisVecs[i], mVecs[j]);
-			}
-		}
-
-		return new Matrix3x3(temp);
+		return Matrix.mult(this, m);
 	}
 
 	/**
@@ -114,13 +104,58 @@ public class Matrix3x3 extends Matrix {
 	 * @return the resulting vector
 	 */
 	public Vector3 mult(Vector3 v) {
-		Vector3 res = new Vector3();
-		Vector3[] temp = Vector3.getHorizontalVectors(this);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
-		res.z = temp[2].dot(v);
+		return Matrix.mult(this, v);
+	}
+
+	/**
+	 * Raises this matrix to the power of {@code exponent} without changing it.
+	 * Uses binary exponentiation, so the number of products grows with the
+	 * logarithm of {@code exponent}.
+	 * 
+	 * @param exponent the exponent, 0 gives the identity
+	 * 
+	 * @return a new independent matrix
+	 * 
+	 * @throws IllegalArgumentException if {@code exponent} is negative
+	 */
+	public Matrix3x3 pow(int exponent) {
+		return new Matrix3x3(power(3, values, exponent));
+	}
+
+	/**
+	 * Returns the matrix exponential of this matrix without changing it, for
+	 * example the rotation generated by a skew-symmetric angular velocity matrix.
+	 * Skew-symmetric matrices use the closed form of Rodrigues' formula, all
+	 * others scaling and squaring with a Pade approximant.
+	 * 
+	 * @return a new independent matrix
+	 * 
+	 * @throws IllegalArgumentException if a value is not finite
+	 */
+	public Matrix3x3 exp() {
+		final double[] m = values;
+		if (m[0] != 0 || m[4] != 0 || m[8] != 0 || m[1] != -m[3] || m[2] != -m[6] || m[5] != -m[7])
+			return new Matrix3x3(exponential(3, m));
+
+		// exp(K) = I + sin(t) / t K + (1 - cos(t)) / t^2 K^2 with K^2 = w w^T - t^2 I
+		final double x = m[7], y = m[2], z = m[3];
+		final double t2 = x * x + y * y + z * z, t = Math.sqrt(t2);
+		if (!(t < Double.POSITIVE_INFINITY))
+			throw new IllegalArgumentException("The matrix must be finite");
+
+		final double a, b;
+		if (t < 1e-4) {
+			a = 1 - t2 / 6;
+			b = 0.5 - t2 / 24;
+		} else {
+			a = Math.sin(t) / t;
+			b = (1 - Math.cos(t)) / t2;
+		}
 
-		return res;
+		return new Matrix3x3(
+				1 - b * (t2 - x * x), b * x * y - a * z, b * x * z + a * y,
+				b * x * y + a * z, 1 - b * (t2 - y * y), b * y * z - a * x,
+				b * x * z - a * y, b * y * z + a * x, 1 - b * (t2 - z * z));
 	}
 
 	/**
@@ -151,9 +186,8 @@ public class Matrix3x3 extends Matrix {
 
 	@Override
 	public String toString() {
-		return String.format(
-				"Matrix:\t%s%n" + "%5.3f\t%5.3f\t%5.3f\t%n" + "%5.3f\t%5.3f\t%5.3f\t%n" + "%5.3f\t%5.3f\t%5.3f\t",
-				super.toString(), values[0], values[1], values[2], values[3], values[4], values[5], values[6],
-				values[7], values[8]);
+		StringBuilder sb = new StringBuilder(128).append("Matrix:\t").append(super.toString())
+				.append(System.lineSeparator());
+		return appendRows(sb, 3, "\t", "\t", false).toString();
 	}
 }
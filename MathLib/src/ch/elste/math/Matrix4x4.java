@@ -92,17 +92,7 @@ public class Matrix4x4 extends Matrix {
 	 * @return a new independent matrix
 	 */
 	public Matrix4x4 mult(Matrix4x4 m) {
-		double[] temp = new double[values.length];
-		Vector4[] thisVecs = Vector4.getHorizontalVectors(this);
-		Vector4[] mVecs = Vector4.getVerticalVectors(m);
-
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				temp[i * 4 + j] = Vector4.dot(thisVecs[i], mVecs[j]);
-			}
-		}
-
-		return new Matrix4x4(temp);
+		return Matrix.mult(this, m);
 	}
 
 	/**
@@ -114,14 +104,264 @@ public class Matrix4x4 extends Matrix {
 	 * @return the resulting vector
 	 */
 	public Vector4 mult(Vector4 v) {
-		Vector4 res = new Vector4();
-		Vector4[] temp = Vector4.getHorizontalVectors(this);
-		res.x = temp[0].dot(v);
-		res.y = temp[1].dot(v);
-		res.z = temp[2].dot(v);
-		res.w = temp[3].dot(v);
+		return Matrix.mult(this, v);
+	}
+
+	/**
+	 * Raises this matrix to the power of {@code exponent} without changing it.
+	 * Uses binary exponentiation, so the number of products grows with the
+	 * logarithm of {@code exponent}.
+	 * 
+	 * @param exponent the exponent, 0 gives the identity
+	 * 
+	 * @return a new independent matrix
+	 * 
+	 * @throws IllegalArgumentException if {@code exponent} is negative
+	 */
+	public Matrix4x4 pow(int exponent) {
+		return new Matrix4x4(power(4, values, exponent));
+	}
+
+	/**
+	 * Returns the matrix exponential of this matrix without changing it, using
+	 * scaling and squaring with a Pade approximant. For a twist in homogeneous
+	 * coordinates this is the rigid motion it generates in unit time.
+	 * 
+	 * @return a new independent matrix
+	 * 
+	 * @throws IllegalArgumentException if a value is not finite
+	 */
+	public Matrix4x4 exp() {
+		return new Matrix4x4(exponential(4, values));
+	}
+
+	/**
+	 * Sets this matrix to the identity.
+	 * 
+	 * @return this matrix
+	 */
+	public Matrix4x4 setIdentity() {
+		return set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0);
+	}
+
+	/**
+	 * Sets this matrix to a translation by {@code (x, y, z)}.
+	 * 
+	 * @param x the translation along the x-axis
+	 * @param y the translation along the y-axis
+	 * @param z the translation along the z-axis
+	 * 
+	 * @return this matrix
+	 */
+	public Matrix4x4 setTranslation(double x, double y, double z) {
+		return set(1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z);
+	}
+
+	/**
+	 * Sets this matrix to a scaling by {@code (x, y, z)}.
+	 * 
+	 * @param x the factor along the x-axis
+	 * @param y the factor along the y-axis
+	 * @param z the factor along the z-axis
+	 * 
+	 * @return this matrix
+	 */
+	public Matrix4x4 setScale(double x, double y, double z) {
+		return set(x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0);
+	}
+
+	/**
+	 * Sets this matrix to a counterclockwise rotation by {@code angle} around the
+	 * axis {@code (x, y, z)}. The axis does not need to be normalized.
+	 * 
+	 * @param x     the x-coordinate of the axis
+	 * @param y     the y-coordinate of the axis
+	 * @param z     the z-coordinate of the axis
+	 * @param angle the angle in radians
+	 * 
+	 * @return this matrix
+	 * 
+	 * @throws IllegalArgumentException if the axis has length 0
+	 */
+	public Matrix4x4 setRotation(double x, double y, double z, double angle) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length == 0)
+			throw new IllegalArgumentException("The rotation axis must not have length 0");
+
+		x /= length;
+		y /= length;
+		z /= length;
+		final double c = Math.cos(angle), s = Math.sin(angle), t = 1 - c;
 
-		return res;
+		return set(t * x * x + c, t * x * y - s * z, t * x * z + s * y, 0, t * x * y + s * z, t * y * y + c,
+				t * y * z - s * x, 0, t * x * z - s * y, t * y * z + s * x, t * z * z + c, 0);
+	}
+
+	/**
+	 * Sets this matrix to the rotation by {@code ax} around the x-axis, followed by
+	 * {@code ay} around the y-axis and {@code az} around the z-axis.
+	 * 
+	 * @param ax the angle around the x-axis in radians
+	 * @param ay the angle around the y-axis in radians
+	 * @param az the angle around the z-axis in radians
+	 * 
+	 * @return this matrix
+	 */
+	public Matrix4x4 setEuler(double ax, double ay, double az) {
+		final double cx = Math.cos(ax), sx = Math.sin(ax);
+		final double cy = Math.cos(ay), sy = Math.sin(ay);
+		final double cz = Math.cos(az), sz = Math.sin(az);
+
+		return set(cz * cy, cz * sy * sx - sz * cx, cz * sy * cx + sz * sx, 0, sz * cy, sz * sy * sx + cz * cx,
+				sz * sy * cx - cz * sx, 0, -sy, cy * sx, cy * cx, 0);
+	}
+
+	/**
+	 * Sets this matrix to the transformation which scales by {@code s}, then
+	 * rotates by the unit quaternion {@code q} and finally translates by
+	 * {@code t}.
+	 * 
+	 * @param t the translation
+	 * @param q the rotation as quaternion {@code (x, y, z, w)}
+	 * @param s the scale factors
+	 * 
+	 * @return this matrix
+	 */
+	public Matrix4x4 setTRS(Vector3 t, Vector4 q, Vector3 s) {
+		final double xx = q.x * q.x, yy = q.y * q.y, zz = q.z * q.z;
+		final double xy = q.x * q.y, xz = q.x * q.z, yz = q.y * q.z;
+		final double wx = q.w * q.x, wy = q.w * q.y, wz = q.w * q.z;
+
+		return set((1 - 2 * (yy + zz)) * s.x, 2 * (xy - wz) * s.y, 2 * (xz + wy) * s.z, t.x,
+				2 * (xy + wz) * s.x, (1 - 2 * (xx + zz)) * s.y, 2 * (yz - wx) * s.z, t.y,
+				2 * (xz - wy) * s.x, 2 * (yz + wx) * s.y, (1 - 2 * (xx + yy)) * s.z, t.z);
+	}
+
+	/**
+	 * Sets this matrix to a right-handed view matrix looking from {@code eye} at
+	 * {@code center}, like {@code gluLookAt}.
+	 * 
+	 * @param eye    the position of the camera
+	 * @param center the point to look at
+	 * @param up     the direction pointing upwards
+	 * 
+	 * @return this matrix
+	 * 
+	 * @throws IllegalArgumentException if {@code eye} equals {@code center} or
+	 *                                  {@code up} is parallel to the view direction
+	 */
+	public Matrix4x4 setLookAt(Vector3 eye, Vector3 center, Vector3 up) {
+		double fx = center.x - eye.x, fy = center.y - eye.y, fz = center.z - eye.z;
+		double length = Math.sqrt(fx * fx + fy * fy + fz * fz);
+		if (length == 0)
+			throw new IllegalArgumentException("eye and center must not be equal");
+		fx /= length;
+		fy /= length;
+		fz /= length;
+
+		double sx = fy * up.z - fz * up.y, sy = fz * up.x - fx * up.z, sz = fx * up.y - fy * up.x;
+		length = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		if (length == 0)
+			throw new IllegalArgumentException("up must not be parallel to the view direction");
+		sx /= length;
+		sy /= length;
+		sz /= length;
+
+		final double ux = sy * fz - sz * fy, uy = sz * fx - sx * fz, uz = sx * fy - sy * fx;
+
+		return set(sx, sy, sz, -(sx * eye.x + sy * eye.y + sz * eye.z), ux, uy, uz,
+				-(ux * eye.x + uy * eye.y + uz * eye.z), -fx, -fy, -fz, fx * eye.x + fy * eye.y + fz * eye.z);
+	}
+
+	/**
+	 * Sets this matrix to a perspective projection mapping the view frustum to the
+	 * cube from -1 to 1, like {@code gluPerspective}.
+	 * 
+	 * @param fovy   the vertical field of view in radians
+	 * @param aspect the ratio of width to height
+	 * @param near   the distance to the near plane
+	 * @param far    the distance to the far plane
+	 * 
+	 * @return this matrix
+	 * 
+	 * @throws IllegalArgumentException if {@code near} is not positive or equals
+	 *                                  {@code far}
+	 */
+	public Matrix4x4 setPerspective(double fovy, double aspect, double near, double far) {
+		if (near <= 0 || near == far)
+			throw new IllegalArgumentException("near must be positive and differ from far");
+
+		final double f = 1 / Math.tan(fovy / 2);
+		final double[] v = values;
+
+		v[0] = f / aspect;
+		v[1] = 0;
+		v[2] = 0;
+		v[3] = 0;
+		v[4] = 0;
+		v[5] = f;
+		v[6] = 0;
+		v[7] = 0;
+		v[8] = 0;
+		v[9] = 0;
+		v[10] = (far + near) / (near - far);
+		v[11] = 2 * far * near / (near - far);
+		v[12] = 0;
+		v[13] = 0;
+		v[14] = -1;
+		v[15] = 0;
+
+		return this;
+	}
+
+	/**
+	 * Sets this matrix to an orthographic projection mapping the given box to the
+	 * cube from -1 to 1, like {@code glOrtho}.
+	 * 
+	 * @param left   the left plane
+	 * @param right  the right plane
+	 * @param bottom the bottom plane
+	 * @param top    the top plane
+	 * @param near   the near plane
+	 * @param far    the far plane
+	 * 
+	 * @return this matrix
+	 * 
+	 * @throws IllegalArgumentException if two opposite planes are equal
+	 */
+	public Matrix4x4 setOrthographic(double left, double right, double bottom, double top, double near,
+			double far) {
+		if (left == right || bottom == top || near == far)
+			throw new IllegalArgumentException("Opposite planes must not be equal");
+
+		return set(2 / (right - left), 0, 0, -(right + left) / (right - left), 0, 2 / (top - bottom), 0,
+				-(top + bottom) / (top - bottom), 0, 0, -2 / (far - near), -(far + near) / (far - near));
+	}
+
+	/**
+	 * Writes the upper three rows and sets the last row to {@code 0 0 0 1}.
+	 */
+	private Matrix4x4 set(double m00, double m01, double m02, double m03, double m10, double m11, double m12,
+			double m13, double m20, double m21, double m22, double m23) {
+		final double[] v = values;
+		v[0] = m00;
+		v[1] = m01;
+		v[2] = m02;
+		v[3] = m03;
+		v[4] = m10;
+		v[5] = m11;
+		v[6] = m12;
+		v[7] = m13;
+		v[8] = m20;
+		v[9] = m21;
+		v[10] = m22;
+		v[11] = m23;
+		v[12] = 0;
+		v[13] = 0;
+		v[14] = 0;
+		v[15] = 1;
+
+		return this;
 	}
 
 	/**
@@ -159,13 +399,70 @@ public class Matrix4x4 extends Matrix {
 		return values[row * 4 + column];
 	}
 
+	/**
+	 * Writes the values of this matrix to {@code dst} in the given layout. The
+	 * column-major copy is unrolled.
+	 */
+	@Override
+	public double[] copyTo(Layout layout, double[] dst, int offset) {
+		if (layout == Layout.ROW_MAJOR) {
+			System.arraycopy(values, 0, dst, offset, 16);
+		} else {
+			final double[] v = values;
+			dst[offset] = v[0];
+			dst[offset + 1] = v[4];
+			dst[offset + 2] = v[8];
+			dst[offset + 3] = v[12];
+			dst[offset + 4] = v[1];
+			dst[offset + 5] = v[5];
+			dst[offset + 6] = v[9];
+			dst[offset + 7] = v[13];
+			dst[offset + 8] = v[2];
+			dst[offset + 9] = v[6];
+			dst[offset + 10] = v[10];
+			dst[offset + 11] = v[14];
+			dst[offset + 12] = v[3];
+			dst[offset + 13] = v[7];
+			dst[offset + 14] = v[11];
+			dst[offset + 15] = v[15];
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Sets the values of this matrix from {@code src} stored in the given layout.
+	 * The column-major copy is unrolled.
+	 */
+	@Override
+	public void copyFrom(Layout layout, double[] src, int offset) {
+		if (layout == Layout.ROW_MAJOR) {
+			System.arraycopy(src, offset, values, 0, 16);
+		} else {
+			final double[] v = values;
+			v[0] = src[offset];
+			v[4] = src[offset + 1];
+			v[8] = src[offset + 2];
+			v[12] = src[offset + 3];
+			v[1] = src[offset + 4];
+			v[5] = src[offset + 5];
+			v[9] = src[offset + 6];
+			v[13] = src[offset + 7];
+			v[2] = src[offset + 8];
+			v[6] = src[offset + 9];
+			v[10] = src[offset + 10];
+			v[14] = src[offset + 11];
+			v[3] = src[offset + 12];
+			v[7] = src[offset + 13];
+			v[11] = src[offset + 14];
+			v[15] = src[offset + 15];
+		}
+	}
+
 	@Override
 	public String toString() {
-		return String.format(
-				"Matrix:@%s%n" + "%5.3f\t%5.3f\t%5.3f\t%5.3f%n" + "%5.3f\t%5.3f\t%5.3f\t%5.3f%n"
-						+ "%5.3f\t%5.3f\t%5.3f\t%5.3f%n" + "%5.3f\t%5.3f\t%5.3f\t%5.3f%n",
-				Integer.toHexString(hashCode()), values[0], values[1], values[2], values[3], values[4], values[5],
-				values[6], values[7], values[8], values[9], values[10], values[11], values[12], values[13], values[14],
-				values[15]);
+		StringBuilder sb = new StringBuilder(192).append("Matrix:@").append(Integer.toHexString(hashCode()))
+				.append(System.lineSeparator());
+		return appendRows(sb, 4, "\t", "", true).toString();
 	}
 }
@@ -0,0 +1,384 @@
+package ch.elste.math;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import ch.elste.math.Matrix.Layout;
+
+/**
+ * A packed array of {@code count} square matrices of the same size, stored one
+ * after another in {@link #values}, each in the {@link Layout} chosen at
+ * creation. Keeping matrices in the layout their consumer expects, for example
+ * column-major for OpenGL, makes exporting them a single bulk copy.
+ * <p>
+ * The products and transforms are specialized per layout. A column-major
+ * product {@code C = A B} is the row-major product {@code C^T = B^T A^T} of the
+ * same arrays, so both layouts share one kernel with swapped operands.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see Matrix#copyTo(Layout, double[], int)
+ */
+public class MatrixArray {
+	private final int n, count;
+	private final Layout layout;
+	/**
+	 * The values of all matrices.
+	 */
+	public final double[] values;
+
+	/**
+	 * Creates a new array of {@code count} zero matrices.
+	 *
+	 * @param n      the number of rows and columns per matrix
+	 * @param count  the number of matrices
+	 * @param layout the order of the values of every matrix
+	 */
+	public MatrixArray(int n, int count, Layout layout) {
+		this.n = n;
+		this.count = count;
+		this.layout = layout;
+		this.values = new double[n * n * count];
+	}
+
+	/**
+	 * Returns the number of matrices.
+	 *
+	 * @return the number of matrices
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of rows and columns per matrix.
+	 *
+	 * @return the dimension
+	 */
+	public int dimension() {
+		return n;
+	}
+
+	/**
+	 * Returns the layout of the matrices.
+	 *
+	 * @return the layout
+	 */
+	public Layout layout() {
+		return layout;
+	}
+
+	/**
+	 * Returns the value at {@code row, column} of matrix {@code i}.
+	 *
+	 * @param i      the index of the matrix
+	 * @param row    the row
+	 * @param column the column
+	 *
+	 * @return the value
+	 */
+	public double get(int i, int row, int column) {
+		return values[i * n * n + layout.index(n, row, column)];
+	}
+
+	/**
+	 * Sets the value at {@code row, column} of matrix {@code i}.
+	 *
+	 * @param i      the index of the matrix
+	 * @param row    the row
+	 * @param column the column
+	 * @param value  the new value
+	 */
+	public void set(int i, int row, int column, double value) {
+		values[i * n * n + layout.index(n, row, column)] = value;
+	}
+
+	/**
+	 * Copies matrix {@code i} into {@code dst}.
+	 *
+	 * @param i   the index of the matrix
+	 * @param dst the matrix to write to, of the same size
+	 *
+	 * @return {@code dst}
+	 */
+	public Matrix get(int i, Matrix dst) {
+		check(dst);
+		dst.copyFrom(layout, values, i * n * n);
+
+		return dst;
+	}
+
+	/**
+	 * Sets matrix {@code i} to the values of {@code src}.
+	 *
+	 * @param i   the index of the matrix
+	 * @param src the matrix to copy, of the same size
+	 */
+	public void set(int i, Matrix src) {
+		check(src);
+		src.copyTo(layout, values, i * n * n);
+	}
+
+	/**
+	 * Returns a view on matrix {@code i}.
+	 *
+	 * @param i the index of the matrix
+	 *
+	 * @return a view sharing the values with this array
+	 */
+	public MatrixView view(int i) {
+		return MatrixView.of(values, i * n * n, n, n, layout);
+	}
+
+	/**
+	 * Computes {@code dst[k] = a[i] b[j]}. Matrix {@code k} of {@code dst} must
+	 * not be one of the factors.
+	 *
+	 * @param a   the array of the first factor
+	 * @param i   the index of the first factor
+	 * @param b   the array of the second factor
+	 * @param j   the index of the second factor
+	 * @param dst the array to write to
+	 * @param k   the index of the product
+	 *
+	 * @throws IllegalArgumentException if the matrices have different sizes
+	 */
+	public static void multiply(MatrixArray a, int i, MatrixArray b, int j, MatrixArray dst, int k) {
+		if (a.n != b.n || a.n != dst.n)
+			throw new IllegalArgumentException("The matrices have different sizes");
+
+		final int nn = a.n * a.n;
+		if (a.layout == b.layout && a.layout == dst.layout) {
+			if (a.layout == Layout.ROW_MAJOR) {
+				multiplyRowMajor(a.n, a.values, i * nn, b.values, j * nn, dst.values, k * nn);
+			} else {
+				multiplyRowMajor(a.n, b.values, j * nn, a.values, i * nn, dst.values, k * nn);
+			}
+		} else {
+			MatrixView.multiply(a.view(i), b.view(j), dst.view(k));
+		}
+	}
+
+	/**
+	 * Computes {@code dst[i] = a[i] b[i]} for all matrices.
+	 *
+	 * @param a   the first factors
+	 * @param b   the second factors
+	 * @param dst the array to write to, must not be {@code a} or {@code b}
+	 *
+	 * @throws IllegalArgumentException if the arrays do not fit together
+	 */
+	public static void multiplyAll(MatrixArray a, MatrixArray b, MatrixArray dst) {
+		if (a.count != b.count || a.count > dst.count)
+			throw new IllegalArgumentException("The arrays have different sizes");
+
+		for (int i = 0; i < a.count; i++) {
+			multiply(a, i, b, i, dst, i);
+		}
+	}
+
+	/**
+	 * Computes {@code dst[i] = m this[i]} for all matrices, for example to apply
+	 * a camera or parent transform to many matrices.
+	 *
+	 * @param m   the matrix to multiply with from the left
+	 * @param dst the array to write to, must not be this array
+	 *
+	 * @return {@code dst}
+	 *
+	 * @throws IllegalArgumentException if the sizes or layouts do not fit
+	 *                                  together
+	 */
+	public MatrixArray premultiply(Matrix m, MatrixArray dst) {
+		check(m);
+		if (dst.n != n || dst.count < count || dst.layout != layout)
+			throw new IllegalArgumentException("The destination does not fit this array");
+
+		final int nn = n * n;
+		final double[] left = m.copyTo(layout, new double[nn], 0);
+		for (int i = 0; i < count; i++) {
+			if (layout == Layout.ROW_MAJOR) {
+				multiplyRowMajor(n, left, 0, values, i * nn, dst.values, i * nn);
+			} else {
+				multiplyRowMajor(n, values, i * nn, left, 0, dst.values, i * nn);
+			}
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code y = M x} with matrix {@code i} for {@code count} packed
+	 * vectors of {@link #dimension()} components, for example homogeneous points
+	 * with 4x4 matrices. Does not allocate for 3x3 and 4x4 matrices, which are
+	 * unrolled; larger matrices allocate one vector per call, see
+	 * {@link #transform(int, double[], int, double[], int, int, double[])}.
+	 *
+	 * @param i      the index of the matrix
+	 * @param src    the packed vectors
+	 * @param srcOff the index of the first vector in {@code src}
+	 * @param dst    the array to write to, may be {@code src} at the same offset
+	 * @param dstOff the index of the first result in {@code dst}
+	 * @param count  the number of vectors
+	 */
+	public void transform(int i, double[] src, int srcOff, double[] dst, int dstOff, int count) {
+		transform(i, src, srcOff, dst, dstOff, count, n == 3 || n == 4 ? null : new double[n]);
+	}
+
+	/**
+	 * Computes {@code y = M x} with matrix {@code i} for {@code count} packed
+	 * vectors of {@link #dimension()} components without allocating.
+	 *
+	 * @param i      the index of the matrix
+	 * @param src    the packed vectors
+	 * @param srcOff the index of the first vector in {@code src}
+	 * @param dst    the array to write to, may be {@code src} at the same offset
+	 * @param dstOff the index of the first result in {@code dst}
+	 * @param count  the number of vectors
+	 * @param work   a scratch array of at least {@link #dimension()} values, may
+	 *               be {@code null} for 3x3 and 4x4 matrices
+	 */
+	public void transform(int i, double[] src, int srcOff, double[] dst, int dstOff, int count, double[] work) {
+		final int m = i * n * n;
+		if (n == 4) {
+			transform4(m, src, srcOff, dst, dstOff, count);
+			return;
+		}
+		if (n == 3) {
+			transform3(m, src, srcOff, dst, dstOff, count);
+			return;
+		}
+
+		final double[] x = work;
+		for (int v = 0; v < count; v++) {
+			System.arraycopy(src, srcOff + v * n, x, 0, n);
+			final int y = dstOff + v * n;
+			if (layout == Layout.ROW_MAJOR) {
+				for (int r = 0; r < n; r++) {
+					dst[y + r] = Blas.dot(n, values, m + r * n, 1, x, 0, 1);
+				}
+			} else {
+				for (int r = 0; r < n; r++) {
+					dst[y + r] = 0;
+				}
+				for (int c = 0; c < n; c++) {
+					Blas.axpy(n, x[c], values, m + c * n, 1, dst, y, 1);
+				}
+			}
+		}
+	}
+
+	private void transform4(int m, double[] src, int srcOff, double[] dst, int dstOff, int count) {
+		final double m00 = values[m + layout.index(4, 0, 0)], m01 = values[m + layout.index(4, 0, 1)];
+		final double m02 = values[m + layout.index(4, 0, 2)], m03 = values[m + layout.index(4, 0, 3)];
+		final double m10 = values[m + layout.index(4, 1, 0)], m11 = values[m + layout.index(4, 1, 1)];
+		final double m12 = values[m + layout.index(4, 1, 2)], m13 = values[m + layout.index(4, 1, 3)];
+		final double m20 = values[m + layout.index(4, 2, 0)], m21 = values[m + layout.index(4, 2, 1)];
+		final double m22 = values[m + layout.index(4, 2, 2)], m23 = values[m + layout.index(4, 2, 3)];
+		final double m30 = values[m + layout.index(4, 3, 0)], m31 = values[m + layout.index(4, 3, 1)];
+		final double m32 = values[m + layout.index(4, 3, 2)], m33 = values[m + layout.index(4, 3, 3)];
+
+		for (int v = 0; v < count; v++) {
+			final int s = srcOff + 4 * v, d = dstOff + 4 * v;
+			final double x = src[s], y = src[s + 1], z = src[s + 2], w = src[s + 3];
+			dst[d] = m00 * x + m01 * y + m02 * z + m03 * w;
+			dst[d + 1] = m10 * x + m11 * y + m12 * z + m13 * w;
+			dst[d + 2] = m20 * x + m21 * y + m22 * z + m23 * w;
+			dst[d + 3] = m30 * x + m31 * y + m32 * z + m33 * w;
+		}
+	}
+
+	private void transform3(int m, double[] src, int srcOff, double[] dst, int dstOff, int count) {
+		final double m00 = values[m + layout.index(3, 0, 0)], m01 = values[m + layout.index(3, 0, 1)];
+		final double m02 = values[m + layout.index(3, 0, 2)];
+		final double m10 = values[m + layout.index(3, 1, 0)], m11 = values[m + layout.index(3, 1, 1)];
+		final double m12 = values[m + layout.index(3, 1, 2)];
+		final double m20 = values[m + layout.index(3, 2, 0)], m21 = values[m + layout.index(3, 2, 1)];
+		final double m22 = values[m + layout.index(3, 2, 2)];
+
+		for (int v = 0; v < count; v++) {
+			final int s = srcOff + 3 * v, d = dstOff + 3 * v;
+			final double x = src[s], y = src[s + 1], z = src[s + 2];
+			dst[d] = m00 * x + m01 * y + m02 * z;
+			dst[d + 1] = m10 * x + m11 * y + m12 * z;
+			dst[d + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+
+	/**
+	 * Writes all matrices to {@code dst} at its position with a single bulk copy,
+	 * advancing the position.
+	 *
+	 * @param dst the buffer to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public DoubleBuffer export(DoubleBuffer dst) {
+		return dst.put(values);
+	}
+
+	/**
+	 * Writes all matrices as floats to {@code dst} at its position, advancing
+	 * the position. The values are written in the order they are stored.
+	 *
+	 * @param dst the buffer to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public FloatBuffer export(FloatBuffer dst) {
+		final int start = dst.position();
+		for (int i = 0; i < values.length; i++) {
+			dst.put(start + i, (float) values[i]);
+		}
+
+		return dst.position(start + values.length);
+	}
+
+	/**
+	 * Returns a new independent array with the same matrices in the given
+	 * layout.
+	 *
+	 * @param layout the layout of the new array
+	 *
+	 * @return a new array
+	 */
+	public MatrixArray toLayout(Layout layout) {
+		MatrixArray temp = new MatrixArray(n, count, layout);
+		final int nn = n * n;
+
+		if (layout == this.layout) {
+			System.arraycopy(values, 0, temp.values, 0, values.length);
+		} else {
+			for (int i = 0; i < count; i++) {
+				for (int r = 0; r < n; r++) {
+					for (int c = 0; c < n; c++) {
+						temp.values[i * nn + c * n + r] = values[i * nn + r * n + c];
+					}
+				}
+			}
+		}
+
+		return temp;
+	}
+
+	/**
+	 * Computes {@code z = x y} for row-major {@code n} by {@code n} matrices.
+	 */
+	private static void multiplyRowMajor(int n, double[] x, int xo, double[] y, int yo, double[] z, int zo) {
+		for (int r = 0; r < n; r++) {
+			for (int c = 0; c < n; c++) {
+				double sum = 0;
+				for (int k = 0; k < n; k++) {
+					sum += x[xo + r * n + k] * y[yo + k * n + c];
+				}
+				z[zo + r * n + c] = sum;
+			}
+		}
+	}
+
+	private void check(Matrix m) {
+		if (m.values.length != n * n)
+			throw new IllegalArgumentException("The matrix must be " + n + " by " + n);
+	}
+}
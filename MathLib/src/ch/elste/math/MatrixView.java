@@ -0,0 +1,326 @@
+package ch.elste.math;
+
+/**
+ * A rectangular view on a part of a {@code double[]}, for example the
+ * {@link Matrix#values} of a matrix. Element {@code (i, j)} is
+ * {@code values[offset + i * rowStride + j * columnStride]}. Views never copy:
+ * they read and write the backing array, so changes through a view are visible
+ * in the matrix and the other way round.
+ * <p>
+ * {@link #transpose()}, {@link #block(int, int, int, int)}, {@link #row(int)}
+ * and {@link #column(int)} only swap or adjust the offset and the strides.
+ * {@link #multiply(MatrixView, MatrixView, MatrixView)} accepts any views, so
+ * a product like {@code A^T B} is computed as
+ * {@code multiply(a.transpose(), b, dst)} without materializing the transpose.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see VectorN
+ */
+public class MatrixView {
+	/**
+	 * The backing array.
+	 */
+	public final double[] values;
+
+	/**
+	 * The index of element {@code (0, 0)} in {@link #values}.
+	 */
+	public final int offset;
+
+	/**
+	 * The distance between two rows in {@link #values}.
+	 */
+	public final int rowStride;
+
+	/**
+	 * The distance between two columns in {@link #values}.
+	 */
+	public final int columnStride;
+
+	private final int rows, columns;
+
+	/**
+	 * Creates a new view on {@code values}.
+	 *
+	 * @param values       the backing array
+	 * @param offset       the index of element {@code (0, 0)}
+	 * @param rows         the number of rows
+	 * @param columns      the number of columns
+	 * @param rowStride    the distance between two rows, at least 1
+	 * @param columnStride the distance between two columns, at least 1
+	 *
+	 * @throws IllegalArgumentException if the view does not fit into
+	 *                                  {@code values}
+	 */
+	public MatrixView(double[] values, int offset, int rows, int columns, int rowStride, int columnStride) {
+		if (rows < 0 || columns < 0 || offset < 0 || rowStride < 1 || columnStride < 1 || (rows > 0 && columns > 0
+				&& offset + (long) (rows - 1) * rowStride + (long) (columns - 1) * columnStride >= values.length))
+			throw new IllegalArgumentException("The view does not fit into an array of length " + values.length);
+
+		this.values = values;
+		this.offset = offset;
+		this.rows = rows;
+		this.columns = columns;
+		this.rowStride = rowStride;
+		this.columnStride = columnStride;
+	}
+
+	/**
+	 * Returns a view on the values of {@code m}.
+	 *
+	 * @param m the matrix
+	 *
+	 * @return a view sharing the values with {@code m}
+	 */
+	public static MatrixView of(Matrix m) {
+		final int n = (int) Math.round(Math.sqrt(m.values.length));
+		return new MatrixView(m.values, 0, n, n, n, 1);
+	}
+
+	/**
+	 * Returns a view on a {@code rows} by {@code columns} matrix stored row by
+	 * row in {@code values}.
+	 *
+	 * @param values  the backing array
+	 * @param rows    the number of rows
+	 * @param columns the number of columns
+	 *
+	 * @return a view sharing the values with {@code values}
+	 */
+	public static MatrixView of(double[] values, int rows, int columns) {
+		return new MatrixView(values, 0, rows, columns, columns, 1);
+	}
+
+	/**
+	 * Returns a view on a {@code rows} by {@code columns} matrix stored in
+	 * {@code values} in the given layout.
+	 *
+	 * @param values  the backing array
+	 * @param offset  the index of the first value
+	 * @param rows    the number of rows
+	 * @param columns the number of columns
+	 * @param layout  the order of the values
+	 *
+	 * @return a view sharing the values with {@code values}
+	 */
+	public static MatrixView of(double[] values, int offset, int rows, int columns, Matrix.Layout layout) {
+		return layout == Matrix.Layout.ROW_MAJOR ? new MatrixView(values, offset, rows, columns, columns, 1)
+				: new MatrixView(values, offset, rows, columns, 1, rows);
+	}
+
+	/**
+	 * Returns the number of rows.
+	 *
+	 * @return the number of rows
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of columns.
+	 *
+	 * @return the number of columns
+	 */
+	public int columns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 *
+	 * @return the value
+	 *
+	 * @throws IndexOutOfBoundsException if the position is outside the view
+	 */
+	public double get(int row, int column) {
+		return values[index(row, column)];
+	}
+
+	/**
+	 * Sets the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 * @param value  the new value
+	 *
+	 * @throws IndexOutOfBoundsException if the position is outside the view
+	 */
+	public void set(int row, int column, double value) {
+		values[index(row, column)] = value;
+	}
+
+	/**
+	 * Returns the transposed view.
+	 *
+	 * @return a view sharing the values with this view
+	 */
+	public MatrixView transpose() {
+		return new MatrixView(values, offset, columns, rows, columnStride, rowStride);
+	}
+
+	/**
+	 * Returns a view of {@code rows} by {@code columns} elements starting at
+	 * {@code row, column}.
+	 *
+	 * @param row     the first row of the block
+	 * @param column  the first column of the block
+	 * @param rows    the number of rows of the block
+	 * @param columns the number of columns of the block
+	 *
+	 * @return a view sharing the values with this view
+	 *
+	 * @throws IndexOutOfBoundsException if the block does not fit into this view
+	 */
+	public MatrixView block(int row, int column, int rows, int columns) {
+		if (row < 0 || column < 0 || rows < 0 || columns < 0 || row + rows > this.rows
+				|| column + columns > this.columns)
+			throw new IndexOutOfBoundsException(
+					"The block does not fit into a " + this.rows + " by " + this.columns + " view");
+
+		return new MatrixView(values, offset + row * rowStride + column * columnStride, rows, columns, rowStride,
+				columnStride);
+	}
+
+	/**
+	 * Returns row {@code i} as a vector view.
+	 *
+	 * @param i the row
+	 *
+	 * @return a vector sharing the values with this view
+	 *
+	 * @throws IndexOutOfBoundsException if {@code i} is out of range
+	 */
+	public VectorN row(int i) {
+		if (i < 0 || i >= rows)
+			throw new IndexOutOfBoundsException("row " + i + " out of bounds for " + rows + " rows");
+
+		return new VectorN(values, offset + i * rowStride, columnStride, columns);
+	}
+
+	/**
+	 * Returns column {@code j} as a vector view.
+	 *
+	 * @param j the column
+	 *
+	 * @return a vector sharing the values with this view
+	 *
+	 * @throws IndexOutOfBoundsException if {@code j} is out of range
+	 */
+	public VectorN column(int j) {
+		if (j < 0 || j >= columns)
+			throw new IndexOutOfBoundsException("column " + j + " out of bounds for " + columns + " columns");
+
+		return new VectorN(values, offset + j * columnStride, rowStride, rows);
+	}
+
+	/**
+	 * Returns the main diagonal as a vector view.
+	 *
+	 * @return a vector sharing the values with this view
+	 */
+	public VectorN diagonal() {
+		return new VectorN(values, offset, rowStride + columnStride, Math.min(rows, columns));
+	}
+
+	/**
+	 * Copies the values of this view to {@code dst}.
+	 *
+	 * @param dst the view to write to, with the same shape
+	 *
+	 * @return {@code dst}
+	 *
+	 * @throws IllegalArgumentException if the shapes differ
+	 */
+	public MatrixView copyTo(MatrixView dst) {
+		if (dst.rows != rows || dst.columns != columns)
+			throw new IllegalArgumentException("The views have different shapes");
+
+		for (int i = 0; i < rows; i++) {
+			Blas.copy(columns, values, offset + i * rowStride, columnStride, dst.values,
+					dst.offset + i * dst.rowStride, dst.columnStride);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code dst = a b}. When {@code b} and {@code dst} have contiguous
+	 * rows, rows of {@code b} are streamed; otherwise every element is a strided
+	 * dot product.
+	 *
+	 * @param a   the first factor
+	 * @param b   the second factor
+	 * @param dst the view to write to, must not overlap {@code a} or {@code b}
+	 *
+	 * @return {@code dst}
+	 *
+	 * @throws IllegalArgumentException if the shapes do not fit together
+	 */
+	public static MatrixView multiply(MatrixView a, MatrixView b, MatrixView dst) {
+		if (a.columns != b.rows || dst.rows != a.rows || dst.columns != b.columns)
+			throw new IllegalArgumentException("Cannot multiply " + a.rows + "x" + a.columns + " by " + b.rows + "x"
+					+ b.columns + " into " + dst.rows + "x" + dst.columns);
+
+		final int m = a.rows, n = b.columns, k = a.columns;
+		if (b.columnStride == 1 && dst.columnStride == 1) {
+			for (int i = 0; i < m; i++) {
+				final int di = dst.offset + i * dst.rowStride, ai = a.offset + i * a.rowStride;
+				for (int j = 0; j < n; j++) {
+					dst.values[di + j] = 0;
+				}
+				for (int p = 0; p < k; p++) {
+					Blas.axpy(n, a.values[ai + p * a.columnStride], b.values, b.offset + p * b.rowStride, 1,
+							dst.values, di, 1);
+				}
+			}
+		} else {
+			for (int i = 0; i < m; i++) {
+				for (int j = 0; j < n; j++) {
+					dst.values[dst.offset + i * dst.rowStride + j * dst.columnStride] = Blas.dot(k, a.values,
+							a.offset + i * a.rowStride, a.columnStride, b.values, b.offset + j * b.columnStride,
+							b.rowStride);
+				}
+			}
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code y = a x}.
+	 *
+	 * @param a the matrix
+	 * @param x the vector to multiply
+	 * @param y the vector to write to, must not overlap {@code x}
+	 *
+	 * @return {@code y}
+	 *
+	 * @throws IllegalArgumentException if the sizes do not fit together
+	 */
+	public static VectorN multiply(MatrixView a, VectorN x, VectorN y) {
+		if (x.size() != a.columns || y.size() != a.rows)
+			throw new IllegalArgumentException("Cannot multiply " + a.rows + "x" + a.columns + " by " + x.size()
+					+ " into " + y.size());
+
+		for (int i = 0; i < a.rows; i++) {
+			y.values[y.offset + i * y.stride] = Blas.dot(a.columns, a.values, a.offset + i * a.rowStride,
+					a.columnStride, x.values, x.offset, x.stride);
+		}
+
+		return y;
+	}
+
+	private int index(int row, int column) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns)
+			throw new IndexOutOfBoundsException(
+					"(" + row + ", " + column + ") out of bounds for " + rows + " by " + columns);
+
+		return offset + row * rowStride + column * columnStride;
+	}
+}
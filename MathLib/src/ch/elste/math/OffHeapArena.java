@@ -0,0 +1,172 @@
+package ch.elste.math;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates {@link OffHeapMatrix off-heap matrices} and
+ * {@link OffHeapVector vectors} and bounds their lifetime. Closing the arena
+ * writes mapped files back, closes them and invalidates everything it
+ * allocated: later accesses throw an {@link IllegalStateException} and the
+ * memory is released once the garbage collector drops the last buffer.
+ * Intended for try-with-resources:
+ *
+ * <pre>
+ * try (OffHeapArena arena = new OffHeapArena()) {
+ * 	OffHeapMatrix m = arena.mapMatrix(path, rows, columns, true);
+ * 	...
+ * }
+ * </pre>
+ *
+ * The arena itself is thread safe; the matrices and vectors are not.
+ *
+ * @author Dillon Elste
+ */
+public class OffHeapArena implements AutoCloseable {
+	private final List<OffHeapStorage> storages = new ArrayList<>();
+	private final List<FileChannel> channels = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * Allocates a new matrix initialized with zeros.
+	 *
+	 * @param rows    the number of rows
+	 * @param columns the number of columns
+	 *
+	 * @return the matrix
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public synchronized OffHeapMatrix allocateMatrix(int rows, int columns) {
+		return new OffHeapMatrix(register(new OffHeapStorage((long) rows * columns)), rows, columns);
+	}
+
+	/**
+	 * Allocates a new vector initialized with zeros.
+	 *
+	 * @param size the number of components
+	 *
+	 * @return the vector
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public synchronized OffHeapVector allocateVector(long size) {
+		return new OffHeapVector(register(new OffHeapStorage(size)));
+	}
+
+	/**
+	 * Maps a matrix stored row by row as native order doubles at the start of
+	 * the file at {@code path}. A writable mapping creates and grows the file as
+	 * needed.
+	 *
+	 * @param path     the file
+	 * @param rows     the number of rows
+	 * @param columns  the number of columns
+	 * @param writable whether changes are written to the file
+	 *
+	 * @return the matrix
+	 *
+	 * @throws IOException           if the file cannot be mapped
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public synchronized OffHeapMatrix mapMatrix(Path path, int rows, int columns, boolean writable)
+			throws IOException {
+		return new OffHeapMatrix(map(path, 0, (long) rows * columns, writable), rows, columns);
+	}
+
+	/**
+	 * Maps a vector stored as native order doubles in the file at
+	 * {@code path}, starting at byte {@code position}. A writable mapping creates
+	 * and grows the file as needed.
+	 *
+	 * @param path     the file
+	 * @param position the byte offset of the first component in the file
+	 * @param size     the number of components
+	 * @param writable whether changes are written to the file
+	 *
+	 * @return the vector
+	 *
+	 * @throws IOException           if the file cannot be mapped
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public synchronized OffHeapVector mapVector(Path path, long position, long size, boolean writable)
+			throws IOException {
+		return new OffHeapVector(map(path, position, size, writable));
+	}
+
+	private OffHeapStorage map(Path path, long position, long length, boolean writable) throws IOException {
+		checkOpen();
+		FileChannel channel = writable
+				? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE)
+				: FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			OffHeapStorage storage = new OffHeapStorage(channel,
+					writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, position, length);
+			channels.add(channel);
+			return register(storage);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private OffHeapStorage register(OffHeapStorage storage) {
+		checkOpen();
+		storages.add(storage);
+
+		return storage;
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("The arena has been closed");
+	}
+
+	/**
+	 * Returns whether the arena is still open.
+	 *
+	 * @return {@code false} once the arena has been closed
+	 */
+	public synchronized boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Writes mapped files back, closes them and invalidates all matrices and
+	 * vectors of this arena. Closing an arena again has no effect.
+	 *
+	 * @throws IOException if a file cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		for (OffHeapStorage storage : storages) {
+			storage.close();
+		}
+		storages.clear();
+
+		IOException failure = null;
+		for (FileChannel channel : channels) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		channels.clear();
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,282 @@
+package ch.elste.math;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * A matrix stored row by row outside the Java heap, created by an
+ * {@link OffHeapArena} and valid until the arena is closed. Large working sets
+ * kept off-heap do not have to be marked or copied by the garbage collector,
+ * and the buffers can be handed to native code without copying.
+ * <p>
+ * The operations mirror those of {@link Matrix3x3} and {@link Matrix4x4}, but
+ * write to a destination matrix instead of allocating one. Rows are processed
+ * through small heap arrays, so the operations allocate a few rows of scratch
+ * per call.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see OffHeapVector
+ */
+public class OffHeapMatrix {
+	final OffHeapStorage storage;
+	private final int rows, columns;
+
+	OffHeapMatrix(OffHeapStorage storage, int rows, int columns) {
+		this.storage = storage;
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 *
+	 * @return the number of rows
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of columns.
+	 *
+	 * @return the number of columns
+	 */
+	public int columns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the value at {@code row, column}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 *
+	 * @return the value
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public double get(int row, int column) {
+		return storage.get(index(row, column));
+	}
+
+	/**
+	 * Sets the value at {@code row, column} to {@code value}.
+	 *
+	 * @param row    the row
+	 * @param column the column
+	 * @param value  the new value
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public void set(int row, int column, double value) {
+		storage.set(index(row, column), value);
+	}
+
+	/**
+	 * Copies row {@code row} to {@code dst}.
+	 *
+	 * @param row    the row
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value in {@code dst}
+	 */
+	public void getRow(int row, double[] dst, int offset) {
+		storage.get(index(row, 0), dst, offset, columns);
+	}
+
+	/**
+	 * Sets row {@code row} from {@code src}.
+	 *
+	 * @param row    the row
+	 * @param src    the array to read from
+	 * @param offset the index of the first value in {@code src}
+	 */
+	public void setRow(int row, double[] src, int offset) {
+		storage.set(index(row, 0), src, offset, columns);
+	}
+
+	/**
+	 * Returns whether the matrix can still be used.
+	 *
+	 * @return {@code false} once the arena has been closed
+	 */
+	public boolean isOpen() {
+		return storage.isOpen();
+	}
+
+	/**
+	 * Returns independent views of the buffers holding the values row by row,
+	 * in order, for example to pass them to native code. Every buffer holds at
+	 * most 2^27 values.
+	 *
+	 * @return the buffers
+	 */
+	public DoubleBuffer[] buffers() {
+		return storage.buffers();
+	}
+
+	/**
+	 * Copies the values of {@code m} into this matrix.
+	 *
+	 * @param m the matrix to copy, of the same size
+	 *
+	 * @return this matrix
+	 */
+	public OffHeapMatrix copy(Matrix m) {
+		checkSquare(m);
+		storage.set(0, m.values, 0, m.values.length);
+
+		return this;
+	}
+
+	/**
+	 * Copies the values of this matrix into {@code m}.
+	 *
+	 * @param <M> the type of the matrix
+	 * @param m   the matrix to write to, of the same size
+	 *
+	 * @return {@code m}
+	 */
+	public <M extends Matrix> M copyTo(M m) {
+		checkSquare(m);
+		storage.get(0, m.values, 0, m.values.length);
+
+		return m;
+	}
+
+	/**
+	 * Computes {@code dst = this + m}.
+	 *
+	 * @param m   the matrix to add, of the same size
+	 * @param dst the matrix to write to, may be this or {@code m}
+	 *
+	 * @return {@code dst}
+	 */
+	public OffHeapMatrix add(OffHeapMatrix m, OffHeapMatrix dst) {
+		checkShape(m, rows, columns);
+		checkShape(dst, rows, columns);
+		final double[] x = new double[columns], y = new double[columns];
+
+		for (int i = 0; i < rows; i++) {
+			getRow(i, x, 0);
+			m.getRow(i, y, 0);
+			Blas.axpy(columns, 1, x, 0, 1, y, 0, 1);
+			dst.setRow(i, y, 0);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code dst = d this}.
+	 *
+	 * @param d   the factor
+	 * @param dst the matrix to write to, may be this
+	 *
+	 * @return {@code dst}
+	 */
+	public OffHeapMatrix scale(double d, OffHeapMatrix dst) {
+		checkShape(dst, rows, columns);
+		final double[] x = new double[columns];
+
+		for (int i = 0; i < rows; i++) {
+			getRow(i, x, 0);
+			Blas.scal(columns, d, x, 0, 1);
+			dst.setRow(i, x, 0);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code dst = this m}, streaming the rows of {@code m}.
+	 *
+	 * @param m   the matrix to multiply with
+	 * @param dst the matrix to write to, must not be this or {@code m}
+	 *
+	 * @return {@code dst}
+	 */
+	public OffHeapMatrix mult(OffHeapMatrix m, OffHeapMatrix dst) {
+		checkShape(m, columns, m.columns);
+		checkShape(dst, rows, m.columns);
+		final double[] a = new double[columns], b = new double[m.columns], c = new double[m.columns];
+
+		for (int i = 0; i < rows; i++) {
+			getRow(i, a, 0);
+			Arrays.fill(c, 0);
+			for (int k = 0; k < columns; k++) {
+				if (a[k] != 0) {
+					m.getRow(k, b, 0);
+					Blas.axpy(m.columns, a[k], b, 0, 1, c, 0, 1);
+				}
+			}
+			dst.setRow(i, c, 0);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Computes {@code y = this x}.
+	 *
+	 * @param x the vector to multiply, with {@link #columns()} components
+	 * @param y the vector to write to, with {@link #rows()} components, must not
+	 *          be {@code x}
+	 *
+	 * @return {@code y}
+	 */
+	public OffHeapVector mult(OffHeapVector x, OffHeapVector y) {
+		if (x.size() != columns || y.size() != rows)
+			throw new IllegalArgumentException("Cannot multiply " + rows + "x" + columns + " by " + x.size());
+
+		final double[] row = new double[columns], xs = new double[columns];
+		x.get(0, xs, 0, columns);
+		for (int i = 0; i < rows; i++) {
+			getRow(i, row, 0);
+			y.set(i, Blas.dot(columns, row, 0, 1, xs, 0, 1));
+		}
+
+		return y;
+	}
+
+	/**
+	 * Computes {@code dst = this^T}.
+	 *
+	 * @param dst the matrix to write to, must not be this
+	 *
+	 * @return {@code dst}
+	 */
+	public OffHeapMatrix transpose(OffHeapMatrix dst) {
+		checkShape(dst, columns, rows);
+		final double[] x = new double[columns];
+
+		for (int i = 0; i < rows; i++) {
+			getRow(i, x, 0);
+			for (int j = 0; j < columns; j++) {
+				dst.set(j, i, x[j]);
+			}
+		}
+
+		return dst;
+	}
+
+	private long index(int row, int column) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns)
+			throw new IndexOutOfBoundsException(
+					"(" + row + ", " + column + ") out of bounds for " + rows + " by " + columns);
+
+		return (long) row * columns + column;
+	}
+
+	private void checkSquare(Matrix m) {
+		if ((long) rows * columns != m.values.length || rows != columns)
+			throw new IllegalArgumentException("The matrix must be " + rows + " by " + columns);
+	}
+
+	private static void checkShape(OffHeapMatrix m, int rows, int columns) {
+		if (m.rows != rows || m.columns != columns)
+			throw new IllegalArgumentException("Expected a " + rows + " by " + columns + " matrix but got "
+					+ m.rows + " by " + m.columns);
+	}
+}
@@ -0,0 +1,153 @@
+package ch.elste.math;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The doubles of an off-heap matrix or vector, split into direct or mapped
+ * buffers of at most {@link #CHUNK} values each, since a single buffer cannot
+ * hold more than 2 GiB. Values are stored in the native byte order so native
+ * code can use the buffers directly.
+ *
+ * @author Dillon Elste
+ */
+final class OffHeapStorage {
+	/**
+	 * The base 2 logarithm of the number of doubles per buffer: 1 GiB buffers.
+	 */
+	static final int SHIFT = 27;
+	static final int CHUNK = 1 << SHIFT;
+	private static final int MASK = CHUNK - 1;
+
+	final long length;
+	private ByteBuffer[] bytes;
+	private DoubleBuffer[] chunks;
+
+	/**
+	 * Allocates {@code length} zeros in direct buffers.
+	 */
+	OffHeapStorage(long length) {
+		this.length = length;
+		bytes = new ByteBuffer[chunkCount(length)];
+		for (int c = 0; c < bytes.length; c++) {
+			bytes[c] = ByteBuffer.allocateDirect(chunkLength(c) * Double.BYTES);
+		}
+		wrap();
+	}
+
+	/**
+	 * Maps {@code length} doubles of {@code channel} starting at byte
+	 * {@code position}.
+	 */
+	OffHeapStorage(FileChannel channel, FileChannel.MapMode mode, long position, long length) throws IOException {
+		this.length = length;
+		bytes = new ByteBuffer[chunkCount(length)];
+		for (int c = 0; c < bytes.length; c++) {
+			bytes[c] = channel.map(mode, position + ((long) c << SHIFT) * Double.BYTES,
+					(long) chunkLength(c) * Double.BYTES);
+		}
+		wrap();
+	}
+
+	private void wrap() {
+		chunks = new DoubleBuffer[bytes.length];
+		for (int c = 0; c < bytes.length; c++) {
+			chunks[c] = bytes[c].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+	}
+
+	private static int chunkCount(long length) {
+		if (length < 0)
+			throw new IllegalArgumentException("The length must not be negative");
+
+		return (int) ((length + MASK) >>> SHIFT);
+	}
+
+	private int chunkLength(int c) {
+		return (int) Math.min(CHUNK, length - ((long) c << SHIFT));
+	}
+
+	double get(long index) {
+		return chunks()[(int) (index >>> SHIFT)].get((int) (index & MASK));
+	}
+
+	void set(long index, double value) {
+		chunks()[(int) (index >>> SHIFT)].put((int) (index & MASK), value);
+	}
+
+	/**
+	 * Copies {@code count} values starting at {@code index} to {@code dst}.
+	 */
+	void get(long index, double[] dst, int offset, int count) {
+		final DoubleBuffer[] chunks = chunks();
+		while (count > 0) {
+			final int c = (int) (index >>> SHIFT), from = (int) (index & MASK);
+			final int n = Math.min(count, CHUNK - from);
+			chunks[c].get(from, dst, offset, n);
+			index += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Copies {@code count} values from {@code src} to {@code index}.
+	 */
+	void set(long index, double[] src, int offset, int count) {
+		final DoubleBuffer[] chunks = chunks();
+		while (count > 0) {
+			final int c = (int) (index >>> SHIFT), from = (int) (index & MASK);
+			final int n = Math.min(count, CHUNK - from);
+			chunks[c].put(from, src, offset, n);
+			index += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Returns independent views of the buffers, in order.
+	 */
+	DoubleBuffer[] buffers() {
+		final DoubleBuffer[] chunks = chunks();
+		DoubleBuffer[] temp = new DoubleBuffer[chunks.length];
+
+		for (int c = 0; c < chunks.length; c++) {
+			temp[c] = chunks[c].duplicate();
+		}
+
+		return temp;
+	}
+
+	boolean isOpen() {
+		return chunks != null;
+	}
+
+	/**
+	 * Writes mapped buffers back to their file and drops all buffers, so the
+	 * memory is released once no other references remain.
+	 */
+	void close() {
+		if (bytes == null)
+			return;
+
+		for (ByteBuffer b : bytes) {
+			if (b instanceof MappedByteBuffer && !b.isReadOnly())
+				((MappedByteBuffer) b).force();
+		}
+		bytes = null;
+		chunks = null;
+	}
+
+	private DoubleBuffer[] chunks() {
+		final DoubleBuffer[] temp = chunks;
+		if (temp == null)
+			throw new IllegalStateException("The storage has been closed");
+
+		return temp;
+	}
+}
@@ -0,0 +1,225 @@
+package ch.elste.math;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * A vector stored outside the Java heap, created by an {@link OffHeapArena}
+ * and valid until the arena is closed. It offers the in-place operations of
+ * {@link VectorN}, processing the values in blocks copied to a small scratch
+ * array.
+ *
+ * @author Dillon Elste
+ *
+ * @see OffHeapMatrix
+ */
+public class OffHeapVector {
+	/**
+	 * The number of values processed per block.
+	 */
+	private static final int BLOCK = 4096;
+
+	final OffHeapStorage storage;
+
+	OffHeapVector(OffHeapStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Returns the number of components.
+	 *
+	 * @return the number of components
+	 */
+	public long size() {
+		return storage.length;
+	}
+
+	/**
+	 * Returns the component at {@code index}.
+	 *
+	 * @param index the index of the component
+	 *
+	 * @return the component
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public double get(long index) {
+		return storage.get(index);
+	}
+
+	/**
+	 * Sets the component at {@code index} to {@code value}.
+	 *
+	 * @param index the index of the component
+	 * @param value the new value
+	 *
+	 * @throws IllegalStateException if the arena has been closed
+	 */
+	public void set(long index, double value) {
+		storage.set(index, value);
+	}
+
+	/**
+	 * Copies {@code count} components starting at {@code index} to {@code dst}.
+	 *
+	 * @param index  the index of the first component
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value in {@code dst}
+	 * @param count  the number of components
+	 */
+	public void get(long index, double[] dst, int offset, int count) {
+		storage.get(index, dst, offset, count);
+	}
+
+	/**
+	 * Sets {@code count} components starting at {@code index} from {@code src}.
+	 *
+	 * @param index  the index of the first component
+	 * @param src    the array to read from
+	 * @param offset the index of the first value in {@code src}
+	 * @param count  the number of components
+	 */
+	public void set(long index, double[] src, int offset, int count) {
+		storage.set(index, src, offset, count);
+	}
+
+	/**
+	 * Returns whether the vector can still be used.
+	 *
+	 * @return {@code false} once the arena has been closed
+	 */
+	public boolean isOpen() {
+		return storage.isOpen();
+	}
+
+	/**
+	 * Returns independent views of the buffers holding the components, in order,
+	 * for example to pass them to native code. Every buffer holds at most
+	 * 2^27 components.
+	 *
+	 * @return the buffers
+	 */
+	public DoubleBuffer[] buffers() {
+		return storage.buffers();
+	}
+
+	/**
+	 * Returns the dot product of this vector and {@code v}.
+	 *
+	 * @param v the other vector, of the same size
+	 *
+	 * @return the dot product
+	 */
+	public double dot(OffHeapVector v) {
+		check(v);
+		final double[] x = new double[BLOCK], y = new double[BLOCK];
+		double sum = 0;
+
+		for (long i = 0; i < size(); i += BLOCK) {
+			final int n = (int) Math.min(BLOCK, size() - i);
+			storage.get(i, x, 0, n);
+			v.storage.get(i, y, 0, n);
+			sum += Blas.dot(n, x, 0, 1, y, 0, 1);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Returns the euclidean length of this vector.
+	 *
+	 * @return the length
+	 */
+	public double length() {
+		return Math.sqrt(dot(this));
+	}
+
+	/**
+	 * Computes {@code this += a x}.
+	 *
+	 * @param a the factor
+	 * @param x the vector to add, of the same size
+	 *
+	 * @return this vector
+	 */
+	public OffHeapVector axpy(double a, OffHeapVector x) {
+		check(x);
+		final double[] xs = new double[BLOCK], ys = new double[BLOCK];
+
+		for (long i = 0; i < size(); i += BLOCK) {
+			final int n = (int) Math.min(BLOCK, size() - i);
+			x.storage.get(i, xs, 0, n);
+			storage.get(i, ys, 0, n);
+			Blas.axpy(n, a, xs, 0, 1, ys, 0, 1);
+			storage.set(i, ys, 0, n);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Computes {@code this *= a}.
+	 *
+	 * @param a the factor
+	 *
+	 * @return this vector
+	 */
+	public OffHeapVector scal(double a) {
+		final double[] xs = new double[BLOCK];
+
+		for (long i = 0; i < size(); i += BLOCK) {
+			final int n = (int) Math.min(BLOCK, size() - i);
+			storage.get(i, xs, 0, n);
+			Blas.scal(n, a, xs, 0, 1);
+			storage.set(i, xs, 0, n);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Copies the components of {@code v} into this vector.
+	 *
+	 * @param v the vector to copy, of the same size
+	 *
+	 * @return this vector
+	 */
+	public OffHeapVector copy(OffHeapVector v) {
+		check(v);
+		final double[] xs = new double[BLOCK];
+
+		for (long i = 0; i < size(); i += BLOCK) {
+			final int n = (int) Math.min(BLOCK, size() - i);
+			v.storage.get(i, xs, 0, n);
+			storage.set(i, xs, 0, n);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Copies the components of {@code v} into this vector.
+	 *
+	 * @param v the vector to copy, of the same size
+	 *
+	 * @return this vector
+	 */
+	public OffHeapVector copy(VectorN v) {
+		if (v.size() != size())
+			throw new IllegalArgumentException("The vectors have different sizes: " + size() + " and " + v.size());
+
+		if (v.stride == 1) {
+			storage.set(0, v.values, v.offset, v.size());
+		} else {
+			for (int i = 0; i < v.size(); i++) {
+				storage.set(i, v.get(i));
+			}
+		}
+
+		return this;
+	}
+
+	private void check(OffHeapVector v) {
+		if (v.size() != size())
+			throw new IllegalArgumentException("The vectors have different sizes: " + size() + " and " + v.size());
+	}
+}
@@ -0,0 +1,378 @@
+package ch.elste.math;
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A utility class computing the distances between all pairs of packed points.
+ * Points are stored row by row in a {@code double[]}, {@code d} values per
+ * point, and the distances are written row by row into a {@code double[]} or a
+ * {@link DoubleBuffer}, which may be a memory mapped file.
+ * <p>
+ * Distances are derived from dot products using
+ * {@code |a - b|^2 = |a|^2 + |b|^2 - 2 a.b}, so the work is a matrix product
+ * computed in cache sized tiles. The tiles are distributed over a fork/join
+ * pool. When the distances of a point set to itself are computed, only the
+ * upper half of the tiles is computed and mirrored.
+ * </p>
+ * <p>
+ * The formulation loses relative precision for points which are very close
+ * compared to their distance from the origin; center such data first if small
+ * distances matter.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class PairwiseDistances {
+	/**
+	 * The supported distance measures.
+	 */
+	public enum Metric {
+		/**
+		 * The euclidean distance.
+		 */
+		EUCLIDEAN,
+		/**
+		 * The squared euclidean distance, which saves the square roots.
+		 */
+		SQUARED_EUCLIDEAN,
+		/**
+		 * One minus the cosine of the angle between the points. Pairs including a
+		 * zero vector have a distance of 1.
+		 */
+		COSINE
+	}
+
+	/**
+	 * The number of doubles of one tile, and separately of the points it reads,
+	 * that should fit into the level 1 cache together.
+	 */
+	private static final int TILE_DOUBLES = 4096;
+
+	/**
+	 * The tile buffer of every thread, reused by all tiles the thread computes.
+	 */
+	private static final ThreadLocal<double[]> BUFFERS = ThreadLocal.withInitial(() -> new double[0]);
+
+	private PairwiseDistances() {
+	}
+
+	/**
+	 * Computes the distances between all pairs of the {@code n} points of
+	 * {@code points} on the common pool. Distance {@code (i, j)} is written to
+	 * {@code out[i * n + j]}.
+	 *
+	 * @param points the packed points
+	 * @param n      the number of points
+	 * @param d      the number of values per point
+	 * @param metric the distance measure
+	 * @param out    the destination of at least {@code n * n} values
+	 */
+	public static void compute(double[] points, int n, int d, Metric metric, double[] out) {
+		run(ForkJoinPool.commonPool(), points, 0, n, points, n, d, metric, new ArraySink(out, 0), true);
+	}
+
+	/**
+	 * Computes the distances between all pairs of the {@code n} points of
+	 * {@code points} on the common pool. Distance {@code (i, j)} is written at
+	 * index {@code i * n + j} of {@code out}.
+	 *
+	 * @param points the packed points
+	 * @param n      the number of points
+	 * @param d      the number of values per point
+	 * @param metric the distance measure
+	 * @param out    the destination of at least {@code n * n} values
+	 */
+	public static void compute(double[] points, int n, int d, Metric metric, DoubleBuffer out) {
+		run(ForkJoinPool.commonPool(), points, 0, n, points, n, d, metric, new BufferSink(out, 0), true);
+	}
+
+	/**
+	 * Computes the distances from each of the {@code n} points of {@code a} to
+	 * each of the {@code m} points of {@code b}. Distance {@code (i, j)} is
+	 * written to {@code out[i * m + j]}.
+	 *
+	 * @param pool   the pool to compute on
+	 * @param a      the packed first points
+	 * @param n      the number of first points
+	 * @param b      the packed second points
+	 * @param m      the number of second points
+	 * @param d      the number of values per point
+	 * @param metric the distance measure
+	 * @param out    the destination of at least {@code n * m} values
+	 */
+	public static void compute(ForkJoinPool pool, double[] a, int n, double[] b, int m, int d, Metric metric,
+			double[] out) {
+		run(pool, a, 0, n, b, m, d, metric, new ArraySink(out, 0), a == b && n == m);
+	}
+
+	/**
+	 * Computes the distances from the points {@code from} to {@code to - 1} of
+	 * {@code a} to each of the {@code m} points of {@code b}. Distance
+	 * {@code (i, j)} is written at index {@code (i - from) * m + j} of
+	 * {@code out}. Splitting the rows this way allows outputs larger than a
+	 * single buffer, for example several mapped regions of one file.
+	 *
+	 * @param pool   the pool to compute on
+	 * @param a      the packed first points
+	 * @param from   the first point of {@code a}
+	 * @param to     the point after the last one of {@code a}
+	 * @param b      the packed second points
+	 * @param m      the number of second points
+	 * @param d      the number of values per point
+	 * @param metric the distance measure
+	 * @param out    the destination of at least {@code (to - from) * m} values
+	 */
+	public static void computeRows(ForkJoinPool pool, double[] a, int from, int to, double[] b, int m, int d,
+			Metric metric, DoubleBuffer out) {
+		run(pool, a, from, to, b, m, d, metric, new BufferSink(out, -from), false);
+	}
+
+	private static void run(ForkJoinPool pool, double[] a, int from, int to, double[] b, int m, int d,
+			Metric metric, Sink sink, boolean symmetric) {
+		if (d < 1)
+			throw new IllegalArgumentException("A point needs at least one value");
+		if ((long) (to - from) * m > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The output is too large, compute it in ranges of rows");
+
+		// a square tile of TILE_DOUBLES distances, smaller if its points do not
+		// fit; from 16 points on the dot products are summed over blocks of
+		// values instead, so the blocks of the points of a tile still fit
+		final int tile = Math.max(16, Math.min((int) Math.sqrt(TILE_DOUBLES), TILE_DOUBLES / (2 * d)));
+		final int depth = Math.min(d, TILE_DOUBLES / (2 * tile));
+		final double[] normsA = norms(a, from, to, d);
+		final double[] normsB = symmetric ? normsA : norms(b, 0, m, d);
+		final Job job = new Job(a, from, b, m, d, metric, sink, symmetric, tile, depth, normsA, normsB);
+		final int tileRows = (to - from + tile - 1) / tile;
+
+		if (tileRows > 0)
+			pool.invoke(new TileTask(job, 0, tileRows));
+	}
+
+	/**
+	 * Returns the squared norms of the points {@code from} to {@code to - 1}.
+	 */
+	private static double[] norms(double[] p, int from, int to, int d) {
+		double[] temp = new double[to - from];
+
+		for (int i = from; i < to; i++) {
+			temp[i - from] = Blas.dot(d, p, i * d, 1, p, i * d, 1);
+		}
+
+		return temp;
+	}
+
+	/**
+	 * The state shared by all tiles of one computation.
+	 */
+	private static final class Job {
+		final double[] a, b;
+		final int from, m, d, tile;
+		/**
+		 * The number of values per point summed in one pass over a tile.
+		 */
+		final int depth;
+		final Metric metric;
+		final Sink sink;
+		final boolean symmetric;
+		final double[] normsA, normsB;
+
+		Job(double[] a, int from, double[] b, int m, int d, Metric metric, Sink sink, boolean symmetric, int tile,
+				int depth, double[] normsA, double[] normsB) {
+			this.a = a;
+			this.from = from;
+			this.b = b;
+			this.m = m;
+			this.d = d;
+			this.metric = metric;
+			this.sink = sink;
+			this.symmetric = symmetric;
+			this.tile = tile;
+			this.depth = depth;
+			this.normsA = normsA;
+			this.normsB = normsB;
+		}
+
+		int rows() {
+			return normsA.length;
+		}
+
+		/**
+		 * Computes one row of tiles, reusing {@code buffer} for every tile. The
+		 * buffer holds a tile and, behind it, one column of a tile to mirror.
+		 */
+		void tileRow(int ti, double[] buffer) {
+			final int mirror = tile * tile;
+			final int i0 = ti * tile, i1 = Math.min(rows(), i0 + tile);
+			final int firstJ = symmetric ? i0 : 0;
+
+			for (int j0 = firstJ; j0 < m; j0 += tile) {
+				final int j1 = Math.min(m, j0 + tile);
+				final int width = j1 - j0;
+
+				dots(i0, i1, j0, j1, buffer);
+				finish(i0, i1, j0, j1, buffer);
+				for (int i = i0; i < i1; i++) {
+					sink.put(from + i, j0, m, buffer, (i - i0) * width, width);
+				}
+
+				if (symmetric && j0 != i0) {
+					final int height = i1 - i0;
+					for (int j = j0; j < j1; j++) {
+						for (int i = i0; i < i1; i++) {
+							buffer[mirror + i - i0] = buffer[(i - i0) * width + j - j0];
+						}
+						sink.put(j, i0, m, buffer, mirror, height);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Computes the dot products of the tile, four columns at a time so every
+		 * value of a row of {@code a} is loaded once per four products. The values
+		 * of the points are summed in blocks of {@link #depth}, adding every block
+		 * to the sums of the blocks before.
+		 */
+		private void dots(int i0, int i1, int j0, int j1, double[] buffer) {
+			final int width = j1 - j0;
+
+			for (int k0 = 0; k0 < d; k0 += depth) {
+				final int length = Math.min(depth, d - k0);
+				final boolean first = k0 == 0;
+				for (int i = i0; i < i1; i++) {
+					final int ai = (from + i) * d + k0;
+					final int row = (i - i0) * width - j0;
+					int j = j0;
+					for (; j + 3 < j1; j += 4) {
+						final int b0 = j * d + k0, b1 = b0 + d, b2 = b1 + d, b3 = b2 + d;
+						double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+						for (int k = 0; k < length; k++) {
+							final double x = a[ai + k];
+							s0 += x * b[b0 + k];
+							s1 += x * b[b1 + k];
+							s2 += x * b[b2 + k];
+							s3 += x * b[b3 + k];
+						}
+						if (first) {
+							buffer[row + j] = s0;
+							buffer[row + j + 1] = s1;
+							buffer[row + j + 2] = s2;
+							buffer[row + j + 3] = s3;
+						} else {
+							buffer[row + j] += s0;
+							buffer[row + j + 1] += s1;
+							buffer[row + j + 2] += s2;
+							buffer[row + j + 3] += s3;
+						}
+					}
+					for (; j < j1; j++) {
+						final double dot = Blas.dot(length, a, ai, 1, b, j * d + k0, 1);
+						buffer[row + j] = first ? dot : buffer[row + j] + dot;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Turns the dot products of the tile into distances.
+		 */
+		private void finish(int i0, int i1, int j0, int j1, double[] buffer) {
+			final int width = j1 - j0;
+
+			for (int i = i0; i < i1; i++) {
+				final double na = normsA[i];
+				final int row = (i - i0) * width;
+				for (int j = j0; j < j1; j++) {
+					final double dot = buffer[row + j - j0];
+					final double nb = normsB[j];
+					double dist;
+					if (symmetric && i == j) {
+						dist = 0;
+					} else if (metric == Metric.COSINE) {
+						double denominator = Math.sqrt(na * nb);
+						dist = denominator == 0 ? 1 : 1 - dot / denominator;
+					} else {
+						dist = Math.max(0, na + nb - 2 * dot);
+						if (metric == Metric.EUCLIDEAN)
+							dist = Math.sqrt(dist);
+					}
+					buffer[row + j - j0] = dist;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits a range of tile rows until a single row remains.
+	 */
+	private static final class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Job job;
+		private final int from, to;
+
+		TileTask(Job job, int from, int to) {
+			this.job = job;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TileTask(job, from, mid), new TileTask(job, mid, to));
+			} else {
+				double[] buffer = BUFFERS.get();
+				if (buffer.length < job.tile * (job.tile + 1)) {
+					buffer = new double[job.tile * (job.tile + 1)];
+					BUFFERS.set(buffer);
+				}
+				job.tileRow(from, buffer);
+			}
+		}
+	}
+
+	/**
+	 * The destination of the distances.
+	 */
+	private interface Sink {
+		/**
+		 * Writes {@code length} values of {@code src} starting at {@code row,
+		 * column} of an output with {@code m} columns.
+		 */
+		void put(int row, int column, int m, double[] src, int offset, int length);
+	}
+
+	private static final class ArraySink implements Sink {
+		private final double[] out;
+		private final int rowShift;
+
+		ArraySink(double[] out, int rowShift) {
+			this.out = out;
+			this.rowShift = rowShift;
+		}
+
+		@Override
+		public void put(int row, int column, int m, double[] src, int offset, int length) {
+			System.arraycopy(src, offset, out, (row + rowShift) * m + column, length);
+		}
+	}
+
+	private static final class BufferSink implements Sink {
+		private final DoubleBuffer out;
+		private final int rowShift;
+
+		BufferSink(DoubleBuffer out, int rowShift) {
+			this.out = out;
+			this.rowShift = rowShift;
+		}
+
+		@Override
+		public void put(int row, int column, int m, double[] src, int offset, int length) {
+			out.put((row + rowShift) * m + column, src, offset, length);
+		}
+	}
+}
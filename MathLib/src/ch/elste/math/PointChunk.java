@@ -0,0 +1,191 @@
+package ch.elste.math;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A reusable chunk of up to {@link #capacity()} points packed as
+ * {@code x, y, z} triples into {@link #values}, the unit passed between the
+ * stages of a {@link PointStage} pipeline. Passing chunks instead of single
+ * {@link Vector3} objects keeps the per-point overhead of the pipeline low and
+ * lets the stages work on plain arrays.
+ * <p>
+ * A chunk belongs to exactly one stage at a time. Whoever receives a chunk
+ * either passes it on or {@link #release() releases} it back to its
+ * {@link Pool}, so a running pipeline stops allocating once the pools are
+ * warm.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class PointChunk {
+	/**
+	 * The packed coordinates, {@code 3 * capacity()} values.
+	 */
+	public final double[] values;
+	private final Pool pool;
+	private int count;
+
+	/**
+	 * Creates a new empty chunk which does not belong to a pool.
+	 *
+	 * @param capacity the maximum number of points
+	 */
+	public PointChunk(int capacity) {
+		this(capacity, null);
+	}
+
+	private PointChunk(int capacity, Pool pool) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity must be positive");
+
+		this.values = new double[3 * capacity];
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the number of points in this chunk.
+	 *
+	 * @return the number of points
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Sets the number of points in this chunk, after writing {@link #values}
+	 * directly.
+	 *
+	 * @param count the number of points
+	 */
+	public void setSize(int count) {
+		if (count < 0 || count > capacity())
+			throw new IllegalArgumentException("The size must be between 0 and " + capacity());
+
+		this.count = count;
+	}
+
+	/**
+	 * Returns the maximum number of points.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return values.length / 3;
+	}
+
+	/**
+	 * Returns whether no more points fit into this chunk.
+	 *
+	 * @return {@code true} if the chunk is full
+	 */
+	public boolean isFull() {
+		return 3 * count == values.length;
+	}
+
+	/**
+	 * Appends the point {@code (x, y, z)}.
+	 *
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param z the z-coordinate
+	 *
+	 * @return this chunk
+	 *
+	 * @throws IllegalStateException if the chunk is full
+	 */
+	public PointChunk add(double x, double y, double z) {
+		if (isFull())
+			throw new IllegalStateException("The chunk is full");
+
+		final int i = 3 * count++;
+		values[i] = x;
+		values[i + 1] = y;
+		values[i + 2] = z;
+
+		return this;
+	}
+
+	/**
+	 * Appends {@code v}.
+	 *
+	 * @param v the point to append
+	 *
+	 * @return this chunk
+	 *
+	 * @throws IllegalStateException if the chunk is full
+	 */
+	public PointChunk add(Vector3 v) {
+		return add(v.x, v.y, v.z);
+	}
+
+	/**
+	 * Copies point {@code i} into {@code dst}.
+	 *
+	 * @param i   the index of the point
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 get(int i, Vector3 dst) {
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + count + " points");
+
+		dst.x = values[3 * i];
+		dst.y = values[3 * i + 1];
+		dst.z = values[3 * i + 2];
+
+		return dst;
+	}
+
+	/**
+	 * Empties this chunk and returns it to its pool. Chunks without a pool are
+	 * left to the garbage collector. The chunk must not be used afterwards.
+	 */
+	public void release() {
+		count = 0;
+		if (pool != null)
+			pool.free.offer(this);
+	}
+
+	/**
+	 * A thread safe pool of chunks with the same capacity. The pool is not
+	 * bounded: the number of chunks in flight is limited by the backpressure of
+	 * the pipeline instead.
+	 */
+	public static final class Pool {
+		private final int capacity;
+		private final ConcurrentLinkedQueue<PointChunk> free = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Creates a new empty pool.
+		 *
+		 * @param capacity the capacity of the chunks
+		 */
+		public Pool(int capacity) {
+			if (capacity <= 0)
+				throw new IllegalArgumentException("The capacity must be positive");
+
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Returns the capacity of the chunks of this pool.
+		 *
+		 * @return the capacity
+		 */
+		public int capacity() {
+			return capacity;
+		}
+
+		/**
+		 * Returns an empty chunk, reusing a released one if possible.
+		 *
+		 * @return an empty chunk
+		 */
+		public PointChunk acquire() {
+			final PointChunk temp = free.poll();
+
+			return temp != null ? temp : new PointChunk(capacity, this);
+		}
+	}
+}
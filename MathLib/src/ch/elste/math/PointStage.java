@@ -0,0 +1,557 @@
+package ch.elste.math;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stage of a {@link Flow} pipeline processing {@link PointChunk chunks} of
+ * points, for example
+ *
+ * <pre>
+ * source.subscribe(transform);
+ * transform.subscribe(filter);
+ * filter.subscribe(reduce);
+ * reduce.subscribe(consumer);
+ * </pre>
+ *
+ * where {@code source} may be a {@link SubmissionPublisher} filled from
+ * {@link PointChunk.Pool#acquire()}.
+ * <p>
+ * Every stage processes its input on its own executor: received chunks are
+ * queued and drained by a single task at a time, so a stage never runs
+ * concurrently with itself. Backpressure follows the demand of
+ * {@link Flow.Subscription}: a stage requests at most
+ * {@link #getMaxBufferCapacity()} chunks ahead, and when its subscriber falls
+ * behind by that many chunks, emitting blocks until it catches up, so the
+ * stage stops requesting input. Since emitting may block, stages sharing an
+ * executor need a {@link ForkJoinPool}, which compensates blocked threads, or
+ * at least one thread per stage.
+ * </p>
+ * <p>
+ * Chunks are handed over, not shared: a stage either passes a chunk on or
+ * releases it, and the final subscriber has to {@link PointChunk#release()
+ * release} what it receives. A stage accepts a single upstream subscription and
+ * should have a single subscriber.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public abstract class PointStage extends SubmissionPublisher<PointChunk>
+		implements Flow.Processor<PointChunk, PointChunk> {
+	/**
+	 * The default number of chunks requested ahead and buffered per subscriber.
+	 */
+	public static final int DEFAULT_BUFFER = 16;
+
+	private final String name;
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<PointChunk> input = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger(), wip = new AtomicInteger();
+	private Flow.Subscription subscription;
+	private volatile boolean done, finished;
+	private volatile Throwable error;
+
+	// written by the draining task only
+	private volatile long chunksIn, pointsIn, pointsOut, busyNanos, started;
+
+	/**
+	 * Creates a new stage.
+	 *
+	 * @param name           the name reported in the {@link Metrics}
+	 * @param executor       the executor processing the input and delivering the
+	 *                       output
+	 * @param bufferCapacity the number of chunks requested ahead and buffered for
+	 *                       the subscriber
+	 */
+	protected PointStage(String name, Executor executor, int bufferCapacity) {
+		super(executor, bufferCapacity);
+		this.name = name;
+		this.executor = executor;
+	}
+
+	/**
+	 * Processes {@code chunk}, which this stage now owns. Implementations
+	 * {@link #emit(PointChunk) emit} it or other chunks and release what they
+	 * do not pass on.
+	 *
+	 * @param chunk the chunk to process
+	 */
+	protected abstract void process(PointChunk chunk);
+
+	/**
+	 * Called once after the last chunk has been processed, to emit partial
+	 * results. Does nothing by default.
+	 */
+	protected void finish() {
+	}
+
+	/**
+	 * Passes {@code chunk} to the subscriber, blocking while it lags
+	 * {@link #getMaxBufferCapacity()} chunks behind. Chunks are released if
+	 * there is no subscriber.
+	 *
+	 * @param chunk the chunk to pass on
+	 */
+	protected final void emit(PointChunk chunk) {
+		pointsOut += chunk.size();
+		if (hasSubscribers()) {
+			submit(chunk);
+		} else {
+			chunk.release();
+		}
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+
+		this.subscription = subscription;
+		subscription.request(getMaxBufferCapacity());
+	}
+
+	@Override
+	public void onNext(PointChunk item) {
+		input.offer(item);
+		queued.incrementAndGet();
+		schedule();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = throwable;
+		done = true;
+		schedule();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		schedule();
+	}
+
+	private void schedule() {
+		if (wip.getAndIncrement() == 0)
+			executor.execute(this::drain);
+	}
+
+	/**
+	 * Processes all queued chunks, then completes if upstream has completed.
+	 * {@link #wip} makes sure only one task drains at a time and that chunks
+	 * queued while draining are not missed.
+	 */
+	private void drain() {
+		do {
+			PointChunk chunk;
+			while (!finished && (chunk = input.poll()) != null) {
+				queued.decrementAndGet();
+				final long start = System.nanoTime();
+				if (started == 0)
+					started = start;
+
+				chunksIn++;
+				pointsIn += chunk.size();
+				try {
+					process(chunk);
+				} catch (RuntimeException | Error e) {
+					fail(e);
+					break;
+				}
+				busyNanos += System.nanoTime() - start;
+				subscription.request(1);
+			}
+
+			if (!finished && done && input.isEmpty()) {
+				finished = true;
+				if (error != null) {
+					closeExceptionally(error);
+				} else {
+					try {
+						finish();
+						close();
+					} catch (RuntimeException | Error e) {
+						closeExceptionally(e);
+					}
+				}
+			}
+		} while (wip.decrementAndGet() != 0);
+	}
+
+	private void fail(Throwable e) {
+		finished = true;
+		subscription.cancel();
+		PointChunk chunk;
+		while ((chunk = input.poll()) != null) {
+			queued.decrementAndGet();
+			chunk.release();
+		}
+		closeExceptionally(e);
+	}
+
+	/**
+	 * Returns a snapshot of the counters of this stage. May be called from any
+	 * thread.
+	 *
+	 * @return the metrics
+	 */
+	public Metrics metrics() {
+		final long start = started;
+		return new Metrics(name, chunksIn, pointsIn, pointsOut, busyNanos,
+				start == 0 ? 0 : System.nanoTime() - start, queued.get(), estimateMaximumLag());
+	}
+
+	/**
+	 * Returns a stage multiplying every point, as homogeneous point with
+	 * {@code w = 1}, by {@code m}. Projective matrices divide by the resulting
+	 * {@code w}. The chunks are transformed in place.
+	 *
+	 * @param m              the transformation, copied
+	 * @param executor       the executor of the stage
+	 * @param bufferCapacity the number of chunks requested ahead
+	 *
+	 * @return a new stage
+	 */
+	public static PointStage transform(Matrix4x4 m, Executor executor, int bufferCapacity) {
+		final double[] a = m.values.clone();
+		final boolean affine = a[12] == 0 && a[13] == 0 && a[14] == 0 && a[15] == 1;
+
+		return new PointStage("transform", executor, bufferCapacity) {
+			@Override
+			protected void process(PointChunk chunk) {
+				final double[] v = chunk.values;
+				final int n = 3 * chunk.size();
+				for (int i = 0; i < n; i += 3) {
+					final double x = v[i], y = v[i + 1], z = v[i + 2];
+					double tx = a[0] * x + a[1] * y + a[2] * z + a[3];
+					double ty = a[4] * x + a[5] * y + a[6] * z + a[7];
+					double tz = a[8] * x + a[9] * y + a[10] * z + a[11];
+					if (!affine) {
+						final double w = a[12] * x + a[13] * y + a[14] * z + a[15];
+						tx /= w;
+						ty /= w;
+						tz /= w;
+					}
+					v[i] = tx;
+					v[i + 1] = ty;
+					v[i + 2] = tz;
+				}
+				emit(chunk);
+			}
+		};
+	}
+
+	/**
+	 * Returns a stage keeping only the points accepted by {@code filter}. The
+	 * chunks are compacted in place and dropped when they become empty.
+	 *
+	 * @param filter         the condition for the points to keep
+	 * @param executor       the executor of the stage
+	 * @param bufferCapacity the number of chunks requested ahead
+	 *
+	 * @return a new stage
+	 */
+	public static PointStage filter(Filter filter, Executor executor, int bufferCapacity) {
+		return new PointStage("filter", executor, bufferCapacity) {
+			@Override
+			protected void process(PointChunk chunk) {
+				final double[] v = chunk.values;
+				final int n = 3 * chunk.size();
+				int kept = 0;
+				for (int i = 0; i < n; i += 3) {
+					final double x = v[i], y = v[i + 1], z = v[i + 2];
+					if (filter.test(x, y, z)) {
+						v[kept] = x;
+						v[kept + 1] = y;
+						v[kept + 2] = z;
+						kept += 3;
+					}
+				}
+
+				if (kept == 0) {
+					chunk.release();
+				} else {
+					chunk.setSize(kept / 3);
+					emit(chunk);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a stage reducing every {@code window} consecutive points to one
+	 * point, across chunk boundaries. The last window may be shorter. The results
+	 * are packed into chunks of {@code capacity} points.
+	 *
+	 * @param window         the number of points per window
+	 * @param reducer        the reduction
+	 * @param capacity       the number of results per emitted chunk
+	 * @param executor       the executor of the stage
+	 * @param bufferCapacity the number of chunks requested ahead
+	 *
+	 * @return a new stage
+	 */
+	public static PointStage windowReduce(int window, Reducer reducer, int capacity, Executor executor,
+			int bufferCapacity) {
+		if (window <= 0)
+			throw new IllegalArgumentException("The window must be positive");
+
+		final PointChunk.Pool pool = new PointChunk.Pool(capacity);
+		return new PointStage("window reduce", executor, bufferCapacity) {
+			private final double[] carry = new double[3 * window];
+			private int filled;
+			private PointChunk out = pool.acquire();
+
+			@Override
+			protected void process(PointChunk chunk) {
+				final double[] v = chunk.values;
+				final int n = chunk.size();
+				int i = 0;
+				if (filled > 0) {
+					final int take = Math.min(window - filled, n);
+					System.arraycopy(v, 0, carry, 3 * filled, 3 * take);
+					filled += take;
+					i = take;
+					if (filled == window)
+						reduce(carry, 0, window);
+				}
+				// whole windows are reduced straight from the chunk
+				for (; i + window <= n; i += window) {
+					reduce(v, 3 * i, window);
+				}
+				if (i < n) {
+					System.arraycopy(v, 3 * i, carry, 0, 3 * (n - i));
+					filled = n - i;
+				}
+				chunk.release();
+			}
+
+			private void reduce(double[] points, int offset, int count) {
+				reducer.reduce(points, offset, count, out.values, 3 * out.size());
+				out.setSize(out.size() + 1);
+				if (out.isFull()) {
+					emit(out);
+					out = pool.acquire();
+				}
+				filled = 0;
+			}
+
+			@Override
+			protected void finish() {
+				if (filled > 0)
+					reduce(carry, 0, filled);
+				if (out.size() > 0) {
+					emit(out);
+				} else {
+					out.release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a stage repacking the points into chunks of exactly {@code size}
+	 * points, for consumers with a fixed batch size. The last chunk may be
+	 * smaller.
+	 *
+	 * @param size           the number of points per emitted chunk
+	 * @param executor       the executor of the stage
+	 * @param bufferCapacity the number of chunks requested ahead
+	 *
+	 * @return a new stage
+	 */
+	public static PointStage batch(int size, Executor executor, int bufferCapacity) {
+		final PointChunk.Pool pool = new PointChunk.Pool(size);
+		return new PointStage("batch", executor, bufferCapacity) {
+			private PointChunk out = pool.acquire();
+
+			@Override
+			protected void process(PointChunk chunk) {
+				final int n = chunk.size();
+				for (int i = 0; i < n;) {
+					final int take = Math.min(n - i, size - out.size());
+					System.arraycopy(chunk.values, 3 * i, out.values, 3 * out.size(), 3 * take);
+					out.setSize(out.size() + take);
+					i += take;
+					if (out.isFull()) {
+						emit(out);
+						out = pool.acquire();
+					}
+				}
+				chunk.release();
+			}
+
+			@Override
+			protected void finish() {
+				if (out.size() > 0) {
+					emit(out);
+				} else {
+					out.release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * A condition on a point, taking the coordinates to avoid allocations.
+	 */
+	@FunctionalInterface
+	public interface Filter {
+		/**
+		 * Returns whether the point {@code (x, y, z)} is kept.
+		 *
+		 * @param x the x-coordinate
+		 * @param y the y-coordinate
+		 * @param z the z-coordinate
+		 *
+		 * @return {@code true} to keep the point
+		 */
+		boolean test(double x, double y, double z);
+	}
+
+	/**
+	 * Reduces packed points to a single point.
+	 */
+	@FunctionalInterface
+	public interface Reducer {
+		/**
+		 * Reduces {@code count} points packed at {@code offset} of {@code points}
+		 * and writes the result to {@code dst} at {@code dstOffset}.
+		 *
+		 * @param points    the packed points
+		 * @param offset    the index of the first coordinate of the first point
+		 * @param count     the number of points, at least 1
+		 * @param dst       the array to write to
+		 * @param dstOffset the index of the first coordinate of the result
+		 */
+		void reduce(double[] points, int offset, int count, double[] dst, int dstOffset);
+
+		/**
+		 * Returns a reducer computing the centroid.
+		 *
+		 * @return the mean of the points
+		 */
+		static Reducer mean() {
+			return (points, offset, count, dst, dstOffset) -> {
+				double x = 0, y = 0, z = 0;
+				for (int i = offset; i < offset + 3 * count; i += 3) {
+					x += points[i];
+					y += points[i + 1];
+					z += points[i + 2];
+				}
+				dst[dstOffset] = x / count;
+				dst[dstOffset + 1] = y / count;
+				dst[dstOffset + 2] = z / count;
+			};
+		}
+
+		/**
+		 * Returns a reducer computing the componentwise minimum.
+		 *
+		 * @return the lower corner of the bounding box
+		 */
+		static Reducer min() {
+			return (points, offset, count, dst, dstOffset) -> {
+				double x = points[offset], y = points[offset + 1], z = points[offset + 2];
+				for (int i = offset + 3; i < offset + 3 * count; i += 3) {
+					x = Math.min(x, points[i]);
+					y = Math.min(y, points[i + 1]);
+					z = Math.min(z, points[i + 2]);
+				}
+				dst[dstOffset] = x;
+				dst[dstOffset + 1] = y;
+				dst[dstOffset + 2] = z;
+			};
+		}
+
+		/**
+		 * Returns a reducer computing the componentwise maximum.
+		 *
+		 * @return the upper corner of the bounding box
+		 */
+		static Reducer max() {
+			return (points, offset, count, dst, dstOffset) -> {
+				double x = points[offset], y = points[offset + 1], z = points[offset + 2];
+				for (int i = offset + 3; i < offset + 3 * count; i += 3) {
+					x = Math.max(x, points[i]);
+					y = Math.max(y, points[i + 1]);
+					z = Math.max(z, points[i + 2]);
+				}
+				dst[dstOffset] = x;
+				dst[dstOffset + 1] = y;
+				dst[dstOffset + 2] = z;
+			};
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of a stage.
+	 */
+	public static final class Metrics {
+		/**
+		 * The name of the stage.
+		 */
+		public final String name;
+		/**
+		 * The number of chunks and points processed and points emitted.
+		 */
+		public final long chunksIn, pointsIn, pointsOut;
+		/**
+		 * The time spent processing and since the first chunk arrived in
+		 * nanoseconds.
+		 */
+		public final long busyNanos, elapsedNanos;
+		/**
+		 * The number of chunks waiting to be processed.
+		 */
+		public final int queueDepth;
+		/**
+		 * The number of emitted chunks the slowest subscriber has not consumed
+		 * yet.
+		 */
+		public final int lag;
+
+		Metrics(String name, long chunksIn, long pointsIn, long pointsOut, long busyNanos, long elapsedNanos,
+				int queueDepth, int lag) {
+			this.name = name;
+			this.chunksIn = chunksIn;
+			this.pointsIn = pointsIn;
+			this.pointsOut = pointsOut;
+			this.busyNanos = busyNanos;
+			this.elapsedNanos = elapsedNanos;
+			this.queueDepth = queueDepth;
+			this.lag = lag;
+		}
+
+		/**
+		 * Returns the number of points processed per second since the first
+		 * chunk arrived.
+		 *
+		 * @return the throughput
+		 */
+		public double pointsPerSecond() {
+			return elapsedNanos == 0 ? 0 : pointsIn * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Returns the fraction of the elapsed time spent processing. Values close
+		 * to 1 mark the bottleneck of a pipeline.
+		 *
+		 * @return the utilization between 0 and 1
+		 */
+		public double utilization() {
+			return elapsedNanos == 0 ? 0 : Math.min(1, busyNanos / (double) elapsedNanos);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d chunks, %d -> %d points, %.3g points/s, %.0f%% busy, queue %d, lag %d",
+					name, chunksIn, pointsIn, pointsOut, pointsPerSecond(), 100 * utilization(), queueDepth, lag);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package ch.elste.math;
+
+/**
+ * An approximation {@code M} of a linear operator {@code A} whose inverse is
+ * cheap to apply. Iterative solvers converge faster on {@code M^-1 A} than on
+ * {@code A} the better {@code M} approximates {@code A}.
+ *
+ * @author Dillon Elste
+ *
+ * @see IncompleteCholesky
+ */
+@FunctionalInterface
+public interface Preconditioner {
+	/**
+	 * Computes {@code z = M^-1 r}. {@code r} and {@code z} are never the same
+	 * array.
+	 *
+	 * @param r the vector to precondition
+	 * @param z receives the result
+	 */
+	void apply(double[] r, double[] z);
+
+	/**
+	 * Returns the Jacobi preconditioner, which divides by the diagonal of the
+	 * operator. The array is not copied.
+	 *
+	 * @param diagonal the diagonal of the operator, without zeros
+	 *
+	 * @return the preconditioner
+	 */
+	static Preconditioner jacobi(double[] diagonal) {
+		return (r, z) -> {
+			for (int i = 0; i < diagonal.length; i++) {
+				z[i] = r[i] / diagonal[i];
+			}
+		};
+	}
+}
@@ -0,0 +1,361 @@
+package ch.elste.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A utility class for Householder QR decompositions of tall matrices and the
+ * least squares solutions based on them. Unlike the normal equations
+ * {@code A^T A x = A^T b}, which square the condition number of {@code A}, QR
+ * solves the problem with the accuracy {@code A} itself permits.
+ * <p>
+ * Matrices are stored row by row like {@link Matrix#values}. The decomposition
+ * is computed in place: {@code R} is stored in and above the diagonal and the
+ * Householder vectors defining {@code Q} below it, with their scaling factors
+ * in a separate {@code tau} array. None of the single problem methods allocate.
+ * </p>
+ * <p>
+ * The batch methods solve many small independent problems, for example one
+ * plane per neighbourhood of a point cloud, on a fork/join pool.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class QR {
+	/**
+	 * The number of problems below which a batch is not split further.
+	 */
+	private static final int BATCH_GRAIN = 256;
+
+	private QR() {
+	}
+
+	/**
+	 * Decomposes the {@code m} by {@code n} matrix at {@code a[aOff]} in place.
+	 *
+	 * @param m      the number of rows
+	 * @param n      the number of columns, at most {@code m}
+	 * @param a      the packed matrix, overwritten with the decomposition
+	 * @param aOff   the index of the matrix in {@code a}
+	 * @param tau    receives the {@code n} scaling factors of the reflections
+	 * @param tauOff the index of the first factor in {@code tau}
+	 *
+	 * @throws IllegalArgumentException if {@code m < n}
+	 */
+	public static void decompose(int m, int n, double[] a, int aOff, double[] tau, int tauOff) {
+		if (m < n)
+			throw new IllegalArgumentException("The matrix must have at least as many rows as columns");
+
+		for (int j = 0; j < n; j++) {
+			final int diagonal = aOff + j * n + j;
+			final double norm = Blas.nrm2(m - j, a, diagonal, n);
+			if (norm == 0) {
+				tau[tauOff + j] = 0;
+				continue;
+			}
+
+			final double alpha = a[diagonal];
+			final double beta = -Math.copySign(norm, alpha);
+			final double t = (beta - alpha) / beta;
+			tau[tauOff + j] = t;
+			Blas.scal(m - j - 1, 1 / (alpha - beta), a, diagonal + n, n);
+			a[diagonal] = beta;
+
+			for (int k = j + 1; k < n; k++) {
+				final int column = aOff + j * n + k;
+				double s = a[column] + Blas.dot(m - j - 1, a, diagonal + n, n, a, column + n, n);
+				s *= t;
+				a[column] -= s;
+				Blas.axpy(m - j - 1, -s, a, diagonal + n, n, a, column + n, n);
+			}
+		}
+	}
+
+	/**
+	 * Overwrites the {@code m} values at {@code b[bOff]} with {@code Q^T b}.
+	 *
+	 * @param m      the number of rows
+	 * @param n      the number of columns
+	 * @param qr     the packed decomposition
+	 * @param qrOff  the index of the decomposition in {@code qr}
+	 * @param tau    the scaling factors of the reflections
+	 * @param tauOff the index of the first factor in {@code tau}
+	 * @param b      the packed vector to transform
+	 * @param bOff   the index of the vector in {@code b}
+	 */
+	public static void applyQt(int m, int n, double[] qr, int qrOff, double[] tau, int tauOff, double[] b,
+			int bOff) {
+		for (int j = 0; j < n; j++) {
+			final double t = tau[tauOff + j];
+			if (t == 0)
+				continue;
+
+			final int v = qrOff + (j + 1) * n + j;
+			double s = b[bOff + j] + Blas.dot(m - j - 1, qr, v, n, b, bOff + j + 1, 1);
+			s *= t;
+			b[bOff + j] -= s;
+			Blas.axpy(m - j - 1, -s, qr, v, n, b, bOff + j + 1, 1);
+		}
+	}
+
+	/**
+	 * Computes the {@code x} minimizing {@code |A x - b|} from the decomposition
+	 * of {@code A}. The {@code m} values at {@code b[bOff]} are overwritten with
+	 * {@code Q^T b}. If {@code A} does not have full column rank within rounding
+	 * error, {@code x} is filled with NaN.
+	 *
+	 * @param m      the number of rows
+	 * @param n      the number of columns
+	 * @param qr     the packed decomposition
+	 * @param qrOff  the index of the decomposition in {@code qr}
+	 * @param tau    the scaling factors of the reflections
+	 * @param tauOff the index of the first factor in {@code tau}
+	 * @param b      the packed right hand side
+	 * @param bOff   the index of the right hand side in {@code b}
+	 * @param x      receives the {@code n} values of the solution
+	 * @param xOff   the index of the solution in {@code x}
+	 *
+	 * @return the norm of the residual {@code A x - b}, or NaN
+	 */
+	public static double solve(int m, int n, double[] qr, int qrOff, double[] tau, int tauOff, double[] b,
+			int bOff, double[] x, int xOff) {
+		applyQt(m, n, qr, qrOff, tau, tauOff, b, bOff);
+
+		double largest = 0;
+		for (int i = 0; i < n; i++) {
+			largest = Math.max(largest, Math.abs(qr[qrOff + i * n + i]));
+		}
+		final double tolerance = largest * m * Math.ulp(1d);
+
+		for (int i = n - 1; i >= 0; i--) {
+			final double r = qr[qrOff + i * n + i];
+			if (Math.abs(r) <= tolerance) {
+				for (int k = 0; k < n; k++) {
+					x[xOff + k] = Double.NaN;
+				}
+				return Double.NaN;
+			}
+
+			double s = b[bOff + i];
+			for (int k = i + 1; k < n; k++) {
+				s -= qr[qrOff + i * n + k] * x[xOff + k];
+			}
+			x[xOff + i] = s / r;
+		}
+
+		return Blas.nrm2(m - n, b, bOff + n, 1);
+	}
+
+	/**
+	 * Computes the {@code x} minimizing {@code |A x - b|}. {@code A} and
+	 * {@code b} are overwritten.
+	 *
+	 * @param m      the number of rows
+	 * @param n      the number of columns, at most {@code m}
+	 * @param a      the packed matrix
+	 * @param aOff   the index of the matrix in {@code a}
+	 * @param b      the packed right hand side
+	 * @param bOff   the index of the right hand side in {@code b}
+	 * @param x      receives the {@code n} values of the solution
+	 * @param xOff   the index of the solution in {@code x}
+	 * @param tau    a scratch array of at least {@code n} values
+	 * @param tauOff the index of the scratch values in {@code tau}
+	 *
+	 * @return the norm of the residual, or NaN if {@code A} does not have full
+	 *         column rank
+	 */
+	public static double leastSquares(int m, int n, double[] a, int aOff, double[] b, int bOff, double[] x,
+			int xOff, double[] tau, int tauOff) {
+		decompose(m, n, a, aOff, tau, tauOff);
+		return solve(m, n, a, aOff, tau, tauOff, b, bOff, x, xOff);
+	}
+
+	/**
+	 * Solves {@code count} independent least squares problems of the same size.
+	 * The matrices are packed one after another in {@code a}, {@code m * n}
+	 * values each, the right hand sides in {@code b}, {@code m} values each, and
+	 * the solutions are written to {@code x}, {@code n} values each. {@code a} and
+	 * {@code b} are overwritten.
+	 *
+	 * @param pool      the pool to compute on
+	 * @param m         the number of rows per problem
+	 * @param n         the number of columns per problem
+	 * @param count     the number of problems
+	 * @param a         the packed matrices
+	 * @param b         the packed right hand sides
+	 * @param x         the packed solutions
+	 * @param residuals receives the residual norm per problem, may be
+	 *                  {@code null}
+	 */
+	public static void solveBatch(ForkJoinPool pool, int m, int n, int count, double[] a, double[] b, double[] x,
+			double[] residuals) {
+		if (m < n)
+			throw new IllegalArgumentException("The matrices must have at least as many rows as columns");
+
+		run(pool, count, (from, to) -> {
+			final double[] tau = new double[n];
+			for (int p = from; p < to; p++) {
+				double r = leastSquares(m, n, a, p * m * n, b, p * m, x, p * n, tau, 0);
+				if (residuals != null)
+					residuals[p] = r;
+			}
+		});
+	}
+
+	/**
+	 * Fits one plane {@code z = a x + b y + c} to each of {@code count} groups of
+	 * points. The points are packed as {@code x, y, z} triples and group
+	 * {@code g} consists of the points {@code starts[g]} to
+	 * {@code starts[g + 1] - 1}, so {@code starts} has {@code count + 1} entries.
+	 * The coefficients {@code a, b, c} of group {@code g} are written to
+	 * {@code planes[3 * g]}. Groups of fewer than 3 points or with all points on
+	 * one line get NaN coefficients.
+	 *
+	 * @param pool      the pool to compute on
+	 * @param points    the packed points
+	 * @param starts    the index of the first point of every group and the end
+	 * @param count     the number of groups
+	 * @param planes    receives 3 coefficients per group
+	 * @param residuals receives the residual norm per group, may be {@code null}
+	 */
+	public static void fitPlanes(ForkJoinPool pool, double[] points, int[] starts, int count, double[] planes,
+			double[] residuals) {
+		run(pool, count, (from, to) -> {
+			final double[] tau = new double[3];
+			double[] a = new double[0], b = new double[0];
+
+			for (int g = from; g < to; g++) {
+				final int first = starts[g], size = starts[g + 1] - first;
+				if (a.length < size * 3) {
+					a = new double[size * 3];
+					b = new double[size];
+				}
+
+				// centering keeps the columns well conditioned far from the origin
+				double cx = 0, cy = 0;
+				for (int i = 0; i < size; i++) {
+					cx += points[(first + i) * 3];
+					cy += points[(first + i) * 3 + 1];
+				}
+				cx /= size;
+				cy /= size;
+				for (int i = 0; i < size; i++) {
+					a[i * 3] = points[(first + i) * 3] - cx;
+					a[i * 3 + 1] = points[(first + i) * 3 + 1] - cy;
+					a[i * 3 + 2] = 1;
+					b[i] = points[(first + i) * 3 + 2];
+				}
+
+				double r = Double.NaN;
+				if (size < 3) {
+					planes[g * 3] = planes[g * 3 + 1] = planes[g * 3 + 2] = Double.NaN;
+				} else {
+					r = leastSquares(size, 3, a, 0, b, 0, planes, g * 3, tau, 0);
+					planes[g * 3 + 2] -= planes[g * 3] * cx + planes[g * 3 + 1] * cy;
+				}
+				if (residuals != null)
+					residuals[g] = r;
+			}
+		});
+	}
+
+	/**
+	 * Fits one polynomial {@code y = c0 + c1 x + ... + cd x^d} to each of
+	 * {@code count} groups of samples, laid out like
+	 * {@link #fitPlanes(ForkJoinPool, double[], int[], int, double[], double[])}.
+	 * A degree of 1 fits lines. The {@code degree + 1} coefficients of group
+	 * {@code g}, lowest first, are written to
+	 * {@code coefficients[g * (degree + 1)]}. Groups with too few distinct
+	 * {@code x} get NaN coefficients.
+	 *
+	 * @param pool         the pool to compute on
+	 * @param xs           the sample positions
+	 * @param ys           the sample values
+	 * @param starts       the index of the first sample of every group and the
+	 *                     end
+	 * @param count        the number of groups
+	 * @param degree       the degree of the polynomials
+	 * @param coefficients receives {@code degree + 1} coefficients per group
+	 * @param residuals    receives the residual norm per group, may be
+	 *                     {@code null}
+	 */
+	public static void fitPolynomials(ForkJoinPool pool, double[] xs, double[] ys, int[] starts, int count,
+			int degree, double[] coefficients, double[] residuals) {
+		if (degree < 0)
+			throw new IllegalArgumentException("The degree must not be negative");
+
+		final int n = degree + 1;
+		run(pool, count, (from, to) -> {
+			final double[] tau = new double[n];
+			double[] a = new double[0], b = new double[0];
+
+			for (int g = from; g < to; g++) {
+				final int first = starts[g], size = starts[g + 1] - first;
+				if (a.length < size * n) {
+					a = new double[size * n];
+					b = new double[size];
+				}
+
+				double r = Double.NaN;
+				if (size < n) {
+					for (int k = 0; k < n; k++) {
+						coefficients[g * n + k] = Double.NaN;
+					}
+				} else {
+					for (int i = 0; i < size; i++) {
+						double power = 1;
+						for (int k = 0; k < n; k++) {
+							a[i * n + k] = power;
+							power *= xs[first + i];
+						}
+						b[i] = ys[first + i];
+					}
+					r = leastSquares(size, n, a, 0, b, 0, coefficients, g * n, tau, 0);
+				}
+				if (residuals != null)
+					residuals[g] = r;
+			}
+		});
+	}
+
+	private static void run(ForkJoinPool pool, int count, Range range) {
+		if (count <= BATCH_GRAIN) {
+			range.run(0, count);
+		} else {
+			pool.invoke(new BatchTask(range, 0, count));
+		}
+	}
+
+	/**
+	 * A range of problems of a batch, solved with one set of scratch arrays.
+	 */
+	private interface Range {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits a batch until at most {@link QR#BATCH_GRAIN} problems remain.
+	 */
+	private static final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Range range;
+		private final int from, to;
+
+		BatchTask(Range range, int from, int to) {
+			this.range = range;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_GRAIN) {
+				range.run(from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BatchTask(range, from, mid), new BatchTask(range, mid, to));
+			}
+		}
+	}
+}
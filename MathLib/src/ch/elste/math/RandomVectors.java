@@ -0,0 +1,316 @@
+package ch.elste.math;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Fills packed arrays with random samples: uniform and Gaussian values, points
+ * on the unit sphere and in the unit disk, and random rotations. Unlike
+ * {@link Math#random()}, which all threads share, every generator is used by
+ * one thread only and no sample allocates.
+ * <p>
+ * Every sampler comes in two forms. The {@link RandomGenerator} form draws all
+ * samples from one generator on the current thread. The
+ * {@link SplittableGenerator} form, for example with a {@link SplittableRandom},
+ * divides the samples into blocks of {@link #BLOCK} samples, splits one
+ * generator per block off the given one in order and fills the blocks on a
+ * pool. The result therefore only depends on the state of the generator, never
+ * on the pool or its parallelism, and is the same without a pool.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class RandomVectors {
+	/**
+	 * The number of samples drawn from one split generator.
+	 */
+	public static final int BLOCK = 4096;
+
+	private RandomVectors() {
+	}
+
+	/**
+	 * Fills {@code count} values with uniform samples from {@code min} inclusive
+	 * to {@code max} exclusive.
+	 *
+	 * @param random the generator
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value
+	 * @param count  the number of values
+	 * @param min    the lower bound
+	 * @param max    the upper bound, greater than {@code min}
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] uniform(RandomGenerator random, double[] dst, int offset, int count, double min,
+			double max) {
+		Objects.checkFromIndexSize(offset, count, dst.length);
+		for (int i = offset; i < offset + count; i++) {
+			dst[i] = random.nextDouble(min, max);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} values with uniform samples from {@code min} inclusive
+	 * to {@code max} exclusive, in blocks split off {@code random}.
+	 *
+	 * @param pool   the pool to fill the blocks on, {@code null} to fill them on
+	 *               the current thread
+	 * @param random the generator to split
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value
+	 * @param count  the number of values
+	 * @param min    the lower bound
+	 * @param max    the upper bound, greater than {@code min}
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] uniform(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count, double min, double max) {
+		return split(pool, random, dst, offset, count, 1, (r, o, c) -> uniform(r, dst, o, c, min, max));
+	}
+
+	/**
+	 * Fills {@code count} values with samples of a normal distribution.
+	 *
+	 * @param random the generator
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value
+	 * @param count  the number of values
+	 * @param mean   the mean
+	 * @param stddev the standard deviation
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] gaussian(RandomGenerator random, double[] dst, int offset, int count, double mean,
+			double stddev) {
+		Objects.checkFromIndexSize(offset, count, dst.length);
+		for (int i = offset; i < offset + count; i++) {
+			dst[i] = mean + stddev * random.nextGaussian();
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} values with samples of a normal distribution, in blocks
+	 * split off {@code random}.
+	 *
+	 * @param pool   the pool to fill the blocks on, {@code null} to fill them on
+	 *               the current thread
+	 * @param random the generator to split
+	 * @param dst    the array to write to
+	 * @param offset the index of the first value
+	 * @param count  the number of values
+	 * @param mean   the mean
+	 * @param stddev the standard deviation
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] gaussian(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count, double mean, double stddev) {
+		return split(pool, random, dst, offset, count, 1, (r, o, c) -> gaussian(r, dst, o, c, mean, stddev));
+	}
+
+	/**
+	 * Fills {@code count} points packed as {@code x, y, z} triples with uniform
+	 * samples on the unit sphere. Uses Marsaglia's method, which needs neither
+	 * trigonometric functions nor Gaussian samples.
+	 *
+	 * @param random the generator
+	 * @param dst    the array to write to
+	 * @param offset the index of the first point
+	 * @param count  the number of points
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] unitSphere(RandomGenerator random, double[] dst, int offset, int count) {
+		Objects.checkFromIndexSize(offset, 3 * count, dst.length);
+		for (int i = offset; i < offset + 3 * count; i += 3) {
+			double u, v, s;
+			do {
+				u = 2 * random.nextDouble() - 1;
+				v = 2 * random.nextDouble() - 1;
+				s = u * u + v * v;
+			} while (s >= 1);
+
+			final double t = 2 * Math.sqrt(1 - s);
+			dst[i] = u * t;
+			dst[i + 1] = v * t;
+			dst[i + 2] = 1 - 2 * s;
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} points packed as {@code x, y, z} triples with uniform
+	 * samples on the unit sphere, in blocks split off {@code random}.
+	 *
+	 * @param pool   the pool to fill the blocks on, {@code null} to fill them on
+	 *               the current thread
+	 * @param random the generator to split
+	 * @param dst    the array to write to
+	 * @param offset the index of the first point
+	 * @param count  the number of points
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] unitSphere(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count) {
+		return split(pool, random, dst, offset, count, 3, (r, o, c) -> unitSphere(r, dst, o, c));
+	}
+
+	/**
+	 * Fills {@code count} points packed as {@code x, y} pairs with uniform
+	 * samples in the unit disk, by rejecting samples of the enclosing square.
+	 *
+	 * @param random the generator
+	 * @param dst    the array to write to
+	 * @param offset the index of the first point
+	 * @param count  the number of points
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] unitDisk(RandomGenerator random, double[] dst, int offset, int count) {
+		Objects.checkFromIndexSize(offset, 2 * count, dst.length);
+		for (int i = offset; i < offset + 2 * count; i += 2) {
+			double u, v;
+			do {
+				u = 2 * random.nextDouble() - 1;
+				v = 2 * random.nextDouble() - 1;
+			} while (u * u + v * v >= 1);
+
+			dst[i] = u;
+			dst[i + 1] = v;
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} points packed as {@code x, y} pairs with uniform
+	 * samples in the unit disk, in blocks split off {@code random}.
+	 *
+	 * @param pool   the pool to fill the blocks on, {@code null} to fill them on
+	 *               the current thread
+	 * @param random the generator to split
+	 * @param dst    the array to write to
+	 * @param offset the index of the first point
+	 * @param count  the number of points
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] unitDisk(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count) {
+		return split(pool, random, dst, offset, count, 2, (r, o, c) -> unitDisk(r, dst, o, c));
+	}
+
+	/**
+	 * Sets {@code dst} to a rotation drawn uniformly from all rotations.
+	 *
+	 * @param random the generator
+	 * @param dst    the matrix to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public static Matrix3x3 rotation(RandomGenerator random, Matrix3x3 dst) {
+		rotations(random, dst.values, 0, 1);
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} row-major {@link Matrix3x3} values, 9 per matrix, with
+	 * rotations drawn uniformly from all rotations. Every rotation is built from a
+	 * uniform unit quaternion following Shoemake.
+	 *
+	 * @param random the generator
+	 * @param dst    the array to write to
+	 * @param offset the index of the first matrix
+	 * @param count  the number of matrices
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] rotations(RandomGenerator random, double[] dst, int offset, int count) {
+		Objects.checkFromIndexSize(offset, 9 * count, dst.length);
+		for (int i = offset; i < offset + 9 * count; i += 9) {
+			final double u = random.nextDouble();
+			final double a = 2 * Math.PI * random.nextDouble(), b = 2 * Math.PI * random.nextDouble();
+			final double r1 = Math.sqrt(1 - u), r2 = Math.sqrt(u);
+			final double x = r1 * Math.sin(a), y = r1 * Math.cos(a), z = r2 * Math.sin(b), w = r2 * Math.cos(b);
+
+			final double xx = x * x, yy = y * y, zz = z * z;
+			final double xy = x * y, xz = x * z, yz = y * z;
+			final double wx = w * x, wy = w * y, wz = w * z;
+			dst[i] = 1 - 2 * (yy + zz);
+			dst[i + 1] = 2 * (xy - wz);
+			dst[i + 2] = 2 * (xz + wy);
+			dst[i + 3] = 2 * (xy + wz);
+			dst[i + 4] = 1 - 2 * (xx + zz);
+			dst[i + 5] = 2 * (yz - wx);
+			dst[i + 6] = 2 * (xz - wy);
+			dst[i + 7] = 2 * (yz + wx);
+			dst[i + 8] = 1 - 2 * (xx + yy);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} row-major {@link Matrix3x3} values, 9 per matrix, with
+	 * uniform random rotations, in blocks split off {@code random}.
+	 *
+	 * @param pool   the pool to fill the blocks on, {@code null} to fill them on
+	 *               the current thread
+	 * @param random the generator to split
+	 * @param dst    the array to write to
+	 * @param offset the index of the first matrix
+	 * @param count  the number of matrices
+	 *
+	 * @return {@code dst}
+	 */
+	public static double[] rotations(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count) {
+		return split(pool, random, dst, offset, count, 9, (r, o, c) -> rotations(r, dst, o, c));
+	}
+
+	/**
+	 * Splits one generator per block off {@code random}, in order on the calling
+	 * thread, and fills the blocks of {@code stride} values per sample.
+	 */
+	private static double[] split(ForkJoinPool pool, SplittableGenerator random, double[] dst, int offset,
+			int count, int stride, Sampler sampler) {
+		Objects.checkFromIndexSize(offset, stride * count, dst.length);
+		final int blocks = (count + BLOCK - 1) / BLOCK;
+		final RandomGenerator[] generators = new RandomGenerator[blocks];
+		for (int b = 0; b < blocks; b++) {
+			generators[b] = random.split();
+		}
+
+		if (pool == null || blocks < 2) {
+			for (int b = 0; b < blocks; b++) {
+				sampler.fill(generators[b], offset + b * BLOCK * stride, Math.min(BLOCK, count - b * BLOCK));
+			}
+		} else {
+			pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(b -> sampler
+					.fill(generators[b], offset + b * BLOCK * stride, Math.min(BLOCK, count - b * BLOCK)))).join();
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Fills {@code count} samples starting at {@code offset} from one generator.
+	 */
+	@FunctionalInterface
+	private interface Sampler {
+		void fill(RandomGenerator random, int offset, int count);
+	}
+}
@@ -0,0 +1,150 @@
+package ch.elste.math;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Holds a {@link Matrix4x4} that one thread publishes and any number of other
+ * threads read, without locks and without ever observing a partly written
+ * matrix.
+ * <p>
+ * The holder keeps two copies of the matrix guarded by a sequence counter (a
+ * "seqlock latch"). The writer always updates the copy readers are currently
+ * not directed to, so a reader never waits for a write to finish. A read is
+ * only repeated if a publication started while the reader was copying, in
+ * which case the next attempt reads the other, completed copy.
+ * </p>
+ * <p>
+ * Only one thread may call the {@code publish} methods at a time; concurrent
+ * writers have to be synchronized externally.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class SharedMatrix4x4 {
+	private static final VarHandle SEQUENCE;
+
+	static {
+		try {
+			SEQUENCE = MethodHandles.lookup().findVarHandle(SharedMatrix4x4.class, "sequence", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final double[] even = new double[16];
+	private final double[] odd = new double[16];
+
+	/**
+	 * Incremented twice per publication. While it is even readers use
+	 * {@link #even}, while it is odd they use {@link #odd}.
+	 */
+	@SuppressWarnings("unused")
+	private volatile long sequence;
+
+	/**
+	 * Creates a new holder initialized with zeros.
+	 */
+	public SharedMatrix4x4() {
+	}
+
+	/**
+	 * Creates a new holder initialized with the values of {@code m}.
+	 *
+	 * @param m the initial matrix
+	 */
+	public SharedMatrix4x4(Matrix4x4 m) {
+		System.arraycopy(m.values, 0, even, 0, 16);
+		System.arraycopy(m.values, 0, odd, 0, 16);
+	}
+
+	/**
+	 * Publishes the values of {@code m}. Must only be called by one thread at a
+	 * time.
+	 *
+	 * @param m the matrix to publish
+	 */
+	public void publish(Matrix4x4 m) {
+		publish(m.values, 0);
+	}
+
+	/**
+	 * Publishes the 16 values starting at {@code values[offset]}. Must only be
+	 * called by one thread at a time.
+	 *
+	 * @param values the values to publish, row by row
+	 * @param offset the index of the first value
+	 */
+	public void publish(double[] values, int offset) {
+		final long s = (long) SEQUENCE.getOpaque(this);
+
+		// direct readers to the odd copy, then update the even one
+		SEQUENCE.setRelease(this, s + 1);
+		VarHandle.storeStoreFence();
+		System.arraycopy(values, offset, even, 0, 16);
+
+		// direct readers back to the even copy, then update the odd one
+		SEQUENCE.setRelease(this, s + 2);
+		VarHandle.storeStoreFence();
+		System.arraycopy(values, offset, odd, 0, 16);
+	}
+
+	/**
+	 * Copies the most recently published matrix into {@code dst}. Never blocks;
+	 * the copy is repeated only while publications overlap with it.
+	 *
+	 * @param dst the matrix to copy into
+	 *
+	 * @return the version of the copied matrix, which increases with every
+	 *         publication
+	 */
+	public long read(Matrix4x4 dst) {
+		long version;
+		while ((version = tryRead(dst.values, 0)) < 0) {
+			Thread.onSpinWait();
+		}
+
+		return version;
+	}
+
+	/**
+	 * Tries once to copy the most recently published matrix into {@code dst}.
+	 * This never loops, but fails if a publication overlapped with the copy, in
+	 * which case {@code dst} holds undefined values.
+	 *
+	 * @param dst the matrix to copy into
+	 *
+	 * @return {@code true} if {@code dst} holds a complete matrix
+	 */
+	public boolean tryRead(Matrix4x4 dst) {
+		return tryRead(dst.values, 0) >= 0;
+	}
+
+	/**
+	 * Tries once to copy the most recently published matrix into
+	 * {@code dst[offset]} and following.
+	 *
+	 * @param dst    the array to copy into
+	 * @param offset the index of the first value in {@code dst}
+	 *
+	 * @return the version of the copied matrix or -1 if a publication overlapped
+	 *         with the copy and {@code dst} holds undefined values
+	 */
+	public long tryRead(double[] dst, int offset) {
+		final long s = (long) SEQUENCE.getAcquire(this);
+		System.arraycopy((s & 1) == 0 ? even : odd, 0, dst, offset, 16);
+		VarHandle.loadLoadFence();
+
+		return (long) SEQUENCE.getOpaque(this) == s ? s >>> 1 : -1;
+	}
+
+	/**
+	 * Returns the version of the most recently published matrix. Readers can
+	 * compare it to the version of their last copy to skip unchanged matrices.
+	 *
+	 * @return the current version
+	 */
+	public long version() {
+		return (long) SEQUENCE.getAcquire(this) >>> 1;
+	}
+}
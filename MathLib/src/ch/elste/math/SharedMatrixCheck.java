@@ -0,0 +1,95 @@
+package ch.elste.math;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress tests {@link SharedMatrix4x4} for torn reads. One writer publishes
+ * matrices whose 16 values all equal the version of the publication while
+ * several readers call {@link SharedMatrix4x4#tryRead(double[], int)} as fast
+ * as they can. Every successful read must return 16 equal values, equal to
+ * the returned version, and the versions seen by one reader must never
+ * decrease.
+ * <p>
+ * Usage: {@code java ch.elste.math.SharedMatrixCheck [readers] [publications]}.
+ * The exit code is 1 if a reader saw a torn or stale matrix.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class SharedMatrixCheck {
+	private SharedMatrixCheck() {
+	}
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args the number of readers and the number of publications, both
+	 *             optional
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final int readerCount = args.length > 0 ? Integer.parseInt(args[0])
+				: Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+		final long publications = args.length > 1 ? Long.parseLong(args[1]) : 20_000_000L;
+
+		final SharedMatrix4x4 shared = new SharedMatrix4x4();
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicLong reads = new AtomicLong(), retries = new AtomicLong(), failures = new AtomicLong();
+
+		final Thread[] readers = new Thread[readerCount];
+		for (int r = 0; r < readerCount; r++) {
+			readers[r] = new Thread(() -> {
+				final double[] dst = new double[16];
+				long last = 0, ok = 0, failed = 0;
+				while (!done.get()) {
+					final long version = shared.tryRead(dst, 0);
+					if (version < 0) {
+						failed++;
+						continue;
+					}
+
+					ok++;
+					if (version < last || !consistent(dst, version)) {
+						if (failures.getAndIncrement() < 10)
+							System.err.printf("torn read: version %d after %d, values %s%n", version, last,
+									Arrays.toString(dst));
+					}
+					last = version;
+				}
+				reads.addAndGet(ok);
+				retries.addAndGet(failed);
+			}, "reader-" + r);
+			readers[r].start();
+		}
+
+		final long start = System.nanoTime();
+		final double[] values = new double[16];
+		for (long v = 1; v <= publications; v++) {
+			Arrays.fill(values, v);
+			shared.publish(values, 0);
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d publications, %d readers, %.1f s%n", publications, readerCount, seconds);
+		System.out.printf("%d successful reads, %d overlapped a publication, %d torn%n", reads.get(), retries.get(),
+				failures.get());
+		if (failures.get() > 0)
+			System.exit(1);
+	}
+
+	private static boolean consistent(double[] values, long version) {
+		for (int i = 0; i < 16; i++) {
+			if (values[i] != version)
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,431 @@
+package ch.elste.math;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A uniform grid over packed {@code x, y, z} points for radius queries on
+ * points which move every step, such as particles. Instead of updating a tree,
+ * the grid is {@link #build(ForkJoinPool, double[], int) rebuilt} from scratch:
+ * every point is assigned to the cube of side {@link #cellSize()} containing
+ * it, the cells are hashed into a table of about one bucket per point and the
+ * points are counting sorted by bucket, so the points of a cell end up next to
+ * each other in memory. Space is unbounded, only occupied cells cost memory.
+ * <p>
+ * Building reuses its arrays while the number of points does not grow. Queries
+ * visit the cells overlapping the query sphere, do not allocate and may run
+ * concurrently with each other, but not with {@code build}. Radii up to the
+ * cell size visit at most 27 cells; a query never costs more than a scan of all
+ * points, which it falls back to when its sphere overlaps more cells than there
+ * are points.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class SpatialHashGrid {
+	/**
+	 * The number of points or buckets per parallel task.
+	 */
+	private static final int GRAIN = 1 << 16;
+
+	/**
+	 * Bits per cell coordinate in a cell key. Cells further apart than 2^21
+	 * cells may share a key, which only costs time, since all candidates are
+	 * checked by distance.
+	 */
+	private static final int BITS = 21;
+	private static final long COORDINATE_MASK = (1L << BITS) - 1;
+
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	private final double cellSize, inverseCellSize;
+	private int count, mask = -1;
+	/**
+	 * The first sorted point of every bucket and the end of the last bucket.
+	 */
+	private int[] starts = new int[1];
+	/**
+	 * The bucket of every point, in input order, then reused as write cursors.
+	 */
+	private int[] buckets = new int[0], cursors = new int[0];
+	/**
+	 * The input index of every sorted point.
+	 */
+	private int[] order = new int[0];
+	/**
+	 * The cell key of every point in input order and in sorted order.
+	 */
+	private long[] keys = new long[0], sortedKeys = new long[0];
+	/**
+	 * The points in sorted order.
+	 */
+	private double[] sorted = new double[0];
+
+	/**
+	 * Creates a new empty grid.
+	 *
+	 * @param cellSize the side of a cell, best about the typical query radius
+	 *
+	 * @throws IllegalArgumentException if {@code cellSize} is not positive
+	 */
+	public SpatialHashGrid(double cellSize) {
+		if (!(cellSize > 0))
+			throw new IllegalArgumentException("The cell size must be positive");
+
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1 / cellSize;
+	}
+
+	/**
+	 * Returns the side of a cell.
+	 *
+	 * @return the cell size
+	 */
+	public double cellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Returns the number of points of the last build.
+	 *
+	 * @return the number of points
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Rebuilds the grid for {@code count} points packed as {@code x, y, z}
+	 * triples at the start of {@code points}. The points are copied, so they may
+	 * change right after this call.
+	 *
+	 * @param pool   the pool to build on, {@code null} to build on the current
+	 *               thread
+	 * @param points the packed points
+	 * @param count  the number of points
+	 */
+	public void build(ForkJoinPool pool, double[] points, int count) {
+		if (3L * count > points.length)
+			throw new IllegalArgumentException("points holds fewer than " + count + " points");
+
+		reserve(count);
+		this.count = count;
+		final int tableSize = mask + 1;
+		final boolean parallel = pool != null && count > GRAIN;
+
+		// bucket of every point
+		run(parallel ? pool : null, count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				final int cx = cell(points[3 * i]), cy = cell(points[3 * i + 1]), cz = cell(points[3 * i + 2]);
+				keys[i] = key(cx, cy, cz);
+				buckets[i] = hash(cx, cy, cz);
+			}
+		});
+
+		// points per bucket
+		Arrays.fill(starts, 0);
+		if (parallel) {
+			run(pool, count, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					INTS.getAndAdd(starts, buckets[i], 1);
+				}
+			});
+		} else {
+			for (int i = 0; i < count; i++) {
+				starts[buckets[i]]++;
+			}
+		}
+
+		exclusivePrefixSum(parallel ? pool : null, starts, tableSize);
+		System.arraycopy(starts, 0, cursors, 0, tableSize);
+
+		// scatter; in parallel the order within a bucket depends on the timing,
+		// so the buckets are sorted afterwards to keep the layout deterministic
+		if (parallel) {
+			run(pool, count, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					order[(int) INTS.getAndAdd(cursors, buckets[i], 1)] = i;
+				}
+			});
+			run(pool, tableSize, (from, to) -> {
+				for (int b = from; b < to; b++) {
+					sortBucket(starts[b], starts[b + 1]);
+				}
+			});
+		} else {
+			for (int i = 0; i < count; i++) {
+				order[cursors[buckets[i]]++] = i;
+			}
+		}
+
+		// gather the points in bucket order for locality of the queries
+		run(parallel ? pool : null, count, (from, to) -> {
+			for (int s = from; s < to; s++) {
+				final int i = order[s];
+				sortedKeys[s] = keys[i];
+				sorted[3 * s] = points[3 * i];
+				sorted[3 * s + 1] = points[3 * i + 1];
+				sorted[3 * s + 2] = points[3 * i + 2];
+			}
+		});
+	}
+
+	/**
+	 * Grows the arrays for {@code count} points, with a power of two buckets of
+	 * at least {@code count}.
+	 */
+	private void reserve(int count) {
+		if (order.length < count) {
+			buckets = new int[count];
+			order = new int[count];
+			keys = new long[count];
+			sortedKeys = new long[count];
+			sorted = new double[3 * count];
+		}
+
+		final int tableSize = Math.max(16, Integer.highestOneBit(Math.max(1, count - 1)) << 1);
+		if (tableSize > mask + 1) {
+			mask = tableSize - 1;
+			starts = new int[tableSize + 1];
+			cursors = new int[tableSize];
+		}
+	}
+
+	/**
+	 * Sorts the input indices of the sorted points {@code from} to {@code to} by
+	 * insertion, as buckets hold only a few points.
+	 */
+	private void sortBucket(int from, int to) {
+		for (int s = from + 1; s < to; s++) {
+			final int i = order[s];
+			int t = s - 1;
+			while (t >= from && order[t] > i) {
+				order[t + 1] = order[t];
+				t--;
+			}
+			order[t + 1] = i;
+		}
+	}
+
+	/**
+	 * Replaces the first {@code n} values of {@code a} with the sums of the values
+	 * before them and sets {@code a[n]} to the total.
+	 */
+	private static void exclusivePrefixSum(ForkJoinPool pool, int[] a, int n) {
+		if (pool == null || n <= GRAIN) {
+			int sum = 0;
+			for (int i = 0; i < n; i++) {
+				final int value = a[i];
+				a[i] = sum;
+				sum += value;
+			}
+			a[n] = sum;
+			return;
+		}
+
+		// sum every chunk, scan the sums, then scan every chunk from its offset
+		final int chunks = (n + GRAIN - 1) / GRAIN;
+		final int[] offsets = new int[chunks + 1];
+		pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+			int sum = 0;
+			for (int i = c * GRAIN; i < Math.min(n, (c + 1) * GRAIN); i++) {
+				sum += a[i];
+			}
+			offsets[c + 1] = sum;
+		})).join();
+		for (int c = 0; c < chunks; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+			int sum = offsets[c];
+			for (int i = c * GRAIN; i < Math.min(n, (c + 1) * GRAIN); i++) {
+				final int value = a[i];
+				a[i] = sum;
+				sum += value;
+			}
+		})).join();
+		a[n] = offsets[chunks];
+	}
+
+	/**
+	 * Calls {@code visitor} for every point within {@code radius} of
+	 * {@code (x, y, z)}, including a point at exactly that position. The points
+	 * of a cell are visited in the order they were passed to {@code build}.
+	 *
+	 * @param x       the x-coordinate of the center
+	 * @param y       the y-coordinate of the center
+	 * @param z       the z-coordinate of the center
+	 * @param radius  the radius of the query sphere
+	 * @param visitor the callback for every point found
+	 *
+	 * @return the number of points found
+	 */
+	public int forEachNeighbor(double x, double y, double z, double radius, Visitor visitor) {
+		return query(x, y, z, radius, visitor, null);
+	}
+
+	/**
+	 * Writes the indices of the points within {@code radius} of
+	 * {@code (x, y, z)} to {@code ids}, as many as fit.
+	 *
+	 * @param x      the x-coordinate of the center
+	 * @param y      the y-coordinate of the center
+	 * @param z      the z-coordinate of the center
+	 * @param radius the radius of the query sphere
+	 * @param ids    receives the indices of the points found
+	 *
+	 * @return the number of points found, which may exceed the length of
+	 *         {@code ids}
+	 */
+	public int neighbors(double x, double y, double z, double radius, int[] ids) {
+		return query(x, y, z, radius, null, ids);
+	}
+
+	/**
+	 * Writes the indices of the points within {@code radius} of {@code p} to
+	 * {@code ids}, as many as fit.
+	 *
+	 * @param p      the center
+	 * @param radius the radius of the query sphere
+	 * @param ids    receives the indices of the points found
+	 *
+	 * @return the number of points found, which may exceed the length of
+	 *         {@code ids}
+	 */
+	public int neighbors(Vector3 p, double radius, int[] ids) {
+		return neighbors(p.x, p.y, p.z, radius, ids);
+	}
+
+	/**
+	 * Reports the points within {@code radius} of {@code (x, y, z)} to
+	 * {@code visitor}, or to {@code ids} if there is no visitor, and returns
+	 * their number. Visits the cells overlapping the bounding box of the sphere,
+	 * or scans all points if there are more such cells than points.
+	 */
+	private int query(double x, double y, double z, double radius, Visitor visitor, int[] ids) {
+		final double r2 = radius * radius;
+		// long counters, as the last cell may be Integer.MAX_VALUE
+		final long x0 = cell(x - radius), x1 = cell(x + radius);
+		final long y0 = cell(y - radius), y1 = cell(y + radius);
+		final long z0 = cell(z - radius), z1 = cell(z + radius);
+		if ((double) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1) > count)
+			return scan(0, count, 0, true, x, y, z, r2, visitor, ids, 0);
+
+		int found = 0;
+		for (long cx = x0; cx <= x1; cx++) {
+			final double gx = gap(x, (int) cx);
+			for (long cy = y0; cy <= y1; cy++) {
+				final double gxy = gx + gap(y, (int) cy);
+				if (gxy > r2)
+					continue;
+
+				for (long cz = z0; cz <= z1; cz++) {
+					// skip the cells which the sphere misses, such as most corners
+					if (gxy + gap(z, (int) cz) > r2)
+						continue;
+
+					final int bucket = hash((int) cx, (int) cy, (int) cz);
+					found = scan(starts[bucket], starts[bucket + 1], key((int) cx, (int) cy, (int) cz), false, x, y, z,
+							r2, visitor, ids, found);
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Reports the sorted points {@code from} to {@code to} of the cell with
+	 * {@code key}, or of any cell if {@code allCells}, which lie within the
+	 * sphere, and returns {@code found} plus their number.
+	 */
+	private int scan(int from, int to, long key, boolean allCells, double x, double y, double z, double r2,
+			Visitor visitor, int[] ids, int found) {
+		for (int s = from; s < to; s++) {
+			// a bucket may hold several cells, the key picks the right points
+			if (!allCells && sortedKeys[s] != key)
+				continue;
+
+			final double dx = sorted[3 * s] - x, dy = sorted[3 * s + 1] - y, dz = sorted[3 * s + 2] - z;
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			if (d2 <= r2) {
+				if (visitor != null)
+					visitor.visit(order[s], d2);
+				else if (found < ids.length)
+					ids[found] = order[s];
+				found++;
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns the cell containing {@code coordinate}. Coordinates beyond the
+	 * range of {@code int} cells fall into the first or last cell, which
+	 * therefore extend to infinity.
+	 */
+	private int cell(double coordinate) {
+		return (int) Math.floor(coordinate * inverseCellSize);
+	}
+
+	/**
+	 * Returns the squared distance from {@code coordinate} to the cell
+	 * {@code cell} along one axis.
+	 */
+	private double gap(double coordinate, int cell) {
+		final double low = cell == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : cell * cellSize;
+		final double high = cell == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : (cell + 1.0) * cellSize;
+		final double d = Math.max(low - coordinate, coordinate - high);
+
+		return d > 0 ? d * d : 0;
+	}
+
+	private static long key(int cx, int cy, int cz) {
+		return (cx & COORDINATE_MASK) << (2 * BITS) | (cy & COORDINATE_MASK) << BITS | (cz & COORDINATE_MASK);
+	}
+
+	/**
+	 * Hashes a cell such that cells next to each other along z land in buckets
+	 * next to each other, so a query reads a few runs of buckets instead of 27
+	 * scattered ones.
+	 */
+	private int hash(int cx, int cy, int cz) {
+		return (cx * 0x9e3779b1 + cy * 0x85ebca77 + cz) & mask;
+	}
+
+	private static void run(ForkJoinPool pool, int n, Range range) {
+		if (pool == null || n <= GRAIN) {
+			range.run(0, n);
+		} else {
+			final int chunks = (n + GRAIN - 1) / GRAIN;
+			pool.submit(() -> IntStream.range(0, chunks).parallel()
+					.forEach(c -> range.run(c * GRAIN, Math.min(n, (c + 1) * GRAIN)))).join();
+		}
+	}
+
+	/**
+	 * A range of points or buckets processed by one task.
+	 */
+	private interface Range {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Receives the points found by a query.
+	 */
+	@FunctionalInterface
+	public interface Visitor {
+		/**
+		 * Called for every point found.
+		 *
+		 * @param index           the index of the point in the array passed to
+		 *                        {@code build}
+		 * @param distanceSquared the squared distance to the center
+		 */
+		void visit(int index, double distanceSquared);
+	}
+}
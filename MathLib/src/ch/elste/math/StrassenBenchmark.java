@@ -0,0 +1,95 @@
+package ch.elste.math;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the time and the accuracy of the classic blocked product and
+ * Strassen-Winograd of {@link DenseMultiply} on random matrices. The error of
+ * sampled entries is measured against a compensated dot product and reported
+ * relative to {@code sum |a_ik| |b_kj|}, the scale the classic error bound
+ * depends on.
+ * <p>
+ * Usage: {@code java ch.elste.math.StrassenBenchmark [n] [cutoff...]}
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class StrassenBenchmark {
+	private StrassenBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the size of the matrices and the cutoffs to try, all optional
+	 */
+	public static void main(String[] args) {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		final int[] cutoffs = new int[Math.max(1, args.length - 1)];
+		cutoffs[0] = DenseMultiply.DEFAULT_CUTOFF;
+		for (int i = 1; i < args.length; i++) {
+			cutoffs[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		final ForkJoinPool pool = ForkJoinPool.commonPool();
+		final SplittableRandom random = new SplittableRandom(42);
+		final double[] a = new double[n * n], b = new double[n * n], c = new double[n * n];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = random.nextDouble(-1, 1);
+			b[i] = random.nextDouble(-1, 1);
+		}
+
+		final int[] samples = new int[1000];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = random.nextInt(n * n);
+		}
+
+		// warm up both paths on a smaller problem
+		final int small = Math.min(n, 512);
+		for (int r = 0; r < 3; r++) {
+			DenseMultiply.multiply(pool, small, a, b, c);
+			DenseMultiply.strassen(pool, small, a, b, c);
+		}
+
+		long start = System.nanoTime();
+		DenseMultiply.multiply(pool, n, a, b, c);
+		double classic = (System.nanoTime() - start) / 1e6;
+		System.out.printf("n=%d, %d threads%n", n, pool.getParallelism());
+		System.out.printf("classic: %.0f ms, max relative error %.2e%n", classic, error(n, a, b, c, samples));
+
+		for (int cutoff : cutoffs) {
+			double[] workspace = new double[DenseMultiply.workspaceSize(pool, n, cutoff)];
+			start = System.nanoTime();
+			DenseMultiply.strassen(pool, n, a, b, c, cutoff, workspace);
+			double time = (System.nanoTime() - start) / 1e6;
+			System.out.printf("strassen cutoff=%d: %.0f ms (%.2fx), max relative error %.2e, workspace %.1f n^2%n",
+					cutoff, time, classic / time, error(n, a, b, c, samples), workspace.length / ((double) n * n));
+		}
+	}
+
+	/**
+	 * Returns the largest error of the sampled entries of {@code c}.
+	 */
+	private static double error(int n, double[] a, double[] b, double[] c, int[] samples) {
+		double max = 0;
+
+		for (int index : samples) {
+			final int i = index / n, j = index % n;
+			// the sum and its rounding errors, collected with TwoSum and an FMA
+			double sum = 0, compensation = 0, scale = 0;
+			for (int k = 0; k < n; k++) {
+				final double x = a[i * n + k], y = b[k * n + j];
+				final double p = x * y, pe = Math.fma(x, y, -p);
+				final double t = sum + p;
+				final double bp = t - sum;
+				compensation += (sum - (t - bp)) + (p - bp) + pe;
+				sum = t;
+				scale += Math.abs(p);
+			}
+			max = Math.max(max, Math.abs(c[index] - (sum + compensation)) / scale);
+		}
+
+		return max;
+	}
+}
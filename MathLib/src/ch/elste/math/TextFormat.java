@@ -0,0 +1,330 @@
+package ch.elste.math;
+
+import java.io.IOException;
+
+/**
+ * A utility class for writing doubles as fixed point text without creating
+ * garbage. Unlike {@link String#format(String, Object...)} the output does not
+ * depend on the default locale; the decimal separator is always a point.
+ * <p>
+ * Like {@link String#format(String, Object...)}, values are rounded half up
+ * from the decimal digits of {@link Double#toString(double)} rather than from
+ * their binary value, so {@code 1.005} with two digits becomes {@code 1.01}.
+ * Large values keep the fixed point layout, with zeros after those digits, so
+ * {@code 1e20} with two digits becomes {@code 100000000000000000000.00}.
+ * Infinite values and NaN are written as {@code Infinity}, {@code -Infinity}
+ * and {@code NaN}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public final class TextFormat {
+	/**
+	 * The highest number of fraction digits supported.
+	 */
+	public static final int MAX_PRECISION = 17;
+
+	private static final long[] POW10 = new long[19];
+
+	/**
+	 * Receives the digits of values which cannot be rounded in binary.
+	 */
+	private static final ThreadLocal<StringBuilder> DIGITS = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private TextFormat() {
+	}
+
+	/**
+	 * Appends {@code d} with {@code precision} fraction digits to {@code sb}.
+	 *
+	 * @param sb        the builder to append to
+	 * @param d         the value to append
+	 * @param precision the number of fraction digits, 0 to {@link #MAX_PRECISION}
+	 *
+	 * @return {@code sb}
+	 *
+	 * @throws IllegalArgumentException if {@code precision} is out of range
+	 */
+	public static StringBuilder appendFixed(StringBuilder sb, double d, int precision) {
+		return appendFixed(sb, d, precision, 0);
+	}
+
+	/**
+	 * Appends {@code d} with {@code precision} fraction digits to {@code sb}, left
+	 * padded with spaces to at least {@code width} characters.
+	 *
+	 * @param sb        the builder to append to
+	 * @param d         the value to append
+	 * @param precision the number of fraction digits, 0 to {@link #MAX_PRECISION}
+	 * @param width     the minimum number of characters to append
+	 *
+	 * @return {@code sb}
+	 *
+	 * @throws IllegalArgumentException if {@code precision} is out of range
+	 */
+	public static StringBuilder appendFixed(StringBuilder sb, double d, int precision, int width) {
+		checkPrecision(precision);
+		final double abs = Math.abs(d);
+		final double scaled = abs * POW10[precision];
+		final boolean negative = d < 0 || (d == 0 && 1 / d < 0);
+		if (Double.isNaN(d)) {
+			pad(sb, width - 3);
+			return sb.append("NaN");
+		}
+		if (Double.isInfinite(d)) {
+			pad(sb, width - (negative ? 9 : 8));
+			return sb.append(negative ? "-Infinity" : "Infinity");
+		}
+		if (!roundsInBinary(scaled)) {
+			final StringBuilder digits = DIGITS.get();
+			final int exponent = roundedDigits(digits, abs, precision);
+			final int first = Math.min(0, exponent);
+			pad(sb, width - (negative ? 1 : 0) - (exponent - first + 1) - (precision > 0 ? precision + 1 : 0));
+			if (negative)
+				sb.append('-');
+			for (int i = first; i <= exponent + precision; i++) {
+				if (i == exponent + 1)
+					sb.append('.');
+				sb.append(i >= 0 && i < digits.length() ? digits.charAt(i) : '0');
+			}
+
+			return sb;
+		}
+
+		final long digits = Math.round(scaled);
+		final long intPart = digits / POW10[precision];
+		final long fracPart = digits % POW10[precision];
+		final int length = (negative ? 1 : 0) + digitCount(intPart) + (precision > 0 ? precision + 1 : 0);
+
+		pad(sb, width - length);
+		if (negative)
+			sb.append('-');
+		sb.append(intPart);
+		if (precision > 0) {
+			sb.append('.');
+			for (int i = precision - 1; i >= 0; i--) {
+				sb.append((char) ('0' + fracPart / POW10[i] % 10));
+			}
+		}
+
+		return sb;
+	}
+
+	/**
+	 * Appends {@code d} with {@code precision} fraction digits to {@code out}. If
+	 * {@code out} is a {@link StringBuilder} this is the same as
+	 * {@link #appendFixed(StringBuilder, double, int)}, otherwise the characters
+	 * are appended one by one.
+	 *
+	 * @param out       the appendable to append to
+	 * @param d         the value to append
+	 * @param precision the number of fraction digits, 0 to {@link #MAX_PRECISION}
+	 *
+	 * @return {@code out}
+	 *
+	 * @throws IOException              if {@code out} throws it
+	 * @throws IllegalArgumentException if {@code precision} is out of range
+	 */
+	public static Appendable appendFixed(Appendable out, double d, int precision) throws IOException {
+		if (out instanceof StringBuilder)
+			return appendFixed((StringBuilder) out, d, precision, 0);
+
+		checkPrecision(precision);
+		final double abs = Math.abs(d);
+		final double scaled = abs * POW10[precision];
+		if (Double.isNaN(d))
+			return out.append("NaN");
+		if (Double.isInfinite(d))
+			return out.append(d < 0 ? "-Infinity" : "Infinity");
+		if (!roundsInBinary(scaled)) {
+			final StringBuilder digits = DIGITS.get();
+			final int exponent = roundedDigits(digits, abs, precision);
+			if (d < 0 || (d == 0 && 1 / d < 0))
+				out.append('-');
+			for (int i = Math.min(0, exponent); i <= exponent + precision; i++) {
+				if (i == exponent + 1)
+					out.append('.');
+				out.append(i >= 0 && i < digits.length() ? digits.charAt(i) : '0');
+			}
+
+			return out;
+		}
+
+		final long digits = Math.round(scaled);
+		final long intPart = digits / POW10[precision];
+		final long fracPart = digits % POW10[precision];
+
+		if (d < 0 || (d == 0 && 1 / d < 0))
+			out.append('-');
+		for (int i = digitCount(intPart) - 1; i >= 0; i--) {
+			out.append((char) ('0' + intPart / POW10[i] % 10));
+		}
+		if (precision > 0) {
+			out.append('.');
+			for (int i = precision - 1; i >= 0; i--) {
+				out.append((char) ('0' + fracPart / POW10[i] % 10));
+			}
+		}
+
+		return out;
+	}
+
+	/**
+	 * Appends {@code values[offset]} to {@code values[offset + count - 1]} to
+	 * {@code sb}, separated by {@code separator}.
+	 *
+	 * @param sb        the builder to append to
+	 * @param values    the values to append
+	 * @param offset    the index of the first value
+	 * @param count     the number of values
+	 * @param precision the number of fraction digits
+	 * @param separator the character between two values
+	 *
+	 * @return {@code sb}
+	 */
+	public static StringBuilder appendAll(StringBuilder sb, double[] values, int offset, int count, int precision,
+			char separator) {
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(separator);
+			appendFixed(sb, values[offset + i], precision, 0);
+		}
+
+		return sb;
+	}
+
+	/**
+	 * Appends {@code values[offset]} to {@code values[offset + count - 1]} to
+	 * {@code out}, separated by {@code separator}.
+	 *
+	 * @param out       the appendable to append to
+	 * @param values    the values to append
+	 * @param offset    the index of the first value
+	 * @param count     the number of values
+	 * @param precision the number of fraction digits
+	 * @param separator the character between two values
+	 *
+	 * @return {@code out}
+	 *
+	 * @throws IOException if {@code out} throws it
+	 */
+	public static Appendable appendAll(Appendable out, double[] values, int offset, int count, int precision,
+			char separator) throws IOException {
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				out.append(separator);
+			appendFixed(out, values[offset + i], precision);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Returns whether rounding {@code scaled}, the absolute value times a power of
+	 * ten, to a {@code long} gives the same digits as rounding the decimal digits
+	 * of the value. The decimal and the binary value differ by less than about one
+	 * and a half units in the last place of {@code scaled}, so only values close
+	 * to halfway between two integers, or too large for a {@code long}, have to
+	 * be rounded in decimal.
+	 */
+	private static boolean roundsInBinary(double scaled) {
+		return scaled < 9e18 && Math.abs(scaled - Math.floor(scaled) - 0.5) > 4 * Math.ulp(scaled);
+	}
+
+	/**
+	 * Replaces the content of {@code digits} with the digits of the finite
+	 * {@code abs} rounded half up to {@code precision} fraction digits and
+	 * returns the decimal exponent of the first digit. The digits may start with
+	 * zeros and end before the last fraction digit; missing digits are zeros.
+	 */
+	private static int roundedDigits(StringBuilder digits, double abs, int precision) {
+		int exponent = shortestDigits(digits, abs);
+		final int last = exponent + precision;
+		if (last + 1 >= digits.length())
+			return exponent;
+		if (last < -1) {
+			digits.setLength(0);
+			return exponent;
+		}
+
+		final boolean up = digits.charAt(last + 1) >= '5';
+		digits.setLength(last + 1);
+		if (up) {
+			int i = last;
+			while (i >= 0 && digits.charAt(i) == '9') {
+				digits.setCharAt(i--, '0');
+			}
+			if (i >= 0) {
+				digits.setCharAt(i, (char) (digits.charAt(i) + 1));
+			} else {
+				digits.insert(0, '1');
+				exponent++;
+			}
+		}
+
+		return exponent;
+	}
+
+	/**
+	 * Replaces the content of {@code digits} with the significant digits of the
+	 * finite {@code abs} as {@link StringBuilder#append(double)} writes them,
+	 * which does not create a string, and returns the decimal exponent of the
+	 * first digit. Values below 1 written without exponent keep their leading
+	 * zeros.
+	 */
+	private static int shortestDigits(StringBuilder digits, double abs) {
+		digits.setLength(0);
+		digits.append(abs);
+
+		// compact "ddd.ddd" or "d.dddE[-]x" to the digits in place
+		int count = 0, point = -1, exponent = 0;
+		boolean negativeExponent = false;
+		for (int i = 0, length = digits.length(); i < length; i++) {
+			final char c = digits.charAt(i);
+			if (c == '.') {
+				point = count;
+			} else if (c == 'E') {
+				for (int j = i + 1; j < length; j++) {
+					final char e = digits.charAt(j);
+					if (e == '-')
+						negativeExponent = true;
+					else
+						exponent = 10 * exponent + e - '0';
+				}
+				break;
+			} else {
+				digits.setCharAt(count++, c);
+			}
+		}
+		digits.setLength(count);
+
+		return (point < 0 ? count : point) - 1 + (negativeExponent ? -exponent : exponent);
+	}
+
+	private static int digitCount(long l) {
+		int count = 1;
+		while (count < POW10.length && l >= POW10[count]) {
+			count++;
+		}
+
+		return count;
+	}
+
+	private static void pad(StringBuilder sb, int count) {
+		for (int i = 0; i < count; i++) {
+			sb.append(' ');
+		}
+	}
+
+	private static void checkPrecision(int precision) {
+		if (precision < 0 || precision > MAX_PRECISION)
+			throw new IllegalArgumentException("precision must be between 0 and " + MAX_PRECISION);
+	}
+}
@@ -0,0 +1,159 @@
+package ch.elste.math;
+
+/**
+ * A utility class for tridiagonal systems, stored as three arrays of length
+ * {@code n}: the diagonal, the values below it ({@code lower[i]} is at row
+ * {@code i}, column {@code i - 1}, {@code lower[0]} is ignored) and the values
+ * above it ({@code upper[i]} is at row {@code i}, column {@code i + 1},
+ * {@code upper[n - 1]} is ignored). Systems are solved with the Thomas
+ * algorithm in {@code O(n)} without pivoting, which is stable for diagonally
+ * dominant or symmetric positive definite matrices such as those of splines
+ * and diffusion.
+ * <p>
+ * The batch methods solve many systems of the same size stored interleaved:
+ * value {@code i} of system {@code s} is at index {@code i * count + s}. The
+ * inner loops then run over consecutive systems, which the compiler can
+ * vectorize.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see BandMatrix
+ */
+public final class Tridiagonal {
+	private Tridiagonal() {
+	}
+
+	/**
+	 * Computes {@code y = A x}.
+	 *
+	 * @param n        the number of rows
+	 * @param lower    the values below the diagonal
+	 * @param diagonal the diagonal
+	 * @param upper    the values above the diagonal
+	 * @param x        the vector to multiply
+	 * @param y        receives the result, must not be {@code x}
+	 */
+	public static void multiply(int n, double[] lower, double[] diagonal, double[] upper, double[] x, double[] y) {
+		if (n == 0)
+			return;
+		if (n == 1) {
+			y[0] = diagonal[0] * x[0];
+			return;
+		}
+
+		y[0] = diagonal[0] * x[0] + upper[0] * x[1];
+		for (int i = 1; i < n - 1; i++) {
+			y[i] = lower[i] * x[i - 1] + diagonal[i] * x[i] + upper[i] * x[i + 1];
+		}
+		y[n - 1] = lower[n - 1] * x[n - 2] + diagonal[n - 1] * x[n - 1];
+	}
+
+	/**
+	 * Solves {@code A x = b}. The matrix is left unchanged.
+	 *
+	 * @param n        the number of unknowns
+	 * @param lower    the values below the diagonal
+	 * @param diagonal the diagonal
+	 * @param upper    the values above the diagonal
+	 * @param b        the right hand side
+	 * @param x        receives the solution, may be {@code b}
+	 * @param work     a scratch array of at least {@code n} values
+	 *
+	 * @throws IllegalArgumentException if a pivot is zero
+	 */
+	public static void solve(int n, double[] lower, double[] diagonal, double[] upper, double[] b, double[] x,
+			double[] work) {
+		if (n == 0)
+			return;
+
+		double pivot = diagonal[0];
+		if (pivot == 0)
+			throw new IllegalArgumentException("Zero pivot in row 0");
+
+		x[0] = b[0] / pivot;
+		for (int i = 1; i < n; i++) {
+			work[i - 1] = upper[i - 1] / pivot;
+			pivot = diagonal[i] - lower[i] * work[i - 1];
+			if (pivot == 0)
+				throw new IllegalArgumentException("Zero pivot in row " + i);
+			x[i] = (b[i] - lower[i] * x[i - 1]) / pivot;
+		}
+		for (int i = n - 2; i >= 0; i--) {
+			x[i] -= work[i] * x[i + 1];
+		}
+	}
+
+	/**
+	 * Computes {@code y = A x} for {@code count} interleaved systems.
+	 *
+	 * @param n        the number of rows per system
+	 * @param count    the number of systems
+	 * @param lower    the interleaved values below the diagonals
+	 * @param diagonal the interleaved diagonals
+	 * @param upper    the interleaved values above the diagonals
+	 * @param x        the interleaved vectors to multiply
+	 * @param y        receives the interleaved results, must not be {@code x}
+	 */
+	public static void multiplyBatch(int n, int count, double[] lower, double[] diagonal, double[] upper,
+			double[] x, double[] y) {
+		for (int i = 0; i < n; i++) {
+			final int row = i * count;
+			for (int s = row; s < row + count; s++) {
+				y[s] = diagonal[s] * x[s];
+			}
+			if (i > 0) {
+				for (int s = row; s < row + count; s++) {
+					y[s] += lower[s] * x[s - count];
+				}
+			}
+			if (i < n - 1) {
+				for (int s = row; s < row + count; s++) {
+					y[s] += upper[s] * x[s + count];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves {@code count} interleaved systems {@code A x = b}. The matrices are
+	 * left unchanged. A system with a zero pivot gets infinite or NaN values
+	 * instead of an exception, so the other systems are not affected.
+	 *
+	 * @param n        the number of unknowns per system
+	 * @param count    the number of systems
+	 * @param lower    the interleaved values below the diagonals
+	 * @param diagonal the interleaved diagonals
+	 * @param upper    the interleaved values above the diagonals
+	 * @param b        the interleaved right hand sides
+	 * @param x        receives the interleaved solutions, may be {@code b}
+	 * @param work     a scratch array of at least {@code n * count} values
+	 */
+	public static void solveBatch(int n, int count, double[] lower, double[] diagonal, double[] upper, double[] b,
+			double[] x, double[] work) {
+		if (n == 0)
+			return;
+
+		// work holds the pivots during elimination and the factors of the
+		// backward substitution afterwards
+		for (int s = 0; s < count; s++) {
+			work[s] = diagonal[s];
+			x[s] = b[s] / work[s];
+		}
+		for (int i = 1; i < n; i++) {
+			final int row = i * count;
+			for (int s = row; s < row + count; s++) {
+				final double factor = upper[s - count] / work[s - count];
+				work[s - count] = factor;
+				work[s] = diagonal[s] - lower[s] * factor;
+				x[s] = (b[s] - lower[s] * x[s - count]) / work[s];
+			}
+		}
+		for (int i = n - 2; i >= 0; i--) {
+			final int row = i * count;
+			for (int s = row; s < row + count; s++) {
+				x[s] -= work[s] * x[s + count];
+			}
+		}
+	}
+}
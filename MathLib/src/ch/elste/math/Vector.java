@@ -29,6 +29,24 @@ public abstract class Vector {
 		return new Vector3(v1.x + v2.x, v1.y + v2.y, v1.z + v2.z);
 	}
 
+	/**
+	 * Adds {@code v1} to {@code v2} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as one of the arguments.
+	 * 
+	 * @param v1  the first vector to be added
+	 * @param v2  the second vector to be added
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 add(final Vector3 v1, final Vector3 v2, final Vector3 dst) {
+		dst.x = v1.x + v2.x;
+		dst.y = v1.y + v2.y;
+		dst.z = v1.z + v2.z;
+
+		return dst;
+	}
+
 	/**
 	 * Adds {@code v1} to {@code v2} without altering them.
 	 * 
@@ -41,6 +59,25 @@ public abstract class Vector {
 		return new Vector4(v1.x + v2.x, v1.y + v2.y, v1.z + v2.z, v1.w + v2.w);
 	}
 
+	/**
+	 * Adds {@code v1} to {@code v2} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as one of the arguments.
+	 * 
+	 * @param v1  the first vector to be added
+	 * @param v2  the second vector to be added
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector4 add(final Vector4 v1, final Vector4 v2, final Vector4 dst) {
+		dst.x = v1.x + v2.x;
+		dst.y = v1.y + v2.y;
+		dst.z = v1.z + v2.z;
+		dst.w = v1.w + v2.w;
+
+		return dst;
+	}
+
 	/**
 	 * Subtracts {@code v1} from {@code v2} without altering them.
 	 * 
@@ -67,6 +104,24 @@ public abstract class Vector {
 		return new Vector3(v1.x - v2.x, v1.y - v2.y, v1.z - v2.z);
 	}
 
+	/**
+	 * Subtracts {@code v2} from {@code v1} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as one of the arguments.
+	 * 
+	 * @param v1  the vector to subtract from
+	 * @param v2  the vector to be subtracted
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 subtract(final Vector3 v1, final Vector3 v2, final Vector3 dst) {
+		dst.x = v1.x - v2.x;
+		dst.y = v1.y - v2.y;
+		dst.z = v1.z - v2.z;
+
+		return dst;
+	}
+
 	/**
 	 * Subtracts {@code v1} from {@code v2} without altering them.
 	 * 
@@ -79,6 +134,25 @@ public abstract class Vector {
 		return new Vector4(v1.x - v2.x, v1.y - v2.y, v1.z - v2.z, v1.w - v2.w);
 	}
 
+	/**
+	 * Subtracts {@code v2} from {@code v1} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as one of the arguments.
+	 * 
+	 * @param v1  the vector to subtract from
+	 * @param v2  the vector to be subtracted
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector4 subtract(final Vector4 v1, final Vector4 v2, final Vector4 dst) {
+		dst.x = v1.x - v2.x;
+		dst.y = v1.y - v2.y;
+		dst.z = v1.z - v2.z;
+		dst.w = v1.w - v2.w;
+
+		return dst;
+	}
+
 	/**
 	 * Returns -v.
 	 * 
@@ -139,6 +213,24 @@ public abstract class Vector {
 		return new Vector3(v.x * factor, v.y * factor, v.z * factor);
 	}
 
+	/**
+	 * Scales {@code v} by {@code factor} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as {@code v}.
+	 * 
+	 * @param v      the vector to scale
+	 * @param factor the factor to scale by
+	 * @param dst    the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 scale(final Vector3 v, final double factor, final Vector3 dst) {
+		dst.x = v.x * factor;
+		dst.y = v.y * factor;
+		dst.z = v.z * factor;
+
+		return dst;
+	}
+
 	/**
 	 * Scales {@code v} by {@code factor} without altering it.
 	 * 
@@ -151,6 +243,25 @@ public abstract class Vector {
 		return new Vector4(v.x * factor, v.y * factor, v.z * factor, v.w * factor);
 	}
 
+	/**
+	 * Scales {@code v} by {@code factor} into {@code dst} without allocating.
+	 * {@code dst} may be the same object as {@code v}.
+	 * 
+	 * @param v      the vector to scale
+	 * @param factor the factor to scale by
+	 * @param dst    the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector4 scale(final Vector4 v, final double factor, final Vector4 dst) {
+		dst.x = v.x * factor;
+		dst.y = v.y * factor;
+		dst.z = v.z * factor;
+		dst.w = v.w * factor;
+
+		return dst;
+	}
+
 	/**
 	 * Calculates the dot product of the two given vectors.
 	 * 
@@ -214,6 +325,24 @@ public abstract class Vector {
 		return new Vector3(v.x / length, v.y / length, v.z / length);
 	}
 
+	/**
+	 * Writes the normalized version of {@code v} into {@code dst} without
+	 * allocating. {@code dst} may be the same object as {@code v}.
+	 * 
+	 * @param v   the vector to normalize
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 normalize(final Vector3 v, final Vector3 dst) {
+		double length = v.length();
+		dst.x = v.x / length;
+		dst.y = v.y / length;
+		dst.z = v.z / length;
+
+		return dst;
+	}
+
 	/**
 	 * Returns the normalized version of {@code v} without altering it.
 	 * 
@@ -226,6 +355,25 @@ public abstract class Vector {
 		return new Vector4(v.x / length, v.y / length, v.z / length, v.w / length);
 	}
 
+	/**
+	 * Writes the normalized version of {@code v} into {@code dst} without
+	 * allocating. {@code dst} may be the same object as {@code v}.
+	 * 
+	 * @param v   the vector to normalize
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector4 normalize(final Vector4 v, final Vector4 dst) {
+		double length = v.length();
+		dst.x = v.x / length;
+		dst.y = v.y / length;
+		dst.z = v.z / length;
+		dst.w = v.w / length;
+
+		return dst;
+	}
+
 	/**
 	 * Calculates the cross product of the given vectors.
 	 * 
@@ -241,16 +389,35 @@ public abstract class Vector {
 	}
 
 	/**
-	 * Returns the three horizontal vectors of {@code m}.
+	 * Calculates the cross product of the given vectors into {@code dst} without
+	 * allocating. {@code dst} may be the same object as one of the arguments.
+	 * 
+	 * @param v1  the first vector to multiply
+	 * @param v2  the second vector to multiply
+	 * @param dst the vector to write to
+	 * 
+	 * @return {@code dst}
+	 */
+	public static Vector3 cross(final Vector3 v1, final Vector3 v2, final Vector3 dst) {
+		final double x = v1.y * v2.z - v1.z * v2.y, y = v1.z * v2.x - v1.x * v2.z, z = v1.x * v2.y - v1.y * v2.x;
+		dst.x = x;
+		dst.y = y;
+		dst.z = z;
+
+		return dst;
+	}
+
+	/**
+	 * Returns the two horizontal vectors of {@code m}.
 	 * 
 	 * @param m the matrix to take the vectors from
 	 * 
-	 * @return the three horizontal vectors
+	 * @return the two horizontal vectors
 	 */
 	public static Vector2[] getHorizontalVectors(final Matrix2x2 m) {
 		Vector2[] temp = new Vector2[2];
 
-		for (int i = 0; i < 3; i++) {
+		for (int i = 0; i < 2; i++) {
 			temp[i] = new Vector2(m.values[i * 2], m.values[i * 2 + 1]);
 		}
 
@@ -293,16 +460,16 @@ public abstract class Vector {
 	}
 
 	/**
-	 * Returns the three vertical vectors of {@code m}.
+	 * Returns the two vertical vectors of {@code m}.
 	 * 
 	 * @param m the matrix to take the vectors from
 	 * 
-	 * @return the three vertical vectors
+	 * @return the two vertical vectors
 	 */
 	public static Vector2[] getVerticalVectors(final Matrix2x2 m) {
 		Vector2[] temp = new Vector2[2];
 
-		for (int i = 0; i < 3; i++) {
+		for (int i = 0; i < 2; i++) {
 			temp[i] = new Vector2(m.values[i], m.values[2 + i]);
 		}
 
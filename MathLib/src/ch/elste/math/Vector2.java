@@ -1,5 +1,7 @@
 package ch.elste.math;
 
+import java.io.IOException;
+
 public class Vector2 extends Vector {
 	public static final Vector2 X = new Vector2(1, 0);
 	public static final Vector2 Y = new Vector2(0, 1);
@@ -122,8 +124,44 @@ public class Vector2 extends Vector {
 		return new Vector2(x / length, y / length);
 	}
 
+	/**
+	 * Appends the coordinates of this vector, separated by commas, to {@code sb}
+	 * without creating garbage.
+	 * 
+	 * @param sb        the builder to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code sb}
+	 * 
+	 * @see TextFormat#appendFixed(StringBuilder, double, int)
+	 */
+	public StringBuilder appendTo(StringBuilder sb, int precision) {
+		TextFormat.appendFixed(sb, x, precision);
+		sb.append(',');
+		TextFormat.appendFixed(sb, y, precision);
+		return sb;
+	}
+
+	/**
+	 * Appends the coordinates of this vector, separated by commas, to {@code out}.
+	 * 
+	 * @param out       the appendable to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code out}
+	 * 
+	 * @throws IOException if {@code out} throws it
+	 */
+	public Appendable appendTo(Appendable out, int precision) throws IOException {
+		TextFormat.appendFixed(out, x, precision);
+		out.append(',');
+		TextFormat.appendFixed(out, y, precision);
+		return out;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("Vector[%.3f,%.3f]\t%s", x, y, super.toString());
+		StringBuilder sb = new StringBuilder(64).append("Vector[");
+		return appendTo(sb, 3).append("]\t").append(super.toString()).toString();
 	}
 }
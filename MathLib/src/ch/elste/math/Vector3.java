@@ -1,5 +1,7 @@
 package ch.elste.math;
 
+import java.io.IOException;
+
 /**
  * A vector is a mathematical construct holding multiple numbers. This class holds
  * all the essential operations for a 3 by 1 Vector.
@@ -155,8 +157,48 @@ public class Vector3 extends Vector {
 		return new Vector3(x / length, y / length, z / length);
 	}
 
+	/**
+	 * Appends the coordinates of this vector, separated by commas, to {@code sb}
+	 * without creating garbage.
+	 * 
+	 * @param sb        the builder to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code sb}
+	 * 
+	 * @see TextFormat#appendFixed(StringBuilder, double, int)
+	 */
+	public StringBuilder appendTo(StringBuilder sb, int precision) {
+		TextFormat.appendFixed(sb, x, precision);
+		sb.append(',');
+		TextFormat.appendFixed(sb, y, precision);
+		sb.append(',');
+		TextFormat.appendFixed(sb, z, precision);
+		return sb;
+	}
+
+	/**
+	 * Appends the coordinates of this vector, separated by commas, to {@code out}.
+	 * 
+	 * @param out       the appendable to append to
+	 * @param precision the number of fraction digits
+	 * 
+	 * @return {@code out}
+	 * 
+	 * @throws IOException if {@code out} throws it
+	 */
+	public Appendable appendTo(Appendable out, int precision) throws IOException {
+		TextFormat.appendFixed(out, x, precision);
+		out.append(',');
+		TextFormat.appendFixed(out, y, precision);
+		out.append(',');
+		TextFormat.appendFixed(out, z, precision);
+		return out;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("Vector[%.3f,%.3f,%.3f]\t%s", x, y, z, super.toString());
+		StringBuilder sb = new StringBuilder(64).append("Vector[");
+		return appendTo(sb, 3).append("]\t").append(super.toString()).toString();
 	}
 }
@@ -0,0 +1,288 @@
+package ch.elste.math;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Accumulates a sum of vectors added concurrently by many threads, in the
+ * spirit of {@link java.util.concurrent.atomic.DoubleAdder}. Instead of one
+ * shared vector the sum is spread over several cells, each on its own cache
+ * lines, and threads are spread over the cells, so adding is cheap even under
+ * heavy contention. A thread whose addition collides with another thread
+ * moves on to another cell and keeps using it, so two busy threads do not stay
+ * in the same cell. {@link #sum(Vector3)} adds up all cells.
+ * <p>
+ * Every component is updated atomically, but a sum taken while other threads
+ * are adding is not an atomic snapshot of all components.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see VectorAdderArray
+ */
+public class VectorAdder {
+	static final VarHandle ARRAY = MethodHandles.arrayElementVarHandle(double[].class);
+
+	/**
+	 * The number of doubles per cell: 128 bytes, so that neither two cells nor a
+	 * cell and the array header share a cache line or an adjacent-line prefetch.
+	 */
+	private static final int CELL = 16;
+
+	/**
+	 * The probe of every thread, which selects its cell. It starts as a hash of
+	 * the thread id and is {@link #rehash() rehashed} after every collision.
+	 */
+	private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> new int[] { initialProbe() });
+
+	private final int dimension;
+	private final int mask;
+	private final double[] cells;
+
+	/**
+	 * Creates a new adder for vectors with {@code dimension} components and two
+	 * cells per available processor, at least 2 and at most 64 cells.
+	 *
+	 * @param dimension the number of components, 1 to 4
+	 *
+	 * @throws IllegalArgumentException if {@code dimension} is out of range
+	 */
+	public VectorAdder(int dimension) {
+		this(dimension, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new adder for vectors with {@code dimension} components.
+	 *
+	 * @param dimension the number of components, 1 to 4
+	 * @param stripes   the number of cells, rounded up to a power of two between
+	 *                  2 and 64
+	 *
+	 * @throws IllegalArgumentException if {@code dimension} is out of range
+	 */
+	public VectorAdder(int dimension, int stripes) {
+		if (dimension < 1 || dimension > 4)
+			throw new IllegalArgumentException("dimension must be between 1 and 4");
+
+		int n = Integer.highestOneBit(Math.max(2, Math.min(64, stripes)) * 2 - 1);
+		this.dimension = dimension;
+		this.mask = n - 1;
+		// one unused cell in front keeps the first cell away from the array header
+		this.cells = new double[(n + 1) * CELL];
+	}
+
+	/**
+	 * Returns the number of components of the summed vectors.
+	 *
+	 * @return the dimension
+	 */
+	public int dimension() {
+		return dimension;
+	}
+
+	/**
+	 * Adds {@code (x, y, z)}. A fourth component is left unchanged.
+	 *
+	 * @param x the x-coordinate to add
+	 * @param y the y-coordinate to add
+	 * @param z the z-coordinate to add
+	 */
+	public void add(double x, double y, double z) {
+		int cell = cell(probe());
+		cell = add(cell, 0, x);
+		if (dimension > 1)
+			cell = add(cell, 1, y);
+		if (dimension > 2)
+			add(cell, 2, z);
+	}
+
+	/**
+	 * Adds {@code (x, y, z, w)}. Components beyond the dimension are ignored.
+	 *
+	 * @param x the x-coordinate to add
+	 * @param y the y-coordinate to add
+	 * @param z the z-coordinate to add
+	 * @param w the w-coordinate to add
+	 */
+	public void add(double x, double y, double z, double w) {
+		int cell = cell(probe());
+		cell = add(cell, 0, x);
+		if (dimension > 1)
+			cell = add(cell, 1, y);
+		if (dimension > 2)
+			cell = add(cell, 2, z);
+		if (dimension > 3)
+			add(cell, 3, w);
+	}
+
+	/**
+	 * Adds {@code v}.
+	 *
+	 * @param v the vector to add
+	 */
+	public void add(Vector3 v) {
+		add(v.x, v.y, v.z);
+	}
+
+	/**
+	 * Adds {@code v}.
+	 *
+	 * @param v the vector to add
+	 */
+	public void add(Vector4 v) {
+		add(v.x, v.y, v.z, v.w);
+	}
+
+	/**
+	 * Writes the current sum into {@code dst}.
+	 *
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 sum(Vector3 dst) {
+		dst.x = sum(0, false);
+		dst.y = sum(1, false);
+		dst.z = sum(2, false);
+
+		return dst;
+	}
+
+	/**
+	 * Writes the current sum into {@code dst}.
+	 *
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector4 sum(Vector4 dst) {
+		dst.x = sum(0, false);
+		dst.y = sum(1, false);
+		dst.z = sum(2, false);
+		dst.w = sum(3, false);
+
+		return dst;
+	}
+
+	/**
+	 * Returns the current sum as a new vector.
+	 *
+	 * @return a new vector with the sum
+	 */
+	public Vector3 sum() {
+		return sum(new Vector3());
+	}
+
+	/**
+	 * Writes the current sum into {@code dst} and resets all cells to zero.
+	 * Additions which happen concurrently are either part of the result or remain
+	 * in the adder, but are never lost.
+	 *
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 sumThenReset(Vector3 dst) {
+		dst.x = sum(0, true);
+		dst.y = sum(1, true);
+		dst.z = sum(2, true);
+
+		return dst;
+	}
+
+	/**
+	 * Writes the current sum into {@code dst} and resets all cells to zero.
+	 * Additions which happen concurrently are either part of the result or remain
+	 * in the adder, but are never lost.
+	 *
+	 * @param dst the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector4 sumThenReset(Vector4 dst) {
+		dst.x = sum(0, true);
+		dst.y = sum(1, true);
+		dst.z = sum(2, true);
+		dst.w = sum(3, true);
+
+		return dst;
+	}
+
+	/**
+	 * Resets all cells to zero. Only meaningful while no thread is adding.
+	 */
+	public void reset() {
+		for (int i = CELL; i < cells.length; i++) {
+			ARRAY.setVolatile(cells, i, 0d);
+		}
+	}
+
+	/**
+	 * Adds {@code d} to component {@code k} of {@code cell}, moving the thread
+	 * to another cell whenever another thread got in the way. Returns the cell that
+	 * succeeded, so the other components go to the same cell.
+	 */
+	private int add(int cell, int k, double d) {
+		if (k >= dimension)
+			return cell;
+
+		for (;;) {
+			int index = cell + k;
+			double current = (double) ARRAY.getVolatile(cells, index);
+			if (ARRAY.weakCompareAndSet(cells, index, current, current + d))
+				return cell;
+
+			cell = cell(rehash());
+		}
+	}
+
+	private double sum(int k, boolean reset) {
+		if (k >= dimension)
+			return 0;
+
+		double sum = 0;
+		for (int i = CELL + k; i < cells.length; i += CELL) {
+			sum += reset ? (double) ARRAY.getAndSet(cells, i, 0d) : (double) ARRAY.getVolatile(cells, i);
+		}
+
+		return sum;
+	}
+
+	private int cell(int probe) {
+		return ((probe & mask) + 1) * CELL;
+	}
+
+	/**
+	 * Returns the probe of the current thread.
+	 */
+	static int probe() {
+		return PROBE.get()[0];
+	}
+
+	/**
+	 * Replaces the probe of the current thread after a collision with the next
+	 * value of a xorshift generator, as
+	 * {@link java.util.concurrent.atomic.LongAdder} does, and returns it.
+	 */
+	static int rehash() {
+		final int[] probe = PROBE.get();
+		int h = probe[0];
+		h ^= h << 13;
+		h ^= h >>> 17;
+		h ^= h << 5;
+
+		return probe[0] = h;
+	}
+
+	/**
+	 * Returns a well mixed hash of the current thread, so that threads with
+	 * consecutive ids start in different cells. Never 0, which xorshift cannot
+	 * leave.
+	 */
+	private static int initialProbe() {
+		long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		int probe = (int) (h ^ (h >>> 32));
+
+		return probe == 0 ? 1 : probe;
+	}
+}
@@ -0,0 +1,277 @@
+package ch.elste.math;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Accumulates one vector sum per index, for example the forces acting on many
+ * bodies, while many threads add concurrently. The sums are stored packed, and
+ * each thread is assigned one of a few stripes holding a full copy of all sums,
+ * so threads adding to the same index rarely collide. Like {@link VectorAdder}
+ * a thread moves on to another stripe whenever another thread got in the way
+ * and keeps using it.
+ * <p>
+ * Every stripe starts on its own cache line, so threads in different stripes
+ * never share a line. Within a stripe the sums are packed, so threads sharing a
+ * stripe and adding to neighbouring indices still share cache lines without
+ * colliding on the same value, which no retry detects. Use at least twice as
+ * many stripes as adding threads to keep that rare; padding every sum to a
+ * cache line instead would multiply the memory by up to 16.
+ * </p>
+ * <p>
+ * As for {@link VectorAdder}, every component is updated atomically, but sums
+ * taken while other threads are adding are not atomic snapshots.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see VectorAdder
+ */
+public class VectorAdderArray {
+	private static final VarHandle ARRAY = VectorAdder.ARRAY;
+
+	/**
+	 * The number of doubles per padding unit: 128 bytes, a cache line and its
+	 * adjacent-line prefetch.
+	 */
+	private static final int PAD = 16;
+
+	private final int length;
+	private final int dimension;
+	private final int mask;
+	private final int stripeSize;
+	/**
+	 * The distance between two stripes, {@link #stripeSize} rounded up to whole
+	 * padding units.
+	 */
+	private final int stride;
+	private final double[] cells;
+
+	/**
+	 * Creates a new array of {@code length} sums of vectors with
+	 * {@code dimension} components, using a single stripe.
+	 *
+	 * @param length    the number of sums
+	 * @param dimension the number of components, 1 to 4
+	 *
+	 * @throws IllegalArgumentException if {@code dimension} is out of range
+	 */
+	public VectorAdderArray(int length, int dimension) {
+		this(length, dimension, 1);
+	}
+
+	/**
+	 * Creates a new array of {@code length} sums of vectors with
+	 * {@code dimension} components. Every stripe takes as much memory as a packed
+	 * array of all sums, rounded up to 128 bytes.
+	 *
+	 * @param length    the number of sums
+	 * @param dimension the number of components, 1 to 4
+	 * @param stripes   the number of stripes, rounded up to a power of two of at
+	 *                  most 64
+	 *
+	 * @throws IllegalArgumentException if {@code dimension} is out of range or
+	 *                                  {@code length} is negative
+	 */
+	public VectorAdderArray(int length, int dimension, int stripes) {
+		if (dimension < 1 || dimension > 4)
+			throw new IllegalArgumentException("dimension must be between 1 and 4");
+		if (length < 0)
+			throw new IllegalArgumentException("length must not be negative");
+
+		int n = Integer.highestOneBit(Math.max(1, Math.min(64, stripes)) * 2 - 1);
+		this.length = length;
+		this.dimension = dimension;
+		this.mask = n - 1;
+		this.stripeSize = length * dimension;
+		this.stride = (stripeSize + PAD - 1) / PAD * PAD;
+		// one unused unit in front keeps the first stripe away from the array header
+		this.cells = new double[PAD + n * stride];
+	}
+
+	/**
+	 * Returns the number of sums.
+	 *
+	 * @return the length
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Adds {@code (x, y, z)} to the sum at {@code index}. A fourth component is
+	 * left unchanged.
+	 *
+	 * @param index the index of the sum
+	 * @param x     the x-coordinate to add
+	 * @param y     the y-coordinate to add
+	 * @param z     the z-coordinate to add
+	 */
+	public void add(int index, double x, double y, double z) {
+		add(stripe(), checkIndex(index) * dimension, x, y, z);
+	}
+
+	/**
+	 * Adds {@code (x, y, z, w)} to the sum at {@code index}. Components beyond the
+	 * dimension are ignored.
+	 *
+	 * @param index the index of the sum
+	 * @param x     the x-coordinate to add
+	 * @param y     the y-coordinate to add
+	 * @param z     the z-coordinate to add
+	 * @param w     the w-coordinate to add
+	 */
+	public void add(int index, double x, double y, double z, double w) {
+		final int offset = checkIndex(index) * dimension;
+		final int stripe = add(stripe(), offset, x, y, z);
+		if (dimension > 3)
+			add(stripe, offset + 3, w);
+	}
+
+	/**
+	 * Adds {@code v} to the sum at {@code index}.
+	 *
+	 * @param index the index of the sum
+	 * @param v     the vector to add
+	 */
+	public void add(int index, Vector3 v) {
+		add(index, v.x, v.y, v.z);
+	}
+
+	/**
+	 * Adds {@code count} packed vectors to the sums at the given indices. Vector
+	 * {@code i} is read from {@code values[offset + i * dimension]} and added to
+	 * the sum at {@code indices[i]}.
+	 *
+	 * @param indices the index of the sum for every vector
+	 * @param values  the packed vectors
+	 * @param offset  the index of the first value in {@code values}
+	 * @param count   the number of vectors
+	 */
+	public void addAll(int[] indices, double[] values, int offset, int count) {
+		int stripe = stripe();
+		final int d = dimension;
+
+		for (int i = 0; i < count; i++) {
+			int base = checkIndex(indices[i]) * d;
+			int src = offset + i * d;
+			for (int k = 0; k < d; k++) {
+				stripe = add(stripe, base + k, values[src + k]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the current sum at {@code index} into {@code dst}.
+	 *
+	 * @param index the index of the sum
+	 * @param dst   the vector to write to
+	 *
+	 * @return {@code dst}
+	 */
+	public Vector3 sum(int index, Vector3 dst) {
+		final int base = checkIndex(index) * dimension;
+		dst.x = sum(base, 0);
+		dst.y = sum(base, 1);
+		dst.z = sum(base, 2);
+
+		return dst;
+	}
+
+	/**
+	 * Writes all current sums packed into {@code dst}, {@code dimension} values
+	 * per sum.
+	 *
+	 * @param dst    the packed destination
+	 * @param offset the index of the first value in {@code dst}
+	 */
+	public void sumAll(double[] dst, int offset) {
+		for (int i = 0; i < stripeSize; i++) {
+			double sum = 0;
+			for (int s = PAD + i; s < cells.length; s += stride) {
+				sum += (double) ARRAY.getVolatile(cells, s);
+			}
+			dst[offset + i] = sum;
+		}
+	}
+
+	/**
+	 * Writes all current sums packed into {@code dst} and resets them to zero.
+	 * Additions which happen concurrently are either part of the result or remain
+	 * in the array, but are never lost.
+	 *
+	 * @param dst    the packed destination
+	 * @param offset the index of the first value in {@code dst}
+	 */
+	public void sumAllThenReset(double[] dst, int offset) {
+		for (int i = 0; i < stripeSize; i++) {
+			double sum = 0;
+			for (int s = PAD + i; s < cells.length; s += stride) {
+				sum += (double) ARRAY.getAndSet(cells, s, 0d);
+			}
+			dst[offset + i] = sum;
+		}
+	}
+
+	/**
+	 * Resets all sums to zero. Only meaningful while no thread is adding.
+	 */
+	public void reset() {
+		for (int i = PAD; i < cells.length; i++) {
+			ARRAY.setVolatile(cells, i, 0d);
+		}
+	}
+
+	/**
+	 * Adds {@code (x, y, z)} up to the dimension at {@code offset} within a
+	 * stripe, starting with {@code stripe}. Returns the stripe that succeeded last.
+	 */
+	private int add(int stripe, int offset, double x, double y, double z) {
+		stripe = add(stripe, offset, x);
+		if (dimension > 1)
+			stripe = add(stripe, offset + 1, y);
+		if (dimension > 2)
+			stripe = add(stripe, offset + 2, z);
+
+		return stripe;
+	}
+
+	/**
+	 * Adds {@code d} to the value at {@code offset} of {@code stripe}, moving
+	 * the thread to another stripe whenever another thread got in the way.
+	 * Returns the stripe that succeeded, so the following components go to the
+	 * same stripe.
+	 */
+	private int add(int stripe, int offset, double d) {
+		for (;;) {
+			final int index = stripe + offset;
+			final double current = (double) ARRAY.getVolatile(cells, index);
+			if (ARRAY.weakCompareAndSet(cells, index, current, current + d))
+				return stripe;
+
+			stripe = PAD + (VectorAdder.rehash() & mask) * stride;
+		}
+	}
+
+	private double sum(int base, int k) {
+		if (k >= dimension)
+			return 0;
+
+		double sum = 0;
+		for (int s = PAD + base + k; s < cells.length; s += stride) {
+			sum += (double) ARRAY.getVolatile(cells, s);
+		}
+
+		return sum;
+	}
+
+	private int stripe() {
+		return PAD + (VectorAdder.probe() & mask) * stride;
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+
+		return index;
+	}
+}
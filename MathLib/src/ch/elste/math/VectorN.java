@@ -0,0 +1,422 @@
+package ch.elste.math;
+
+import java.io.IOException;
+
+/**
+ * A vector with any number of components, backed by a {@code double[]}. A
+ * vector may be a view on a part of a larger array: its components are
+ * {@code values[offset]}, {@code values[offset + stride]} and so on. Views
+ * share the array with the vector they were created from, so changes through
+ * one are visible through the other.
+ * <p>
+ * Like the fixed size vectors, {@link #plus(VectorN)}, {@link #scale(double)}
+ * and the other methods named after {@link Vector3} return new independent
+ * vectors. The methods named after their BLAS counterparts, like
+ * {@link #axpy(double, VectorN)} and {@link #scal(double)}, change this vector
+ * in place and return it.
+ * </p>
+ *
+ * @author Dillon Elste
+ *
+ * @see Blas
+ */
+public class VectorN {
+	/**
+	 * The array holding the components.
+	 */
+	public final double[] values;
+
+	/**
+	 * The index of the first component in {@link #values}.
+	 */
+	public final int offset;
+
+	/**
+	 * The distance between two components in {@link #values}.
+	 */
+	public final int stride;
+
+	private final int size;
+
+	/**
+	 * Creates a new vector with given values. The array is used directly and not
+	 * copied.
+	 *
+	 * @param values the components
+	 */
+	public VectorN(double... values) {
+		this(values, 0, 1, values.length);
+	}
+
+	/**
+	 * Creates a new vector with {@code size} components initialized with zeros.
+	 *
+	 * @param size the number of components
+	 */
+	public VectorN(int size) {
+		this(new double[size]);
+	}
+
+	/**
+	 * Creates a new view of {@code size} components of {@code values}, starting
+	 * at {@code offset} and {@code stride} apart.
+	 *
+	 * @param values the backing array
+	 * @param offset the index of the first component
+	 * @param stride the distance between two components, at least 1
+	 * @param size   the number of components
+	 *
+	 * @throws IllegalArgumentException if the view does not fit into
+	 *                                  {@code values}
+	 */
+	public VectorN(double[] values, int offset, int stride, int size) {
+		if (stride < 1 || size < 0 || offset < 0
+				|| (size > 0 && offset + (long) (size - 1) * stride >= values.length))
+			throw new IllegalArgumentException("The view does not fit into an array of length " + values.length);
+
+		this.values = values;
+		this.offset = offset;
+		this.stride = stride;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a new vector with the values of {@code v}.
+	 *
+	 * @param v the vector to copy
+	 */
+	public VectorN(VectorN v) {
+		this(v.toArray());
+	}
+
+	/**
+	 * Returns the number of components.
+	 *
+	 * @return the number of components
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the component at {@code index}.
+	 *
+	 * @param index the index of the component
+	 *
+	 * @return the component
+	 *
+	 * @throws IndexOutOfBoundsException if {@code index} is out of range
+	 */
+	public double get(int index) {
+		return values[index(index)];
+	}
+
+	/**
+	 * Sets the component at {@code index} to {@code value}.
+	 *
+	 * @param index the index of the component
+	 * @param value the new value
+	 *
+	 * @throws IndexOutOfBoundsException if {@code index} is out of range
+	 */
+	public void set(int index, double value) {
+		values[index(index)] = value;
+	}
+
+	/**
+	 * Returns a view of the components {@code from} to {@code from + size - 1}.
+	 *
+	 * @param from the index of the first component of the view
+	 * @param size the number of components of the view
+	 *
+	 * @return a view sharing the components with this vector
+	 */
+	public VectorN view(int from, int size) {
+		return view(from, size, 1);
+	}
+
+	/**
+	 * Returns a view of {@code size} components, starting at {@code from} and
+	 * taking every {@code step}-th component.
+	 *
+	 * @param from the index of the first component of the view
+	 * @param size the number of components of the view
+	 * @param step the distance between two components of the view in components
+	 *             of this vector
+	 *
+	 * @return a view sharing the components with this vector
+	 *
+	 * @throws IndexOutOfBoundsException if the view does not fit into this vector
+	 */
+	public VectorN view(int from, int size, int step) {
+		if (from < 0 || step < 1 || size < 0 || (size > 0 && from + (long) (size - 1) * step >= this.size))
+			throw new IndexOutOfBoundsException("The view does not fit into a vector of size " + this.size);
+
+		return new VectorN(values, offset + from * stride, stride * step, size);
+	}
+
+	/**
+	 * Returns the components of this vector in a new array.
+	 *
+	 * @return a new array
+	 */
+	public double[] toArray() {
+		double[] temp = new double[size];
+		Blas.copy(size, values, offset, stride, temp, 0, 1);
+
+		return temp;
+	}
+
+	/**
+	 * Adds {@code v} to this and returns a new independent vector. {@code this}
+	 * isn't changed.
+	 *
+	 * @param v the vector to be added
+	 *
+	 * @return a new independent vector with the resulting values
+	 */
+	public VectorN plus(VectorN v) {
+		check(v);
+		VectorN res = new VectorN(size);
+		Blas.add(size, values, offset, stride, v.values, v.offset, v.stride, res.values, 0, 1);
+
+		return res;
+	}
+
+	/**
+	 * Subtracts {@code v} from this and returns a new independent vector.
+	 * {@code this} isn't changed.
+	 *
+	 * @param v the vector to be subtracted
+	 *
+	 * @return a new independent vector with the resulting values
+	 */
+	public VectorN minus(VectorN v) {
+		check(v);
+		VectorN res = new VectorN(size);
+		Blas.subtract(size, values, offset, stride, v.values, v.offset, v.stride, res.values, 0, 1);
+
+		return res;
+	}
+
+	/**
+	 * Returns a scaled vector of this. {@code this} isn't changed.
+	 *
+	 * @param factor the factor to scale by
+	 *
+	 * @return a new independent vector with the resulting values
+	 */
+	public VectorN scale(double factor) {
+		VectorN res = new VectorN(toArray());
+		Blas.scal(size, factor, res.values, 0, 1);
+
+		return res;
+	}
+
+	/**
+	 * Calculates the dot product of this vector and {@code v}.
+	 *
+	 * @param v the vector to multiply with
+	 *
+	 * @return the dot product
+	 */
+	public double dot(VectorN v) {
+		check(v);
+		return Blas.dot(size, values, offset, stride, v.values, v.offset, v.stride);
+	}
+
+	/**
+	 * Returns the euclidean length of this vector.
+	 *
+	 * @return the length
+	 *
+	 * @see Blas#nrm2(int, double[], int, int)
+	 */
+	public double length() {
+		return Blas.nrm2(size, values, offset, stride);
+	}
+
+	/**
+	 * Returns this vector normalized to a length of 1. {@code this} isn't changed.
+	 *
+	 * @return a new independent vector with the resulting values
+	 */
+	public VectorN normalize() {
+		return scale(1 / length());
+	}
+
+	/**
+	 * Returns the sum of the absolute values of the components.
+	 *
+	 * @return the sum of absolute values
+	 */
+	public double asum() {
+		return Blas.asum(size, values, offset, stride);
+	}
+
+	/**
+	 * Returns the index of the first component with the largest absolute value.
+	 *
+	 * @return the index or -1 if this vector has no components
+	 */
+	public int iamax() {
+		return Blas.iamax(size, values, offset, stride);
+	}
+
+	/**
+	 * Adds {@code a * x} to this vector in place.
+	 *
+	 * @param a the factor of {@code x}
+	 * @param x the vector to add
+	 *
+	 * @return this vector
+	 */
+	public VectorN axpy(double a, VectorN x) {
+		check(x);
+		Blas.axpy(size, a, x.values, x.offset, x.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Scales this vector in place.
+	 *
+	 * @param a the factor to scale by
+	 *
+	 * @return this vector
+	 */
+	public VectorN scal(double a) {
+		Blas.scal(size, a, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Copies the components of {@code x} into this vector.
+	 *
+	 * @param x the vector to copy
+	 *
+	 * @return this vector
+	 */
+	public VectorN copy(VectorN x) {
+		check(x);
+		Blas.copy(size, x.values, x.offset, x.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Adds {@code v} to this vector in place.
+	 *
+	 * @param v the vector to add
+	 *
+	 * @return this vector
+	 */
+	public VectorN add(VectorN v) {
+		check(v);
+		Blas.add(size, values, offset, stride, v.values, v.offset, v.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Subtracts {@code v} from this vector in place.
+	 *
+	 * @param v the vector to subtract
+	 *
+	 * @return this vector
+	 */
+	public VectorN subtract(VectorN v) {
+		check(v);
+		Blas.subtract(size, values, offset, stride, v.values, v.offset, v.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Multiplies every component of this vector with the matching component of
+	 * {@code v} in place.
+	 *
+	 * @param v the vector to multiply with
+	 *
+	 * @return this vector
+	 */
+	public VectorN multiply(VectorN v) {
+		check(v);
+		Blas.multiply(size, values, offset, stride, v.values, v.offset, v.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Divides every component of this vector by the matching component of
+	 * {@code v} in place.
+	 *
+	 * @param v the vector to divide by
+	 *
+	 * @return this vector
+	 */
+	public VectorN divide(VectorN v) {
+		check(v);
+		Blas.divide(size, values, offset, stride, v.values, v.offset, v.stride, values, offset, stride);
+
+		return this;
+	}
+
+	/**
+	 * Appends the components of this vector, separated by commas, to {@code sb}
+	 * without creating garbage.
+	 *
+	 * @param sb        the builder to append to
+	 * @param precision the number of fraction digits
+	 *
+	 * @return {@code sb}
+	 */
+	public StringBuilder appendTo(StringBuilder sb, int precision) {
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				sb.append(',');
+			TextFormat.appendFixed(sb, values[offset + i * stride], precision);
+		}
+
+		return sb;
+	}
+
+	/**
+	 * Appends the components of this vector, separated by commas, to {@code out}.
+	 *
+	 * @param out       the appendable to append to
+	 * @param precision the number of fraction digits
+	 *
+	 * @return {@code out}
+	 *
+	 * @throws IOException if {@code out} throws it
+	 */
+	public Appendable appendTo(Appendable out, int precision) throws IOException {
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				out.append(',');
+			TextFormat.appendFixed(out, values[offset + i * stride], precision);
+		}
+
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(16 + size * 8).append("Vector[");
+		return appendTo(sb, 3).append("]\t@").append(Integer.toHexString(hashCode())).toString();
+	}
+
+	private int index(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size);
+
+		return offset + index * stride;
+	}
+
+	private void check(VectorN v) {
+		if (v.size != size)
+			throw new IllegalArgumentException("The vectors have different sizes: " + size + " and " + v.size);
+	}
+}
@@ -0,0 +1,337 @@
+package ch.elste.math;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads records of numbers from comma, semicolon or whitespace separated text
+ * directly into packed {@code double} arrays. The input is buffered
+ * internally, so the given reader does not need to be buffered.
+ * <p>
+ * Numbers are parsed without creating strings. A decimal number equal to
+ * {@code m * 10^e}, where the integer {@code m} formed by its digits is at most
+ * 2^53 and {@code e} lies between -22 and 22, is converted exactly; all other
+ * numbers as well as {@code NaN} and {@code Infinity} fall back to
+ * {@link Double#parseDouble(String)}.
+ * </p>
+ * <p>
+ * Records are consecutive groups of numbers; line breaks are treated like any
+ * other separator. Lines starting with {@code #} are skipped, and a header can
+ * be skipped with {@link #skipLine()}.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class VectorReader implements Closeable {
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The largest mantissa which is still exactly representable as a double.
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final Reader in;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private final StringBuilder token = new StringBuilder(32);
+	private int position, limit;
+	private int line = 1;
+	private boolean lineStart = true;
+
+	/**
+	 * Creates a new reader on top of {@code in}.
+	 *
+	 * @param in the text to read from
+	 */
+	public VectorReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next {@link Vector3} record into {@code v}.
+	 *
+	 * @param v the vector to read into
+	 *
+	 * @return {@code false} if the input ended before the record
+	 *
+	 * @throws IOException           if the underlying reader fails
+	 * @throws NumberFormatException if the input is malformed or ends inside the
+	 *                               record
+	 */
+	public boolean readVector3(Vector3 v) throws IOException {
+		if (!nextNumber())
+			return false;
+
+		v.x = parseNumber();
+		v.y = requireNumber();
+		v.z = requireNumber();
+
+		return true;
+	}
+
+	/**
+	 * Reads the next {@link Matrix4x4} record of 16 values in row major order into
+	 * {@code m}.
+	 *
+	 * @param m the matrix to read into
+	 *
+	 * @return {@code false} if the input ended before the record
+	 *
+	 * @throws IOException           if the underlying reader fails
+	 * @throws NumberFormatException if the input is malformed or ends inside the
+	 *                               record
+	 */
+	public boolean readMatrix4x4(Matrix4x4 m) throws IOException {
+		return read(16, m.values, 0, 1) == 1;
+	}
+
+	/**
+	 * Reads up to {@code count} records of 3 values into {@code dst}.
+	 *
+	 * @param dst    the packed destination
+	 * @param offset the index of the first value in {@code dst}
+	 * @param count  the maximum number of records
+	 *
+	 * @return the number of records read, less than {@code count} only at the end
+	 *         of the input
+	 *
+	 * @throws IOException           if the underlying reader fails
+	 * @throws NumberFormatException if the input is malformed or ends inside a
+	 *                               record
+	 */
+	public int readVector3s(double[] dst, int offset, int count) throws IOException {
+		return read(3, dst, offset, count);
+	}
+
+	/**
+	 * Reads up to {@code count} records of 16 values into {@code dst}.
+	 *
+	 * @param dst    the packed destination
+	 * @param offset the index of the first value in {@code dst}
+	 * @param count  the maximum number of records
+	 *
+	 * @return the number of records read, less than {@code count} only at the end
+	 *         of the input
+	 *
+	 * @throws IOException           if the underlying reader fails
+	 * @throws NumberFormatException if the input is malformed or ends inside a
+	 *                               record
+	 */
+	public int readMatrix4x4s(double[] dst, int offset, int count) throws IOException {
+		return read(16, dst, offset, count);
+	}
+
+	/**
+	 * Reads up to {@code count} records of {@code width} values into {@code dst}.
+	 *
+	 * @param width  the number of values per record
+	 * @param dst    the packed destination
+	 * @param offset the index of the first value in {@code dst}
+	 * @param count  the maximum number of records
+	 *
+	 * @return the number of records read, less than {@code count} only at the end
+	 *         of the input
+	 *
+	 * @throws IOException           if the underlying reader fails
+	 * @throws NumberFormatException if the input is malformed or ends inside a
+	 *                               record
+	 */
+	public int read(int width, double[] dst, int offset, int count) throws IOException {
+		if (width < 1)
+			throw new IllegalArgumentException("A record needs at least one value");
+
+		for (int r = 0; r < count; r++) {
+			if (!nextNumber())
+				return r;
+
+			int index = offset + r * width;
+			dst[index] = parseNumber();
+			for (int k = 1; k < width; k++) {
+				dst[index + k] = requireNumber();
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Skips the rest of the current line, for example a CSV header.
+	 *
+	 * @throws IOException if the underlying reader fails
+	 */
+	public void skipLine() throws IOException {
+		int c;
+		while ((c = peek()) >= 0) {
+			position++;
+			if (c == '\n') {
+				line++;
+				lineStart = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the line the reader is currently at, starting with 1.
+	 *
+	 * @return the current line
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private double requireNumber() throws IOException {
+		if (!nextNumber())
+			throw new NumberFormatException("Unexpected end of input inside a record in line " + line);
+
+		return parseNumber();
+	}
+
+	/**
+	 * Skips separators and comments. Returns {@code false} at the end of the
+	 * input.
+	 */
+	private boolean nextNumber() throws IOException {
+		int c;
+		while ((c = peek()) >= 0) {
+			if (c == '\n') {
+				line++;
+				lineStart = true;
+				position++;
+			} else if (c == ' ' || c == '\t' || c == '\r' || c == ',' || c == ';') {
+				position++;
+			} else if (c == '#' && lineStart) {
+				skipLine();
+			} else {
+				lineStart = false;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private double parseNumber() throws IOException {
+		token.setLength(0);
+		boolean negative = false;
+		int c = peek();
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			take(c);
+			c = peek();
+		}
+		if (Character.isLetter(c))
+			return parseSpecial();
+
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean exact = true, any = false;
+
+		while (c >= '0' && c <= '9') {
+			any = true;
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+				exact &= c == '0';
+			}
+			take(c);
+			c = peek();
+		}
+		if (c == '.') {
+			take(c);
+			c = peek();
+			while (c >= '0' && c <= '9') {
+				any = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				} else {
+					exact &= c == '0';
+				}
+				take(c);
+				c = peek();
+			}
+		}
+		if (!any)
+			throw malformed();
+		if (c == 'e' || c == 'E') {
+			take(c);
+			c = peek();
+			boolean negativeExponent = false;
+			if (c == '-' || c == '+') {
+				negativeExponent = c == '-';
+				take(c);
+				c = peek();
+			}
+			if (c < '0' || c > '9')
+				throw malformed();
+			int e = 0;
+			while (c >= '0' && c <= '9') {
+				if (e < 100000)
+					e = e * 10 + (c - '0');
+				take(c);
+				c = peek();
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (c >= 0 && !isSeparator(c))
+			throw malformed();
+
+		if (!exact || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22)
+			return Double.parseDouble(token.toString());
+
+		double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+		return negative ? -value : value;
+	}
+
+	private double parseSpecial() throws IOException {
+		int c;
+		while ((c = peek()) >= 0 && !isSeparator(c)) {
+			take(c);
+		}
+
+		try {
+			return Double.parseDouble(token.toString());
+		} catch (NumberFormatException e) {
+			throw malformed();
+		}
+	}
+
+	private NumberFormatException malformed() {
+		return new NumberFormatException("Malformed number \"" + token + "\" in line " + line);
+	}
+
+	private static boolean isSeparator(int c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ',' || c == ';';
+	}
+
+	private void take(int c) {
+		token.append((char) c);
+		position++;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit) {
+			int n = in.read(buffer, 0, buffer.length);
+			if (n <= 0)
+				return -1;
+			position = 0;
+			limit = n;
+		}
+
+		return buffer[position];
+	}
+}
@@ -0,0 +1,407 @@
+package ch.elste.math;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Describes interleaved vertex data in a {@link ByteBuffer}, for example a
+ * position, a normal and texture coordinates per vertex, and copies packed
+ * vectors in and out of such buffers.
+ * <p>
+ * All accesses are absolute, so neither the position nor the limit of the
+ * buffers is changed, and the byte order of the buffer is respected. Buffers
+ * created by {@link #allocate(int)} are direct and use the native byte order.
+ * </p>
+ *
+ * @author Dillon Elste
+ */
+public class VertexLayout {
+	/**
+	 * The storage formats of a single component.
+	 */
+	public enum Format {
+		/**
+		 * An 8 byte IEEE double.
+		 */
+		FLOAT64(8),
+		/**
+		 * A 4 byte IEEE float.
+		 */
+		FLOAT32(4),
+		/**
+		 * A 2 byte signed integer mapping {@code [-1, 1]} to
+		 * {@code [-32767, 32767]}. Values outside are clamped.
+		 */
+		NORM_INT16(2);
+
+		/**
+		 * The number of bytes of one component.
+		 */
+		public final int bytes;
+
+		Format(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	private final int[] components;
+	private final Format[] formats;
+	private final int[] offsets;
+	private final int stride;
+
+	/**
+	 * Creates a new layout of tightly packed attributes. Attribute {@code i} has
+	 * {@code components[i]} components stored as {@code formats[i]}; every
+	 * attribute is aligned to the size of its format.
+	 *
+	 * @param components the number of components of every attribute, 1 to 4
+	 * @param formats    the format of every attribute
+	 *
+	 * @throws IllegalArgumentException if the arrays have different lengths or a
+	 *                                  component count is out of range
+	 */
+	public VertexLayout(int[] components, Format[] formats) {
+		if (components.length != formats.length)
+			throw new IllegalArgumentException("There has to be one format per attribute");
+
+		this.components = components.clone();
+		this.formats = formats.clone();
+		this.offsets = new int[components.length];
+
+		int offset = 0, alignment = 1;
+		for (int i = 0; i < components.length; i++) {
+			checkComponents(components[i]);
+
+			int size = formats[i].bytes;
+			offset = (offset + size - 1) / size * size;
+			offsets[i] = offset;
+			offset += components[i] * size;
+			alignment = Math.max(alignment, size);
+		}
+
+		this.stride = (offset + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * Creates a new layout with the given stride and attribute offsets, to match
+	 * an existing vertex format. Attribute {@code i} starts {@code offsets[i]}
+	 * bytes into every vertex and has {@code components[i]} components stored as
+	 * {@code formats[i]}. Every attribute has to be aligned to the size of its
+	 * format in every vertex, lie inside the stride and must not overlap another
+	 * attribute; unused bytes in between are left unchanged by the writes.
+	 *
+	 * @param stride     the number of bytes between two vertices
+	 * @param offsets    the offset of every attribute in bytes
+	 * @param components the number of components of every attribute, 1 to 4
+	 * @param formats    the format of every attribute
+	 *
+	 * @throws IllegalArgumentException if the arrays have different lengths, a
+	 *                                  component count is out of range or an
+	 *                                  attribute is misaligned, outside the
+	 *                                  stride or overlaps another one
+	 */
+	public VertexLayout(int stride, int[] offsets, int[] components, Format[] formats) {
+		if (offsets.length != components.length || components.length != formats.length)
+			throw new IllegalArgumentException("There has to be one offset and one format per attribute");
+		if (stride < 1)
+			throw new IllegalArgumentException("The stride must be positive");
+
+		for (int i = 0; i < components.length; i++) {
+			checkComponents(components[i]);
+
+			final int size = formats[i].bytes;
+			if (offsets[i] % size != 0 || stride % size != 0)
+				throw new IllegalArgumentException("Attribute " + i + " is not aligned to " + size + " bytes");
+			if (offsets[i] < 0 || offsets[i] > stride - components[i] * size)
+				throw new IllegalArgumentException("Attribute " + i + " does not fit into the stride");
+
+			for (int j = 0; j < i; j++) {
+				if (offsets[i] < offsets[j] + components[j] * formats[j].bytes
+						&& offsets[j] < offsets[i] + components[i] * size)
+					throw new IllegalArgumentException("Attributes " + j + " and " + i + " overlap");
+			}
+		}
+
+		this.components = components.clone();
+		this.formats = formats.clone();
+		this.offsets = offsets.clone();
+		this.stride = stride;
+	}
+
+	private static void checkComponents(int components) {
+		if (components < 1 || components > 4)
+			throw new IllegalArgumentException("An attribute has between 1 and 4 components");
+	}
+
+	/**
+	 * Returns the number of bytes between two vertices.
+	 *
+	 * @return the stride in bytes
+	 */
+	public int stride() {
+		return stride;
+	}
+
+	/**
+	 * Returns the offset of {@code attribute} in bytes from the start of a
+	 * vertex.
+	 *
+	 * @param attribute the index of the attribute
+	 *
+	 * @return the offset in bytes
+	 */
+	public int offset(int attribute) {
+		return offsets[attribute];
+	}
+
+	/**
+	 * Allocates a direct buffer in native byte order for {@code vertices}
+	 * vertices.
+	 *
+	 * @param vertices the number of vertices
+	 *
+	 * @return a new direct buffer
+	 */
+	public ByteBuffer allocate(int vertices) {
+		return ByteBuffer.allocateDirect(vertices * stride).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Copies {@code count} packed vectors of {@code attribute} from {@code src}
+	 * into the vertices {@code firstVertex} and following of {@code dst}.
+	 *
+	 * @param attribute   the index of the attribute
+	 * @param src         the packed values, as many per vector as the attribute
+	 *                    has components
+	 * @param srcOffset   the index of the first value in {@code src}
+	 * @param count       the number of vectors
+	 * @param dst         the buffer to write to
+	 * @param firstVertex the index of the first vertex to write
+	 */
+	public void write(int attribute, double[] src, int srcOffset, int count, ByteBuffer dst, int firstVertex) {
+		final int c = components[attribute];
+		int index = firstVertex * stride + offsets[attribute];
+
+		// one loop per format, so the format is not looked at per component
+		switch (formats[attribute]) {
+		case FLOAT64:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += c) {
+				for (int k = 0; k < c; k++) {
+					dst.putDouble(index + 8 * k, src[s + k]);
+				}
+			}
+			break;
+		case FLOAT32:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += c) {
+				for (int k = 0; k < c; k++) {
+					dst.putFloat(index + 4 * k, (float) src[s + k]);
+				}
+			}
+			break;
+		case NORM_INT16:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += c) {
+				for (int k = 0; k < c; k++) {
+					dst.putShort(index + 2 * k, toNorm(src[s + k]));
+				}
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copies the vectors of {@code src} into the vertices {@code firstVertex} and
+	 * following of {@code dst}. The first coordinates {@code x, y, z, w} are taken
+	 * up to the number of components of the attribute.
+	 *
+	 * @param attribute   the index of the attribute
+	 * @param src         the vectors to write
+	 * @param dst         the buffer to write to
+	 * @param firstVertex the index of the first vertex to write
+	 */
+	public void write(int attribute, Vector[] src, ByteBuffer dst, int firstVertex) {
+		final int c = components[attribute];
+		int index = firstVertex * stride + offsets[attribute];
+
+		switch (formats[attribute]) {
+		case FLOAT64:
+			for (int i = 0; i < src.length; i++, index += stride) {
+				Vector v = src[i];
+				dst.putDouble(index, v.x);
+				if (c > 1)
+					dst.putDouble(index + 8, v.y);
+				if (c > 2)
+					dst.putDouble(index + 16, v.z);
+				if (c > 3)
+					dst.putDouble(index + 24, v.w);
+			}
+			break;
+		case FLOAT32:
+			for (int i = 0; i < src.length; i++, index += stride) {
+				Vector v = src[i];
+				dst.putFloat(index, (float) v.x);
+				if (c > 1)
+					dst.putFloat(index + 4, (float) v.y);
+				if (c > 2)
+					dst.putFloat(index + 8, (float) v.z);
+				if (c > 3)
+					dst.putFloat(index + 12, (float) v.w);
+			}
+			break;
+		case NORM_INT16:
+			for (int i = 0; i < src.length; i++, index += stride) {
+				Vector v = src[i];
+				dst.putShort(index, toNorm(v.x));
+				if (c > 1)
+					dst.putShort(index + 2, toNorm(v.y));
+				if (c > 2)
+					dst.putShort(index + 4, toNorm(v.z));
+				if (c > 3)
+					dst.putShort(index + 6, toNorm(v.w));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Transforms {@code count} packed 3 component vectors of {@code src} by
+	 * {@code m} and writes the results into the vertices {@code firstVertex} and
+	 * following of {@code dst}, all in one pass. Each vector is extended by
+	 * {@code w}: use 1 for points and 0 for directions. An attribute with 3
+	 * components receives {@code x, y, z} of the result, one with 4 components
+	 * also {@code w}.
+	 * <p>
+	 * Normals have to be transformed by the inverse transpose of the model matrix,
+	 * so {@code m} has to be that matrix for them.
+	 * </p>
+	 *
+	 * @param attribute   the index of the attribute, with 3 or 4 components
+	 * @param src         the packed vectors, 3 values each
+	 * @param srcOffset   the index of the first value in {@code src}
+	 * @param count       the number of vectors
+	 * @param m           the transformation
+	 * @param w           the fourth coordinate of every vector
+	 * @param dst         the buffer to write to
+	 * @param firstVertex the index of the first vertex to write
+	 *
+	 * @throws IllegalArgumentException if the attribute has less than 3
+	 *                                  components
+	 */
+	public void writeTransformed(int attribute, double[] src, int srcOffset, int count, Matrix4x4 m, double w,
+			ByteBuffer dst, int firstVertex) {
+		final int c = components[attribute];
+		if (c < 3)
+			throw new IllegalArgumentException("Only attributes with 3 or 4 components can be transformed");
+
+		final double[] a = m.values;
+		int index = firstVertex * stride + offsets[attribute];
+
+		switch (formats[attribute]) {
+		case FLOAT64:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += 3) {
+				double x = src[s], y = src[s + 1], z = src[s + 2];
+				dst.putDouble(index, a[0] * x + a[1] * y + a[2] * z + a[3] * w);
+				dst.putDouble(index + 8, a[4] * x + a[5] * y + a[6] * z + a[7] * w);
+				dst.putDouble(index + 16, a[8] * x + a[9] * y + a[10] * z + a[11] * w);
+				if (c > 3)
+					dst.putDouble(index + 24, a[12] * x + a[13] * y + a[14] * z + a[15] * w);
+			}
+			break;
+		case FLOAT32:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += 3) {
+				double x = src[s], y = src[s + 1], z = src[s + 2];
+				dst.putFloat(index, (float) (a[0] * x + a[1] * y + a[2] * z + a[3] * w));
+				dst.putFloat(index + 4, (float) (a[4] * x + a[5] * y + a[6] * z + a[7] * w));
+				dst.putFloat(index + 8, (float) (a[8] * x + a[9] * y + a[10] * z + a[11] * w));
+				if (c > 3)
+					dst.putFloat(index + 12, (float) (a[12] * x + a[13] * y + a[14] * z + a[15] * w));
+			}
+			break;
+		case NORM_INT16:
+			for (int i = 0, s = srcOffset; i < count; i++, index += stride, s += 3) {
+				double x = src[s], y = src[s + 1], z = src[s + 2];
+				dst.putShort(index, toNorm(a[0] * x + a[1] * y + a[2] * z + a[3] * w));
+				dst.putShort(index + 2, toNorm(a[4] * x + a[5] * y + a[6] * z + a[7] * w));
+				dst.putShort(index + 4, toNorm(a[8] * x + a[9] * y + a[10] * z + a[11] * w));
+				if (c > 3)
+					dst.putShort(index + 6, toNorm(a[12] * x + a[13] * y + a[14] * z + a[15] * w));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copies {@code count} vectors of {@code attribute} from the vertices
+	 * {@code firstVertex} and following of {@code src} into the packed array
+	 * {@code dst}.
+	 *
+	 * @param attribute   the index of the attribute
+	 * @param src         the buffer to read from
+	 * @param firstVertex the index of the first vertex to read
+	 * @param count       the number of vectors
+	 * @param dst         the packed destination, as many values per vector as the
+	 *                    attribute has components
+	 * @param dstOffset   the index of the first value in {@code dst}
+	 */
+	public void read(int attribute, ByteBuffer src, int firstVertex, int count, double[] dst, int dstOffset) {
+		final int c = components[attribute];
+		int index = firstVertex * stride + offsets[attribute];
+
+		switch (formats[attribute]) {
+		case FLOAT64:
+			for (int i = 0, d = dstOffset; i < count; i++, index += stride, d += c) {
+				for (int k = 0; k < c; k++) {
+					dst[d + k] = src.getDouble(index + 8 * k);
+				}
+			}
+			break;
+		case FLOAT32:
+			for (int i = 0, d = dstOffset; i < count; i++, index += stride, d += c) {
+				for (int k = 0; k < c; k++) {
+					dst[d + k] = src.getFloat(index + 4 * k);
+				}
+			}
+			break;
+		case NORM_INT16:
+			for (int i = 0, d = dstOffset; i < count; i++, index += stride, d += c) {
+				for (int k = 0; k < c; k++) {
+					dst[d + k] = fromNorm(src.getShort(index + 2 * k));
+				}
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copies {@code count} packed vectors with {@code components} components into
+	 * a float buffer, starting at float index {@code offset} and advancing by
+	 * {@code stride} floats per vector.
+	 *
+	 * @param src        the packed values
+	 * @param srcOffset  the index of the first value in {@code src}
+	 * @param count      the number of vectors
+	 * @param components the number of components per vector
+	 * @param dst        the buffer to write to
+	 * @param offset     the float index of the first vector in {@code dst}
+	 * @param stride     the number of floats between two vectors
+	 */
+	public static void write(double[] src, int srcOffset, int count, int components, FloatBuffer dst, int offset,
+			int stride) {
+		for (int i = 0; i < count; i++) {
+			int s = srcOffset + i * components;
+			int d = offset + i * stride;
+			for (int k = 0; k < components; k++) {
+				dst.put(d + k, (float) src[s + k]);
+			}
+		}
+	}
+
+	private static short toNorm(double d) {
+		double clamped = d < -1 ? -1 : (d > 1 ? 1 : d);
+		return (short) Math.round(clamped * Short.MAX_VALUE);
+	}
+
+	private static double fromNorm(short s) {
+		return Math.max(s / (double) Short.MAX_VALUE, -1);
+	}
+}